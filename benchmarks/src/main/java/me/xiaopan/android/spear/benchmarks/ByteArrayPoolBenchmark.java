@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.android.spear.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.util.ByteArrayPool;
+
+/**
+ * 下载器读取数据时使用的缓冲区，多个下载线程共用ByteArrayPool和每次新建对比，配合-prof gc看分配速率
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ByteArrayPoolBenchmark {
+    private ByteArrayPool byteArrayPool = new ByteArrayPool(64 * 1024);
+
+    @Benchmark
+    public byte[] pooled(){
+        byte[] buf = byteArrayPool.getBuf(ByteArrayPool.DEFAULT_BUFFER_SIZE);
+        buf[0] = 1;
+        byteArrayPool.returnBuf(buf);
+        return buf;
+    }
+
+    @Benchmark
+    public byte[] allocate(){
+        byte[] buf = new byte[ByteArrayPool.DEFAULT_BUFFER_SIZE];
+        buf[0] = 1;
+        return buf;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.android.spear.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.util.LruCache;
+import me.xiaopan.android.spear.util.TinyLfuCache;
+
+/**
+ * 多线程同时读写内存缓存，对应主线程查缓存和多个解码线程放缓存的情况
+ * <br>keyCount大于容量时会不断淘汰
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    private static final int CAPACITY = 1024;
+
+    @Param({"LRU", "TINY_LFU"})
+    public String cacheType;
+
+    @Param({"512", "4096"})
+    public int keyCount;
+
+    private Cache cache;
+    private String[] keys;
+    private Object value = new Object();
+
+    @Setup
+    public void setup(){
+        if("LRU".equals(cacheType)){
+            final LruCache<String, Object> lruCache = new LruCache<String, Object>(CAPACITY);
+            cache = new Cache() {
+                @Override
+                public Object get(String key) {
+                    return lruCache.get(key);
+                }
+
+                @Override
+                public void put(String key, Object value) {
+                    lruCache.put(key, value);
+                }
+            };
+        }else{
+            final TinyLfuCache<String, Object> tinyLfuCache = new TinyLfuCache<String, Object>(CAPACITY);
+            cache = new Cache() {
+                @Override
+                public Object get(String key) {
+                    return tinyLfuCache.get(key);
+                }
+
+                @Override
+                public void put(String key, Object value) {
+                    tinyLfuCache.put(key, value);
+                }
+            };
+        }
+
+        keys = new String[keyCount];
+        for(int w = 0; w < keyCount; w++){
+            keys[w] = "http://img.example.com/avatar/" + w + ".jpg_200x200";
+            cache.put(keys[w], value);
+        }
+    }
+
+    /**
+     * 只读
+     */
+    @Benchmark
+    public Object get(){
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(keys.length)]);
+    }
+
+    /**
+     * 读不到就放进去，跟DisplayHelper加载图片的过程一样
+     */
+    @Benchmark
+    public Object getOrPut(){
+        String key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        Object result = cache.get(key);
+        if(result == null){
+            cache.put(key, value);
+        }
+        return result;
+    }
+
+    private interface Cache {
+        Object get(String key);
+        void put(String key, Object value);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import me.xiaopan.android.spear.util.LruCache;
+import me.xiaopan.android.spear.util.TinyLfuCache;
+
+/**
+ * 内存缓存回放模拟器，用同一份访问记录在相同字节预算下分别回放LruCache和TinyLfuCache，输出命中率
+ * <br>参数：[访问记录文件|-] [缓存大小(MB)...]
+ * <br>访问记录每行一次访问，格式为“KEY [字节数]”，省略字节数时按64KB算；不指定文件或者为“-”时使用合成的访问记录：
+ * 按Zipf分布反复访问的头像、图标，中间穿插着快速滑动列表时只访问一次的大图
+ */
+public class CacheTraceSimulator {
+    private static final int DEFAULT_ENTRY_SIZE = 64 * 1024;
+    private static final int[] DEFAULT_CACHE_SIZES_MB = {8, 16, 32, 64};
+
+    public static void main(String[] args) throws IOException {
+        List<Access> trace;
+        if(args.length > 0 && !"-".equals(args[0])){
+            trace = readTrace(args[0]);
+        }else{
+            trace = syntheticTrace(new Random(42), 200000);
+        }
+
+        int[] cacheSizesMb;
+        if(args.length > 1){
+            cacheSizesMb = new int[args.length - 1];
+            for(int w = 1; w < args.length; w++){
+                cacheSizesMb[w - 1] = Integer.parseInt(args[w]);
+            }
+        }else{
+            cacheSizesMb = DEFAULT_CACHE_SIZES_MB;
+        }
+
+        System.out.println("accesses: " + trace.size() + ", distinct keys: " + countDistinct(trace));
+        System.out.println(String.format("%10s %12s %12s %12s", "budget", "LruCache", "TinyLfuCache", "rejected"));
+        for(int cacheSizeMb : cacheSizesMb){
+            int maxSize = cacheSizeMb * 1024 * 1024;
+            double lruHitRatio = replayLru(trace, maxSize);
+            TinyLfuResult tinyLfuResult = replayTinyLfu(trace, maxSize);
+            System.out.println(String.format("%8dMB %11.2f%% %11.2f%% %12d", cacheSizeMb, lruHitRatio * 100, tinyLfuResult.hitRatio * 100, tinyLfuResult.rejectCount));
+        }
+    }
+
+    private static double replayLru(List<Access> trace, int maxSize){
+        LruCache<String, Access> cache = new LruCache<String, Access>(maxSize){
+            @Override
+            protected int sizeOf(String key, Access value) {
+                return value.size;
+            }
+        };
+        int hits = 0;
+        for(Access access : trace){
+            if(cache.get(access.key) != null){
+                hits++;
+            }else{
+                cache.put(access.key, access);
+            }
+        }
+        return (double) hits / trace.size();
+    }
+
+    private static TinyLfuResult replayTinyLfu(List<Access> trace, int maxSize){
+        TinyLfuCache<String, Access> cache = new TinyLfuCache<String, Access>(maxSize){
+            @Override
+            protected int sizeOf(String key, Access value) {
+                return value.size;
+            }
+        };
+        int hits = 0;
+        for(Access access : trace){
+            if(cache.get(access.key) != null){
+                hits++;
+            }else{
+                cache.put(access.key, access);
+            }
+        }
+        TinyLfuResult result = new TinyLfuResult();
+        result.hitRatio = (double) hits / trace.size();
+        result.rejectCount = cache.rejectCount();
+        return result;
+    }
+
+    private static List<Access> readTrace(String path) throws IOException {
+        List<Access> trace = new ArrayList<Access>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try{
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#")){
+                    continue;
+                }
+                String[] items = line.split("\\s+");
+                int size = items.length > 1 ? Integer.parseInt(items[1]) : DEFAULT_ENTRY_SIZE;
+                trace.add(new Access(items[0], size));
+            }
+        }finally{
+            reader.close();
+        }
+        return trace;
+    }
+
+    /**
+     * 合成访问记录：2000个头像/图标（每个约40KB）按Zipf分布访问，每隔一段时间插入一次快速滑动，连续访问几十张只出现一次的大图（每张约600KB）
+     */
+    private static List<Access> syntheticTrace(Random random, int count){
+        int hotKeyCount = 2000;
+        double[] cumulative = new double[hotKeyCount];
+        double sum = 0;
+        for(int w = 0; w < hotKeyCount; w++){
+            sum += 1.0 / Math.pow(w + 1, 0.9);
+            cumulative[w] = sum;
+        }
+
+        List<Access> trace = new ArrayList<Access>(count);
+        int scanId = 0;
+        while(trace.size() < count){
+            if(random.nextInt(100) < 2){
+                int scanLength = 20 + random.nextInt(60);
+                for(int w = 0; w < scanLength && trace.size() < count; w++){
+                    trace.add(new Access("scan-" + (scanId++), 512 * 1024 + random.nextInt(200 * 1024)));
+                }
+            }else{
+                double target = random.nextDouble() * sum;
+                int index = binarySearch(cumulative, target);
+                trace.add(new Access("hot-" + index, 32 * 1024 + (index % 16) * 1024));
+            }
+        }
+        return trace;
+    }
+
+    private static int binarySearch(double[] cumulative, double target){
+        int low = 0;
+        int high = cumulative.length - 1;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(cumulative[middle] < target){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int countDistinct(List<Access> trace){
+        Map<String, Boolean> keys = new HashMap<String, Boolean>();
+        for(Access access : trace){
+            keys.put(access.key, Boolean.TRUE);
+        }
+        return keys.size();
+    }
+
+    private static class Access {
+        private String key;
+        private int size;
+
+        private Access(String key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    private static class TinyLfuResult {
+        private double hitRatio;
+        private int rejectCount;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.android.spear.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.cache.DiskCacheTrimmer;
+import me.xiaopan.android.spear.util.FileLastModifiedComparator;
+
+/**
+ * 磁盘缓存目录很大时LruDiskCache.applyForSpace()的开销，每次下载前都会调用
+ * <br>within：空间够用，只统计目录大小；sort：空间不够时删除文件之前的列目录和排序
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiskCacheBenchmark {
+    private static final int FILE_LENGTH = 1024;
+
+    @Param({"1000", "10000"})
+    public int fileCount;
+
+    private File cacheDir;
+    private DiskCacheTrimmer diskCacheTrimmer = new DiskCacheTrimmer();
+    private FileLastModifiedComparator fileLastModifiedComparator = new FileLastModifiedComparator();
+
+    @Setup
+    public void setup() throws IOException {
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "spear-disk-cache-benchmark-" + fileCount);
+        deleteDir(cacheDir);
+        if(!cacheDir.mkdirs()){
+            throw new IOException("create dir failed: " + cacheDir.getPath());
+        }
+        byte[] data = new byte[FILE_LENGTH];
+        long now = System.currentTimeMillis();
+        for(int w = 0; w < fileCount; w++){
+            File file = new File(cacheDir, "http%3A%2F%2Fimg.example.com%2Fphotos%2F" + w + ".jpg");
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try{
+                outputStream.write(data);
+            }finally{
+                outputStream.close();
+            }
+            file.setLastModified(now - (w * 7919L % fileCount) * 1000);
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        deleteDir(cacheDir);
+    }
+
+    @Benchmark
+    public boolean applyForSpaceWithin(){
+        return diskCacheTrimmer.applyForSpace(cacheDir, 100 * 1024, Long.MAX_VALUE / 2, 0, Long.MAX_VALUE / 2);
+    }
+
+    @Benchmark
+    public File[] listAndSortForEviction(){
+        File[] cacheFiles = cacheDir.listFiles();
+        Arrays.sort(cacheFiles, fileLastModifiedComparator);
+        return cacheFiles;
+    }
+
+    private static void deleteDir(File dir){
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.benchmarks;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.xiaopan.android.spear.util.ByteArrayPool;
+
+/**
+ * 三个下载器底层的HTTP栈对比：HttpURLConnection、Apache HttpClient（ThreadSafeClientConnManager）、OkHttp（独立连接池）
+ * <br>用进程内的HttpServer提供一组大小不一的图片（小缩略图居多，少量大图），每次调用下载一张，读取方式跟下载器一样用ByteArrayPool的缓冲区边读边丢
+ * <br>下载器本身依赖Android，不能在电脑上运行，所以这里按各个下载器的配置直接使用它们的HTTP栈；本地的HttpServer只支持HTTP/1.1，测不到HTTP/2的多路复用，对比的是连接复用和读取开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DownloaderBenchmark {
+    private static final int IMAGE_COUNT = 200;
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 10 * 1000;
+
+    @Param({"httpUrlConnection", "httpClient", "okHttp"})
+    public String stack;
+
+    private HttpServer httpServer;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private byte[][] images;
+    private AtomicInteger nextIndex = new AtomicInteger();
+    private ByteArrayPool byteArrayPool = new ByteArrayPool(256 * 1024);
+    private DefaultHttpClient httpClient;
+    private OkHttpClient okHttpClient;
+
+    @Setup
+    public void setup() throws IOException {
+        // 60%是8-32K的缩略图，30%是32-256K的中图，10%是256K-1M的大图，固定种子保证每次一样
+        Random random = new Random(42);
+        images = new byte[IMAGE_COUNT][];
+        for(int w = 0; w < IMAGE_COUNT; w++){
+            int kind = random.nextInt(10);
+            int length;
+            if(kind < 6){
+                length = 8 * 1024 + random.nextInt(24 * 1024);
+            }else if(kind < 9){
+                length = 32 * 1024 + random.nextInt(224 * 1024);
+            }else{
+                length = 256 * 1024 + random.nextInt(768 * 1024);
+            }
+            images[w] = new byte[length];
+            random.nextBytes(images[w]);
+        }
+
+        // 跟HttpClientImageDownloader的配置一样
+        BasicHttpParams httpParams = new BasicHttpParams();
+        ConnManagerParams.setMaxConnectionsPerRoute(httpParams, new ConnPerRouteBean(400));
+        ConnManagerParams.setMaxTotalConnections(httpParams, 800);
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(httpParams, schemeRegistry), httpParams);
+
+        // 跟OkHttpImageDownloader的配置一样
+        okHttpClient = new OkHttpClient();
+        okHttpClient.setConnectionPool(new ConnectionPool(8, 5 * 60 * 1000));
+        okHttpClient.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.SPDY_3, Protocol.HTTP_1_1));
+        okHttpClient.setConnectTimeout(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        okHttpClient.setReadTimeout(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/images/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                byte[] image = images[Integer.parseInt(path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.')))];
+                exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+                exchange.sendResponseHeaders(200, image.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                try{
+                    outputStream.write(image);
+                }finally{
+                    outputStream.close();
+                }
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(8);
+        httpServer.setExecutor(serverExecutor);
+        httpServer.start();
+        baseUrl = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/images/";
+    }
+
+    @TearDown
+    public void tearDown(){
+        httpClient.getConnectionManager().shutdown();
+        httpServer.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int download() throws IOException {
+        String url = baseUrl + (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % IMAGE_COUNT + ".jpg";
+        if("httpUrlConnection".equals(stack)){
+            return downloadByHttpUrlConnection(url);
+        }else if("httpClient".equals(stack)){
+            return downloadByHttpClient(url);
+        }else{
+            return downloadByOkHttp(url);
+        }
+    }
+
+    private int downloadByHttpUrlConnection(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        InputStream inputStream = connection.getInputStream();
+        try{
+            return readAll(inputStream);
+        }finally{
+            inputStream.close();
+        }
+    }
+
+    private int downloadByHttpClient(String url) throws IOException {
+        HttpResponse httpResponse = httpClient.execute(new HttpGet(url));
+        HttpEntity httpEntity = httpResponse.getEntity();
+        InputStream inputStream = httpEntity.getContent();
+        try{
+            return readAll(inputStream);
+        }finally{
+            inputStream.close();
+        }
+    }
+
+    private int downloadByOkHttp(String url) throws IOException {
+        Response response = okHttpClient.newCall(new Request.Builder().url(url).build()).execute();
+        InputStream inputStream = response.body().byteStream();
+        try{
+            return readAll(inputStream);
+        }finally{
+            inputStream.close();
+        }
+    }
+
+    private int readAll(InputStream inputStream) throws IOException {
+        byte[] buffer = byteArrayPool.getBuf(ByteArrayPool.DEFAULT_BUFFER_SIZE);
+        try{
+            int length = 0;
+            int readLength;
+            while((readLength = inputStream.read(buffer)) != -1){
+                length += readLength;
+            }
+            return length;
+        }finally{
+            byteArrayPool.returnBuf(buffer);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.android.spear.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.cache.MemoryCacheKey;
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * DisplayHelper.createMemoryCacheId()加上一次缓存查找，跟以前拼接字符串ID的方式对比，配合-prof gc看每次显示分配了多少内存
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MemoryCacheKeyBenchmark {
+    private static final String URI = "http://img.example.com/photos/2015/03/123456789_large.jpg";
+    private static final String SCALE_TYPE = "CENTER_CROP";
+    private static final String PROCESSOR_FLAG = "CutImageProcessor";
+
+    private ImageSize maxsize = new ImageSize(720, 1280);
+    private ImageSize resize = new ImageSize(360, 360);
+    private MemoryCacheKey reusedKey = new MemoryCacheKey();
+    private Map<MemoryCacheKey, Object> keyMap = new HashMap<MemoryCacheKey, Object>();
+    private Map<String, Object> stringMap = new HashMap<String, Object>();
+
+    @Setup
+    public void setup(){
+        Object value = new Object();
+        keyMap.put(new MemoryCacheKey(URI, maxsize, resize, SCALE_TYPE, PROCESSOR_FLAG), value);
+        stringMap.put(createStringId(URI, maxsize, resize, SCALE_TYPE, PROCESSOR_FLAG), value);
+    }
+
+    /**
+     * 现在的方式：复用同一个KEY，只算一次hash
+     */
+    @Benchmark
+    public Object reusedKeyLookup(){
+        return keyMap.get(reusedKey.set(URI, maxsize, resize, SCALE_TYPE, PROCESSOR_FLAG));
+    }
+
+    /**
+     * 以前的方式：每次拼接一个字符串ID
+     */
+    @Benchmark
+    public Object stringIdLookup(){
+        return stringMap.get(createStringId(URI, maxsize, resize, SCALE_TYPE, PROCESSOR_FLAG));
+    }
+
+    private static String createStringId(String uri, ImageSize maxsize, ImageSize resize, String scaleType, String processorFlag){
+        StringBuilder stringBuilder = new StringBuilder(uri);
+        if(maxsize != null){
+            stringBuilder.append("_").append(maxsize.getWidth()).append("x").append(maxsize.getHeight());
+        }
+        if(resize != null){
+            stringBuilder.append("_").append(resize.getWidth()).append("x").append(resize.getHeight());
+        }
+        if(scaleType != null){
+            stringBuilder.append("_").append(scaleType);
+        }
+        if(processorFlag != null){
+            stringBuilder.append("_").append(processorFlag);
+        }
+        return stringBuilder.toString();
+    }
+}
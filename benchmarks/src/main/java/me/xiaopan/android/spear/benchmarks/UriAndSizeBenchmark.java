@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.xiaopan.android.spear.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.util.ImageScheme;
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 每次显示都会执行的ImageScheme.valueOfUri()和解码前的inSampleSize计算
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UriAndSizeBenchmark {
+    private String[] uris = {
+            "http://img.example.com/avatar/1.jpg",
+            "https://img.example.com/avatar/2.jpg",
+            "/mnt/sdcard/DCIM/Camera/IMG_0001.jpg",
+            "content://media/external/images/media/13",
+            "assets://placeholder.png",
+            "drawable://2130837504",
+    };
+
+    private int[][] sizes = {
+            {4160, 3120, 1080, 1920},
+            {6000, 600, 400, 400},
+            {200, 200, 1080, 1920},
+            {1920, 1080, 96, 96},
+    };
+
+    @Benchmark
+    public void valueOfUri(Blackhole blackhole){
+        for(String uri : uris){
+            blackhole.consume(ImageScheme.valueOfUri(uri));
+        }
+    }
+
+    @Benchmark
+    public void calculateInSampleSize(Blackhole blackhole){
+        for(int[] size : sizes){
+            blackhole.consume(ImageSize.calculateInSampleSize(size[0], size[1], size[2], size[3]));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * LruEncodedCache按访问顺序淘汰，超过容量时先删最久没有访问的
+ */
+public class LruEncodedCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyAccessed(){
+        LruEncodedCache encodedCache = new LruEncodedCache(800);
+        encodedCache.put("a", new byte[100]);
+        encodedCache.put("b", new byte[100]);
+        encodedCache.put("c", new byte[100]);
+        encodedCache.get("a");
+        for(int w = 0; w < 6; w++){
+            encodedCache.put("d" + w, new byte[100]);
+        }
+        assertNotNull(encodedCache.get("a"));
+        assertNull(encodedCache.get("b"));
+        assertEquals(800, encodedCache.getSize());
+    }
+
+    @Test
+    public void replaceKeepsSize(){
+        LruEncodedCache encodedCache = new LruEncodedCache(800);
+        encodedCache.put("a", new byte[100]);
+        encodedCache.put("a", new byte[50]);
+        assertEquals(50, encodedCache.getSize());
+        assertEquals(1, encodedCache.getEntryCount());
+        encodedCache.remove("a");
+        assertEquals(0, encodedCache.getSize());
+    }
+
+    @Test
+    public void skipsOversizedEntry(){
+        LruEncodedCache encodedCache = new LruEncodedCache(800);
+        encodedCache.put("a", new byte[101]);
+        assertNull(encodedCache.get("a"));
+        assertEquals(0, encodedCache.getSize());
+    }
+}
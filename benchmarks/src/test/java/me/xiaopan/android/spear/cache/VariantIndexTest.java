@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.cache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.xiaopan.android.spear.util.ImageSize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * VariantIndex查找变体时索引被修改不会出错，取不到的变体会被清理
+ */
+public class VariantIndexTest {
+    private static final String URI = "http://example.com/a.jpg";
+
+    @Test
+    public void siblingEvictedDuringFind(){
+        final VariantIndex variantIndex = new VariantIndex();
+        final MemoryCacheKey smallKey = new MemoryCacheKey(URI, new ImageSize(200, 200), null, null, null);
+        final MemoryCacheKey largeKey = new MemoryCacheKey(URI, new ImageSize(400, 400), null, null, null);
+        variantIndex.put(smallKey, URI, new ImageSize(200, 200));
+        variantIndex.put(largeKey, URI, new ImageSize(400, 400));
+
+        final Map<MemoryCacheKey, Integer> pixelsByKey = new HashMap<MemoryCacheKey, Integer>();
+        pixelsByKey.put(smallKey, 200 * 200);
+        pixelsByKey.put(largeKey, 400 * 400);
+        VariantIndex.Peeker<Integer> peeker = new VariantIndex.Peeker<Integer>() {
+            @Override
+            public Integer peek(MemoryCacheKey key) {
+                // 模拟取出小的变体时淘汰了大的，缓存会在entryRemoved()里删除它的登记
+                if(key.equals(smallKey) && pixelsByKey.remove(largeKey) != null){
+                    variantIndex.remove(largeKey);
+                }
+                return pixelsByKey.get(key);
+            }
+
+            @Override
+            public int getPixels(Integer value) {
+                return value;
+            }
+        };
+
+        Integer found = variantIndex.find(URI, new ImageSize(100, 100), peeker);
+        assertEquals(Integer.valueOf(200 * 200), found);
+        assertEquals(1, pixelsByKey.size());
+    }
+
+    @Test
+    public void dropsMissingVariants(){
+        VariantIndex variantIndex = new VariantIndex();
+        MemoryCacheKey key = new MemoryCacheKey(URI, new ImageSize(400, 400), null, null, null);
+        variantIndex.put(key, URI, new ImageSize(400, 400));
+        final int[] peekCount = new int[1];
+        VariantIndex.Peeker<Integer> peeker = new VariantIndex.Peeker<Integer>() {
+            @Override
+            public Integer peek(MemoryCacheKey key) {
+                peekCount[0]++;
+                return null;
+            }
+
+            @Override
+            public int getPixels(Integer value) {
+                return value;
+            }
+        };
+
+        assertNull(variantIndex.find(URI, new ImageSize(100, 100), peeker));
+        assertNull(variantIndex.find(URI, new ImageSize(100, 100), peeker));
+        assertEquals(1, peekCount[0]);
+    }
+}
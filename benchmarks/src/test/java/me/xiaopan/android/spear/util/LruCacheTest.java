@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * LruCache和TinyLfuCache的peek()不调整淘汰顺序也不计入命中统计
+ */
+public class LruCacheTest {
+
+    @Test
+    public void lruPeekDoesNotPromote(){
+        LruCache<String, String> lruCache = new LruCache<String, String>(2);
+        lruCache.put("a", "a");
+        lruCache.put("b", "b");
+        assertEquals("a", lruCache.peek("a"));
+        lruCache.put("c", "c");
+        assertNull(lruCache.peek("a"));
+        assertEquals(0, lruCache.hitCount());
+        assertEquals(0, lruCache.missCount());
+    }
+
+    @Test
+    public void lruGetPromotes(){
+        LruCache<String, String> lruCache = new LruCache<String, String>(2);
+        lruCache.put("a", "a");
+        lruCache.put("b", "b");
+        assertEquals("a", lruCache.get("a"));
+        lruCache.put("c", "c");
+        assertEquals("a", lruCache.peek("a"));
+        assertNull(lruCache.peek("b"));
+    }
+
+    @Test
+    public void tinyLfuPeekDoesNotCount(){
+        TinyLfuCache<String, String> tinyLfuCache = new TinyLfuCache<String, String>(100);
+        tinyLfuCache.put("a", "a");
+        assertEquals("a", tinyLfuCache.peek("a"));
+        assertNull(tinyLfuCache.peek("b"));
+        assertEquals(0, tinyLfuCache.hitCount());
+        assertEquals(0, tinyLfuCache.missCount());
+    }
+}
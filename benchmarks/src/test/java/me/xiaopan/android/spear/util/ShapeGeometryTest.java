@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * ShapeGeometry按ImageView的缩放方式计算形状区域，矩阵的值跟ImageView.configureBounds()算出来的一样
+ */
+public class ShapeGeometryTest {
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void centerCropCutsOffSides(){
+        // 200x100的图片CENTER_CROP到100x100，左右各裁掉50
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{0, 0, 200, 100}, 1, 1, -50, 0, 100, 100, false, out);
+        assertArrayEquals(new float[]{50, 0, 150, 100}, out, DELTA);
+    }
+
+    @Test
+    public void centerCropScaledCutsOffTopAndBottom(){
+        // 100x200的图片CENTER_CROP到50x50，缩放0.5，上下各裁掉50
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{0, 0, 100, 200}, 0.5f, 0.5f, 0, -25, 50, 50, false, out);
+        assertArrayEquals(new float[]{0, 50, 100, 150}, out, DELTA);
+    }
+
+    @Test
+    public void fitCenterKeepsBounds(){
+        // 200x100的图片FIT_CENTER到100x100，整张图都能看到
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{0, 0, 200, 100}, 0.5f, 0.5f, 0, 25, 100, 100, false, out);
+        assertArrayEquals(new float[]{0, 0, 200, 100}, out, DELTA);
+    }
+
+    @Test
+    public void unknownViewUsesBounds(){
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{10, 20, 110, 70}, 1, 1, 0, 0, 0, 0, false, out);
+        assertArrayEquals(new float[]{10, 20, 110, 70}, out, DELTA);
+    }
+
+    @Test
+    public void circleIsCenteredInVisibleArea(){
+        // 圆形的bounds是100x100的正方形，CENTER_CROP到50x100的ImageView，左右各裁掉25，圆的直径只能是50
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{0, 0, 100, 100}, 1, 1, -25, 0, 50, 100, true, out);
+        assertArrayEquals(new float[]{25, 25, 75, 75}, out, DELTA);
+    }
+
+    @Test
+    public void circleWithoutViewUsesShortSide(){
+        float[] out = new float[4];
+        ShapeGeometry.computeDrawRect(new float[]{0, 0, 200, 100}, 1, 1, 0, 0, 0, 0, true, out);
+        assertArrayEquals(new float[]{50, 0, 150, 100}, out, DELTA);
+    }
+}
@@ -21,6 +21,9 @@ import android.content.Context;
 import java.io.File;
 
 import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.cache.EncodedCache;
+import me.xiaopan.android.spear.cache.EncodedCacheFiller;
+import me.xiaopan.android.spear.cache.LruEncodedCache;
 import me.xiaopan.android.spear.cache.LruDiskCache;
 import me.xiaopan.android.spear.cache.LruMemoryCache;
 import me.xiaopan.android.spear.cache.MemoryCache;
@@ -28,23 +31,29 @@ import me.xiaopan.android.spear.decode.DefaultImageDecoder;
 import me.xiaopan.android.spear.decode.ImageDecoder;
 import me.xiaopan.android.spear.display.DefaultImageDisplayer;
 import me.xiaopan.android.spear.display.ImageDisplayer;
+import me.xiaopan.android.spear.download.BandwidthMeter;
+import me.xiaopan.android.spear.download.DownloadTracker;
 import me.xiaopan.android.spear.download.HttpUrlConnectionImageDownloader;
 import me.xiaopan.android.spear.download.ImageDownloader;
 import me.xiaopan.android.spear.execute.DefaultRequestExecutor;
 import me.xiaopan.android.spear.execute.RequestExecutor;
 import me.xiaopan.android.spear.process.CutImageProcessor;
 import me.xiaopan.android.spear.process.ImageProcessor;
+import me.xiaopan.android.spear.request.RequestMetricsListener;
 import me.xiaopan.android.spear.util.DefaultHelperFactory;
 import me.xiaopan.android.spear.util.DefaultImageSizeCalculator;
 import me.xiaopan.android.spear.util.DisplayCallbackHandler;
 import me.xiaopan.android.spear.util.DisplayHelperManager;
 import me.xiaopan.android.spear.util.HelperFactory;
 import me.xiaopan.android.spear.util.ImageSizeCalculator;
+import me.xiaopan.android.spear.util.UriResolver;
 
 public class Configuration {
     private Context context;	//上下文
     private DiskCache diskCache;    // 磁盘缓存器
     private MemoryCache memoryCache;	//图片缓存器
+    private EncodedCache encodedCache;  // 编码数据缓存器
+    private EncodedCacheFiller encodedCacheFiller;  // 位图被淘汰时填充编码数据缓存
     private ImageDecoder imageDecoder;	//图片解码器
     private HelperFactory helperFactory;    // 协助器工厂
     private ImageDisplayer defaultImageDisplayer;   // 默认的图片显示器，当DisplayRequest中没有指定显示器的时候就会用到
@@ -54,11 +63,18 @@ public class Configuration {
     private ImageSizeCalculator imageSizeCalculator; // 图片尺寸计算器
     private DisplayHelperManager displayHelperManager;  // DisplayHelper管理器
     private DisplayCallbackHandler displayCallbackHandler;	//显示相关回调处理器
+    private UriResolver uriResolver;    // URI解析器
+    private BandwidthMeter bandwidthMeter;  // 带宽测量器
+    private DownloadTracker downloadTracker;    // 下载跟踪器
+    private RequestMetricsListener requestMetricsListener;  // 请求统计监听器
 
     public Configuration(Context context){
         this.context = context;
         this.diskCache = new LruDiskCache(context);
         this.memoryCache = new LruMemoryCache();
+        this.encodedCache = new LruEncodedCache();
+        this.encodedCacheFiller = new EncodedCacheFiller(this);
+        this.memoryCache.setEvictionListener(encodedCacheFiller);
         this.imageDecoder = new DefaultImageDecoder();
         this.helperFactory = new DefaultHelperFactory();
         this.imageDownloader = new HttpUrlConnectionImageDownloader();
@@ -68,6 +84,8 @@ public class Configuration {
         this.defaultImageDisplayer = new DefaultImageDisplayer();
         this.displayCallbackHandler = new DisplayCallbackHandler();
         this.defaultCutImageProcessor = new CutImageProcessor();
+        this.bandwidthMeter = new BandwidthMeter();
+        this.downloadTracker = new DownloadTracker();
     }
 
     /**
@@ -102,6 +120,14 @@ public class Configuration {
         return memoryCache;
     }
 
+    /**
+     * 获取编码数据缓存器
+     * @return 编码数据缓存器，为null表示不使用
+     */
+    public EncodedCache getEncodedCache() {
+        return encodedCache;
+    }
+
     /**
      * 获取位图解码器
      * @return 位图解码器
@@ -165,6 +191,38 @@ public class Configuration {
         return helperFactory;
     }
 
+    /**
+     * 获取URI解析器
+     * @return URI解析器，没有设置时为null
+     */
+    public UriResolver getUriResolver() {
+        return uriResolver;
+    }
+
+    /**
+     * 获取带宽测量器
+     * @return 带宽测量器
+     */
+    public BandwidthMeter getBandwidthMeter() {
+        return bandwidthMeter;
+    }
+
+    /**
+     * 获取下载跟踪器
+     * @return 下载跟踪器
+     */
+    public DownloadTracker getDownloadTracker() {
+        return downloadTracker;
+    }
+
+    /**
+     * 获取请求统计监听器
+     * @return 请求统计监听器，没有设置时为null
+     */
+    public RequestMetricsListener getRequestMetricsListener() {
+        return requestMetricsListener;
+    }
+
     /**
      * 根据URI获取缓存文件
      */
@@ -203,11 +261,22 @@ public class Configuration {
      */
     public Configuration setMemoryCache(MemoryCache memoryCache) {
         if(memoryCache != null){
+            this.memoryCache.setEvictionListener(null);
             this.memoryCache = memoryCache;
+            this.memoryCache.setEvictionListener(encodedCacheFiller);
         }
         return this;
     }
 
+    /**
+     * 设置编码数据缓存器，它位于内存缓存和磁盘缓存之间，网络图片的位图被内存缓存淘汰时会把磁盘缓存文件读进来，之后可以直接从这里解码
+     * @param encodedCache 编码数据缓存器，为null表示不使用
+     */
+    public Configuration setEncodedCache(EncodedCache encodedCache) {
+        this.encodedCache = encodedCache;
+        return this;
+    }
+
     /**
      * 设置位图解码器
      * @param imageDecoder 位图解码器
@@ -263,6 +332,24 @@ public class Configuration {
         return this;
     }
 
+    /**
+     * 设置URI解析器，默认没有
+     * @param uriResolver URI解析器，为null时不改写URI
+     */
+    public Configuration setUriResolver(UriResolver uriResolver) {
+        this.uriResolver = uriResolver;
+        return this;
+    }
+
+    /**
+     * 设置请求统计监听器，默认没有，没有时不会记录任何统计数据
+     * @param requestMetricsListener 请求统计监听器，为null时关闭统计
+     */
+    public Configuration setRequestMetricsListener(RequestMetricsListener requestMetricsListener) {
+        this.requestMetricsListener = requestMetricsListener;
+        return this;
+    }
+
     /**
      * 设置协助器工厂
      * @param helperFactory 协助器工厂
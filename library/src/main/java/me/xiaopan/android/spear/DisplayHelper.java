@@ -17,17 +17,24 @@
 package me.xiaopan.android.spear;
 
 import android.graphics.drawable.BitmapDrawable;
-import android.util.Log;
+import android.graphics.drawable.Drawable;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
+import me.xiaopan.android.spear.cache.MemoryCacheKey;
 import me.xiaopan.android.spear.display.ImageDisplayer;
 import me.xiaopan.android.spear.display.TransitionImageDisplayer;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.process.ImageProcessor;
 import me.xiaopan.android.spear.request.DisplayListener;
 import me.xiaopan.android.spear.request.DisplayRequest;
 import me.xiaopan.android.spear.request.DownloadRequest;
 import me.xiaopan.android.spear.request.ProgressListener;
+import me.xiaopan.android.spear.request.Request;
 import me.xiaopan.android.spear.request.RequestFuture;
+import me.xiaopan.android.spear.request.RequestMetrics;
+import me.xiaopan.android.spear.request.RequestMetricsListener;
 import me.xiaopan.android.spear.util.AsyncDrawable;
 import me.xiaopan.android.spear.util.DrawableHolder;
 import me.xiaopan.android.spear.util.FailureCause;
@@ -63,6 +70,12 @@ public class DisplayHelper {
 
     protected boolean resizeByImageViewLayoutSize;
     protected boolean resizeByImageViewLayoutSizeAndFromDisplayer;
+    protected boolean waitForLayout;
+    protected String memoryCachePartition;
+    protected boolean progressive;
+
+    private MemoryCacheKey memoryCacheKey = new MemoryCacheKey();  // 复用的内存缓存KEY，只用来查找
+    private MemoryCacheKey placeholderCacheKey = new MemoryCacheKey();  // 复用的默认图片内存缓存KEY，只用来查找
 
     /**
      * 创建显示请求生成器
@@ -104,6 +117,7 @@ public class DisplayHelper {
             listener(spearImageView.getDisplayListener());
             progressListener(spearImageView.getProgressListener());
             spearImageView.tryResetDebugFlagAndProgressStatus();
+            spearImageView.setDisplaySpear(spear);
         }
 
         return this;
@@ -135,6 +149,9 @@ public class DisplayHelper {
 
         resizeByImageViewLayoutSize = false;
         resizeByImageViewLayoutSizeAndFromDisplayer = false;
+        waitForLayout = false;
+        memoryCachePartition = null;
+        progressive = false;
     }
 
     /**
@@ -202,6 +219,34 @@ public class DisplayHelper {
         return this;
     }
 
+    /**
+     * 等ImageView测量完毕后再按真实尺寸计算maxsize和resize，适用于宽高是match_parent或按权重分配的ImageView，这样不会按默认的1.5倍屏幕尺寸解码
+     * @return Helper
+     */
+    public DisplayHelper waitForLayout(){
+        this.waitForLayout = true;
+        return this;
+    }
+
+    /**
+     * 设置内存缓存分区，需要配合PartitionedMemoryCache使用
+     * @param memoryCachePartition 分区名称
+     * @return Helper
+     */
+    public DisplayHelper memoryCachePartition(String memoryCachePartition){
+        this.memoryCachePartition = memoryCachePartition;
+        return this;
+    }
+
+    /**
+     * 从网络下载渐进式JPEG时，每收到完整的一遍扫描就先显示一张低分辨率的预览图，设置了图片处理器时无效
+     * @return Helper
+     */
+    public DisplayHelper progressive(){
+        this.progressive = true;
+        return this;
+    }
+
     /**
      * 设置图片处理器，图片处理器会根据resize和ScaleType创建一张新的图片
      * @param processor Bitmap处理器
@@ -245,7 +290,7 @@ public class DisplayHelper {
      */
     public DisplayHelper displayer(ImageDisplayer displayer) {
         this.imageDisplayer = displayer;
-        if(this.imageDisplayer != null && this.imageDisplayer instanceof TransitionImageDisplayer){
+        if(TransitionImageDisplayer.isTransition(this.imageDisplayer)){
             if(!resizeByImageViewLayoutSize){
                 this.resize = spear.getConfiguration().getImageSizeCalculator().calculateImageResize(imageView);
                 this.resizeByImageViewLayoutSize = true;
@@ -365,6 +410,15 @@ public class DisplayHelper {
         if(this.loadFailDrawableHolder == null){
             this.loadFailDrawableHolder = options.getLoadFailDrawableHolder();
         }
+        if(options.isWaitForLayout()){
+            this.waitForLayout = true;
+        }
+        if(this.memoryCachePartition == null){
+            this.memoryCachePartition = options.getMemoryCachePartition();
+        }
+        if(options.isProgressive()){
+            this.progressive = true;
+        }
 
         return this;
     }
@@ -383,13 +437,25 @@ public class DisplayHelper {
      * @return RequestFuture 你可以通过RequestFuture来查看请求的状态或者取消这个请求
      */
     public RequestFuture fire() {
+        // ImageView还没有测量就先显示默认图片，等测量完毕再执行
+        if(waitForLayout && imageView != null && uri != null){
+            if(LayoutWaiter.needWait(imageView)){
+                BitmapDrawable loadingBitmapDrawable = getCachedDrawableFromDrawableHolder(loadingDrawableHolder);
+                AsyncDrawable waitingDrawable = new AsyncDrawable(spear.getConfiguration().getContext().getResources(), loadingBitmapDrawable != null ? loadingBitmapDrawable.getBitmap() : null, null);
+                imageView.clearAnimation();
+                imageView.setImageDrawable(waitingDrawable);
+                imageView.getViewTreeObserver().addOnPreDrawListener(new LayoutWaiter(this, imageView, waitingDrawable));
+                SLog.d(SLog.CATEGORY_DISPLAY, NAME, "等待ImageView测量", uri);
+                return null;
+            }
+            applyLayoutSize();
+        }
+
         spear.getConfiguration().getDisplayCallbackHandler().startCallbackOnFire(displayListener);
 
         // 验证imageView参数
         if(imageView == null){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "imageView不能为null");
-            }
+            SLog.e(SLog.CATEGORY_DISPLAY, NAME, "imageView不能为null");
             spear.getConfiguration().getDisplayCallbackHandler().failCallbackOnFire(null, null, FailureCause.IMAGE_VIEW_NULL, displayListener);
             spear.getConfiguration().getDisplayHelperManager().recoveryDisplayHelper(this);
             return null;
@@ -397,9 +463,7 @@ public class DisplayHelper {
 
         // 验证uri参数
         if(uri == null || "".equals(uri.trim())){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "uri不能为null或空");
-            }
+            SLog.e(SLog.CATEGORY_DISPLAY, NAME, "uri不能为null或空");
             // 显示默认图片
             BitmapDrawable loadingBitmapDrawable = getDrawableFromDrawableHolder(loadingDrawableHolder);
             spear.getConfiguration().getDisplayCallbackHandler().failCallbackOnFire(imageView, loadingBitmapDrawable, FailureCause.URI_NULL_OR_EMPTY, displayListener);
@@ -410,22 +474,27 @@ public class DisplayHelper {
         // 过滤掉不支持的URI协议类型
         ImageScheme imageScheme = ImageScheme.valueOfUri(uri);
         if(imageScheme == null){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "未知的协议类型" + " URI" + "=" + uri);
-            }
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "未知的协议类型", uri);
             spear.getConfiguration().getDisplayCallbackHandler().failCallbackOnFire(imageView, getDrawableFromDrawableHolder(loadFailDrawableHolder), FailureCause.URI_NO_SUPPORT, displayListener);
             spear.getConfiguration().getDisplayHelperManager().recoveryDisplayHelper(this);
             return null;
         }
 
         // 计算缓存ID
-        String requestId = createMemoryCacheId(uri, maxsize, resize, scaleType, imageProcessor);
+        MemoryCacheKey requestId = createMemoryCacheId(uri, maxsize, resize, scaleType, imageProcessor);
 
         // 尝试显示
         if(enableMemoryCache){
             final BitmapDrawable cacheDrawable = spear.getConfiguration().getMemoryCache().get(requestId);
             if(cacheDrawable != null){
-                spear.getConfiguration().getDisplayCallbackHandler().completeCallbackOnFire(imageView, uri, cacheDrawable, displayListener, DisplayListener.ImageFrom.MEMORY);
+                spear.getConfiguration().getDisplayCallbackHandler().completeCallbackOnFire(imageView, uri, cacheDrawable, imageDisplayer, displayListener, DisplayListener.ImageFrom.MEMORY);
+                RequestMetricsListener requestMetricsListener = spear.getConfiguration().getRequestMetricsListener();
+                if(requestMetricsListener != null){
+                    RequestMetrics metrics = new RequestMetrics(uri, requestMetricsListener);
+                    metrics.setImageFrom(RequestMetrics.ImageFrom.MEMORY);
+                    metrics.mark(RequestMetrics.Stage.DISPLAYED);
+                    metrics.finish(Request.Status.COMPLETED, null, 0);
+                }
                 spear.getConfiguration().getDisplayHelperManager().recoveryDisplayHelper(this);
                 return null;
             }
@@ -449,7 +518,8 @@ public class DisplayHelper {
             return new RequestFuture(potentialRequest);
         }
 
-        // 创建请求
+        // 创建请求，KEY要跟着请求放进缓存，所以得复制一份
+        requestId = requestId.copy();
         final DisplayRequest request = new DisplayRequest();
 
         request.setUri(uri);
@@ -473,11 +543,22 @@ public class DisplayHelper {
         request.setProgressListener(progressListener);
 
         request.setResizeByImageViewLayoutSizeAndFromDisplayer(resizeByImageViewLayoutSizeAndFromDisplayer);
+        request.setProgressive(progressive);
 
-        // 显示默认图片
-        BitmapDrawable loadingBitmapDrawable = getDrawableFromDrawableHolder(loadingDrawableHolder);
+        // 设置了统计监听器才记录统计数据
+        RequestMetricsListener requestMetricsListener = spear.getConfiguration().getRequestMetricsListener();
+        if(requestMetricsListener != null){
+            request.setMetrics(new RequestMetrics(uri, requestMetricsListener));
+        }
+
+        // 显示默认图片，还没有缓存的话先显示空白，在后台解码完再换上，不在主线程解码
+        BitmapDrawable loadingBitmapDrawable = getCachedDrawableFromDrawableHolder(loadingDrawableHolder);
+        AsyncDrawable asyncDrawable = new AsyncDrawable(spear.getConfiguration().getContext().getResources(), loadingBitmapDrawable != null ? loadingBitmapDrawable.getBitmap() : null, request);
         imageView.clearAnimation();
-        imageView.setImageDrawable(new AsyncDrawable(spear.getConfiguration().getContext().getResources(), loadingBitmapDrawable != null ? loadingBitmapDrawable.getBitmap() : null, request));
+        imageView.setImageDrawable(asyncDrawable);
+        if(loadingBitmapDrawable == null && loadingDrawableHolder != null && loadingDrawableHolder.getResId() > 0){
+            spear.getConfiguration().getRequestExecutor().getPlaceholderExecutor().execute(new LoadingDrawableLoader(this, imageView, asyncDrawable, request));
+        }
 
         spear.getConfiguration().getRequestExecutor().submit(request);
         spear.getConfiguration().getDisplayHelperManager().recoveryDisplayHelper(this);
@@ -489,6 +570,26 @@ public class DisplayHelper {
         return requestFuture;
     }
 
+    /**
+     * 按ImageView测量后的真实尺寸修正maxsize和resize
+     */
+    protected void applyLayoutSize(){
+        int width = imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight();
+        int height = imageView.getHeight() - imageView.getPaddingTop() - imageView.getPaddingBottom();
+        if(width <= 0 || height <= 0 || LayoutWaiter.isWrapContent(imageView)){
+            return;
+        }
+
+        if(maxsize == null){
+            maxsize = new ImageSize(width, height);
+        }else if(width < maxsize.getWidth() || height < maxsize.getHeight()){
+            maxsize = new ImageSize(Math.min(width, maxsize.getWidth()), Math.min(height, maxsize.getHeight()));
+        }
+        if(resizeByImageViewLayoutSize && resize == null){
+            resize = new ImageSize(width, height);
+        }
+    }
+
     protected ImageProcessor getImageProcessor(){
         if(imageProcessor != null){
             return imageProcessor;
@@ -501,59 +602,152 @@ public class DisplayHelper {
 
     protected BitmapDrawable getDrawableFromDrawableHolder(DrawableHolder drawableHolder){
         if(drawableHolder != null){
-            return drawableHolder.getDrawable(spear.getConfiguration().getContext(), resize, scaleType, getImageProcessor(), resizeByImageViewLayoutSizeAndFromDisplayer);
+            return drawableHolder.getDrawable(spear.getConfiguration(), resize, scaleType, getImageProcessor(), resizeByImageViewLayoutSizeAndFromDisplayer);
         }else{
             return null;
         }
     }
 
     /**
-     * 生成内存缓存ID
+     * 只从内存缓存中获取默认图片，不会解码
      */
-    protected String createMemoryCacheId(String uri, ImageSize maxsize, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor){
-        StringBuilder stringBuilder = new StringBuilder(uri);
-        if(maxsize != null){
-            stringBuilder.append("_");
-            stringBuilder.append(maxsize.getWidth());
-            stringBuilder.append("x");
-            stringBuilder.append(maxsize.getHeight());
-        }
-        if(resize != null){
-            stringBuilder.append("_");
-            stringBuilder.append(resize.getWidth());
-            stringBuilder.append("x");
-            stringBuilder.append(resize.getHeight());
-        }
-        if(scaleType != null){
-            stringBuilder.append("_");
-            stringBuilder.append(scaleType.name());
-        }
-        if(imageProcessor != null){
-            stringBuilder.append("_");
-            stringBuilder.append(imageProcessor.getFlag());
+    protected BitmapDrawable getCachedDrawableFromDrawableHolder(DrawableHolder drawableHolder){
+        if(drawableHolder != null){
+            return drawableHolder.getCachedDrawable(spear.getConfiguration(), resize, scaleType, getImageProcessor(), resizeByImageViewLayoutSizeAndFromDisplayer, placeholderCacheKey);
+        }else{
+            return null;
         }
-        return stringBuilder.toString();
+    }
+
+    /**
+     * 生成内存缓存ID，返回的是当前DisplayHelper复用的实例，需要保存时请调用copy()
+     */
+    protected MemoryCacheKey createMemoryCacheId(String uri, ImageSize maxsize, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor){
+        return memoryCacheKey.set(uri, maxsize, resize, scaleType != null ? scaleType.name() : null, imageProcessor != null ? imageProcessor.getFlag() : null).setPartition(memoryCachePartition);
     }
 
     /**
      * 取消潜在的请求
      * @return true：取消成功；false：ImageView所关联的任务就是所需的无需取消
      */
-    protected static DisplayRequest cancelPotentialDisplayRequest(ImageView imageView, String newRequestId) {
+    protected static DisplayRequest cancelPotentialDisplayRequest(ImageView imageView, MemoryCacheKey newRequestId) {
         final DisplayRequest potentialDisplayRequest = AsyncDrawable.getDisplayRequestByAsyncDrawable(imageView);
         boolean cancelled = true;
         if (potentialDisplayRequest != null) {
-            final String oldRequestId = potentialDisplayRequest.getMemoryCacheId();
+            final MemoryCacheKey oldRequestId = potentialDisplayRequest.getMemoryCacheId();
             if (oldRequestId != null && oldRequestId.equals(newRequestId)) {
                 cancelled = false;
             }else{
                 potentialDisplayRequest.cancel();
                 cancelled = true;
             }
-            if(!cancelled && Spear.isDebugMode()){
-                Log.d(Spear.TAG, NAME + "：" + "无需取消" + "；" + "ImageViewCode" + "=" + imageView.hashCode() + "；" + potentialDisplayRequest.getName());
+            if(!cancelled && SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DISPLAY)){
+                SLog.d(SLog.CATEGORY_DISPLAY, NAME, "无需取消", "ImageViewCode=" + imageView.hashCode(), potentialDisplayRequest.getName());
             }
         }
         return cancelled?null:potentialDisplayRequest;
     }
+
+    /**
+     * 等待ImageView测量完毕，期间ImageView换了图片就放弃
+     */
+    private static class LayoutWaiter implements ViewTreeObserver.OnPreDrawListener{
+        private DisplayHelper displayHelper;
+        private ImageView imageView;
+        private Drawable waitingDrawable;
+
+        private LayoutWaiter(DisplayHelper displayHelper, ImageView imageView, Drawable waitingDrawable) {
+            this.displayHelper = displayHelper;
+            this.imageView = imageView;
+            this.waitingDrawable = waitingDrawable;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            ViewTreeObserver viewTreeObserver = imageView.getViewTreeObserver();
+            if(viewTreeObserver.isAlive()){
+                viewTreeObserver.removeOnPreDrawListener(this);
+            }
+
+            if(imageView.getDrawable() != waitingDrawable){
+                // 已经显示别的图片了
+                SLog.d(SLog.CATEGORY_DISPLAY, NAME, "等待测量期间ImageView已被复用，放弃", displayHelper.uri);
+                displayHelper.spear.getConfiguration().getDisplayHelperManager().recoveryDisplayHelper(displayHelper);
+                return true;
+            }
+
+            displayHelper.waitForLayout = false;
+            displayHelper.applyLayoutSize();
+            displayHelper.fire();
+            return true;
+        }
+
+        /**
+         * 宽高都不确定并且还没有测量时才需要等待
+         */
+        private static boolean needWait(ImageView imageView){
+            if(imageView.getWidth() > 0 && imageView.getHeight() > 0){
+                return false;
+            }
+            ViewGroup.LayoutParams params = imageView.getLayoutParams();
+            if(params != null && params.width > 0 && params.height > 0){
+                return false;
+            }
+            return !isWrapContent(imageView);
+        }
+
+        /**
+         * wrap_content的ImageView测量出的尺寸取决于当前显示的图片，不能用来计算解码尺寸
+         */
+        private static boolean isWrapContent(ImageView imageView){
+            ViewGroup.LayoutParams params = imageView.getLayoutParams();
+            return params != null && (params.width == ViewGroup.LayoutParams.WRAP_CONTENT || params.height == ViewGroup.LayoutParams.WRAP_CONTENT);
+        }
+    }
+
+    /**
+     * 在后台解码默认图片，完成后ImageView还在等待同一个请求的话就换上
+     */
+    private static class LoadingDrawableLoader implements Runnable{
+        private Configuration configuration;
+        private DrawableHolder drawableHolder;
+        private ImageSize resize;
+        private ImageView.ScaleType scaleType;
+        private ImageProcessor imageProcessor;
+        private boolean forceProcess;
+        private ImageView imageView;
+        private AsyncDrawable asyncDrawable;
+        private DisplayRequest displayRequest;
+
+        private LoadingDrawableLoader(DisplayHelper displayHelper, ImageView imageView, AsyncDrawable asyncDrawable, DisplayRequest displayRequest) {
+            this.configuration = displayHelper.spear.getConfiguration();
+            this.drawableHolder = displayHelper.loadingDrawableHolder;
+            this.resize = displayHelper.resize;
+            this.scaleType = displayHelper.scaleType;
+            this.imageProcessor = displayHelper.getImageProcessor();
+            this.forceProcess = displayHelper.resizeByImageViewLayoutSizeAndFromDisplayer;
+            this.imageView = imageView;
+            this.asyncDrawable = asyncDrawable;
+            this.displayRequest = displayRequest;
+        }
+
+        @Override
+        public void run() {
+            if(displayRequest.isFinished() || displayRequest.isCanceled()){
+                return;
+            }
+            final BitmapDrawable loadingBitmapDrawable = drawableHolder.getDrawable(configuration, resize, scaleType, imageProcessor, forceProcess);
+            if(loadingBitmapDrawable == null){
+                return;
+            }
+            configuration.getDisplayCallbackHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    if(imageView.getDrawable() == asyncDrawable && !displayRequest.isFinished() && !displayRequest.isCanceled()){
+                        imageView.setImageDrawable(new AsyncDrawable(configuration.getContext().getResources(), loadingBitmapDrawable.getBitmap(), displayRequest));
+                    }
+                }
+            });
+        }
+    }
 }
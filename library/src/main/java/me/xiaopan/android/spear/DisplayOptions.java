@@ -36,6 +36,9 @@ public class DisplayOptions extends LoadOptions {
     protected DrawableHolder loadFailDrawableHolder;	//当加载失败时显示的图片
     protected boolean resizeByImageViewLayoutSize;
     protected boolean resizeByImageViewLayoutSizeFromDisplayer;
+    protected boolean waitForLayout;    // 是否等ImageView测量完毕后再按真实尺寸计算maxsize和resize
+    protected String memoryCachePartition;    // 内存缓存分区
+    protected boolean progressive;    // 是否边下载边显示渐进式JPEG的预览图
 
     public DisplayOptions(Context context) {
         super(context);
@@ -57,7 +60,7 @@ public class DisplayOptions extends LoadOptions {
      */
     public DisplayOptions displayer(ImageDisplayer displayer) {
         this.imageDisplayer = displayer;
-        if(this.imageDisplayer != null && this.imageDisplayer instanceof TransitionImageDisplayer){
+        if(TransitionImageDisplayer.isTransition(this.imageDisplayer)){
             if(!this.resizeByImageViewLayoutSize){
                 this.resizeByImageViewLayoutSize = true;
                 this.resizeByImageViewLayoutSizeFromDisplayer = true;
@@ -128,12 +131,6 @@ public class DisplayOptions extends LoadOptions {
     @Override
     public DisplayOptions processor(ImageProcessor processor) {
         super.processor(processor);
-        if(loadingDrawableHolder != null && loadingDrawableHolder.isProcess()){
-            loadingDrawableHolder.reset();
-        }
-        if(loadFailDrawableHolder != null && loadFailDrawableHolder.isProcess()){
-            loadFailDrawableHolder.reset();
-        }
         return this;
     }
 
@@ -173,6 +170,34 @@ public class DisplayOptions extends LoadOptions {
         this.resizeByImageViewLayoutSizeFromDisplayer = false;
     }
 
+    /**
+     * 等ImageView测量完毕后再按真实尺寸计算maxsize和resize，适用于宽高是match_parent或按权重分配的ImageView
+     * @return DisplayOptions
+     */
+    public DisplayOptions waitForLayout() {
+        this.waitForLayout = true;
+        return this;
+    }
+
+    /**
+     * 设置内存缓存分区，需要配合PartitionedMemoryCache使用，例如把头像和大图放在不同的分区，互不挤占
+     * @param memoryCachePartition 分区名称
+     * @return DisplayOptions
+     */
+    public DisplayOptions memoryCachePartition(String memoryCachePartition) {
+        this.memoryCachePartition = memoryCachePartition;
+        return this;
+    }
+
+    /**
+     * 从网络下载渐进式JPEG时，每收到完整的一遍扫描就先显示一张低分辨率的预览图，设置了图片处理器时无效
+     * @return DisplayOptions
+     */
+    public DisplayOptions progressive() {
+        this.progressive = true;
+        return this;
+    }
+
     @Override
     public DisplayOptions scaleType(ScaleType scaleType) {
         super.scaleType(scaleType);
@@ -224,4 +249,25 @@ public class DisplayOptions extends LoadOptions {
     public boolean isResizeByImageViewLayoutSizeFromDisplayer() {
         return resizeByImageViewLayoutSizeFromDisplayer;
     }
+
+    /**
+     * 是否等ImageView测量完毕后再计算尺寸
+     */
+    public boolean isWaitForLayout() {
+        return waitForLayout;
+    }
+
+    /**
+     * 是否边下载边显示渐进式JPEG的预览图
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * 获取内存缓存分区
+     */
+    public String getMemoryCachePartition() {
+        return memoryCachePartition;
+    }
 }
@@ -16,12 +16,13 @@
 
 package me.xiaopan.android.spear;
 
-import android.util.Log;
-
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DownloadListener;
 import me.xiaopan.android.spear.request.DownloadRequest;
 import me.xiaopan.android.spear.request.ProgressListener;
 import me.xiaopan.android.spear.request.RequestFuture;
+import me.xiaopan.android.spear.request.RequestMetrics;
+import me.xiaopan.android.spear.request.RequestMetricsListener;
 import me.xiaopan.android.spear.util.FailureCause;
 import me.xiaopan.android.spear.util.ImageScheme;
 
@@ -118,9 +119,7 @@ public class DownloadHelper {
 
         // 验证uri参数
         if(uri == null || "".equals(uri.trim())){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "uri不能为null或空");
-            }
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "uri不能为null或空");
             if(downloadListener != null){
                 downloadListener.onFailed(FailureCause.URI_NULL_OR_EMPTY);
             }
@@ -130,9 +129,7 @@ public class DownloadHelper {
         // 过滤掉不支持的URI协议类型
         ImageScheme imageScheme = ImageScheme.valueOfUri(uri);
         if(!(imageScheme == ImageScheme.HTTP || imageScheme == ImageScheme.HTTPS)){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "download()方法只能处理http或https协议" + " URI" + "=" + uri);
-            }
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "download()方法只能处理http或https协议", uri);
             if(downloadListener != null){
                 downloadListener.onFailed(FailureCause.URI_NO_SUPPORT);
             }
@@ -151,6 +148,12 @@ public class DownloadHelper {
         request.setDownloadListener(downloadListener);
         request.setProgressListener(progressListener);
 
+        // 设置了统计监听器才记录统计数据
+        RequestMetricsListener requestMetricsListener = spear.getConfiguration().getRequestMetricsListener();
+        if(requestMetricsListener != null){
+            request.setMetrics(new RequestMetrics(uri, requestMetricsListener));
+        }
+
         spear.getConfiguration().getRequestExecutor().submit(request);
         return new RequestFuture(request);
     }
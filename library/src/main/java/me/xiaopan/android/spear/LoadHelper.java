@@ -16,15 +16,17 @@
 
 package me.xiaopan.android.spear;
 
-import android.util.Log;
 import android.widget.ImageView;
 
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.process.ImageProcessor;
 import me.xiaopan.android.spear.request.DownloadRequest;
 import me.xiaopan.android.spear.request.LoadListener;
 import me.xiaopan.android.spear.request.LoadRequest;
 import me.xiaopan.android.spear.request.ProgressListener;
 import me.xiaopan.android.spear.request.RequestFuture;
+import me.xiaopan.android.spear.request.RequestMetrics;
+import me.xiaopan.android.spear.request.RequestMetricsListener;
 import me.xiaopan.android.spear.util.FailureCause;
 import me.xiaopan.android.spear.util.ImageScheme;
 import me.xiaopan.android.spear.util.ImageSize;
@@ -207,9 +209,7 @@ public class LoadHelper {
 
         // 验证uri参数
         if(uri == null || "".equals(uri.trim())){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "uri不能为null或空");
-            }
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "uri不能为null或空");
             if(loadListener != null){
                 loadListener.onFailed(FailureCause.URI_NULL_OR_EMPTY);
             }
@@ -219,9 +219,7 @@ public class LoadHelper {
         // 过滤掉不支持的URI协议类型
         ImageScheme imageScheme = ImageScheme.valueOfUri(uri);
         if(imageScheme == null){
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "：" + "未知的协议类型" + " URI" + "=" + uri);
-            }
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "未知的协议类型", uri);
             if(loadListener != null){
                 loadListener.onFailed(FailureCause.URI_NO_SUPPORT);
             }
@@ -245,6 +243,12 @@ public class LoadHelper {
         request.setLoadListener(loadListener);
         request.setProgressListener(progressListener);
 
+        // 设置了统计监听器才记录统计数据
+        RequestMetricsListener requestMetricsListener = spear.getConfiguration().getRequestMetricsListener();
+        if(requestMetricsListener != null){
+            request.setMetrics(new RequestMetrics(uri, requestMetricsListener));
+        }
+
         spear.getConfiguration().getRequestExecutor().submit(request);
         return new RequestFuture(request);
     }
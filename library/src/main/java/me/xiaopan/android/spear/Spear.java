@@ -24,12 +24,14 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DisplayRequest;
 import me.xiaopan.android.spear.request.DownloadListener;
 import me.xiaopan.android.spear.request.LoadListener;
 import me.xiaopan.android.spear.request.RequestOptions;
 import me.xiaopan.android.spear.util.AsyncDrawable;
 import me.xiaopan.android.spear.util.ImageScheme;
+import me.xiaopan.android.spear.util.SpearSnapshot;
 
 /**
  * 图片加载器，可以从网络或者本地加载图片，并且支持自动清除缓存
@@ -62,6 +64,15 @@ public class Spear {
         return instance;
     }
 
+    /**
+     * 创建一个独立的图片加载器，有自己的配置、缓存和执行器，不会影响with()返回的实例，一般用于测试
+     * @param context 用来初始化配置
+     * @return 新的图片加载器
+     */
+    public static Spear newInstance(Context context){
+        return new Spear(context);
+    }
+
     /**
      * 获取配置对象
      * @return 配置对象
@@ -92,6 +103,22 @@ public class Spear {
         return pause;
     }
 
+    /**
+     * 获取运行状态快照，包括内存缓存、磁盘缓存、执行器队列、正在下载的请求和占用内存最多的图片，可以定期调用用于监控
+     * @param largestBitmapCount 最多记录多少张占用内存最多的图片
+     * @return 快照，通过toString()或toJson()输出
+     */
+    public SpearSnapshot snapshot(int largestBitmapCount){
+        return SpearSnapshot.capture(configuration, largestBitmapCount);
+    }
+
+    /**
+     * 获取运行状态快照，最多记录SpearSnapshot.DEFAULT_LARGEST_BITMAP_COUNT张占用内存最多的图片
+     */
+    public SpearSnapshot snapshot(){
+        return snapshot(SpearSnapshot.DEFAULT_LARGEST_BITMAP_COUNT);
+    }
+
     /**
      * 下载
      * @param uri 支持以下2种类型
@@ -257,8 +284,10 @@ public class Spear {
     /**
      * 设置是否开启调试模式
      * @param debugMode 是否开启调试模式，开启调试模式后会在控制台输出LOG
+     * <br>开启时日志级别为SLog.VERBOSE，关闭时为SLog.WARN，需要更细的控制请直接使用SLog
      */
     public static void setDebugMode(boolean debugMode) {
         Spear.debugMode = debugMode;
+        SLog.setLevel(debugMode ? SLog.VERBOSE : SLog.WARN);
     }
 }
\ No newline at end of file
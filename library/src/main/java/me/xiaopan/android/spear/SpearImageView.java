@@ -33,12 +33,14 @@ import android.widget.Scroller;
 
 import java.io.File;
 
+import me.xiaopan.android.spear.cache.MemoryCache;
 import me.xiaopan.android.spear.request.DisplayListener;
 import me.xiaopan.android.spear.request.ProgressListener;
 import me.xiaopan.android.spear.request.RequestFuture;
 import me.xiaopan.android.spear.util.FailureCause;
 import me.xiaopan.android.spear.util.ImageScheme;
 import me.xiaopan.android.spear.util.RecyclingBitmapDrawable;
+import me.xiaopan.android.spear.util.ShapedBitmapDrawable;
 
 /**
  * SpearImageView
@@ -80,6 +82,11 @@ public class SpearImageView extends ImageView{
     private Scroller clickRippleScroller;
     private Runnable clickRippleRefreshRunnable;
 
+    private boolean attachedToWindow;
+    private Drawable pinnedDrawable;    // 在内存缓存中钉住的图片
+    private MemoryCache pinnedMemoryCache;  // 钉住pinnedDrawable的内存缓存，取消钉住时必须用同一个
+    private Spear displaySpear; // 最近一次显示图片用的Spear，图片来自它的内存缓存
+
     public SpearImageView(Context context) {
         super(context);
     }
@@ -208,8 +215,17 @@ public class SpearImageView extends ImageView{
         return super.onTouchEvent(event);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attachedToWindow = true;
+        updatePinnedDrawable(getDrawable());
+    }
+
     @Override
     protected void onDetachedFromWindow() {
+        updatePinnedDrawable(null);
+        attachedToWindow = false;
         if(Build.VERSION.SDK_INT <= Build.VERSION_CODES.GINGERBREAD_MR1){
             final Drawable previousDrawable = getDrawable();
             if(previousDrawable != null){
@@ -239,6 +255,11 @@ public class SpearImageView extends ImageView{
         if(previousDrawable != null){
             notifyDrawable(previousDrawable, false);
         }
+
+        // 显示在窗口上的图片不能被内存缓存淘汰
+        if(attachedToWindow){
+            updatePinnedDrawable(drawable);
+        }
     }
 
     /**
@@ -293,6 +314,13 @@ public class SpearImageView extends ImageView{
         return setImageFromUri(uri.toString());
     }
 
+    /**
+     * 记录显示图片用的Spear，之后显示的图片都在它的内存缓存中钉住，由DisplayHelper在显示前调用
+     */
+    void setDisplaySpear(Spear displaySpear){
+        this.displaySpear = displaySpear;
+    }
+
     /**
      * 尝试重置Debug标识和进度的状态
      */
@@ -464,6 +492,9 @@ public class SpearImageView extends ImageView{
         if (drawable instanceof RecyclingBitmapDrawable) {
             // The drawable is a CountingBitmapDrawable, so notify it
             ((RecyclingBitmapDrawable) drawable).setIsDisplayed(isDisplayed);
+        } else if (drawable instanceof ShapedBitmapDrawable) {
+            // 形状图片跟原图共用Bitmap，要通知原图
+            notifyDrawable(((ShapedBitmapDrawable) drawable).getSourceDrawable(), isDisplayed);
         } else if (drawable instanceof LayerDrawable) {
             // The drawable is a LayerDrawable, so recurse on each layer
             LayerDrawable layerDrawable = (LayerDrawable) drawable;
@@ -473,6 +504,44 @@ public class SpearImageView extends ImageView{
         }
     }
 
+    /**
+     * 在内存缓存中钉住新的图片并取消钉住旧的图片
+     * @param drawable 新的图片，为null表示只取消旧的
+     */
+    private void updatePinnedDrawable(Drawable drawable){
+        if(pinnedDrawable == drawable){
+            return;
+        }
+        if(pinnedDrawable != null){
+            pinDrawable(pinnedMemoryCache, pinnedDrawable, false);
+        }
+        pinnedDrawable = drawable;
+        pinnedMemoryCache = null;
+        if(drawable != null){
+            // 图片可能来自Spear.newInstance()创建的实例，要在它自己的内存缓存中钉住
+            Spear spear = displaySpear != null ? displaySpear : Spear.with(getContext());
+            pinnedMemoryCache = spear.getConfiguration().getMemoryCache();
+            pinDrawable(pinnedMemoryCache, drawable, true);
+        }
+    }
+
+    private static void pinDrawable(MemoryCache memoryCache, Drawable drawable, boolean pin) {
+        if (drawable instanceof ShapedBitmapDrawable) {
+            pinDrawable(memoryCache, ((ShapedBitmapDrawable) drawable).getSourceDrawable(), pin);
+        } else if (drawable instanceof LayerDrawable) {
+            LayerDrawable layerDrawable = (LayerDrawable) drawable;
+            for (int i = 0, z = layerDrawable.getNumberOfLayers(); i < z; i++) {
+                pinDrawable(memoryCache, layerDrawable.getDrawable(i), pin);
+            }
+        } else if (drawable instanceof BitmapDrawable) {
+            if(pin){
+                memoryCache.pin((BitmapDrawable) drawable);
+            }else{
+                memoryCache.unpin((BitmapDrawable) drawable);
+            }
+        }
+    }
+
     private class DebugDisplayListener implements DisplayListener{
         @Override
         public void onStarted() {
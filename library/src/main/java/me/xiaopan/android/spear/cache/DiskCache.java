@@ -65,4 +65,14 @@ public interface DiskCache {
      * 根据URI获取缓存文件
      */
     public File getCacheFileByUri(String uri);
+
+    /**
+     * 获取缓存文件的数量，需要遍历缓存目录，所以结果可能会缓存几秒
+     */
+    public int getFileCount();
+
+    /**
+     * 获取缓存文件的总大小，需要遍历缓存目录，所以结果可能会缓存几秒
+     */
+    public long getSize();
 }
\ No newline at end of file
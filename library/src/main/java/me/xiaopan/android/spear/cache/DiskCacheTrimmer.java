@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import me.xiaopan.android.spear.util.FileLastModifiedComparator;
+
+/**
+ * 磁盘缓存空间整理器，空间不够时按最后修改时间从旧到新删除缓存文件，不依赖Android，方便在电脑上做基准测试
+ */
+public class DiskCacheTrimmer {
+    private FileLastModifiedComparator fileLastModifiedComparator;
+
+    public DiskCacheTrimmer() {
+        this.fileLastModifiedComparator = new FileLastModifiedComparator();
+    }
+
+    /**
+     * 申请空间
+     * @param cacheDir 缓存目录
+     * @param cacheFileLength 需要的字节数
+     * @param availableSize 缓存目录所在分区的剩余空间
+     * @param reserveSize 分区需要保留的空间
+     * @param maxsize 缓存目录的最大容量，小于等于0表示不限
+     * @return true：申请成功；false：删完了所有缓存文件也不够
+     */
+    public boolean applyForSpace(File cacheDir, long cacheFileLength, long availableSize, long reserveSize, long maxsize){
+        long usedSize = 0;
+        // 如果剩余空间够用
+        if(availableSize-reserveSize > cacheFileLength){
+            if(maxsize > 0){
+                usedSize = Math.abs(countFileLength(cacheDir));
+                if(usedSize+cacheFileLength < maxsize){
+                    return true;
+                }
+            }else{
+                return true;
+            }
+        }
+
+        // 获取所有缓存文件
+        File[] cacheFiles = null;
+        if(cacheDir.exists()){
+            cacheFiles = cacheDir.listFiles();
+        }
+
+        if(cacheFiles != null){
+            // 把所有文件按照最后修改日期排序
+            Arrays.sort(cacheFiles, fileLastModifiedComparator);
+
+            // 然后按照顺序来删除文件直到腾出足够的空间或文件删完为止
+            for(File file : cacheFiles){
+                long currentFileLength = file.length();
+                if(file.delete()){
+                    onFileDeleted(file);
+                    availableSize += currentFileLength;
+                    if(availableSize-reserveSize > cacheFileLength){
+                        if(maxsize > 0){
+                            usedSize -= currentFileLength;
+                            if(usedSize+cacheFileLength < maxsize){
+                                return true;
+                            }
+                        }else{
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 删除了一个缓存文件
+     */
+    protected void onFileDeleted(File file){
+
+    }
+
+    /**
+     * 计算文件长度，此方法的关键点在于，他也能获取目录的长度
+     * @param file 要计算的文件
+     * @return 长度
+     */
+    public static long countFileLength(File file){
+        if(!file.exists()){
+            return 0;
+        }
+
+        if(file.isFile()){
+            return file.length();
+        }
+
+        File[] childFiles = file.listFiles();
+        if(childFiles == null || childFiles.length <= 0){
+            return 0;
+        }
+
+        List<File> fileList = new LinkedList<File>();
+        Collections.addAll(fileList, childFiles);
+        long length = 0;
+        while(!fileList.isEmpty()){
+            File childFile = fileList.remove(0);
+            if(childFile.isFile()){
+                length += childFile.length();
+            }else{
+                childFiles = childFile.listFiles();
+                if(childFiles == null || childFiles.length <= 0){
+                    continue;
+                }
+                Collections.addAll(fileList, childFiles);
+            }
+        }
+        return length;
+    }
+}
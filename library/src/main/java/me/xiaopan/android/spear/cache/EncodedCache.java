@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+/**
+ * 编码数据缓存器，在内存中保存最近用过的图片的原始数据（JPEG、PNG、WebP等），位图被内存缓存淘汰后可以直接从这里解码，不用再读磁盘
+ */
+public interface EncodedCache {
+    /**
+     * 放进去一份编码数据
+     * @param uri 图片URI
+     * @param data 编码数据，放进去之后就不要再修改了
+     */
+    public void put(String uri, byte[] data);
+
+    /**
+     * 根据URI获取编码数据
+     * @param uri 图片URI
+     * @return 编码数据，没有时返回null
+     */
+    public byte[] get(String uri);
+
+    /**
+     * 根据URI删除编码数据
+     * @param uri 图片URI
+     */
+    public void remove(String uri);
+
+    /**
+     * 单份数据的最大字节数，超过的不会缓存
+     */
+    public int getMaxEntrySize();
+
+    /**
+     * 清除缓存
+     */
+    public void clear();
+
+    /**
+     * 获取当前缓存的数据的份数
+     */
+    public int getEntryCount();
+
+    /**
+     * 获取当前占用的字节数
+     */
+    public long getSize();
+
+    /**
+     * 获取最大字节数
+     */
+    public long getMaxSize();
+}
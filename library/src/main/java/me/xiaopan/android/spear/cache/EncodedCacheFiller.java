@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.Configuration;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.util.ImageScheme;
+
+/**
+ * 编码数据缓存填充器，网络图片的位图被内存缓存淘汰时，在后台线程把它的磁盘缓存文件读进编码数据缓存，下次访问就不用再读磁盘了
+ */
+public class EncodedCacheFiller implements MemoryCache.EvictionListener {
+    private static final String NAME = "EncodedCacheFiller";
+
+    private Configuration configuration;
+    private ThreadPoolExecutor executor;
+    private final Set<String> pendingUris;  // 正在读取的URI，同一张图片的多个尺寸一起被淘汰时只读一次
+
+    public EncodedCacheFiller(Configuration configuration) {
+        this.configuration = configuration;
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(32), new DiscardOldestHandler());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.pendingUris = new HashSet<String>();
+    }
+
+    @Override
+    public void onEvicted(MemoryCacheKey key) {
+        final String uri = key.getUri();
+        ImageScheme imageScheme = ImageScheme.valueOfUri(uri);
+        if((imageScheme != ImageScheme.HTTP && imageScheme != ImageScheme.HTTPS) || configuration.getEncodedCache() == null){
+            return;
+        }
+        synchronized (pendingUris){
+            if(!pendingUris.add(uri)){
+                return;
+            }
+        }
+        executor.execute(new FillTask(uri));
+    }
+
+    private void clearPending(String uri){
+        synchronized (pendingUris){
+            pendingUris.remove(uri);
+        }
+    }
+
+    private void fill(String uri){
+        EncodedCache encodedCache = configuration.getEncodedCache();
+        if(encodedCache == null || encodedCache.get(uri) != null){
+            return;
+        }
+        File cacheFile = configuration.getCacheFileByUri(uri);
+        if(cacheFile == null || !cacheFile.exists() || cacheFile.length() > encodedCache.getMaxEntrySize()){
+            return;
+        }
+        byte[] data = readFile(cacheFile);
+        if(data != null){
+            encodedCache.put(uri, data);
+            SLog.d(SLog.CATEGORY_CACHE, NAME, "填充编码数据缓存", uri);
+        }
+    }
+
+    private class FillTask implements Runnable {
+        private final String uri;
+
+        private FillTask(String uri) {
+            this.uri = uri;
+        }
+
+        @Override
+        public void run() {
+            try {
+                fill(uri);
+            } finally {
+                clearPending(uri);
+            }
+        }
+    }
+
+    /**
+     * 队列满了时丢掉最早的任务，被丢掉的任务不会执行，要在这里把它的URI从pendingUris中删除，不然这张图片以后再也不会被填充
+     */
+    private class DiscardOldestHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if(executor.isShutdown()){
+                clearPending(((FillTask) runnable).uri);
+                return;
+            }
+            Runnable oldest = executor.getQueue().poll();
+            if(oldest != null){
+                clearPending(((FillTask) oldest).uri);
+            }
+            executor.execute(runnable);
+        }
+    }
+
+    /**
+     * 读取整个文件
+     * @return 文件内容，读取失败时返回null
+     */
+    private static byte[] readFile(File file){
+        long length = file.length();
+        if(length <= 0 || length > Integer.MAX_VALUE){
+            return null;
+        }
+        byte[] data = new byte[(int) length];
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            int offset = 0;
+            int readLength;
+            while(offset < data.length && (readLength = inputStream.read(data, offset, data.length - offset)) != -1){
+                offset += readLength;
+            }
+            return offset == data.length ? data : null;
+        } catch (IOException e) {
+            SLog.w(SLog.CATEGORY_CACHE, NAME, "读取缓存文件失败", e, file.getPath());
+            return null;
+        } finally {
+            if(inputStream != null){
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    SLog.w(SLog.CATEGORY_CACHE, NAME, "关闭缓存文件失败", e, file.getPath());
+                }
+            }
+        }
+    }
+}
@@ -21,19 +21,15 @@ import android.content.Context;
 import android.os.Build;
 import android.os.Environment;
 import android.os.StatFs;
-import android.util.Log;
+import android.os.SystemClock;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DownloadRequest;
-import me.xiaopan.android.spear.util.FileLastModifiedComparator;
 
 /**
  * 默认实现的磁盘缓存器
@@ -42,21 +38,24 @@ public class LruDiskCache implements DiskCache {
 	private static final String LOG_NAME = "LruDiskCache";
     private static final String DEFAULT_DIRECTORY_NAME = "spear";
     private static final int DEFAULT_RESERVE_SIZE = 100 * 1024 * 1024;
+    private static final long STATS_EXPIRE_TIME = 5 * 1000;    // 文件数量和总大小的有效期
 	private File diskCacheDir;	//缓存目录
     private Context context;
-    private FileLastModifiedComparator fileLastModifiedComparator;
+    private DiskCacheTrimmer diskCacheTrimmer;
     private int reserveSize = DEFAULT_RESERVE_SIZE;
     private int maxsize = -1;
+    private volatile Stats stats;   // 上次统计的结果，为null表示需要重新统计
+    private final AtomicBoolean statsRefreshing = new AtomicBoolean(false);
 
     public LruDiskCache(Context context, File diskCacheDir){
         this.context = context;
-        this.fileLastModifiedComparator = new FileLastModifiedComparator();
+        this.diskCacheTrimmer = new CacheFileTrimmer();
         setDiskCacheDir(diskCacheDir);
     }
 
     public LruDiskCache(Context context) {
         this.context = context;
-        this.fileLastModifiedComparator = new FileLastModifiedComparator();
+        this.diskCacheTrimmer = new CacheFileTrimmer();
     }
 
     private synchronized File getDiskCacheDir() {
@@ -65,11 +64,11 @@ public class LruDiskCache implements DiskCache {
         }
         if(!diskCacheDir.exists()){
             if(!diskCacheDir.mkdirs()){
-                Log.e(Spear.TAG, "创建缓存文件夹失败："+ diskCacheDir.getPath());
+                SLog.e(SLog.CATEGORY_CACHE, LOG_NAME, "创建缓存文件夹失败", diskCacheDir.getPath());
                 this.diskCacheDir = new File(getDynamicCacheDir(context).getPath() + File.separator + DEFAULT_DIRECTORY_NAME);
                 if(!diskCacheDir.exists()){
                     if(!diskCacheDir.mkdirs()){
-                        Log.e(Spear.TAG, "再次创建缓存文件夹失败："+ diskCacheDir.getPath());
+                        SLog.e(SLog.CATEGORY_CACHE, LOG_NAME, "再次创建缓存文件夹失败", diskCacheDir.getPath());
                         diskCacheDir = null;
                     }
                 }
@@ -108,51 +107,14 @@ public class LruDiskCache implements DiskCache {
 
         // 总的可用空间
         long totalAvailableSize = Math.abs(getAvailableSize(cacheDir.getPath()));
-        long usedSize = 0;
-        // 如果剩余空间够用
-        if(totalAvailableSize-reserveSize > cacheFileLength){
-            if(maxsize > 0){
-                usedSize = Math.abs(countFileLength(cacheDir));
-                if(usedSize+cacheFileLength < maxsize){
-                    return true;
-                }
-            }else{
-                return true;
-            }
-        }
-
-        // 获取所有缓存文件
-        File[] cacheFiles = null;
-        if(cacheDir.exists()){
-            cacheFiles = cacheDir.listFiles();
-        }
-
-        if(cacheFiles != null){
-            // 把所有文件按照最后修改日期排序
-            Arrays.sort(cacheFiles, fileLastModifiedComparator);
-
-            // 然后按照顺序来删除文件直到腾出足够的空间或文件删完为止
-            for(File file : cacheFiles){
-                Log.w(LOG_NAME, "删除缓存文件：" + file.getPath());
-                long currentFileLength = file.length();
-                if(file.delete()){
-                    totalAvailableSize += currentFileLength;
-                    if(totalAvailableSize-reserveSize > cacheFileLength){
-                        if(maxsize > 0){
-                            usedSize -= currentFileLength;
-                            if(usedSize+cacheFileLength < maxsize){
-                                return true;
-                            }
-                        }else{
-                            return true;
-                        }
-                    }
-                }
-            }
+        if(diskCacheTrimmer.applyForSpace(cacheDir, cacheFileLength, totalAvailableSize, reserveSize, maxsize)){
+            return true;
         }
 
         // 返回申请空间失败
-        Log.e(LOG_NAME, "申请空间失败，剩余空间："+(totalAvailableSize/1024/1024)+"M"+"; 保留空间："+(reserveSize/1024/1024)+"M; "+"; "+cacheDir.getPath());
+        if(SLog.isLoggable(SLog.ERROR, SLog.CATEGORY_CACHE)){
+            SLog.e(SLog.CATEGORY_CACHE, LOG_NAME, "申请空间失败", "剩余空间：" + (totalAvailableSize/1024/1024) + "M", "保留空间：" + (reserveSize/1024/1024) + "M", cacheDir.getPath());
+        }
         return false;
 	}
 
@@ -165,7 +127,7 @@ public class LruDiskCache implements DiskCache {
         try {
             uri =  URLEncoder.encode(uri, "UTF-8");
         } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            SLog.e(SLog.CATEGORY_CACHE, LOG_NAME, "编码URI失败", e, uri);
         }
 		return new File(cacheDir, uri);
 	}
@@ -175,13 +137,85 @@ public class LruDiskCache implements DiskCache {
 		return getCacheFileByUri(request.getUri());
 	}
 
+    @Override
+    public int getFileCount() {
+        Stats currentStats = refreshStats();
+        return currentStats != null ? currentStats.fileCount : 0;
+    }
+
+    @Override
+    public long getSize() {
+        Stats currentStats = refreshStats();
+        return currentStats != null ? currentStats.size : 0;
+    }
+
+    /**
+     * 重新统计文件数量和总大小，距离上次统计不足STATS_EXPIRE_TIME时直接使用上次的结果
+     * <br>扫描目录不加锁，不会挡住getCacheFileByUri()等方法；已经有线程在扫描时直接返回上次的结果
+     */
+    private Stats refreshStats(){
+        Stats currentStats = stats;
+        long currentTime = SystemClock.uptimeMillis();
+        if(currentStats != null && currentTime - currentStats.time < STATS_EXPIRE_TIME){
+            return currentStats;
+        }
+        if(!statsRefreshing.compareAndSet(false, true)){
+            return currentStats;
+        }
+        try{
+            int fileCount = 0;
+            long size = 0;
+            File cacheDir = getDiskCacheDir();
+            File[] files = cacheDir != null ? cacheDir.listFiles() : null;
+            if(files != null){
+                for(File file : files){
+                    if(file.isFile()){
+                        fileCount++;
+                        size += file.length();
+                    }
+                }
+            }
+            currentStats = new Stats(currentTime, fileCount, size);
+            stats = currentStats;
+            return currentStats;
+        }finally{
+            statsRefreshing.set(false);
+        }
+    }
+
     @Override
     public synchronized void clear() {
+        stats = null;
         deleteFile(diskCacheDir);
         deleteFile(new File(context.getCacheDir(), DEFAULT_DIRECTORY_NAME));
         deleteFile(new File(context.getExternalCacheDir(), DEFAULT_DIRECTORY_NAME));
     }
 
+    /**
+     * 文件数量和总大小的统计结果，整个替换，读取时不会看到一半新一半旧的数据
+     */
+    private static class Stats {
+        private final long time;
+        private final int fileCount;
+        private final long size;
+
+        private Stats(long time, int fileCount, long size) {
+            this.time = time;
+            this.fileCount = fileCount;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 删除缓存文件时输出日志
+     */
+    private static class CacheFileTrimmer extends DiskCacheTrimmer{
+        @Override
+        protected void onFileDeleted(File file) {
+            SLog.d(SLog.CATEGORY_CACHE, LOG_NAME, "删除缓存文件", file.getPath());
+        }
+    }
+
     /**
      * 获取动态获取缓存目录
      * @param context 上下文
@@ -220,34 +254,7 @@ public class LruDiskCache implements DiskCache {
      * @return 长度
      */
     public static long countFileLength(File file){
-        if(!file.exists()){
-            return 0;
-        }
-
-        if(file.isFile()){
-            return file.length();
-        }
-
-        File[] childFiles = file.listFiles();
-        if(childFiles == null || childFiles.length <= 0){
-            return 0;
-        }
-
-        List<File> fileList = new LinkedList<File>();
-        Collections.addAll(fileList, childFiles);
-        long length = 0;
-        for(File childFile : fileList){
-            if(childFile.isFile()){
-                length += childFile.length();
-            }else{
-                childFiles = childFile.listFiles();
-                if(childFiles == null || childFiles.length <= 0){
-                    continue;
-                }
-                Collections.addAll(fileList, childFiles);
-            }
-        }
-        return length;
+        return DiskCacheTrimmer.countFileLength(file);
     }
 
     /**
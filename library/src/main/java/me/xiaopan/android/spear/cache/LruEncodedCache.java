@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 使用Lru算法来缓存编码数据，读取不加锁，只记下访问序号，放入时超出容量才加锁淘汰访问序号最小的数据
+ */
+public class LruEncodedCache implements EncodedCache {
+    private ConcurrentHashMap<String, Entry> dataMap;
+    private AtomicLong accessTicker;    // 访问序号，越大表示越近访问过
+    private long maxSize;
+    private int maxEntrySize;
+    private volatile long size;
+
+    /**
+     * 创建编码数据缓存器
+     * @param maxSize 最大字节数
+     */
+    public LruEncodedCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = (int) Math.min(Integer.MAX_VALUE, maxSize/8);
+        this.dataMap = new ConcurrentHashMap<String, Entry>();
+        this.accessTicker = new AtomicLong();
+    }
+
+    /**
+     * 创建编码数据缓存器，最大字节数默认为最大可用内存的三十二分之一
+     */
+    public LruEncodedCache() {
+        this(Runtime.getRuntime().maxMemory()/32);
+    }
+
+    @Override
+    public synchronized void put(String uri, byte[] data) {
+        if(uri == null || data == null || data.length == 0 || data.length > maxEntrySize){
+            return;
+        }
+        Entry oldEntry = dataMap.put(uri, new Entry(data, accessTicker.incrementAndGet()));
+        long newSize = size + data.length;
+        if(oldEntry != null){
+            newSize -= oldEntry.data.length;
+        }
+        size = newSize;
+        trimToSize();
+    }
+
+    @Override
+    public byte[] get(String uri) {
+        Entry entry = uri != null ? dataMap.get(uri) : null;
+        if(entry == null){
+            return null;
+        }
+        entry.accessTick = accessTicker.incrementAndGet();
+        return entry.data;
+    }
+
+    @Override
+    public synchronized void remove(String uri) {
+        if(uri == null){
+            return;
+        }
+        Entry entry = dataMap.remove(uri);
+        if(entry != null){
+            size -= entry.data.length;
+        }
+    }
+
+    @Override
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    @Override
+    public synchronized void clear() {
+        dataMap.clear();
+        size = 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return dataMap.size();
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 淘汰访问序号最小的数据直到不超过最大字节数，数据只有几十份，每次遍历一遍找最小的就够了
+     */
+    private void trimToSize(){
+        while(size > maxSize){
+            Map.Entry<String, Entry> eldest = null;
+            for(Map.Entry<String, Entry> mapEntry : dataMap.entrySet()){
+                if(eldest == null || mapEntry.getValue().accessTick < eldest.getValue().accessTick){
+                    eldest = mapEntry;
+                }
+            }
+            if(eldest == null){
+                break;
+            }
+            dataMap.remove(eldest.getKey());
+            size -= eldest.getValue().data.length;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private volatile long accessTick;
+
+        private Entry(byte[] data, long accessTick) {
+            this.data = data;
+            this.accessTick = accessTick;
+        }
+    }
+}
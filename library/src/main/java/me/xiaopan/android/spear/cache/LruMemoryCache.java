@@ -20,6 +20,9 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Build;
 
+import me.xiaopan.android.spear.util.EntryVisitor;
+import me.xiaopan.android.spear.util.GifDrawable;
+import me.xiaopan.android.spear.util.ImageSize;
 import me.xiaopan.android.spear.util.LruCache;
 import me.xiaopan.android.spear.util.RecyclingBitmapDrawable;
 
@@ -27,14 +30,25 @@ import me.xiaopan.android.spear.util.RecyclingBitmapDrawable;
  * 使用Lru算法来缓存位图
  */
 public class LruMemoryCache implements MemoryCache {
-	private LruCache<String, BitmapDrawable> bitmapLruCache;
+	private LruCache<MemoryCacheKey, BitmapDrawable> bitmapLruCache;
+    private VariantIndex variantIndex;   // 每张图片的变体索引
+    private VariantIndex.Peeker<BitmapDrawable> variantPeeker;
+    private PinnedEntries pinnedEntries;    // 正在显示的图片
+    private EvictionListener evictionListener;
 
-    public LruMemoryCache(LruCache<String, BitmapDrawable> bitmapLruCache) {
+    /**
+     * 使用外部传入的LruCache，这时收不到淘汰通知，正在显示的图片也不会被钉住
+     */
+    public LruMemoryCache(LruCache<MemoryCacheKey, BitmapDrawable> bitmapLruCache) {
         this.bitmapLruCache = bitmapLruCache;
+        this.variantIndex = new VariantIndex();
+        this.variantPeeker = new DrawablePeeker(this);
+        this.pinnedEntries = new PinnedEntries();
     }
 
 	public LruMemoryCache(int maxSize){
-        this(new BitmapLruCache(maxSize));
+        this(null);
+        this.bitmapLruCache = new BitmapLruCache(maxSize);
 	}
 
     public LruMemoryCache(){
@@ -42,48 +56,183 @@ public class LruMemoryCache implements MemoryCache {
 	}
 	
 	@Override
-	public synchronized void put(String key, BitmapDrawable bitmapDrawable) {
+	public synchronized void put(MemoryCacheKey key, BitmapDrawable bitmapDrawable) {
+        releaseHeld(key);
 		bitmapLruCache.put(key, bitmapDrawable);
+        variantIndex.remove(key);
 	}
 
 	@Override
-	public synchronized BitmapDrawable get(String key) {
-		return bitmapLruCache.get(key);
+	public synchronized void putVariant(MemoryCacheKey key, BitmapDrawable bitmapDrawable, String uri, ImageSize maxsize) {
+        releaseHeld(key);
+		bitmapLruCache.put(key, bitmapDrawable);
+        variantIndex.put(key, uri, maxsize);
+	}
+
+	@Override
+	public synchronized BitmapDrawable get(MemoryCacheKey key) {
+		BitmapDrawable bitmapDrawable = bitmapLruCache.get(key);
+        if(bitmapDrawable == null){
+            // 已被淘汰但还在显示，重新放回缓存
+            bitmapDrawable = pinnedEntries.take(key);
+            if(bitmapDrawable != null){
+                bitmapLruCache.put(key, bitmapDrawable);
+            }
+        }
+        return bitmapDrawable;
+	}
+
+    @Override
+    public synchronized BitmapDrawable peek(MemoryCacheKey key) {
+        BitmapDrawable bitmapDrawable = bitmapLruCache.peek(key);
+        return bitmapDrawable != null ? bitmapDrawable : pinnedEntries.peek(key);
+    }
+
+	@Override
+	public synchronized BitmapDrawable getVariant(String uri, ImageSize maxsize) {
+		return variantIndex.find(uri, maxsize, variantPeeker);
 	}
 
 	@Override
-	public synchronized BitmapDrawable remove(String key) {
-		return bitmapLruCache.remove(key);
+	public synchronized BitmapDrawable remove(MemoryCacheKey key) {
+		BitmapDrawable bitmapDrawable = bitmapLruCache.remove(key);
+        return bitmapDrawable != null ? bitmapDrawable : releaseHeld(key);
 	}
 
 	@Override
 	public synchronized void clear() {
 		bitmapLruCache.evictAll();
+        for(BitmapDrawable bitmapDrawable : pinnedEntries.takeAll().values()){
+            notifyUncached(bitmapDrawable);
+        }
+        variantIndex.clear();
 	}
 
-    private static class BitmapLruCache extends LruCache<String, BitmapDrawable> {
+    @Override
+    public synchronized void pin(BitmapDrawable bitmapDrawable) {
+        pinnedEntries.pin(bitmapDrawable);
+    }
+
+    @Override
+    public synchronized void unpin(BitmapDrawable bitmapDrawable) {
+        MemoryCacheKey key = pinnedEntries.unpin(bitmapDrawable);
+        if(key != null){
+            variantIndex.remove(key);
+            notifyUncached(bitmapDrawable);
+            if(evictionListener != null){
+                evictionListener.onEvicted(key);
+            }
+        }
+    }
+
+    @Override
+    public synchronized MemoryCacheStats getStats() {
+        return new MemoryCacheStats(null, bitmapLruCache.entryCount(), bitmapLruCache.size(), bitmapLruCache.maxSize(), pinnedEntries.getHeldSize(),
+                bitmapLruCache.hitCount(), bitmapLruCache.missCount(), bitmapLruCache.putCount(), bitmapLruCache.evictionCount());
+    }
+
+    @Override
+    public synchronized void visitEntries(EntryVisitor<MemoryCacheKey, BitmapDrawable> visitor) {
+        bitmapLruCache.visitEntries(visitor);
+        pinnedEntries.visitHeld(visitor);
+    }
+
+    @Override
+    public synchronized void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * 获取已被淘汰但因为还在显示而保留着的图片占用的字节数，这部分不计入缓存容量
+     */
+    public synchronized int getPinnedSize(){
+        return pinnedEntries.getHeldSize();
+    }
+
+    /**
+     * 真正删除已被淘汰但还钉着的数据
+     */
+    private BitmapDrawable releaseHeld(MemoryCacheKey key){
+        BitmapDrawable bitmapDrawable = pinnedEntries.take(key);
+        if(bitmapDrawable != null){
+            variantIndex.remove(key);
+            notifyUncached(bitmapDrawable);
+        }
+        return bitmapDrawable;
+    }
+
+    static void notifyUncached(BitmapDrawable bitmapDrawable){
+        if(RecyclingBitmapDrawable.class.isInstance(bitmapDrawable)){
+            ((RecyclingBitmapDrawable) bitmapDrawable).setIsCached(false);
+        }
+    }
+
+    /**
+     * 查找变体时用peek()取出位图，已回收的当作不存在
+     */
+    static class DrawablePeeker implements VariantIndex.Peeker<BitmapDrawable> {
+        private MemoryCache memoryCache;
+
+        DrawablePeeker(MemoryCache memoryCache) {
+            this.memoryCache = memoryCache;
+        }
+
+        @Override
+        public BitmapDrawable peek(MemoryCacheKey key) {
+            return memoryCache.peek(key);
+        }
+
+        @Override
+        public int getPixels(BitmapDrawable bitmapDrawable) {
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            return bitmap != null && !bitmap.isRecycled() ? bitmap.getWidth() * bitmap.getHeight() : 0;
+        }
+    }
+
+    /**
+     * 计算位图占用的字节数，GIF只计算轮流使用的几帧和解码器的缓冲区
+     */
+    public static int sizeOf(BitmapDrawable bitmapDrawable){
+        if(bitmapDrawable instanceof GifDrawable){
+            return ((GifDrawable) bitmapDrawable).getResidentSize();
+        }
+        int bitmapSize;
+        Bitmap bitmap = bitmapDrawable.getBitmap();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
+            bitmapSize =  bitmap.getByteCount();
+        }else{
+            bitmapSize = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+        return bitmapSize == 0 ? 1 : bitmapSize;
+    }
+
+    private class BitmapLruCache extends LruCache<MemoryCacheKey, BitmapDrawable> {
 
         public BitmapLruCache(int maxSize) {
             super(maxSize);
         }
 
         @Override
-        protected int sizeOf(String key, BitmapDrawable value) {
-            int bitmapSize;
-            Bitmap bitmap = value.getBitmap();
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
-                bitmapSize =  bitmap.getByteCount();
-            }else{
-                bitmapSize = bitmap.getRowBytes() * bitmap.getHeight();
-            }
-            return bitmapSize == 0 ? 1 : bitmapSize;
+        protected int sizeOf(MemoryCacheKey key, BitmapDrawable value) {
+            return LruMemoryCache.sizeOf(value);
         }
 
         @Override
-        protected void entryRemoved(boolean evicted, String key, BitmapDrawable oldValue, BitmapDrawable newValue) {
-            if(RecyclingBitmapDrawable.class.isInstance(oldValue)){
-                ((RecyclingBitmapDrawable) oldValue).setIsCached(false);
+        protected void entryRemoved(boolean evicted, MemoryCacheKey key, BitmapDrawable oldValue, BitmapDrawable newValue) {
+            synchronized (LruMemoryCache.this){
+                if(evicted && pinnedEntries.isPinned(oldValue)){
+                    // 还在显示，先不删除
+                    pinnedEntries.hold(key, oldValue);
+                    return;
+                }
+                if(newValue == null){
+                    variantIndex.remove(key);
+                }
+                if(evicted && evictionListener != null){
+                    evictionListener.onEvicted(key);
+                }
             }
+            notifyUncached(oldValue);
         }
     }
-}
\ No newline at end of file
+}
@@ -18,6 +18,9 @@ package me.xiaopan.android.spear.cache;
 
 import android.graphics.drawable.BitmapDrawable;
 
+import me.xiaopan.android.spear.util.EntryVisitor;
+import me.xiaopan.android.spear.util.ImageSize;
+
 /**
  * 内存缓存器
  */
@@ -27,22 +30,85 @@ public interface MemoryCache {
 	 * @param key 键
 	 * @param bitmapDrawable 值
 	 */
-	public void put(String key, BitmapDrawable bitmapDrawable);
+	public void put(MemoryCacheKey key, BitmapDrawable bitmapDrawable);
+	
+	/**
+	 * 放进去一个位图，并把它登记为uri的一个变体，之后同一张图片更小尺寸的请求可以直接从它缩小得到
+	 * @param key 键
+	 * @param bitmapDrawable 值
+	 * @param uri 图片的原始URI
+	 * @param maxsize 解码时使用的最大尺寸，为null表示原图
+	 */
+	public void putVariant(MemoryCacheKey key, BitmapDrawable bitmapDrawable, String uri, ImageSize maxsize);
 	
 	/**
 	 * 根据给定的key获取位图
 	 * @param key 键
 	 */
-	public BitmapDrawable get(String key);
+	public BitmapDrawable get(MemoryCacheKey key);
+
+	/**
+	 * 根据给定的key获取位图，但不算一次访问：不调整淘汰顺序、不计入命中统计，已被淘汰但还钉着的也不会放回缓存
+	 * @param key 键
+	 */
+	public BitmapDrawable peek(MemoryCacheKey key);
+	
+	/**
+	 * 查找uri的一个可以满足maxsize的变体，即解码时使用的最大尺寸不小于maxsize的变体，有多个时返回最小的那个
+	 * @param uri 图片的原始URI
+	 * @param maxsize 需要的最大尺寸
+	 * @return 变体，没有时返回null
+	 */
+	public BitmapDrawable getVariant(String uri, ImageSize maxsize);
 	
 	/**
 	 * 根据给定的key删除位图
 	 * @param key 键
 	 */
-	public BitmapDrawable remove(String key);
+	public BitmapDrawable remove(MemoryCacheKey key);
 	
 	/**
 	 * 清除内存缓存
 	 */
 	public void clear();
+
+	/**
+	 * 钉住一个位图，SpearImageView显示它时调用，钉住期间即使被淘汰也会保留着，不计入缓存容量，再次访问时会重新放回缓存
+	 * @param bitmapDrawable 正在显示的位图
+	 */
+	public void pin(BitmapDrawable bitmapDrawable);
+
+	/**
+	 * 取消钉住，SpearImageView不再显示它或者从窗口移除时调用，每次pin()都要对应一次unpin()
+	 * @param bitmapDrawable 不再显示的位图
+	 */
+	public void unpin(BitmapDrawable bitmapDrawable);
+
+	/**
+	 * 获取统计数据，只读取计数器，可以频繁调用
+	 */
+	public MemoryCacheStats getStats();
+
+	/**
+	 * 在缓存的锁内依次访问所有图片，包括被淘汰但还钉着的，不会复制整个缓存
+	 * @param visitor 访问器，不要在里面操作缓存
+	 */
+	public void visitEntries(EntryVisitor<MemoryCacheKey, BitmapDrawable> visitor);
+
+	/**
+	 * 设置淘汰监听器，位图因为容量不够真正离开缓存时回调，还钉着的要等到取消钉住后才算
+	 * @param evictionListener 淘汰监听器，为null表示不监听
+	 */
+	public void setEvictionListener(EvictionListener evictionListener);
+
+	/**
+	 * 淘汰监听器，在缓存的锁内回调，不要在里面做耗时操作或操作缓存
+	 */
+	public interface EvictionListener {
+		/**
+		 * 位图被淘汰了
+		 * @param key 被淘汰的位图的键
+		 */
+		public void onEvicted(MemoryCacheKey key);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 内存缓存KEY，按字段比较，hash在设置时就算好，查找缓存时不用拼接字符串
+ * <br>DisplayHelper会复用同一个实例来查找缓存，只有在需要创建请求时才通过copy()创建新的实例，所以放进缓存里的KEY一定不会再改变
+ */
+public class MemoryCacheKey {
+    private String uri;
+    private int maxWidth;
+    private int maxHeight;
+    private int resizeWidth;
+    private int resizeHeight;
+    private String scaleType;
+    private String processorFlag;
+    private String partition;   // 缓存分区，不参与比较
+    private int hash;
+    private String string;
+
+    public MemoryCacheKey() {
+    }
+
+    /**
+     * 创建内存缓存KEY
+     * @param uri 图片URI
+     * @param maxsize 最大尺寸
+     * @param resize 裁剪尺寸
+     * @param scaleType 缩放方式的名称
+     * @param processorFlag 图片处理器的Flag
+     */
+    public MemoryCacheKey(String uri, ImageSize maxsize, ImageSize resize, String scaleType, String processorFlag) {
+        set(uri, maxsize, resize, scaleType, processorFlag);
+    }
+
+    /**
+     * 重新设置所有字段，只能用在还没有放进缓存的实例上
+     * @return 自己
+     */
+    public MemoryCacheKey set(String uri, ImageSize maxsize, ImageSize resize, String scaleType, String processorFlag){
+        this.uri = uri;
+        this.maxWidth = maxsize != null ? maxsize.getWidth() : -1;
+        this.maxHeight = maxsize != null ? maxsize.getHeight() : -1;
+        this.resizeWidth = resize != null ? resize.getWidth() : -1;
+        this.resizeHeight = resize != null ? resize.getHeight() : -1;
+        this.scaleType = scaleType;
+        this.processorFlag = processorFlag;
+        this.partition = null;
+        this.string = null;
+
+        int result = uri != null ? uri.hashCode() : 0;
+        result = 31 * result + maxWidth;
+        result = 31 * result + maxHeight;
+        result = 31 * result + resizeWidth;
+        result = 31 * result + resizeHeight;
+        result = 31 * result + (scaleType != null ? scaleType.hashCode() : 0);
+        result = 31 * result + (processorFlag != null ? processorFlag.hashCode() : 0);
+        this.hash = result;
+        return this;
+    }
+
+    /**
+     * 复制一个新的实例
+     */
+    public MemoryCacheKey copy(){
+        MemoryCacheKey key = new MemoryCacheKey();
+        key.uri = uri;
+        key.maxWidth = maxWidth;
+        key.maxHeight = maxHeight;
+        key.resizeWidth = resizeWidth;
+        key.resizeHeight = resizeHeight;
+        key.scaleType = scaleType;
+        key.processorFlag = processorFlag;
+        key.partition = partition;
+        key.hash = hash;
+        key.string = string;
+        return key;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * 获取缓存分区的名称，为null表示默认分区
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * 设置缓存分区的名称，由PartitionedMemoryCache根据它决定放在哪个分区，不影响equals()和hashCode()
+     * @return 自己
+     */
+    public MemoryCacheKey setPartition(String partition) {
+        this.partition = partition;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof MemoryCacheKey)){
+            return false;
+        }
+        MemoryCacheKey other = (MemoryCacheKey) o;
+        return hash == other.hash
+                && maxWidth == other.maxWidth && maxHeight == other.maxHeight
+                && resizeWidth == other.resizeWidth && resizeHeight == other.resizeHeight
+                && equals(uri, other.uri)
+                && equals(scaleType, other.scaleType)
+                && equals(processorFlag, other.processorFlag);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * 跟以前的字符串ID格式一样，只在打日志时才会用到
+     */
+    @Override
+    public String toString() {
+        if(string == null){
+            StringBuilder stringBuilder = new StringBuilder(String.valueOf(uri));
+            if(maxWidth >= 0){
+                stringBuilder.append("_").append(maxWidth).append("x").append(maxHeight);
+            }
+            if(resizeWidth >= 0){
+                stringBuilder.append("_").append(resizeWidth).append("x").append(resizeHeight);
+            }
+            if(scaleType != null){
+                stringBuilder.append("_").append(scaleType);
+            }
+            if(processorFlag != null){
+                stringBuilder.append("_").append(processorFlag);
+            }
+            string = stringBuilder.toString();
+        }
+        return string;
+    }
+
+    private static boolean equals(String a, String b){
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.cache;
+
+import java.util.List;
+
+/**
+ * 内存缓存的统计数据，字节数不包括被淘汰但还钉着的图片，这部分单独统计在pinnedSize里
+ */
+public class MemoryCacheStats {
+    private String name;
+    private int entryCount;
+    private int size;
+    private int maxSize;
+    private int pinnedSize;
+    private int hitCount;
+    private int missCount;
+    private int putCount;
+    private int evictionCount;
+    private List<MemoryCacheStats> partitions;
+
+    /**
+     * 创建统计数据
+     * @param name 名称，分区的统计数据为分区名称
+     * @param entryCount 图片数量
+     * @param size 占用字节数
+     * @param maxSize 最大字节数
+     * @param pinnedSize 被淘汰但还钉着的图片占用的字节数
+     * @param hitCount 命中次数
+     * @param missCount 未命中次数
+     * @param putCount 放入次数
+     * @param evictionCount 淘汰次数
+     */
+    public MemoryCacheStats(String name, int entryCount, int size, int maxSize, int pinnedSize, int hitCount, int missCount, int putCount, int evictionCount) {
+        this.name = name;
+        this.entryCount = entryCount;
+        this.size = size;
+        this.maxSize = maxSize;
+        this.pinnedSize = pinnedSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * 把多个分区的统计数据加起来
+     * @param name 名称
+     * @param partitions 每个分区的统计数据
+     */
+    public static MemoryCacheStats sum(String name, List<MemoryCacheStats> partitions){
+        MemoryCacheStats total = new MemoryCacheStats(name, 0, 0, 0, 0, 0, 0, 0, 0);
+        for(MemoryCacheStats stats : partitions){
+            total.entryCount += stats.entryCount;
+            total.size += stats.size;
+            total.maxSize += stats.maxSize;
+            total.pinnedSize += stats.pinnedSize;
+            total.hitCount += stats.hitCount;
+            total.missCount += stats.missCount;
+            total.putCount += stats.putCount;
+            total.evictionCount += stats.evictionCount;
+        }
+        total.partitions = partitions;
+        return total;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getPinnedSize() {
+        return pinnedSize;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getPutCount() {
+        return putCount;
+    }
+
+    public int getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 获取命中率
+     * @return 0到1，没有访问过时返回0
+     */
+    public float getHitRate(){
+        int accessCount = hitCount + missCount;
+        return accessCount > 0 ? (float) hitCount / accessCount : 0;
+    }
+
+    /**
+     * 获取每个分区的统计数据
+     * @return 不是PartitionedMemoryCache时返回null
+     */
+    public List<MemoryCacheStats> getPartitions() {
+        return partitions;
+    }
+}
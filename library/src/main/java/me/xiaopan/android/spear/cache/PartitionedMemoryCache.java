@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import android.graphics.drawable.BitmapDrawable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import me.xiaopan.android.spear.util.EntryVisitor;
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 分区内存缓存，每个分区有自己的容量，大图不会再把大量的小头像挤出去，分区通过DisplayOptions.memoryCachePartition()指定
+ * <br>使用方式：Spear.with(context).getConfiguration().setMemoryCache(new PartitionedMemoryCache().addPartition("avatar", 4 * 1024 * 1024));
+ * <br>没有指定分区或者指定的分区不存在时使用默认分区
+ */
+public class PartitionedMemoryCache implements MemoryCache {
+    public static final String DEFAULT_PARTITION_NAME = "default";    // 默认分区在统计数据中的名称
+
+    private MemoryCache defaultMemoryCache;
+    private Map<String, MemoryCache> partitions;
+    private List<MemoryCache> allMemoryCaches;   // 默认分区排在第一个，读多写少
+    private EvictionListener evictionListener;
+
+    /**
+     * 创建分区内存缓存
+     * @param defaultMemoryCache 默认分区
+     */
+    public PartitionedMemoryCache(MemoryCache defaultMemoryCache) {
+        if(defaultMemoryCache == null){
+            throw new IllegalArgumentException("defaultMemoryCache is null");
+        }
+        this.defaultMemoryCache = defaultMemoryCache;
+        this.partitions = new ConcurrentHashMap<String, MemoryCache>();
+        this.allMemoryCaches = new CopyOnWriteArrayList<MemoryCache>();
+        this.allMemoryCaches.add(defaultMemoryCache);
+    }
+
+    /**
+     * 创建分区内存缓存，默认分区使用LruMemoryCache，容量为最大可用内存的八分之一
+     */
+    public PartitionedMemoryCache() {
+        this(new LruMemoryCache());
+    }
+
+    /**
+     * 添加一个分区，名称相同时会替换并清空旧的分区
+     * @param name 分区名称
+     * @param memoryCache 分区使用的缓存
+     * @return 自己
+     */
+    public synchronized PartitionedMemoryCache addPartition(String name, MemoryCache memoryCache){
+        if(name == null || memoryCache == null){
+            return this;
+        }
+        MemoryCache oldMemoryCache = partitions.put(name, memoryCache);
+        if(oldMemoryCache != null){
+            allMemoryCaches.remove(oldMemoryCache);
+            oldMemoryCache.setEvictionListener(null);
+            oldMemoryCache.clear();
+        }
+        memoryCache.setEvictionListener(evictionListener);
+        allMemoryCaches.add(memoryCache);
+        return this;
+    }
+
+    /**
+     * 添加一个使用LruMemoryCache的分区
+     * @param name 分区名称
+     * @param maxSize 分区的容量，单位字节
+     * @return 自己
+     */
+    public PartitionedMemoryCache addPartition(String name, int maxSize){
+        return addPartition(name, new LruMemoryCache(maxSize));
+    }
+
+    /**
+     * 获取分区，不存在时返回默认分区
+     */
+    public MemoryCache getPartition(String name){
+        MemoryCache memoryCache = name != null ? partitions.get(name) : null;
+        return memoryCache != null ? memoryCache : defaultMemoryCache;
+    }
+
+    @Override
+    public void put(MemoryCacheKey key, BitmapDrawable bitmapDrawable) {
+        getPartition(key.getPartition()).put(key, bitmapDrawable);
+    }
+
+    @Override
+    public void putVariant(MemoryCacheKey key, BitmapDrawable bitmapDrawable, String uri, ImageSize maxsize) {
+        getPartition(key.getPartition()).putVariant(key, bitmapDrawable, uri, maxsize);
+    }
+
+    @Override
+    public BitmapDrawable get(MemoryCacheKey key) {
+        return getPartition(key.getPartition()).get(key);
+    }
+
+    @Override
+    public BitmapDrawable peek(MemoryCacheKey key) {
+        return getPartition(key.getPartition()).peek(key);
+    }
+
+    @Override
+    public BitmapDrawable getVariant(String uri, ImageSize maxsize) {
+        for(MemoryCache memoryCache : allMemoryCaches){
+            BitmapDrawable bitmapDrawable = memoryCache.getVariant(uri, maxsize);
+            if(bitmapDrawable != null){
+                return bitmapDrawable;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public BitmapDrawable remove(MemoryCacheKey key) {
+        return getPartition(key.getPartition()).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        for(MemoryCache memoryCache : allMemoryCaches){
+            memoryCache.clear();
+        }
+    }
+
+    /**
+     * 不知道图片在哪个分区，所以每个分区都要通知
+     */
+    @Override
+    public void pin(BitmapDrawable bitmapDrawable) {
+        for(MemoryCache memoryCache : allMemoryCaches){
+            memoryCache.pin(bitmapDrawable);
+        }
+    }
+
+    @Override
+    public void unpin(BitmapDrawable bitmapDrawable) {
+        for(MemoryCache memoryCache : allMemoryCaches){
+            memoryCache.unpin(bitmapDrawable);
+        }
+    }
+
+    /**
+     * 汇总所有分区的统计数据，每个分区的数据通过getPartitions()获取，默认分区的名称为“default”
+     */
+    @Override
+    public MemoryCacheStats getStats() {
+        List<MemoryCacheStats> partitionStatsList = new ArrayList<MemoryCacheStats>(partitions.size() + 1);
+        MemoryCacheStats defaultStats = defaultMemoryCache.getStats();
+        defaultStats.setName(DEFAULT_PARTITION_NAME);
+        partitionStatsList.add(defaultStats);
+        for(Map.Entry<String, MemoryCache> entry : partitions.entrySet()){
+            MemoryCacheStats partitionStats = entry.getValue().getStats();
+            partitionStats.setName(entry.getKey());
+            partitionStatsList.add(partitionStats);
+        }
+        return MemoryCacheStats.sum(null, partitionStatsList);
+    }
+
+    @Override
+    public void visitEntries(EntryVisitor<MemoryCacheKey, BitmapDrawable> visitor) {
+        for(MemoryCache memoryCache : allMemoryCaches){
+            memoryCache.visitEntries(visitor);
+        }
+    }
+
+    @Override
+    public synchronized void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+        for(MemoryCache memoryCache : allMemoryCaches){
+            memoryCache.setEvictionListener(evictionListener);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import android.graphics.drawable.BitmapDrawable;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import me.xiaopan.android.spear.util.EntryVisitor;
+
+/**
+ * 钉住的缓存数据，正在显示的图片会被钉住，这时即使被淘汰了也会先挪到这里，直到没有ImageView再显示它时才真正删除，供MemoryCache的实现类使用，本身不是线程安全的
+ * <br>挪到这里的数据不占用缓存的容量，再次被访问时会重新放回缓存
+ */
+public class PinnedEntries {
+    private Map<BitmapDrawable, Integer> pinCounts;   // 每个图片被多少个ImageView显示着
+    private Map<MemoryCacheKey, BitmapDrawable> heldByKey;  // 被淘汰时还钉着的数据
+    private Map<BitmapDrawable, MemoryCacheKey> keyByHeld;
+
+    public PinnedEntries() {
+        this.pinCounts = new IdentityHashMap<BitmapDrawable, Integer>();
+        this.heldByKey = new HashMap<MemoryCacheKey, BitmapDrawable>();
+        this.keyByHeld = new IdentityHashMap<BitmapDrawable, MemoryCacheKey>();
+    }
+
+    public void pin(BitmapDrawable bitmapDrawable){
+        Integer count = pinCounts.get(bitmapDrawable);
+        pinCounts.put(bitmapDrawable, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * 取消钉住
+     * @return 最后一次取消钉住并且这个图片已经被淘汰时返回它的KEY，调用者需要完成真正的删除
+     */
+    public MemoryCacheKey unpin(BitmapDrawable bitmapDrawable){
+        Integer count = pinCounts.get(bitmapDrawable);
+        if(count == null){
+            return null;
+        }
+        if(count > 1){
+            pinCounts.put(bitmapDrawable, count - 1);
+            return null;
+        }
+        pinCounts.remove(bitmapDrawable);
+        MemoryCacheKey key = keyByHeld.remove(bitmapDrawable);
+        if(key != null){
+            heldByKey.remove(key);
+        }
+        return key;
+    }
+
+    public boolean isPinned(BitmapDrawable bitmapDrawable){
+        return pinCounts.containsKey(bitmapDrawable);
+    }
+
+    /**
+     * 保存被淘汰但还钉着的数据
+     */
+    public void hold(MemoryCacheKey key, BitmapDrawable bitmapDrawable){
+        BitmapDrawable previous = heldByKey.put(key, bitmapDrawable);
+        if(previous != null && previous != bitmapDrawable){
+            keyByHeld.remove(previous);
+        }
+        keyByHeld.put(bitmapDrawable, key);
+    }
+
+    /**
+     * 取出并删除被淘汰但还钉着的数据
+     */
+    public BitmapDrawable take(MemoryCacheKey key){
+        BitmapDrawable bitmapDrawable = heldByKey.remove(key);
+        if(bitmapDrawable != null){
+            keyByHeld.remove(bitmapDrawable);
+        }
+        return bitmapDrawable;
+    }
+
+    /**
+     * 获取被淘汰但还钉着的数据，不会取出
+     */
+    public BitmapDrawable peek(MemoryCacheKey key){
+        return heldByKey.get(key);
+    }
+
+    /**
+     * 获取被淘汰但还钉着的数据占用的总大小
+     */
+    public int getHeldSize(){
+        int size = 0;
+        for(BitmapDrawable bitmapDrawable : heldByKey.values()){
+            size += LruMemoryCache.sizeOf(bitmapDrawable);
+        }
+        return size;
+    }
+
+    /**
+     * 获取被淘汰但还钉着的数据的条数
+     */
+    public int getHeldCount(){
+        return heldByKey.size();
+    }
+
+    /**
+     * 依次访问被淘汰但还钉着的数据
+     */
+    public void visitHeld(EntryVisitor<MemoryCacheKey, BitmapDrawable> visitor){
+        for(Map.Entry<MemoryCacheKey, BitmapDrawable> entry : heldByKey.entrySet()){
+            visitor.visit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 删除所有被淘汰但还钉着的数据，钉住计数会保留
+     * @return 被删除的数据
+     */
+    public Map<MemoryCacheKey, BitmapDrawable> takeAll(){
+        Map<MemoryCacheKey, BitmapDrawable> held = new HashMap<MemoryCacheKey, BitmapDrawable>(heldByKey);
+        heldByKey.clear();
+        keyByHeld.clear();
+        return held;
+    }
+}
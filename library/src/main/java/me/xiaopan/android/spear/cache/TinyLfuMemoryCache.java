@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import android.graphics.drawable.BitmapDrawable;
+
+import me.xiaopan.android.spear.util.EntryVisitor;
+import me.xiaopan.android.spear.util.ImageSize;
+import me.xiaopan.android.spear.util.TinyLfuCache;
+
+/**
+ * 使用W-TinyLFU算法来缓存位图，新图片要比将被淘汰的图片访问更频繁才能进入主缓存，快速滑动列表时一次性的图片不会把头像、图标等常用图片挤出去
+ * <br>使用方式：Spear.with(context).getConfiguration().setMemoryCache(new TinyLfuMemoryCache());
+ */
+public class TinyLfuMemoryCache implements MemoryCache {
+    private BitmapTinyLfuCache bitmapCache;
+    private VariantIndex variantIndex;   // 每张图片的变体索引
+    private VariantIndex.Peeker<BitmapDrawable> variantPeeker;
+    private PinnedEntries pinnedEntries;    // 正在显示的图片
+    private EvictionListener evictionListener;
+
+    public TinyLfuMemoryCache(int maxSize){
+        this.bitmapCache = new BitmapTinyLfuCache(maxSize);
+        this.variantIndex = new VariantIndex();
+        this.variantPeeker = new LruMemoryCache.DrawablePeeker(this);
+        this.pinnedEntries = new PinnedEntries();
+    }
+
+    public TinyLfuMemoryCache(){
+        this((int) (Runtime.getRuntime().maxMemory()/8));
+    }
+
+    @Override
+    public synchronized void put(MemoryCacheKey key, BitmapDrawable bitmapDrawable) {
+        releaseHeld(key);
+        bitmapCache.put(key, bitmapDrawable);
+        variantIndex.remove(key);
+    }
+
+    @Override
+    public synchronized void putVariant(MemoryCacheKey key, BitmapDrawable bitmapDrawable, String uri, ImageSize maxsize) {
+        releaseHeld(key);
+        // 先登记再放入，没能通过准入时会在entryRemoved()里删除登记
+        variantIndex.put(key, uri, maxsize);
+        bitmapCache.put(key, bitmapDrawable);
+    }
+
+    @Override
+    public synchronized BitmapDrawable get(MemoryCacheKey key) {
+        BitmapDrawable bitmapDrawable = bitmapCache.get(key);
+        if(bitmapDrawable == null){
+            // 已被淘汰但还在显示，重新放回缓存
+            bitmapDrawable = pinnedEntries.take(key);
+            if(bitmapDrawable != null){
+                bitmapCache.put(key, bitmapDrawable);
+            }
+        }
+        return bitmapDrawable;
+    }
+
+    @Override
+    public synchronized BitmapDrawable peek(MemoryCacheKey key) {
+        BitmapDrawable bitmapDrawable = bitmapCache.peek(key);
+        return bitmapDrawable != null ? bitmapDrawable : pinnedEntries.peek(key);
+    }
+
+    @Override
+    public synchronized BitmapDrawable getVariant(String uri, ImageSize maxsize) {
+        return variantIndex.find(uri, maxsize, variantPeeker);
+    }
+
+    @Override
+    public synchronized BitmapDrawable remove(MemoryCacheKey key) {
+        BitmapDrawable bitmapDrawable = bitmapCache.remove(key);
+        return bitmapDrawable != null ? bitmapDrawable : releaseHeld(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        bitmapCache.evictAll();
+        for(BitmapDrawable bitmapDrawable : pinnedEntries.takeAll().values()){
+            LruMemoryCache.notifyUncached(bitmapDrawable);
+        }
+        variantIndex.clear();
+    }
+
+    @Override
+    public synchronized void pin(BitmapDrawable bitmapDrawable) {
+        pinnedEntries.pin(bitmapDrawable);
+    }
+
+    @Override
+    public synchronized void unpin(BitmapDrawable bitmapDrawable) {
+        MemoryCacheKey key = pinnedEntries.unpin(bitmapDrawable);
+        if(key != null){
+            variantIndex.remove(key);
+            LruMemoryCache.notifyUncached(bitmapDrawable);
+            if(evictionListener != null){
+                evictionListener.onEvicted(key);
+            }
+        }
+    }
+
+    @Override
+    public synchronized MemoryCacheStats getStats() {
+        return new MemoryCacheStats(null, bitmapCache.entryCount(), bitmapCache.size(), bitmapCache.maxSize(), pinnedEntries.getHeldSize(),
+                bitmapCache.hitCount(), bitmapCache.missCount(), bitmapCache.putCount(), bitmapCache.evictionCount());
+    }
+
+    @Override
+    public synchronized void visitEntries(EntryVisitor<MemoryCacheKey, BitmapDrawable> visitor) {
+        bitmapCache.visitEntries(visitor);
+        pinnedEntries.visitHeld(visitor);
+    }
+
+    @Override
+    public synchronized void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * 获取已被淘汰但因为还在显示而保留着的图片占用的字节数，这部分不计入缓存容量
+     */
+    public synchronized int getPinnedSize(){
+        return pinnedEntries.getHeldSize();
+    }
+
+    /**
+     * 获取因为访问频率不够而没能进入缓存的次数
+     */
+    public int getRejectCount(){
+        return bitmapCache.rejectCount();
+    }
+
+    /**
+     * 真正删除已被淘汰但还钉着的数据
+     */
+    private BitmapDrawable releaseHeld(MemoryCacheKey key){
+        BitmapDrawable bitmapDrawable = pinnedEntries.take(key);
+        if(bitmapDrawable != null){
+            variantIndex.remove(key);
+            LruMemoryCache.notifyUncached(bitmapDrawable);
+        }
+        return bitmapDrawable;
+    }
+
+    private class BitmapTinyLfuCache extends TinyLfuCache<MemoryCacheKey, BitmapDrawable> {
+
+        public BitmapTinyLfuCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(MemoryCacheKey key, BitmapDrawable value) {
+            return LruMemoryCache.sizeOf(value);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, MemoryCacheKey key, BitmapDrawable oldValue, BitmapDrawable newValue) {
+            synchronized (TinyLfuMemoryCache.this){
+                if(evicted && pinnedEntries.isPinned(oldValue)){
+                    // 还在显示，先不删除，没能通过准入的新图片也一样
+                    pinnedEntries.hold(key, oldValue);
+                    return;
+                }
+                if(newValue == null){
+                    variantIndex.remove(key);
+                }
+                if(evicted && evictionListener != null){
+                    evictionListener.onEvicted(key);
+                }
+            }
+            LruMemoryCache.notifyUncached(oldValue);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 变体索引，记录每张图片在内存缓存中有哪些尺寸的变体，供MemoryCache的实现类使用，本身不是线程安全的
+ */
+public class VariantIndex {
+    private Map<String, List<Variant>> variantsByUri;   // 每张图片的变体索引
+    private Map<MemoryCacheKey, String> uriByVariantKey;
+
+    public VariantIndex() {
+        this.variantsByUri = new HashMap<String, List<Variant>>();
+        this.uriByVariantKey = new HashMap<MemoryCacheKey, String>();
+    }
+
+    /**
+     * 登记一个变体
+     * @param key 缓存KEY
+     * @param uri 图片的原始URI
+     * @param maxsize 解码时使用的最大尺寸，为null表示原图
+     */
+    public void put(MemoryCacheKey key, String uri, ImageSize maxsize){
+        remove(key);
+        List<Variant> variants = variantsByUri.get(uri);
+        if(variants == null){
+            variants = new LinkedList<Variant>();
+            variantsByUri.put(uri, variants);
+        }
+        variants.add(new Variant(key, maxsize));
+        uriByVariantKey.put(key, uri);
+    }
+
+    /**
+     * 查找uri的一个可以满足maxsize的变体，有多个时返回最小的那个
+     * <br>先复制出候选的KEY再逐个取出，取的过程中索引被修改（例如淘汰了另一个变体）也没关系
+     * @param peeker 用来根据KEY取出变体，不能算作一次访问
+     */
+    public <V> V find(String uri, ImageSize maxsize, Peeker<V> peeker){
+        List<Variant> variants = variantsByUri.get(uri);
+        if(variants == null || maxsize == null){
+            return null;
+        }
+
+        List<MemoryCacheKey> candidateKeys = new ArrayList<MemoryCacheKey>(variants.size());
+        for(Variant variant : variants){
+            if(variant.covers(maxsize)){
+                candidateKeys.add(variant.key);
+            }
+        }
+
+        V bestValue = null;
+        int bestPixels = Integer.MAX_VALUE;
+        for(MemoryCacheKey key : candidateKeys){
+            V value = peeker.peek(key);
+            int pixels = value != null ? peeker.getPixels(value) : 0;
+            if(pixels <= 0){
+                // 使用外部传入的缓存时收不到移除通知，只能在这里清理
+                remove(key);
+                continue;
+            }
+            if(pixels < bestPixels){
+                bestPixels = pixels;
+                bestValue = value;
+            }
+        }
+        return bestValue;
+    }
+
+    /**
+     * 删除变体登记，缓存中的数据被删除或替换时调用
+     */
+    public void remove(MemoryCacheKey key){
+        String uri = uriByVariantKey.remove(key);
+        if(uri == null){
+            return;
+        }
+        List<Variant> variants = variantsByUri.get(uri);
+        if(variants == null){
+            return;
+        }
+        Iterator<Variant> iterator = variants.iterator();
+        while(iterator.hasNext()){
+            if(iterator.next().key.equals(key)){
+                iterator.remove();
+            }
+        }
+        if(variants.isEmpty()){
+            variantsByUri.remove(uri);
+        }
+    }
+
+    public void clear(){
+        variantsByUri.clear();
+        uriByVariantKey.clear();
+    }
+
+    /**
+     * 根据KEY取出变体
+     */
+    public interface Peeker<V> {
+        /**
+         * 取出变体，不能调整淘汰顺序、计入命中统计或把钉着的数据放回缓存
+         * @return 不存在时返回null
+         */
+        V peek(MemoryCacheKey key);
+
+        /**
+         * 获取变体的像素数，已回收等不能用的返回0
+         */
+        int getPixels(V value);
+    }
+
+    /**
+     * 变体，记录了缓存ID以及解码时使用的最大尺寸
+     */
+    private static class Variant {
+        private MemoryCacheKey key;
+        private int maxWidth;   // 0表示不限
+        private int maxHeight;
+
+        private Variant(MemoryCacheKey key, ImageSize maxsize) {
+            this.key = key;
+            if(maxsize != null){
+                this.maxWidth = maxsize.getWidth();
+                this.maxHeight = maxsize.getHeight();
+            }
+        }
+
+        private boolean covers(ImageSize maxsize){
+            return (maxWidth <= 0 || maxWidth >= maxsize.getWidth()) && (maxHeight <= 0 || maxHeight >= maxsize.getHeight());
+        }
+    }
+}
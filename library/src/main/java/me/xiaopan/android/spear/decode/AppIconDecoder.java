@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+
+import java.io.File;
+
+import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.request.LoadRequest;
+import me.xiaopan.android.spear.util.ImageScheme;
+
+/**
+ * 解码APK文件和已安装应用的图标
+ * <br>解析APK和加载图标都很慢，所以图标会以PNG格式存进磁盘缓存，APK文件的KEY是“路径@修改时间#文件长度”，已安装应用的KEY是“app://包名@versionCode#安装时间”，下次直接按maxsize解码缓存文件
+ * <br>返回的图片都是新创建的，不会是系统共享的图标，被内存缓存回收也没关系
+ */
+public class AppIconDecoder {
+    private static final String NAME = "AppIconDecoder";
+
+    /**
+     * 解码APK文件的图标
+     * @return 失败时返回null
+     */
+    public static Bitmap decodeApk(LoadRequest loadRequest){
+        final String apkFilePath = loadRequest.getUri();
+        File apkFile = new File(apkFilePath);
+        String cacheKey = apkFilePath + "@" + apkFile.lastModified() + "#" + apkFile.length();
+        return decode(loadRequest, cacheKey, new IconLoader() {
+            @Override
+            public Bitmap load(Context context) {
+                return DefaultImageDecoder.decodeIconFromApk(context, apkFilePath);
+            }
+        });
+    }
+
+    /**
+     * 解码已安装应用的图标
+     * @return 失败时返回null
+     */
+    public static Bitmap decodeApp(LoadRequest loadRequest){
+        final String packageName = ImageScheme.APP.crop(loadRequest.getUri());
+        final PackageManager packageManager = loadRequest.getSpear().getConfiguration().getContext().getPackageManager();
+        final PackageInfo packageInfo;
+        try {
+            packageInfo = packageManager.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "应用没有安装", packageName);
+            return null;
+        }
+
+        String cacheKey = loadRequest.getUri() + "@" + packageInfo.versionCode + "#" + new File(packageInfo.applicationInfo.sourceDir).lastModified();
+        return decode(loadRequest, cacheKey, new IconLoader() {
+            @Override
+            public Bitmap load(Context context) {
+                return DefaultImageDecoder.drawableToBitmap(packageInfo.applicationInfo.loadIcon(packageManager));
+            }
+        });
+    }
+
+    private static Bitmap decode(LoadRequest loadRequest, String cacheKey, IconLoader iconLoader){
+        // 先找磁盘缓存
+        DiskCache diskCache = loadRequest.getSpear().getConfiguration().getDiskCache();
+        File cacheFile = loadRequest.isEnableDiskCache() ? diskCache.getCacheFileByUri(cacheKey) : null;
+        if(cacheFile != null && cacheFile.exists()){
+            Bitmap bitmap = DefaultImageDecoder.decodeFromHelper(loadRequest, new DefaultImageDecoder.CacheFileDecodeHelper(cacheFile, loadRequest));
+            if(bitmap != null){
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap = iconLoader.load(loadRequest.getSpear().getConfiguration().getContext());
+        if(bitmap == null){
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "加载图标失败", loadRequest.getUri());
+            return null;
+        }
+
+        boolean saved = cacheFile != null && DefaultImageDecoder.saveToDiskCache(diskCache, cacheFile, bitmap, Bitmap.CompressFormat.PNG, 100);
+        if(loadRequest.getMetrics() != null){
+            loadRequest.getMetrics().setDecodeInfo(bitmap.getWidth(), bitmap.getHeight(), 1);
+        }
+        if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)){
+            SLog.d(SLog.CATEGORY_DECODE, NAME, "加载图标成功",
+                    "尺寸=" + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                    saved ? "已存进磁盘缓存" : "没有存进磁盘缓存",
+                    loadRequest.getName());
+        }
+
+        // 缩小到maxsize，ExifInfo.applyOrientation()在方向正常并且不需要缩小时直接返回原图
+        float scale = LoadRequest.calculateVariantScale(bitmap.getWidth(), bitmap.getHeight(), loadRequest.getMaxsize());
+        return ExifInfo.applyOrientation(bitmap, ExifInfo.ORIENTATION_NORMAL, scale);
+    }
+
+    private interface IconLoader {
+        Bitmap load(Context context);
+    }
+}
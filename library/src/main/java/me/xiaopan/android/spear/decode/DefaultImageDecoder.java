@@ -19,29 +19,42 @@ package me.xiaopan.android.spear.decode;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.Canvas;
 import android.graphics.Point;
-import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.util.Log;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.LoadRequest;
+import me.xiaopan.android.spear.util.GifDrawable;
 import me.xiaopan.android.spear.util.ImageScheme;
 import me.xiaopan.android.spear.util.ImageSize;
+import me.xiaopan.android.spear.util.LruCache;
 
 /**
  * 默认的位图解码器
  */
 public class DefaultImageDecoder implements ImageDecoder {
+    private static final String NAME = "DefaultImageDecoder";
+    private static final int EXIF_INFO_CACHE_SIZE = 512;
+    private static final String GIF_MIME_TYPE = "image/gif";
+
+    private LruCache<String, ExifInfo> exifInfoCache = new LruCache<String, ExifInfo>(EXIF_INFO_CACHE_SIZE);   // 本地照片的EXIF信息，不含缩略图数据
 
     @Override
 	public Bitmap decode(LoadRequest loadRequest){
@@ -55,21 +68,164 @@ public class DefaultImageDecoder implements ImageDecoder {
             return decodeAssets(loadRequest);
         }else if(loadRequest.getImageScheme() == ImageScheme.DRAWABLE){
             return decodeDrawable(loadRequest);
+        }else if(loadRequest.getImageScheme() == ImageScheme.VIDEO){
+            return MediaThumbnailDecoder.decode(loadRequest);
+        }else if(loadRequest.getImageScheme() == ImageScheme.APP){
+            return AppIconDecoder.decodeApp(loadRequest);
         }else{
             return null;
         }
 	}
 
+    @Override
+    public GifDrawable decodeGif(LoadRequest loadRequest) {
+        byte[] data = readGifData(loadRequest);
+        GifDecoder gifDecoder = data != null ? GifDecoder.create(data) : null;
+        if(gifDecoder == null){
+            return null;
+        }
+
+        int inSampleSize = 1;
+        ImageSize maxsize = loadRequest.getMaxsize();
+        if(maxsize != null){
+            inSampleSize = loadRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(gifDecoder.getWidth(), gifDecoder.getHeight(), maxsize.getWidth(), maxsize.getHeight());
+        }
+
+        // 画布和帧都是常驻内存的，超过整个处理预算时不播放，交给LoadRequest按静态图片解码第一帧
+        long residentSize = GifDrawable.estimateResidentSize(gifDecoder, inSampleSize);
+        long maxBytes = loadRequest.getSpear().getConfiguration().getRequestExecutor().getProcessBitmapBudget().getMaxBytes();
+        if(residentSize > maxBytes){
+            SLog.w(SLog.CATEGORY_DECODE, NAME, "GIF太大，按静态图片解码",
+                    "原始尺寸=" + gifDecoder.getWidth() + "x" + gifDecoder.getHeight() + "；需要内存=" + residentSize + "；预算=" + maxBytes,
+                    loadRequest.getName());
+            return null;
+        }
+        gifDecoder.setSampleSize(inSampleSize);
+        if(loadRequest.getMetrics() != null){
+            loadRequest.getMetrics().setDecodeInfo(gifDecoder.getWidth(), gifDecoder.getHeight(), gifDecoder.getSampleSize());
+        }
+
+        GifDrawable gifDrawable = GifDrawable.create(loadRequest.getSpear().getConfiguration().getContext().getResources(), gifDecoder);
+        if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)){
+            SLog.d(SLog.CATEGORY_DECODE, NAME, "解码GIF成功",
+                    "原始尺寸=" + gifDecoder.getWidth() + "x" + gifDecoder.getHeight() + "；缩放比例=" + gifDecoder.getSampleSize(),
+                    "帧数=" + gifDecoder.getFrameCount(),
+                    loadRequest.getName());
+        }
+        return gifDrawable;
+    }
+
+    /**
+     * 读取GIF的全部数据，decode()已经通过文件头确定是GIF了
+     * @return 读取失败时返回null
+     */
+    private static byte[] readGifData(LoadRequest loadRequest){
+        ImageScheme imageScheme = loadRequest.getImageScheme();
+        Context context = loadRequest.getSpear().getConfiguration().getContext();
+        InputStream inputStream = null;
+        try {
+            if(imageScheme == ImageScheme.HTTP || imageScheme == ImageScheme.HTTPS){
+                byte[] data = loadRequest.getImageData();
+                if(data != null && data.length > 0){
+                    return data;
+                }
+                if(loadRequest.getCacheFile() == null || !loadRequest.getCacheFile().exists()){
+                    return null;
+                }
+                inputStream = new FileInputStream(loadRequest.getCacheFile());
+            }else if(imageScheme == ImageScheme.FILE){
+                inputStream = new FileInputStream(loadRequest.getUri());
+            }else if(imageScheme == ImageScheme.CONTENT){
+                inputStream = context.getContentResolver().openInputStream(Uri.parse(loadRequest.getUri()));
+            }else if(imageScheme == ImageScheme.ASSETS){
+                inputStream = context.getAssets().open(ImageScheme.ASSETS.crop(loadRequest.getUri()));
+            }else if(imageScheme == ImageScheme.DRAWABLE){
+                inputStream = context.getResources().openRawResource(Integer.valueOf(ImageScheme.DRAWABLE.crop(loadRequest.getUri())));
+            }
+            if(inputStream == null){
+                return null;
+            }
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int readLength;
+            while((readLength = inputStream.read(buffer)) != -1){
+                outputStream.write(buffer, 0, readLength);
+            }
+            return outputStream.toByteArray();
+        } catch (Exception e) {
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "读取GIF数据失败", e, loadRequest.getName());
+            return null;
+        } finally {
+            if(inputStream != null){
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    SLog.w(SLog.CATEGORY_DECODE, NAME, "关闭输入流失败", e, loadRequest.getName());
+                }
+            }
+        }
+    }
+
     public Bitmap decodeHttpOrHttps(LoadRequest loadRequest){
-        if(loadRequest.getCacheFile() != null && loadRequest.getCacheFile().exists()){
+        // 优先使用内存中的数据（刚下载的或者编码数据缓存中的），其次才是磁盘缓存文件
+        byte[] data = loadRequest.getImageData();
+        if(data != null && data.length > 0){
+            Bitmap bitmap = decodeFromHelper(loadRequest, new ByteArrayDecodeHelper(data, loadRequest));
+            // 数据来自编码数据缓存时磁盘缓存文件没被读取，也要刷新它的最后修改时间，不然LruDiskCache会把常用的图片当成不活跃的删掉
+            if(bitmap != null && loadRequest.getCacheFile() != null){
+                loadRequest.getCacheFile().setLastModified(System.currentTimeMillis());
+            }
+            return bitmap;
+        }else if(loadRequest.getCacheFile() != null && loadRequest.getCacheFile().exists()){
             return decodeFromHelper(loadRequest, new CacheFileDecodeHelper(loadRequest.getCacheFile(), loadRequest));
-        }else if(loadRequest.getImageData() != null && loadRequest.getImageData().length > 0){
-            return decodeFromHelper(loadRequest, new ByteArrayDecodeHelper(loadRequest.getImageData(), loadRequest));
         }else{
             return null;
         }
     }
 
+    /**
+     * 压缩后存进磁盘缓存，先写临时文件，写完再改名
+     * @return 是否保存成功
+     */
+    public static boolean saveToDiskCache(DiskCache diskCache, File cacheFile, Bitmap bitmap, Bitmap.CompressFormat format, int quality){
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        if(!bitmap.compress(format, quality, byteArrayOutputStream)){
+            return false;
+        }
+        if(!diskCache.applyForSpace(byteArrayOutputStream.size())){
+            return false;
+        }
+
+        File tempFile = new File(cacheFile.getPath() + ".temp");
+        FileOutputStream outputStream = null;
+        boolean success = false;
+        try{
+            outputStream = new FileOutputStream(tempFile);
+            byteArrayOutputStream.writeTo(outputStream);
+            success = true;
+        }catch(IOException e){
+            SLog.e(SLog.CATEGORY_CACHE, NAME, "写入临时文件失败", e, tempFile.getPath());
+        }finally{
+            if(outputStream != null){
+                try{
+                    outputStream.close();
+                }catch(IOException e){
+                    SLog.e(SLog.CATEGORY_CACHE, NAME, "关闭临时文件失败", e, tempFile.getPath());
+                    success = false;
+                }
+            }
+        }
+
+        if(success && tempFile.renameTo(cacheFile)){
+            return true;
+        }
+        if(tempFile.exists() && !tempFile.delete()){
+            SLog.w(SLog.CATEGORY_CACHE, NAME, "删除临时文件失败", tempFile.getPath());
+        }
+        return false;
+    }
+
     public Bitmap decodeFile(LoadRequest loadRequest){
         String fileNameSuffix = null;
         int lastIndex = loadRequest.getUri().lastIndexOf(".");
@@ -78,14 +234,161 @@ public class DefaultImageDecoder implements ImageDecoder {
         }
 
         if(".apk".equalsIgnoreCase(fileNameSuffix)){
-            return decodeIconFromApk(loadRequest.getSpear().getConfiguration().getContext(), loadRequest.getUri());
+            return AppIconDecoder.decodeApk(loadRequest);
         }else{
-            return decodeFromHelper(loadRequest, new FileDecodeHelper(new File(loadRequest.getUri()), loadRequest));
+            File file = new File(loadRequest.getUri());
+            return decodeLocalPhoto(loadRequest, new FileDecodeHelper(file, loadRequest), file.getPath() + "@" + file.lastModified());
         }
     }
 
     public Bitmap decodeContent(LoadRequest loadRequest){
-        return decodeFromHelper(loadRequest, new ContentDecodeHelper(loadRequest.getUri(), loadRequest));
+        if(MediaThumbnailDecoder.canDecode(loadRequest)){
+            return MediaThumbnailDecoder.decode(loadRequest);
+        }
+        return decodeLocalPhoto(loadRequest, new ContentDecodeHelper(loadRequest.getUri(), loadRequest), getContentExifInfoKey(loadRequest));
+    }
+
+    /**
+     * 获取content://图片缓存EXIF信息用的KEY，带上修改时间和大小，同一个URI换了内容KEY也会变
+     * @return 查不到修改时间和大小时返回null，这时不缓存EXIF信息
+     */
+    private static String getContentExifInfoKey(LoadRequest loadRequest){
+        Uri uri = Uri.parse(loadRequest.getUri());
+        boolean mediaStore = MediaStore.AUTHORITY.equals(uri.getAuthority());
+        String[] projection = mediaStore
+                ? new String[]{MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATE_MODIFIED}
+                : new String[]{OpenableColumns.SIZE};
+        Cursor cursor = null;
+        try{
+            cursor = loadRequest.getSpear().getConfiguration().getContext().getContentResolver().query(uri, projection, null, null, null);
+            if(cursor == null || !cursor.moveToFirst() || cursor.isNull(0)){
+                return null;
+            }
+            long size = cursor.getLong(0);
+            long dateModified = mediaStore && !cursor.isNull(1) ? cursor.getLong(1) : 0;
+            return loadRequest.getUri() + "@" + dateModified + "#" + size;
+        }catch(RuntimeException e){
+            SLog.w(SLog.CATEGORY_DECODE, NAME, "查询修改时间和大小失败", e, loadRequest.getUri());
+            return null;
+        }finally{
+            if(cursor != null){
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 解码本地照片，maxsize比较小并且EXIF里的缩略图够大时直接解码缩略图，最后按EXIF的方向旋转
+     * <br>旋转不会额外多一次整张图的createBitmap()，见{@link #applyOrientation(LoadRequest, Bitmap, int)}
+     * @param exifInfoKey 缓存EXIF信息用的KEY，文件改了KEY也要跟着变，为null时不缓存
+     */
+    private Bitmap decodeLocalPhoto(LoadRequest loadRequest, DecodeHelper decodeHelper, String exifInfoKey){
+        ExifInfo exifInfo = exifInfoKey != null ? exifInfoCache.get(exifInfoKey) : null;
+        if(exifInfo == null){
+            exifInfo = readExifInfo(loadRequest);
+            if(exifInfoKey != null){
+                exifInfoCache.put(exifInfoKey, exifInfo.withoutThumbnailData());
+            }
+        }
+
+        ImageSize maxsize = loadRequest.getMaxsize();
+        Bitmap bitmap = null;
+        if(maxsize != null && isThumbnailEnough(loadRequest, exifInfo, maxsize)){
+            if(exifInfo.getThumbnailData() == null){
+                exifInfo = readExifInfo(loadRequest);
+            }
+            bitmap = decodeThumbnail(loadRequest, exifInfo, maxsize);
+        }
+        if(bitmap == null){
+            bitmap = decodeFromHelper(loadRequest, decodeHelper, exifInfo.isSwapSize());
+        }
+
+        if(bitmap != null && exifInfo.getOrientation() != ExifInfo.ORIENTATION_NORMAL){
+            bitmap = applyOrientation(loadRequest, bitmap, exifInfo.getOrientation());
+        }
+        return bitmap;
+    }
+
+    /**
+     * 按EXIF方向旋转，同时缩小到maxsize，在同一次createBitmap()里完成
+     * <br>接下来还要用默认的CutImageProcessor裁剪时这里不旋转，只记下方向，旋转跟裁剪在处理时一次画完
+     */
+    static Bitmap applyOrientation(LoadRequest loadRequest, Bitmap bitmap, int orientation){
+        if(orientation != ExifInfo.ORIENTATION_NORMAL && loadRequest.isDefaultCutPending()){
+            loadRequest.setExifOrientation(orientation);
+            return bitmap;
+        }
+        float scale = orientation >= ExifInfo.ORIENTATION_TRANSPOSE
+                ? LoadRequest.calculateVariantScale(bitmap.getHeight(), bitmap.getWidth(), loadRequest.getMaxsize())
+                : LoadRequest.calculateVariantScale(bitmap.getWidth(), bitmap.getHeight(), loadRequest.getMaxsize());
+        return ExifInfo.applyOrientation(bitmap, orientation, scale);
+    }
+
+    /**
+     * 读取本地照片的EXIF信息
+     * @return 读取失败时返回ExifInfo.NONE
+     */
+    private static ExifInfo readExifInfo(LoadRequest loadRequest){
+        InputStream inputStream = null;
+        try {
+            if(loadRequest.getImageScheme() == ImageScheme.CONTENT){
+                inputStream = loadRequest.getSpear().getConfiguration().getContext().getContentResolver().openInputStream(Uri.parse(loadRequest.getUri()));
+            }else{
+                inputStream = new FileInputStream(loadRequest.getUri());
+            }
+            return inputStream != null ? ExifInfo.read(new BufferedInputStream(inputStream, 1024)) : ExifInfo.NONE;
+        } catch (IOException e) {
+            SLog.w(SLog.CATEGORY_DECODE, NAME, "读取EXIF信息失败", e, loadRequest.getUri());
+            return ExifInfo.NONE;
+        } finally {
+            if(inputStream != null){
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    SLog.w(SLog.CATEGORY_DECODE, NAME, "关闭输入流失败", e, loadRequest.getUri());
+                }
+            }
+        }
+    }
+
+    /**
+     * 缩略图的宽高比跟原图一样，并且不比按maxsize解码原图得到的图片小
+     */
+    private static boolean isThumbnailEnough(LoadRequest loadRequest, ExifInfo exifInfo, ImageSize maxsize){
+        if(!exifInfo.isThumbnailAspectRatioMatched()){
+            return false;
+        }
+        int targetWidth = exifInfo.isSwapSize() ? maxsize.getHeight() : maxsize.getWidth();
+        int targetHeight = exifInfo.isSwapSize() ? maxsize.getWidth() : maxsize.getHeight();
+        int inSampleSize = loadRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(exifInfo.getImageWidth(), exifInfo.getImageHeight(), targetWidth, targetHeight);
+        return exifInfo.getThumbnailWidth() >= exifInfo.getImageWidth() / inSampleSize && exifInfo.getThumbnailHeight() >= exifInfo.getImageHeight() / inSampleSize;
+    }
+
+    private static Bitmap decodeThumbnail(LoadRequest loadRequest, ExifInfo exifInfo, ImageSize maxsize){
+        byte[] thumbnailData = exifInfo.getThumbnailData();
+        if(thumbnailData == null){
+            return null;
+        }
+        int targetWidth = exifInfo.isSwapSize() ? maxsize.getHeight() : maxsize.getWidth();
+        int targetHeight = exifInfo.isSwapSize() ? maxsize.getWidth() : maxsize.getHeight();
+        Options options = new Options();
+        options.inSampleSize = loadRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(exifInfo.getThumbnailWidth(), exifInfo.getThumbnailHeight(), targetWidth, targetHeight);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnailData, 0, thumbnailData.length, options);
+        if(bitmap == null){
+            return null;
+        }
+
+        int inSampleSize = Math.max(1, exifInfo.getImageWidth() / bitmap.getWidth());
+        if(loadRequest.getMetrics() != null){
+            loadRequest.getMetrics().setDecodeInfo(exifInfo.getImageWidth(), exifInfo.getImageHeight(), inSampleSize);
+        }
+        if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)){
+            SLog.d(SLog.CATEGORY_DECODE, NAME, "使用EXIF缩略图",
+                    "原始尺寸=" + exifInfo.getImageWidth() + "x" + exifInfo.getImageHeight() + "；目标尺寸=" + maxsize.getWidth() + "x" + maxsize.getHeight(),
+                    "缩略图尺寸=" + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                    loadRequest.getName());
+        }
+        return bitmap;
     }
 
     public Bitmap decodeAssets(LoadRequest loadRequest){
@@ -97,21 +400,37 @@ public class DefaultImageDecoder implements ImageDecoder {
     }
 
     public static Bitmap decodeFromHelper(LoadRequest loadRequest, DecodeHelper decodeHelper){
+        return decodeFromHelper(loadRequest, decodeHelper, false);
+    }
+
+    /**
+     * @param swapSize 图片解码后要旋转90度时为true，计算inSampleSize时会把maxsize的宽高互换
+     */
+    public static Bitmap decodeFromHelper(LoadRequest loadRequest, DecodeHelper decodeHelper, boolean swapSize){
         ImageSize maxsize = loadRequest.getMaxsize();
         Bitmap bitmap = null;
         Point originalSize = null;
         int inSampleSize = 1;
 
-        if(maxsize != null){
+        if(maxsize != null || loadRequest.isAcceptGif()){
             // 只解码宽高
             Options options = new Options();
             options.inJustDecodeBounds = true;
             decodeHelper.onDecode(options);
+            // 解码宽高时已经读过文件头了，是GIF的话就交给decodeGif()
+            if(loadRequest.isAcceptGif() && GIF_MIME_TYPE.equals(options.outMimeType)){
+                loadRequest.setGifDetected(true);
+                return null;
+            }
             if(!(options.outWidth == 1 && options.outHeight == 1)){
                 originalSize = new Point(options.outWidth, options.outHeight);
 
                 // 计算缩放倍数
-                inSampleSize = loadRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(options.outWidth, options.outHeight, maxsize.getWidth(), maxsize.getHeight());
+                if(maxsize != null){
+                    int targetWidth = swapSize ? maxsize.getHeight() : maxsize.getWidth();
+                    int targetHeight = swapSize ? maxsize.getWidth() : maxsize.getHeight();
+                    inSampleSize = loadRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+                }
                 options.inSampleSize = inSampleSize;
 
                 // 再次解码
@@ -134,6 +453,9 @@ public class DefaultImageDecoder implements ImageDecoder {
         // 回调
         if(bitmap != null && originalSize != null){
             if(!bitmap.isRecycled()){
+                if(loadRequest.getMetrics() != null){
+                    loadRequest.getMetrics().setDecodeInfo(originalSize.x, originalSize.y, inSampleSize);
+                }
                 decodeHelper.onDecodeSuccess(bitmap, originalSize, inSampleSize);
             }else{
                 bitmap = null;
@@ -146,6 +468,24 @@ public class DefaultImageDecoder implements ImageDecoder {
         return bitmap;
     }
 
+    /**
+     * 输出解码成功的日志，关闭DEBUG级别或CATEGORY_DECODE分类时不会拼接任何字符串
+     */
+    static void logDecodeSuccess(String name, Bitmap bitmap, Point originalSize, int inSampleSize, LoadRequest loadRequest){
+        if(!SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)){
+            return;
+        }
+        if(bitmap != null && loadRequest.getMaxsize() != null){
+            SLog.d(SLog.CATEGORY_DECODE, name, "解码成功",
+                    "原始尺寸=" + originalSize.x + "x" + originalSize.y + "；目标尺寸=" + loadRequest.getMaxsize().getWidth() + "x" + loadRequest.getMaxsize().getHeight(),
+                    "缩放比例=" + inSampleSize,
+                    "最终尺寸=" + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                    loadRequest.getName());
+        }else{
+            SLog.d(SLog.CATEGORY_DECODE, name, "解码成功", "未缩放", loadRequest.getName());
+        }
+    }
+
     /**
      * 解压APK的图标
      * @param context 上下文
@@ -166,24 +506,20 @@ public class DefaultImageDecoder implements ImageDecoder {
 
     /**
      * Drawable转成Bitmap
+     * <br>BitmapDrawable也会画到一张新的图片上，因为系统的图标是共享的，直接拿去用的话被内存缓存回收后就会崩溃
      * @param drawable drawable
-     * @return bitmap
+     * @return 新的bitmap
      */
     public static Bitmap drawableToBitmap(Drawable drawable){
-        if(drawable == null ){
+        if(drawable == null || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0){
             return null;
-        }else if(drawable instanceof BitmapDrawable){
-            return ((BitmapDrawable) drawable).getBitmap();
-        }else{
-            if(drawable.getIntrinsicWidth() == 0 || drawable.getIntrinsicHeight() == 0){
-                return null;
-            }
-
-            Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(bitmap);
-            drawable.draw(canvas);
-            return bitmap;
         }
+
+        Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        drawable.draw(canvas);
+        return bitmap;
     }
 
     /**
@@ -223,7 +559,7 @@ public class DefaultImageDecoder implements ImageDecoder {
             try {
                 inputStream = loadRequest.getSpear().getConfiguration().getContext().getAssets().open(assetsFilePath);
             } catch (IOException e) {
-                e.printStackTrace();
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "打开文件失败", e, assetsFilePath);
             }
             Bitmap bitmap = null;
             if(inputStream != null){
@@ -231,7 +567,7 @@ public class DefaultImageDecoder implements ImageDecoder {
                 try {
                     inputStream.close();
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    SLog.w(SLog.CATEGORY_DECODE, NAME, "关闭文件失败", e, assetsFilePath);
                 }
             }
             return bitmap;
@@ -239,25 +575,12 @@ public class DefaultImageDecoder implements ImageDecoder {
 
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
-            StringBuilder stringBuilder = new StringBuilder(NAME)
-                    .append("；").append("解码成功");
-            if(bitmap != null && loadRequest.getMaxsize() != null){
-                stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-            }else{
-                stringBuilder.append("；").append("未缩放");
-            }
-            stringBuilder.append("；").append(loadRequest.getName());
-            Log.d(Spear.TAG, stringBuilder.toString());
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "；" + "解码失败" + "；" + assetsFilePath);
-            }
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", assetsFilePath);
         }
     }
 
@@ -278,25 +601,12 @@ public class DefaultImageDecoder implements ImageDecoder {
 
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
-            StringBuilder stringBuilder = new StringBuilder(NAME)
-                    .append("；").append("解码成功");
-            if(bitmap != null && loadRequest.getMaxsize() != null){
-                stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-            }else{
-                stringBuilder.append("；").append("未缩放");
-            }
-            stringBuilder.append("；").append(loadRequest.getName());
-            Log.d(Spear.TAG, stringBuilder.toString());
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "；" + "解码失败" + "；" + loadRequest.getName());
-            }
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", loadRequest.getName());
         }
     }
 
@@ -313,9 +623,7 @@ public class DefaultImageDecoder implements ImageDecoder {
         @Override
         public Bitmap onDecode(BitmapFactory.Options options) {
             if(!file.canRead()){
-                if(Spear.isDebugMode()){
-                    Log.e(Spear.TAG, NAME+"；"+"不可读取"+"；"+file.getPath());
-                }
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "不可读取", file.getPath());
                 return null;
             }
 
@@ -325,36 +633,18 @@ public class DefaultImageDecoder implements ImageDecoder {
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
             if(!file.setLastModified(System.currentTimeMillis())){
-                Log.w(Spear.TAG, NAME+"：修改文件最后修改时间失败："+file.getPath());
-            }
-            if(Spear.isDebugMode()){
-                StringBuilder stringBuilder = new StringBuilder(NAME)
-                        .append("；").append("解码成功");
-                if(bitmap != null && loadRequest.getMaxsize() != null){
-                    stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                    stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                    stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                    stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-                }else{
-                    stringBuilder.append("；").append("未缩放");
-                }
-                stringBuilder.append("；").append(loadRequest.getName());
-                Log.d(Spear.TAG, stringBuilder.toString());
+                SLog.w(SLog.CATEGORY_DECODE, NAME, "修改文件最后修改时间失败", file.getPath());
             }
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
             if(!file.delete()){
-                Log.e(Spear.TAG, "删除文件失败："+file.getPath());
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "删除文件失败", file.getPath());
             }
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, new StringBuilder(NAME)
-                        .append("；").append("解码失败").append("；").append("已删除")
-                        .append("；").append("文件地址").append("=").append(file.getPath())
-                        .append("；").append("文件长度").append("=").append(file.length())
-                        .append("；").append("URI").append("=").append(loadRequest.getUri())
-                        .toString());
+            if(SLog.isLoggable(SLog.ERROR, SLog.CATEGORY_DECODE)){
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", "已删除", "文件地址=" + file.getPath(), "文件长度=" + file.length(), "URI=" + loadRequest.getUri());
             }
         }
     }
@@ -376,25 +666,12 @@ public class DefaultImageDecoder implements ImageDecoder {
 
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
-            StringBuilder stringBuilder = new StringBuilder(NAME)
-                    .append("；").append("解码成功");
-            if(bitmap != null && loadRequest.getMaxsize() != null){
-                stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-            }else{
-                stringBuilder.append("；").append("未缩放");
-            }
-            stringBuilder.append("；").append(loadRequest.getName());
-            Log.d(Spear.TAG, stringBuilder.toString());
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "；" + "解码失败" + "；" + drawableIdString);
-            }
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", drawableIdString);
         }
     }
 
@@ -413,37 +690,20 @@ public class DefaultImageDecoder implements ImageDecoder {
             if(file.canRead()){
                 return BitmapFactory.decodeFile(file.getPath(), options);
             }else{
-                if(Spear.isDebugMode()){
-                    Log.e(Spear.TAG, NAME+"；"+"不可读取"+"；"+file.getPath());
-                }
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "不可读取", file.getPath());
                 return null;
             }
         }
 
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
-            StringBuilder stringBuilder = new StringBuilder(NAME)
-                    .append("；"+"解码成功");
-            if(bitmap != null && loadRequest.getMaxsize() != null){
-                stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-            }else{
-                stringBuilder.append("；").append("未缩放");
-            }
-            stringBuilder.append("；").append(loadRequest.getName());
-            Log.d(Spear.TAG, stringBuilder.toString());
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, new StringBuilder(NAME)
-                        .append("；").append("解码失败")
-                        .append("；").append("文件地址").append("=").append(file.getPath())
-                        .append("；").append("文件长度").append("=").append(file.length())
-                        .toString());
+            if(SLog.isLoggable(SLog.ERROR, SLog.CATEGORY_DECODE)){
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", "文件地址=" + file.getPath(), "文件长度=" + file.length());
             }
         }
     }
@@ -464,7 +724,7 @@ public class DefaultImageDecoder implements ImageDecoder {
             try {
                 inputStream = loadRequest.getSpear().getConfiguration().getContext().getContentResolver().openInputStream(Uri.parse(contentUri));
             } catch (IOException e) {
-                e.printStackTrace();
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "打开输入流失败", e, contentUri);
             }
             Bitmap bitmap = null;
             if(inputStream != null){
@@ -472,7 +732,7 @@ public class DefaultImageDecoder implements ImageDecoder {
                 try {
                     inputStream.close();
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    SLog.w(SLog.CATEGORY_DECODE, NAME, "关闭输入流失败", e, contentUri);
                 }
             }
             return bitmap;
@@ -480,25 +740,12 @@ public class DefaultImageDecoder implements ImageDecoder {
 
         @Override
         public void onDecodeSuccess(Bitmap bitmap, Point originalSize, int inSampleSize) {
-            StringBuilder stringBuilder = new StringBuilder(NAME)
-                    .append("；").append("解码成功");
-            if(bitmap != null && loadRequest.getMaxsize() != null){
-                stringBuilder.append("；").append("原始尺寸").append("=").append(originalSize.x).append("x").append(originalSize.y);
-                stringBuilder.append("；").append("目标尺寸").append("=").append(loadRequest.getMaxsize().getWidth()).append("x").append(loadRequest.getMaxsize().getHeight());
-                stringBuilder.append("；").append("缩放比例").append("=").append(inSampleSize);
-                stringBuilder.append("；").append("最终尺寸").append("=").append(bitmap.getWidth()).append("x").append(bitmap.getHeight());
-            }else{
-                stringBuilder.append("；").append("未缩放");
-            }
-            stringBuilder.append("；").append(loadRequest.getName());
-            Log.d(Spear.TAG, stringBuilder.toString());
+            logDecodeSuccess(NAME, bitmap, originalSize, inSampleSize, loadRequest);
         }
 
         @Override
         public void onDecodeFailure() {
-            if(Spear.isDebugMode()){
-                Log.e(Spear.TAG, NAME + "；" + "解码失败" + "；" + contentUri);
-            }
+            SLog.e(SLog.CATEGORY_DECODE, NAME, "解码失败", contentUri);
         }
     }
 }
\ No newline at end of file
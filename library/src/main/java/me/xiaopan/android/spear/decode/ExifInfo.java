@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JPEG的EXIF信息，只解析方向、原图尺寸和内嵌缩略图，不依赖ExifInterface，所以content://的图片也能用
+ */
+public class ExifInfo {
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    /** 不是JPEG或没有EXIF，缓存起来避免下次再解析 */
+    public static final ExifInfo NONE = new ExifInfo(ORIENTATION_NORMAL, 0, 0, null);
+
+    private static final int MAX_SEGMENT_COUNT = 16;    // EXIF一般在最前面，最多看这么多个段就不再找了
+
+    private int orientation;
+    private int imageWidth;
+    private int imageHeight;
+    private byte[] thumbnailData;
+    private int thumbnailWidth;
+    private int thumbnailHeight;
+
+    private ExifInfo(int orientation, int imageWidth, int imageHeight, byte[] thumbnailData) {
+        this.orientation = orientation >= ORIENTATION_NORMAL && orientation <= ORIENTATION_ROTATE_270 ? orientation : ORIENTATION_NORMAL;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.thumbnailData = thumbnailData;
+        if(thumbnailData != null){
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(thumbnailData, 0, thumbnailData.length, options);
+            if(options.outWidth > 0 && options.outHeight > 0){
+                this.thumbnailWidth = options.outWidth;
+                this.thumbnailHeight = options.outHeight;
+            }else{
+                this.thumbnailData = null;
+            }
+        }
+    }
+
+    private ExifInfo(ExifInfo source) {
+        this.orientation = source.orientation;
+        this.imageWidth = source.imageWidth;
+        this.imageHeight = source.imageHeight;
+        this.thumbnailWidth = source.thumbnailWidth;
+        this.thumbnailHeight = source.thumbnailHeight;
+    }
+
+    /**
+     * 从JPEG的开头读取EXIF，读完APP1就不再往下读了
+     * @return 不是JPEG或没有EXIF时返回NONE
+     */
+    public static ExifInfo read(InputStream inputStream) throws IOException {
+        if(inputStream.read() != 0xFF || inputStream.read() != 0xD8){
+            return NONE;
+        }
+        for(int w = 0; w < MAX_SEGMENT_COUNT; w++){
+            if(inputStream.read() != 0xFF){
+                return NONE;
+            }
+            int marker = inputStream.read();
+            while(marker == 0xFF){
+                marker = inputStream.read();
+            }
+            if(marker == -1 || marker == 0xDA || marker == 0xD9){
+                return NONE;
+            }
+            int high = inputStream.read();
+            int low = inputStream.read();
+            if(high == -1 || low == -1){
+                return NONE;
+            }
+            int length = ((high << 8) | low) - 2;
+            if(length < 0){
+                return NONE;
+            }
+            if(marker == 0xE1){
+                byte[] segment = new byte[length];
+                if(readFully(inputStream, segment) == length && isExif(segment)){
+                    return parse(segment);
+                }
+                return NONE;
+            }
+            if(skipFully(inputStream, length) != length){
+                return NONE;
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean isExif(byte[] segment){
+        return segment.length > 14 && segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f' && segment[4] == 0 && segment[5] == 0;
+    }
+
+    /**
+     * 解析TIFF结构，偏移量都是相对于TIFF头的
+     */
+    private static ExifInfo parse(byte[] segment){
+        TiffReader reader = new TiffReader(segment, 6);
+        int orientation = ORIENTATION_NORMAL;
+        int exifIfdOffset = -1;
+        int ifd0Offset = reader.readInt(4);
+        int entryCount = reader.readShort(ifd0Offset);
+        for(int w = 0; w < entryCount; w++){
+            int entry = ifd0Offset + 2 + w * 12;
+            int tag = reader.readShort(entry);
+            if(tag == 0x0112){
+                orientation = reader.readShort(entry + 8);
+            }else if(tag == 0x8769){
+                exifIfdOffset = reader.readInt(entry + 8);
+            }
+        }
+
+        // 原图尺寸，用来判断缩略图的宽高比是不是跟原图一样
+        int imageWidth = 0;
+        int imageHeight = 0;
+        if(exifIfdOffset > 0){
+            entryCount = reader.readShort(exifIfdOffset);
+            for(int w = 0; w < entryCount; w++){
+                int entry = exifIfdOffset + 2 + w * 12;
+                int tag = reader.readShort(entry);
+                if(tag == 0xA002){
+                    imageWidth = reader.readValue(entry);
+                }else if(tag == 0xA003){
+                    imageHeight = reader.readValue(entry);
+                }
+            }
+        }
+
+        // IFD1里是缩略图
+        byte[] thumbnailData = null;
+        int ifd1Offset = reader.readInt(ifd0Offset + 2 + reader.readShort(ifd0Offset) * 12);
+        if(ifd1Offset > 0){
+            int thumbnailOffset = -1;
+            int thumbnailLength = -1;
+            entryCount = reader.readShort(ifd1Offset);
+            for(int w = 0; w < entryCount; w++){
+                int entry = ifd1Offset + 2 + w * 12;
+                int tag = reader.readShort(entry);
+                if(tag == 0x0201){
+                    thumbnailOffset = reader.readInt(entry + 8);
+                }else if(tag == 0x0202){
+                    thumbnailLength = reader.readInt(entry + 8);
+                }
+            }
+            thumbnailData = reader.copy(thumbnailOffset, thumbnailLength);
+        }
+
+        return new ExifInfo(orientation, imageWidth, imageHeight, thumbnailData);
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int offset = 0;
+        int readLength;
+        while(offset < buffer.length && (readLength = inputStream.read(buffer, offset, buffer.length - offset)) != -1){
+            offset += readLength;
+        }
+        return offset;
+    }
+
+    private static int skipFully(InputStream inputStream, int length) throws IOException {
+        int skipped = 0;
+        while(skipped < length){
+            long skipLength = inputStream.skip(length - skipped);
+            if(skipLength <= 0){
+                if(inputStream.read() == -1){
+                    break;
+                }
+                skipLength = 1;
+            }
+            skipped += skipLength;
+        }
+        return skipped;
+    }
+
+    /**
+     * 复制一份不带缩略图数据的，用来放进缓存
+     */
+    public ExifInfo withoutThumbnailData(){
+        return thumbnailData != null ? new ExifInfo(this) : this;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * 宽高是否需要互换
+     */
+    public boolean isSwapSize(){
+        return orientation >= ORIENTATION_TRANSPOSE;
+    }
+
+    /**
+     * 是否有缩略图，缓存中的ExifInfo没有缩略图数据，但是也会记录有没有缩略图
+     */
+    public boolean hasThumbnail(){
+        return thumbnailWidth > 0 && thumbnailHeight > 0;
+    }
+
+    public byte[] getThumbnailData() {
+        return thumbnailData;
+    }
+
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    public int getThumbnailHeight() {
+        return thumbnailHeight;
+    }
+
+    /**
+     * 获取EXIF里记录的原图宽度，没有记录时为0
+     */
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    /**
+     * 获取EXIF里记录的原图高度，没有记录时为0
+     */
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * 缩略图的宽高比是否跟原图一样，有的相机会给缩略图加黑边
+     */
+    public boolean isThumbnailAspectRatioMatched(){
+        if(!hasThumbnail() || imageWidth <= 0 || imageHeight <= 0){
+            return false;
+        }
+        float imageRatio = (float) imageWidth / imageHeight;
+        float thumbnailRatio = (float) thumbnailWidth / thumbnailHeight;
+        return Math.abs(imageRatio - thumbnailRatio) <= imageRatio * 0.02f;
+    }
+
+    /**
+     * 按方向旋转或翻转，同时缩小到scale，只创建一次新图片
+     * @param bitmap 原图，返回新图片时会被回收
+     * @param orientation 方向
+     * @param scale 缩放比例，大于等于1时不缩放
+     * @return 方向是正常的并且不需要缩放时返回原图
+     */
+    public static Bitmap applyOrientation(Bitmap bitmap, int orientation, float scale){
+        Matrix matrix = getOrientationMatrix(orientation);
+        if(matrix.isIdentity() && scale >= 1){
+            return bitmap;
+        }
+        if(scale < 1){
+            matrix.postScale(scale, scale);
+        }
+
+        Bitmap newBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if(newBitmap != bitmap){
+            bitmap.recycle();
+        }
+        return newBitmap;
+    }
+
+    /**
+     * 获取方向对应的旋转或翻转矩阵，只有旋转和翻转，没有平移，方向正常时是单位矩阵
+     */
+    public static Matrix getOrientationMatrix(int orientation){
+        Matrix matrix = new Matrix();
+        switch (orientation){
+            case ORIENTATION_FLIP_HORIZONTAL :
+                matrix.setScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_180 :
+                matrix.setRotate(180);
+                break;
+            case ORIENTATION_FLIP_VERTICAL :
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_TRANSPOSE :
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_90 :
+                matrix.setRotate(90);
+                break;
+            case ORIENTATION_TRANSVERSE :
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ORIENTATION_ROTATE_270 :
+                matrix.setRotate(-90);
+                break;
+            default :
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * 按字节序读取TIFF数据，越界时返回-1
+     * <br>偏移量来自文件，可能是任意值，边界检查都用long计算，防止溢出后绕过检查
+     */
+    private static class TiffReader {
+        private byte[] data;
+        private int start;
+        private boolean littleEndian;
+
+        public TiffReader(byte[] data, int start) {
+            this.data = data;
+            this.start = start;
+            this.littleEndian = data[start] == 'I' && data[start + 1] == 'I';
+        }
+
+        public int readShort(int offset){
+            if(offset < 0 || (long) start + offset + 2 > data.length){
+                return -1;
+            }
+            int position = start + offset;
+            int b0 = data[position] & 0xff;
+            int b1 = data[position + 1] & 0xff;
+            return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+        }
+
+        public int readInt(int offset){
+            if(offset < 0 || (long) start + offset + 4 > data.length){
+                return -1;
+            }
+            int position = start + offset;
+            int b0 = data[position] & 0xff;
+            int b1 = data[position + 1] & 0xff;
+            int b2 = data[position + 2] & 0xff;
+            int b3 = data[position + 3] & 0xff;
+            return littleEndian ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0 : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+        }
+
+        /**
+         * 读取SHORT或LONG类型的值
+         */
+        public int readValue(int entry){
+            return readShort(entry + 2) == 3 ? readShort(entry + 8) : readInt(entry + 8);
+        }
+
+        public byte[] copy(int offset, int length){
+            if(offset <= 0 || length <= 0 || (long) start + offset + length > data.length){
+                return null;
+            }
+            int position = start + offset;
+            byte[] copy = new byte[length];
+            System.arraycopy(data, position, copy, 0, length);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GIF解码器，创建时只解析每一帧的位置和参数，播放时再一帧一帧地解码，同一时间只保留一张画布
+ * <br>不是线程安全的，同一时间只能在一个线程中使用
+ */
+public class GifDecoder {
+    private static final int DISPOSAL_BACKGROUND = 2;   // 播放下一帧前把这一帧的区域清空
+    private static final int DISPOSAL_PREVIOUS = 3; // 播放下一帧前恢复到这一帧之前的画面
+    private static final int MAX_CODE_COUNT = 4096;
+    private static final int MIN_FRAME_DELAY = 20;  // 小于此值的帧间隔按浏览器的做法改为DEFAULT_FRAME_DELAY
+    private static final int DEFAULT_FRAME_DELAY = 100;
+
+    private byte[] data;
+    private int width;
+    private int height;
+    private int[] globalColorTable;
+    private int playCount = 1;  // 播放次数，0表示无限循环，没有NETSCAPE扩展块时只播放一次
+    private List<Frame> frames = new ArrayList<Frame>();
+
+    private int sampleSize = 1;
+    private int outWidth;
+    private int outHeight;
+    private int currentIndex = -1;
+    private int[] canvas;   // 合成后的完整画面
+    private int[] previousCanvas;   // 有帧需要恢复到之前的画面时才创建
+    private int[] sampledPixels;    // 缩小后的画面，sampleSize为1时直接使用canvas
+    private byte[] pixelIndexes;
+    private short[] prefix;
+    private byte[] suffix;
+    private byte[] pixelStack;
+
+    private GifDecoder(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * 是不是GIF
+     * @param header 文件头，至少6个字节
+     */
+    public static boolean isGif(byte[] header, int length){
+        return header != null && length >= 6
+                && header[0] == 'G' && header[1] == 'I' && header[2] == 'F'
+                && header[3] == '8' && (header[4] == '7' || header[4] == '9') && header[5] == 'a';
+    }
+
+    /**
+     * 创建GIF解码器，只解析不解码
+     * @param data GIF数据
+     * @return 不是GIF、格式错误或只有一帧时返回null
+     */
+    public static GifDecoder create(byte[] data){
+        if(data == null || !isGif(data, data.length)){
+            return null;
+        }
+        GifDecoder decoder = new GifDecoder(data);
+        if(!decoder.parse() || decoder.frames.size() < 2){
+            return null;
+        }
+        return decoder;
+    }
+
+    /**
+     * 设置缩小倍数并创建解码用的缓冲区，必须在advance()之前调用
+     * @param sampleSize 缩小倍数，跟BitmapFactory.Options.inSampleSize一样
+     */
+    public void setSampleSize(int sampleSize){
+        if(estimateBufferSize(sampleSize) > Integer.MAX_VALUE){
+            throw new IllegalStateException("GIF too large: " + width + "x" + height);
+        }
+        this.sampleSize = clampSampleSize(sampleSize);
+        this.outWidth = width / this.sampleSize;
+        this.outHeight = height / this.sampleSize;
+
+        canvas = new int[width * height];
+        if(this.sampleSize > 1){
+            sampledPixels = new int[outWidth * outHeight];
+        }
+        if(hasDisposalPrevious()){
+            previousCanvas = new int[width * height];
+        }
+        pixelIndexes = new byte[(int) getMaxFramePixels()];
+        prefix = new short[MAX_CODE_COUNT];
+        suffix = new byte[MAX_CODE_COUNT];
+        pixelStack = new byte[MAX_CODE_COUNT + 1];
+    }
+
+    /**
+     * 估算按sampleSize解码时一直占用的内存，不创建缓冲区，用long计算不会溢出，应该在setSampleSize()之前检查内存够不够
+     * @return 跟setSampleSize()之后getBufferSize()的结果一样
+     */
+    public long estimateBufferSize(int sampleSize){
+        int clampedSampleSize = clampSampleSize(sampleSize);
+        long canvasSize = (long) width * height * 4;
+        long size = data.length + canvasSize + getMaxFramePixels() + MAX_CODE_COUNT * 3 + 1;
+        if(hasDisposalPrevious()){
+            size += canvasSize;
+        }
+        if(clampedSampleSize > 1){
+            size += estimateFrameSize(clampedSampleSize);
+        }
+        return size;
+    }
+
+    /**
+     * 估算按sampleSize输出的一帧ARGB_8888图片占用的字节数
+     */
+    public long estimateFrameSize(int sampleSize){
+        int clampedSampleSize = clampSampleSize(sampleSize);
+        return (long) (width / clampedSampleSize) * (height / clampedSampleSize) * 4;
+    }
+
+    private int clampSampleSize(int sampleSize){
+        return Math.max(1, Math.min(sampleSize, Math.min(width, height)));
+    }
+
+    private boolean hasDisposalPrevious(){
+        for(Frame frame : frames){
+            if(frame.disposal == DISPOSAL_PREVIOUS){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取需要解压的像素最多的一帧的像素数
+     */
+    private long getMaxFramePixels(){
+        long maxFramePixels = 0;
+        for(Frame frame : frames){
+            maxFramePixels = Math.max(maxFramePixels, (long) frame.width * frame.rowCount);
+        }
+        return maxFramePixels;
+    }
+
+    /**
+     * 解析文件头和所有帧的参数，跳过图像数据
+     */
+    private boolean parse(){
+        if(data.length < 13){
+            return false;
+        }
+        width = readShort(6);
+        height = readShort(8);
+        if(width <= 0 || height <= 0){
+            return false;
+        }
+        int packed = data[10] & 0xff;
+        int position = 13;
+        if((packed & 0x80) != 0){
+            int colorCount = 2 << (packed & 0x07);
+            globalColorTable = readColorTable(position, colorCount);
+            position += colorCount * 3;
+        }
+
+        int delay = 0;
+        int disposal = 0;
+        int transparentIndex = -1;
+        while(position < data.length){
+            int code = data[position++] & 0xff;
+            if(code == 0x2C){
+                // 图像描述块
+                if(position + 9 > data.length){
+                    break;
+                }
+                Frame frame = new Frame();
+                frame.x = readShort(position);
+                frame.y = readShort(position + 2);
+                frame.width = readShort(position + 4);
+                frame.height = readShort(position + 6);
+                packed = data[position + 8] & 0xff;
+                position += 9;
+                frame.interlaced = (packed & 0x40) != 0;
+                if((packed & 0x80) != 0){
+                    int colorCount = 2 << (packed & 0x07);
+                    frame.colorTable = readColorTable(position, colorCount);
+                    position += colorCount * 3;
+                }
+                frame.delay = delay < MIN_FRAME_DELAY ? DEFAULT_FRAME_DELAY : delay;
+                frame.disposal = disposal;
+                frame.transparentIndex = transparentIndex;
+                frame.dataOffset = position;
+                position = skipSubBlocks(position + 1);
+                // 完全在画布之外的帧画不出来，直接丢掉；超出画布下边的行不用解压，隔行扫描的行是乱序的，只能全部解压
+                frame.rowCount = frame.interlaced ? frame.height : Math.min(frame.height, height - frame.y);
+                if(frame.width > 0 && frame.height > 0 && frame.x < width && frame.y < height
+                        && position <= data.length && (frame.colorTable != null || globalColorTable != null)){
+                    frames.add(frame);
+                }
+                delay = 0;
+                disposal = 0;
+                transparentIndex = -1;
+            }else if(code == 0x21){
+                // 扩展块
+                if(position + 1 > data.length){
+                    break;
+                }
+                int label = data[position++] & 0xff;
+                if(label == 0xF9 && position + 5 <= data.length){
+                    // 图形控制扩展，作用于下一帧
+                    packed = data[position + 1] & 0xff;
+                    disposal = (packed & 0x1C) >> 2;
+                    delay = readShort(position + 2) * 10;
+                    transparentIndex = (packed & 0x01) != 0 ? data[position + 4] & 0xff : -1;
+                }else if(label == 0xFF && position + 17 <= data.length && isNetscapeExtension(position)){
+                    int loopCount = readShort(position + 14);
+                    playCount = loopCount == 0 ? 0 : loopCount + 1;
+                }
+                position = skipSubBlocks(position);
+            }else{
+                // 0x3B是结束标志，其它的说明数据有问题，已经解析出来的帧仍然可以用
+                break;
+            }
+        }
+        return !frames.isEmpty();
+    }
+
+    private boolean isNetscapeExtension(int position){
+        String identifier = "NETSCAPE2.0";
+        if((data[position] & 0xff) != identifier.length()){
+            return false;
+        }
+        for(int w = 0; w < identifier.length(); w++){
+            if(data[position + 1 + w] != identifier.charAt(w)){
+                return false;
+            }
+        }
+        return data[position + 12] == 3 && data[position + 13] == 1;
+    }
+
+    private int readShort(int position){
+        return (data[position] & 0xff) | ((data[position + 1] & 0xff) << 8);
+    }
+
+    private int[] readColorTable(int position, int colorCount){
+        int[] colorTable = new int[colorCount];
+        for(int w = 0; w < colorCount && position + 2 < data.length; w++, position += 3){
+            colorTable[w] = 0xFF000000 | ((data[position] & 0xff) << 16) | ((data[position + 1] & 0xff) << 8) | (data[position + 2] & 0xff);
+        }
+        return colorTable;
+    }
+
+    private int skipSubBlocks(int position){
+        while(position < data.length){
+            int blockSize = data[position++] & 0xff;
+            if(blockSize == 0){
+                break;
+            }
+            position += blockSize;
+        }
+        return position;
+    }
+
+    /**
+     * 解码下一帧，播放到最后一帧后从第一帧开始
+     */
+    public void advance(){
+        if(canvas == null){
+            setSampleSize(1);
+        }
+        int nextIndex = currentIndex + 1;
+        if(nextIndex >= frames.size()){
+            nextIndex = 0;
+        }
+        Frame frame = frames.get(nextIndex);
+
+        // 先按上一帧的处置方法处理画布
+        if(nextIndex == 0){
+            Arrays.fill(canvas, 0);
+        }else{
+            Frame previousFrame = frames.get(currentIndex);
+            if(previousFrame.disposal == DISPOSAL_BACKGROUND){
+                fillRect(previousFrame, 0);
+            }else if(previousFrame.disposal == DISPOSAL_PREVIOUS){
+                System.arraycopy(previousCanvas, 0, canvas, 0, canvas.length);
+            }
+        }
+        if(frame.disposal == DISPOSAL_PREVIOUS){
+            System.arraycopy(canvas, 0, previousCanvas, 0, canvas.length);
+        }
+
+        int decodedCount = decodePixelIndexes(frame);
+        drawFrame(frame, decodedCount);
+        currentIndex = nextIndex;
+    }
+
+    private void fillRect(Frame frame, int color){
+        int right = Math.min(frame.x + frame.width, width);
+        int bottom = Math.min(frame.y + frame.height, height);
+        for(int y = frame.y; y < bottom; y++){
+            int offset = y * width;
+            for(int x = frame.x; x < right; x++){
+                canvas[offset + x] = color;
+            }
+        }
+    }
+
+    /**
+     * 按LZW解压出每个像素的颜色索引
+     * @return 解压出的像素数量，数据不完整时会比帧的像素数量少
+     */
+    private int decodePixelIndexes(Frame frame){
+        int pixelCount = frame.width * frame.rowCount;
+        int position = frame.dataOffset;
+        int pixelIndex = 0;
+
+        int codeSizeBase = data[position++] & 0xff;
+        if(codeSizeBase < 1 || codeSizeBase > 11){
+            return 0;
+        }
+        int clearCode = 1 << codeSizeBase;
+        int endCode = clearCode + 1;
+        int available = clearCode + 2;
+        int codeSize = codeSizeBase + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int oldCode = -1;
+        int first = 0;
+        for(int code = 0; code < clearCode; code++){
+            prefix[code] = 0;
+            suffix[code] = (byte) code;
+        }
+
+        int bits = 0;
+        int datum = 0;
+        int blockRemaining = 0;
+        while(pixelIndex < pixelCount){
+            if(bits < codeSize){
+                if(blockRemaining == 0){
+                    if(position >= data.length || (blockRemaining = data[position++] & 0xff) == 0){
+                        break;
+                    }
+                }
+                if(position >= data.length){
+                    break;
+                }
+                datum |= (data[position++] & 0xff) << bits;
+                bits += 8;
+                blockRemaining--;
+                continue;
+            }
+
+            int code = datum & codeMask;
+            datum >>= codeSize;
+            bits -= codeSize;
+
+            if(code == clearCode){
+                codeSize = codeSizeBase + 1;
+                codeMask = (1 << codeSize) - 1;
+                available = clearCode + 2;
+                oldCode = -1;
+                continue;
+            }
+            if(code == endCode || code > available){
+                break;
+            }
+            if(oldCode == -1){
+                pixelIndexes[pixelIndex++] = suffix[code];
+                oldCode = code;
+                first = code;
+                continue;
+            }
+
+            int inCode = code;
+            int top = 0;
+            if(code == available){
+                pixelStack[top++] = (byte) first;
+                code = oldCode;
+            }
+            while(code >= clearCode){
+                pixelStack[top++] = suffix[code];
+                code = prefix[code];
+            }
+            first = suffix[code] & 0xff;
+            pixelStack[top++] = (byte) first;
+
+            if(available < MAX_CODE_COUNT){
+                prefix[available] = (short) oldCode;
+                suffix[available] = (byte) first;
+                available++;
+                if((available & codeMask) == 0 && available < MAX_CODE_COUNT){
+                    codeSize++;
+                    codeMask += available;
+                }
+            }
+            oldCode = inCode;
+
+            while(top > 0 && pixelIndex < pixelCount){
+                pixelIndexes[pixelIndex++] = pixelStack[--top];
+            }
+        }
+        return pixelIndex;
+    }
+
+    /**
+     * 把颜色索引画到画布上，透明的和没有解压出来的像素保留画布原来的颜色
+     */
+    private void drawFrame(Frame frame, int decodedCount){
+        int[] colorTable = frame.colorTable != null ? frame.colorTable : globalColorTable;
+        int pass = 1;
+        int lineStep = 8;
+        int interlacedLine = 0;
+        for(int row = 0; row < frame.rowCount; row++){
+            int line = row;
+            if(frame.interlaced){
+                // 隔行扫描的4遍分别从第0、4、2、1行开始，间隔8、8、4、2行
+                if(interlacedLine >= frame.height){
+                    pass++;
+                    if(pass == 2){
+                        interlacedLine = 4;
+                    }else if(pass == 3){
+                        interlacedLine = 2;
+                        lineStep = 4;
+                    }else if(pass == 4){
+                        interlacedLine = 1;
+                        lineStep = 2;
+                    }
+                }
+                line = interlacedLine;
+                interlacedLine += lineStep;
+            }
+
+            int indexOffset = row * frame.width;
+            if(indexOffset >= decodedCount){
+                break;
+            }
+            int y = frame.y + line;
+            if(y >= height){
+                continue;
+            }
+            int canvasOffset = y * width;
+            int right = Math.min(Math.min(frame.width, width - frame.x), decodedCount - indexOffset);
+            for(int x = 0; x < right; x++){
+                int colorIndex = pixelIndexes[indexOffset + x] & 0xff;
+                if(colorIndex != frame.transparentIndex && colorIndex < colorTable.length){
+                    canvas[canvasOffset + frame.x + x] = colorTable[colorIndex];
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前帧写到bitmap里
+     * @param bitmap 宽高必须是getOutWidth()和getOutHeight()，可变的ARGB_8888格式
+     */
+    public void writeTo(Bitmap bitmap){
+        if(sampleSize == 1){
+            bitmap.setPixels(canvas, 0, width, 0, 0, width, height);
+            return;
+        }
+        for(int y = 0; y < outHeight; y++){
+            int sourceOffset = y * sampleSize * width;
+            int targetOffset = y * outWidth;
+            for(int x = 0; x < outWidth; x++){
+                sampledPixels[targetOffset + x] = canvas[sourceOffset + x * sampleSize];
+            }
+        }
+        bitmap.setPixels(sampledPixels, 0, outWidth, 0, 0, outWidth, outHeight);
+    }
+
+    /**
+     * 获取原始宽度
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 获取原始高度
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 获取输出的宽度，是原始宽度除以缩小倍数
+     */
+    public int getOutWidth() {
+        return outWidth;
+    }
+
+    /**
+     * 获取输出的高度，是原始高度除以缩小倍数
+     */
+    public int getOutHeight() {
+        return outHeight;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getFrameCount(){
+        return frames.size();
+    }
+
+    /**
+     * 获取当前帧的位置，还没有解码过时为-1
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * 获取当前帧的显示时长，单位毫秒
+     */
+    public int getCurrentFrameDelay(){
+        return currentIndex >= 0 ? frames.get(currentIndex).delay : 0;
+    }
+
+    /**
+     * 获取播放次数，0表示无限循环
+     */
+    public int getPlayCount() {
+        return playCount;
+    }
+
+    /**
+     * 获取解码过程中一直占用的内存，包括GIF数据、画布和LZW解压用的表
+     */
+    public int getBufferSize(){
+        int size = data.length + canvas.length * 4 + pixelIndexes.length + MAX_CODE_COUNT * 3 + 1;
+        if(previousCanvas != null){
+            size += previousCanvas.length * 4;
+        }
+        if(sampledPixels != null){
+            size += sampledPixels.length * 4;
+        }
+        return size;
+    }
+
+    private static class Frame {
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        private int rowCount;   // 需要解压的行数，超出画布下边的行不解压
+        private boolean interlaced;
+        private int[] colorTable;   // 局部颜色表，为null时使用全局颜色表
+        private int transparentIndex;   // 透明色索引，-1表示没有透明色
+        private int disposal;
+        private int delay;
+        private int dataOffset; // 图像数据的开始位置，第一个字节是LZW最小编码长度
+    }
+}
@@ -19,14 +19,22 @@ package me.xiaopan.android.spear.decode;
 import android.graphics.Bitmap;
 
 import me.xiaopan.android.spear.request.LoadRequest;
+import me.xiaopan.android.spear.util.GifDrawable;
 
 /**
  * 位图解码器
  */
 public interface ImageDecoder {
 	/**
-	 * 解码
+	 * 解码，loadRequest.isAcceptGif()为true时遇到GIF要调用loadRequest.setGifDetected(true)并返回null
      * @param loadRequest 加载请求
 	 */
 	public Bitmap decode(LoadRequest loadRequest);
+
+    /**
+     * 解码GIF，只解析出每一帧的位置，播放时再一帧一帧地解码，decode()发现是GIF之后才会调用
+     * @param loadRequest 加载请求
+     * @return 只有一帧或解析失败时返回null，接着会再调用一次decode()按静态图片解码
+     */
+    public GifDrawable decodeGif(LoadRequest loadRequest);
 }
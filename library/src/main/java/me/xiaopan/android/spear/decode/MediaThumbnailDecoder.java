@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.util.List;
+
+import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.request.LoadRequest;
+import me.xiaopan.android.spear.util.ImageScheme;
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 使用系统生成的缩略图解码相册里的图片和视频
+ * <br>maxsize不超过MINI缩略图的尺寸时，MediaStore里的图片直接用MediaStore的缩略图，不再解码原图；视频则是从视频里取一帧
+ * <br>得到的图片会以“URI@修改时间#类型”为KEY存进磁盘缓存，下次直接按maxsize解码缓存文件，视频帧先缩小到maxsize再存，KEY里带上maxsize
+ */
+public class MediaThumbnailDecoder {
+    private static final String NAME = "MediaThumbnailDecoder";
+
+    /** MediaStore的MINI_KIND缩略图长边的长度 */
+    public static final int MINI_THUMBNAIL_SIZE = 512;
+    /** MediaStore的MINI_KIND缩略图短边的长度 */
+    public static final int MINI_THUMBNAIL_SHORT_SIZE = 384;
+
+    private static final int MEDIA_TYPE_NONE = 0;
+    private static final int MEDIA_TYPE_IMAGE = 1;
+    private static final int MEDIA_TYPE_VIDEO = 2;
+    private static final int CACHE_QUALITY = 85;
+
+    /**
+     * 是否应该由MediaThumbnailDecoder解码，视频一定是；MediaStore里的图片只有在maxsize不超过MINI缩略图时才是，要按动画播放的GIF除外
+     */
+    public static boolean canDecode(LoadRequest loadRequest){
+        if(loadRequest.getImageScheme() == ImageScheme.VIDEO){
+            return true;
+        }
+        if(loadRequest.getImageScheme() != ImageScheme.CONTENT){
+            return false;
+        }
+        Uri uri = Uri.parse(loadRequest.getUri());
+        int mediaType = getMediaType(uri);
+        if(mediaType == MEDIA_TYPE_VIDEO){
+            return true;
+        }
+        if(mediaType != MEDIA_TYPE_IMAGE || !isMiniEnough(loadRequest.getMaxsize())){
+            return false;
+        }
+        return !loadRequest.isAcceptGif() || !"image/gif".equals(loadRequest.getSpear().getConfiguration().getContext().getContentResolver().getType(uri));
+    }
+
+    /**
+     * 解码
+     * @return 失败时返回null
+     */
+    public static Bitmap decode(LoadRequest loadRequest){
+        Context context = loadRequest.getSpear().getConfiguration().getContext();
+        boolean mini = isMiniEnough(loadRequest.getMaxsize());
+
+        String path = null;
+        Uri uri = null;
+        int mediaType = MEDIA_TYPE_VIDEO;
+        int orientation = ExifInfo.ORIENTATION_NORMAL;
+        String cacheKey;
+        if(loadRequest.getImageScheme() == ImageScheme.VIDEO){
+            path = ImageScheme.VIDEO.crop(loadRequest.getUri());
+            cacheKey = loadRequest.getUri() + "@" + new File(path).lastModified();
+        }else{
+            uri = Uri.parse(loadRequest.getUri());
+            mediaType = getMediaType(uri);
+            String[] projection = mediaType == MEDIA_TYPE_IMAGE
+                    ? new String[]{MediaStore.Images.ImageColumns.DATE_MODIFIED, MediaStore.Images.ImageColumns.ORIENTATION}
+                    : new String[]{MediaStore.Video.VideoColumns.DATE_MODIFIED};
+            long dateModified = 0;
+            Cursor cursor = null;
+            try{
+                cursor = context.getContentResolver().query(uri, projection, null, null, null);
+                if(cursor == null || !cursor.moveToFirst()){
+                    SLog.e(SLog.CATEGORY_DECODE, NAME, "MediaStore里没有", loadRequest.getUri());
+                    return null;
+                }
+                dateModified = cursor.getLong(0);
+                if(mediaType == MEDIA_TYPE_IMAGE){
+                    orientation = degreesToOrientation(cursor.getInt(1));
+                }
+            }catch(RuntimeException e){
+                SLog.w(SLog.CATEGORY_DECODE, NAME, "查询MediaStore失败", e, loadRequest.getUri());
+            }finally{
+                if(cursor != null){
+                    cursor.close();
+                }
+            }
+            cacheKey = loadRequest.getUri() + "@" + dateModified;
+        }
+        ImageSize maxsize = loadRequest.getMaxsize();
+        if(mini){
+            cacheKey += "#mini";
+        }else if(maxsize != null){
+            cacheKey += "#frame" + maxsize.getWidth() + "x" + maxsize.getHeight();
+        }else{
+            cacheKey += "#frame";
+        }
+        boolean swapSize = orientation >= ExifInfo.ORIENTATION_TRANSPOSE;
+
+        // 先找磁盘缓存
+        DiskCache diskCache = loadRequest.getSpear().getConfiguration().getDiskCache();
+        File cacheFile = loadRequest.isEnableDiskCache() ? diskCache.getCacheFileByUri(cacheKey) : null;
+        Bitmap bitmap = null;
+        if(cacheFile != null && cacheFile.exists()){
+            bitmap = DefaultImageDecoder.decodeFromHelper(loadRequest, new DefaultImageDecoder.CacheFileDecodeHelper(cacheFile, loadRequest), swapSize);
+        }
+
+        if(bitmap == null){
+            long id = uri != null ? ContentUris.parseId(uri) : -1;
+            ContentResolver contentResolver = context.getContentResolver();
+            if(mediaType == MEDIA_TYPE_IMAGE){
+                bitmap = MediaStore.Images.Thumbnails.getThumbnail(contentResolver, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+            }else if(mini){
+                bitmap = uri != null
+                        ? MediaStore.Video.Thumbnails.getThumbnail(contentResolver, id, MediaStore.Video.Thumbnails.MINI_KIND, null)
+                        : ThumbnailUtils.createVideoThumbnail(path, MediaStore.Video.Thumbnails.MINI_KIND);
+            }else{
+                // 原尺寸的视频帧先缩小到maxsize，不然磁盘缓存和后面的解码都是整张原图
+                bitmap = extractFrame(context, uri, path);
+                if(bitmap != null){
+                    float scale = LoadRequest.calculateVariantScale(bitmap.getWidth(), bitmap.getHeight(), maxsize);
+                    bitmap = ExifInfo.applyOrientation(bitmap, ExifInfo.ORIENTATION_NORMAL, scale);
+                }
+            }
+            if(bitmap == null){
+                SLog.e(SLog.CATEGORY_DECODE, NAME, "获取缩略图失败", loadRequest.getUri());
+                return null;
+            }
+
+            if(cacheFile != null){
+                DefaultImageDecoder.saveToDiskCache(diskCache, cacheFile, bitmap, Bitmap.CompressFormat.JPEG, CACHE_QUALITY);
+            }
+            if(loadRequest.getMetrics() != null){
+                loadRequest.getMetrics().setDecodeInfo(bitmap.getWidth(), bitmap.getHeight(), 1);
+            }
+            if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)){
+                SLog.d(SLog.CATEGORY_DECODE, NAME, mini ? "使用系统缩略图" : "取视频帧",
+                        "尺寸=" + bitmap.getWidth() + "x" + bitmap.getHeight(),
+                        cacheFile != null ? "已存进磁盘缓存" : "不使用磁盘缓存",
+                        loadRequest.getName());
+            }
+        }
+
+        // 旋转跟缩小到maxsize一起做
+        return DefaultImageDecoder.applyOrientation(loadRequest, bitmap, orientation);
+    }
+
+    /**
+     * maxsize的宽高是不是都不超过MINI缩略图，横竖两个方向都算
+     */
+    private static boolean isMiniEnough(ImageSize maxsize){
+        if(maxsize == null || maxsize.getWidth() <= 0 || maxsize.getHeight() <= 0){
+            return false;
+        }
+        int width = maxsize.getWidth();
+        int height = maxsize.getHeight();
+        return (width <= MINI_THUMBNAIL_SIZE && height <= MINI_THUMBNAIL_SHORT_SIZE)
+                || (width <= MINI_THUMBNAIL_SHORT_SIZE && height <= MINI_THUMBNAIL_SIZE);
+    }
+
+    /**
+     * 判断是不是MediaStore里的图片或视频，例如content://media/external/images/media/12
+     */
+    private static int getMediaType(Uri uri){
+        if(!MediaStore.AUTHORITY.equals(uri.getAuthority())){
+            return MEDIA_TYPE_NONE;
+        }
+        List<String> segments = uri.getPathSegments();
+        if(segments.size() != 4 || !"media".equals(segments.get(2)) || !isDigits(segments.get(3))){
+            return MEDIA_TYPE_NONE;
+        }
+        if("images".equals(segments.get(1))){
+            return MEDIA_TYPE_IMAGE;
+        }else if("video".equals(segments.get(1))){
+            return MEDIA_TYPE_VIDEO;
+        }else{
+            return MEDIA_TYPE_NONE;
+        }
+    }
+
+    private static boolean isDigits(String string){
+        if(string.length() == 0){
+            return false;
+        }
+        for(int w = 0; w < string.length(); w++){
+            if(!Character.isDigit(string.charAt(w))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * MediaStore的ORIENTATION是角度，转成EXIF的方向
+     */
+    private static int degreesToOrientation(int degrees){
+        switch (degrees){
+            case 90 :
+                return ExifInfo.ORIENTATION_ROTATE_90;
+            case 180 :
+                return ExifInfo.ORIENTATION_ROTATE_180;
+            case 270 :
+                return ExifInfo.ORIENTATION_ROTATE_270;
+            default :
+                return ExifInfo.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * 从视频里取一帧原尺寸的图片，MediaMetadataRetriever从2.3.3才有，之前的版本只能取MINI缩略图
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    private static Bitmap extractFrame(Context context, Uri uri, String path){
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD_MR1){
+            return uri != null
+                    ? MediaStore.Video.Thumbnails.getThumbnail(context.getContentResolver(), ContentUris.parseId(uri), MediaStore.Video.Thumbnails.MINI_KIND, null)
+                    : ThumbnailUtils.createVideoThumbnail(path, MediaStore.Video.Thumbnails.MINI_KIND);
+        }
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try{
+            if(uri != null){
+                retriever.setDataSource(context, uri);
+            }else{
+                retriever.setDataSource(path);
+            }
+            return retriever.getFrameAtTime();
+        }catch(RuntimeException e){
+            SLog.w(SLog.CATEGORY_DECODE, NAME, "取视频帧失败", e, uri != null ? uri.toString() : path);
+            return null;
+        }finally{
+            try{
+                retriever.release();
+            }catch(RuntimeException e){
+                SLog.w(SLog.CATEGORY_DECODE, NAME, "释放MediaMetadataRetriever失败", e, uri != null ? uri.toString() : path);
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import me.xiaopan.android.spear.execute.BitmapBudget;
+import me.xiaopan.android.spear.execute.RequestExecutor;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.request.DisplayRequest;
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 渐进式JPEG预览解码器，下载过程中每收到完整的一遍扫描就解码一张低分辨率的预览图交给DisplayCallbackHandler显示
+ * <br>下载线程只负责解析，预览图在处理线程中直接从正在写入的文件或内存缓冲区解码，不会拖慢下载，也不会再复制一份数据
+ * <br>同一时间最多有一个预览任务，两次解码至少间隔MIN_DECODE_INTERVAL毫秒，图片内存预算不足时跳过
+ */
+public class ProgressiveJpegDecoder {
+    private static final String NAME = "ProgressiveJpegDecoder";
+    public static final int MIN_DECODE_INTERVAL = 300;
+    private static final byte[] EOI = {(byte) 0xFF, (byte) 0xD9};
+
+    private DisplayRequest displayRequest;
+    private ProgressiveJpegParser parser = new ProgressiveJpegParser();
+    private boolean finished;
+    private int decodedScanCount;
+    private long lastDecodeTime;
+    private volatile boolean decoding;
+    private volatile int previewSampleSize;
+    private volatile long previewBytes;
+
+    public ProgressiveJpegDecoder(DisplayRequest displayRequest) {
+        this.displayRequest = displayRequest;
+    }
+
+    /**
+     * 收到新的数据，只解析不保存
+     * @return 是否该解码新的预览图了，是的话要先把数据写到文件或缓冲区中再调用decodePreview()
+     */
+    public boolean write(byte[] data, int offset, int count){
+        if(finished){
+            return false;
+        }
+        parser.parse(data, offset, count);
+        if(parser.isFinished()){
+            // 不是渐进式JPEG或已经下载完了，完整的图片会按正常流程解码
+            finished = true;
+            return false;
+        }
+        return parser.isProgressive() && parser.getCompletedScanCount() > decodedScanCount
+                && !decoding && SystemClock.uptimeMillis() - lastDecodeTime >= MIN_DECODE_INTERVAL;
+    }
+
+    /**
+     * 从正在写入的文件解码预览图
+     */
+    public void decodePreview(File file){
+        submit(file, null);
+    }
+
+    /**
+     * 从正在写入的内存缓冲区解码预览图
+     * @param data 缓冲区，已完整的扫描之前的数据不能再修改
+     */
+    public void decodePreview(byte[] data){
+        submit(null, data);
+    }
+
+    private void submit(final File file, final byte[] data){
+        final int end = parser.getCompletedScansEnd();
+        final int scanCount = parser.getCompletedScanCount();
+        decodedScanCount = scanCount;
+        lastDecodeTime = SystemClock.uptimeMillis();
+        if(end <= 0 || displayRequest.isCanceled()){
+            return;
+        }
+        decoding = true;
+        displayRequest.getSpear().getConfiguration().getRequestExecutor().getProcessTaskExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    decode(file, data, end, scanCount);
+                }finally{
+                    decoding = false;
+                }
+            }
+        });
+    }
+
+    private void decode(File file, byte[] data, int end, int scanCount){
+        if(displayRequest.isCanceled()){
+            return;
+        }
+
+        RequestExecutor requestExecutor = displayRequest.getSpear().getConfiguration().getRequestExecutor();
+        BitmapBudget bitmapBudget = requestExecutor.getProcessBitmapBudget();
+        long bytes;
+        Bitmap bitmap = null;
+        try{
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            if(previewSampleSize == 0){
+                options.inJustDecodeBounds = true;
+                decodeStream(file, data, end, options);
+                if(options.outWidth <= 0 || options.outHeight <= 0){
+                    return;
+                }
+                int sampleSize = calculatePreviewSampleSize(options.outWidth, options.outHeight);
+                previewBytes = 4L * ((options.outWidth + sampleSize - 1) / sampleSize) * ((options.outHeight + sampleSize - 1) / sampleSize);
+                previewSampleSize = sampleSize;
+                options.inJustDecodeBounds = false;
+            }
+
+            // 预览图可有可无，预算不足时不等待，直接跳过这一遍
+            bytes = previewBytes;
+            if(!bitmapBudget.tryAcquire(bytes)){
+                SLog.d(SLog.CATEGORY_DECODE, NAME, "内存预算不足，跳过预览", displayRequest.getName());
+                return;
+            }
+            try{
+                options.inSampleSize = previewSampleSize;
+                bitmap = decodeStream(file, data, end, options);
+            }finally{
+                // 解码成功时预算交给请求保管，直到预览图被替换掉或请求结束
+                if(bitmap == null){
+                    bitmapBudget.release(bytes);
+                }
+            }
+        }catch(IOException e){
+            // 下载结束后临时文件会被改名或删除，这时就不需要预览图了
+            SLog.d(SLog.CATEGORY_DECODE, NAME, "读取预览数据失败", e, displayRequest.getName());
+            return;
+        }
+
+        if(bitmap != null){
+            if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)) SLog.d(SLog.CATEGORY_DECODE, NAME, "解码预览", "扫描=" + scanCount, "字节数=" + end, bitmap.getWidth() + "x" + bitmap.getHeight(), displayRequest.getName());
+            displayRequest.getSpear().getConfiguration().getDisplayCallbackHandler().previewCallback(displayRequest, bitmap, bitmapBudget, bytes);
+        }
+    }
+
+    /**
+     * 解码前end个字节，后面补上EOI
+     */
+    private static Bitmap decodeStream(File file, byte[] data, int end, BitmapFactory.Options options) throws IOException {
+        InputStream inputStream = file != null ? new LimitedInputStream(new FileInputStream(file), end) : new ByteArrayInputStream(data, 0, end);
+        try{
+            return BitmapFactory.decodeStream(new SequenceInputStream(inputStream, new ByteArrayInputStream(EOI)), null, options);
+        }finally{
+            inputStream.close();
+        }
+    }
+
+    /**
+     * 预览图的缩小倍数是最终图片的两倍，够看清轮廓，解码也快
+     */
+    private int calculatePreviewSampleSize(int width, int height){
+        ImageSize maxsize = displayRequest.getMaxsize();
+        int inSampleSize = 1;
+        if(maxsize != null && width > 0 && height > 0){
+            inSampleSize = displayRequest.getSpear().getConfiguration().getImageSizeCalculator().calculateInSampleSize(width, height, maxsize.getWidth(), maxsize.getHeight());
+        }
+        return inSampleSize * 2;
+    }
+
+    /**
+     * 最多只读取指定字节数的输入流，文件后面还在写入的部分不会被读到
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int result = super.read();
+            if(result != -1){
+                remaining--;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int result = super.read(buffer, offset, (int) Math.min(count, remaining));
+            if(result > 0){
+                remaining -= result;
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long result = super.skip(Math.min(count, remaining));
+            remaining -= result;
+            return result;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.decode;
+
+/**
+ * 渐进式JPEG解析器，边下载边解析，找出每一遍扫描结束的位置
+ * <br>按段长度跳过各个段的内容，所以APP1里的缩略图不会被当成扫描
+ */
+public class ProgressiveJpegParser {
+    private static final int STATE_START = 0;  // 等待0xFF
+    private static final int STATE_START_MARKER = 1;   // 等待0xD8
+    private static final int STATE_DATA = 2;   // 在扫描数据中或两个段之间，等待0xFF
+    private static final int STATE_MARKER = 3; // 读到0xFF，等待标记
+    private static final int STATE_LENGTH_HIGH = 4;
+    private static final int STATE_LENGTH_LOW = 5;
+    private static final int STATE_SKIP = 6;   // 跳过段的内容
+    private static final int STATE_FINISHED = 7;   // 读到EOI、不是渐进式JPEG或格式错误
+
+    private int state = STATE_START;
+    private int position;   // 已经解析的字节数
+    private int markerOffset;   // 当前标记的0xFF的位置
+    private int segmentLength;
+    private int skipLength;
+    private boolean frameFound;
+    private boolean progressive;
+    private int scanCount;
+    private int completedScansEnd;
+
+    /**
+     * 解析新收到的数据，必须按顺序传入
+     */
+    public void parse(byte[] buffer, int offset, int length){
+        int end = offset + length;
+        for(int index = offset; index < end && state != STATE_FINISHED; index++, position++){
+            int value = buffer[index] & 0xff;
+            switch (state){
+                case STATE_START :
+                    state = value == 0xFF ? STATE_START_MARKER : STATE_FINISHED;
+                    break;
+                case STATE_START_MARKER :
+                    state = value == 0xD8 ? STATE_DATA : STATE_FINISHED;
+                    break;
+                case STATE_DATA :
+                    if(value == 0xFF){
+                        markerOffset = position;
+                        state = STATE_MARKER;
+                    }
+                    break;
+                case STATE_MARKER :
+                    onMarker(value);
+                    break;
+                case STATE_LENGTH_HIGH :
+                    segmentLength = value << 8;
+                    state = STATE_LENGTH_LOW;
+                    break;
+                case STATE_LENGTH_LOW :
+                    segmentLength |= value;
+                    skipLength = segmentLength - 2;
+                    if(skipLength < 0){
+                        state = STATE_FINISHED;
+                    }else{
+                        state = skipLength > 0 ? STATE_SKIP : STATE_DATA;
+                    }
+                    break;
+                case STATE_SKIP :
+                    // 一次跳过尽可能多的字节
+                    int skip = Math.min(skipLength, end - index);
+                    skipLength -= skip;
+                    index += skip - 1;
+                    position += skip - 1;
+                    if(skipLength == 0){
+                        state = STATE_DATA;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void onMarker(int marker){
+        if(marker == 0xFF){
+            // 填充字节，标记还在后面
+            markerOffset = position;
+        }else if(marker == 0x00 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)){
+            // 扫描数据中被转义的0xFF或没有长度的标记
+            state = STATE_DATA;
+        }else if(marker == 0xD9){
+            // EOI，最后一遍扫描也结束了
+            if(scanCount > 0){
+                completedScansEnd = markerOffset;
+            }
+            state = STATE_FINISHED;
+        }else if(marker == 0xDA){
+            // SOS，新的一遍扫描开始了，说明前面的扫描都已完整
+            if(!frameFound){
+                state = STATE_FINISHED;
+                return;
+            }
+            if(scanCount > 0){
+                completedScansEnd = markerOffset;
+            }
+            scanCount++;
+            state = STATE_LENGTH_HIGH;
+        }else{
+            if(marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC && !frameFound){
+                // SOF，只有SOF2才是渐进式的
+                frameFound = true;
+                progressive = marker == 0xC2;
+                if(!progressive){
+                    state = STATE_FINISHED;
+                    return;
+                }
+            }
+            state = STATE_LENGTH_HIGH;
+        }
+    }
+
+    /**
+     * 是否已经确定是渐进式JPEG
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * 是否已经不需要再解析了，读到了EOI或者已经确定不是渐进式JPEG
+     */
+    public boolean isFinished() {
+        return state == STATE_FINISHED;
+    }
+
+    /**
+     * 获取已经完整的扫描遍数
+     */
+    public int getCompletedScanCount() {
+        if(state == STATE_FINISHED && progressive){
+            return scanCount;
+        }
+        return scanCount > 0 ? scanCount - 1 : 0;
+    }
+
+    /**
+     * 获取已经完整的扫描的结束位置，只解码这之前的数据并在后面补上EOI就能得到一张预览图
+     */
+    public int getCompletedScansEnd() {
+        return completedScansEnd;
+    }
+}
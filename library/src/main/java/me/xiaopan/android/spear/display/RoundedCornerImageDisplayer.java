@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.display;
+
+import android.content.res.Resources;
+import android.graphics.drawable.BitmapDrawable;
+import android.widget.ImageView;
+
+import me.xiaopan.android.spear.request.DisplayRequest;
+import me.xiaopan.android.spear.util.GifDrawable;
+import me.xiaopan.android.spear.util.ShapedBitmapDrawable;
+
+/**
+ * 圆角图片显示器，在绘制时裁剪出圆角，跟RoundedCornerImageProcessor相比不用创建新的图片，同一张缓存图片可以同时显示成方形和圆角
+ */
+public class RoundedCornerImageDisplayer implements ShapeImageDisplayer {
+    private int roundPixels;
+    private ImageDisplayer imageDisplayer;
+
+    /**
+     * 创建一个圆角图片显示器
+     * @param roundPixels 圆角度数
+     * @param imageDisplayer 实际负责显示的显示器，可以用来添加动画
+     */
+    public RoundedCornerImageDisplayer(int roundPixels, ImageDisplayer imageDisplayer) {
+        this.roundPixels = roundPixels;
+        this.imageDisplayer = imageDisplayer != null ? imageDisplayer : new DefaultImageDisplayer();
+    }
+
+    /**
+     * 创建一个圆角图片显示器
+     * @param roundPixels 圆角度数
+     */
+    public RoundedCornerImageDisplayer(int roundPixels) {
+        this(roundPixels, null);
+    }
+
+    /**
+     * 创建一个圆角图片显示器，圆角角度默认为18
+     */
+    public RoundedCornerImageDisplayer() {
+        this(18, null);
+    }
+
+    @Override
+    public BitmapDrawable applyShape(Resources resources, BitmapDrawable bitmapDrawable) {
+        // GIF包起来之后只会显示第一帧，所以不加形状
+        if(bitmapDrawable == null || bitmapDrawable instanceof ShapedBitmapDrawable || bitmapDrawable instanceof GifDrawable){
+            return bitmapDrawable;
+        }
+        return new ShapedBitmapDrawable(resources, bitmapDrawable, roundPixels, false);
+    }
+
+    @Override
+    public ImageDisplayer getImageDisplayer() {
+        return imageDisplayer;
+    }
+
+    @Override
+    public void display(ImageView imageView, BitmapDrawable bitmapDrawable, BitmapType bitmapType, DisplayRequest displayRequest) {
+        if(bitmapDrawable == null){
+            return;
+        }
+        imageDisplayer.display(imageView, applyShape(imageView.getResources(), bitmapDrawable), bitmapType, displayRequest);
+    }
+
+    public int getRoundPixels() {
+        return roundPixels;
+    }
+}
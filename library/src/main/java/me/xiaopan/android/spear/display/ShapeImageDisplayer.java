@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.display;
+
+import android.content.res.Resources;
+import android.graphics.drawable.BitmapDrawable;
+
+/**
+ * 形状图片显示器，在绘制时改变图片的形状，不创建新的图片，也不影响内存缓存
+ */
+public interface ShapeImageDisplayer extends ImageDisplayer {
+    /**
+     * 给图片加上形状，从内存缓存中直接显示图片时也会调用此方法；GifDrawable要原样返回，不然就不会动了
+     * @param resources Resources
+     * @param bitmapDrawable 原图
+     * @return 带形状的图片
+     */
+    public BitmapDrawable applyShape(Resources resources, BitmapDrawable bitmapDrawable);
+
+    /**
+     * 获取实际负责显示的显示器
+     * @return 实际负责显示的显示器
+     */
+    public ImageDisplayer getImageDisplayer();
+}
@@ -54,4 +54,15 @@ public class TransitionImageDisplayer implements ImageDisplayer {
 			imageView.setImageDrawable(bitmapDrawable);
 		}
 	}
+
+    /**
+     * 判断是不是过渡图片显示器，被形状图片显示器包着的也算；过渡图片显示器要求图片跟ImageView一样大，所以会自动按ImageView的尺寸裁剪
+     * @param imageDisplayer 图片显示器
+     */
+    public static boolean isTransition(ImageDisplayer imageDisplayer){
+        if(imageDisplayer instanceof ShapeImageDisplayer){
+            imageDisplayer = ((ShapeImageDisplayer) imageDisplayer).getImageDisplayer();
+        }
+        return imageDisplayer instanceof TransitionImageDisplayer;
+    }
 }
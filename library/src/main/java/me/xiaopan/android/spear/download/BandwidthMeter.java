@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.download;
+
+/**
+ * 带宽测量器，根据最近的下载速度估算当前网络的带宽等级
+ */
+public class BandwidthMeter {
+    private static final int MIN_SAMPLE_BYTES = 16*1024;    // 太小的文件主要耗在建立连接上，不能反映带宽
+    private static final double SMOOTHING_FACTOR = 0.3;    // 新样本所占的权重
+    private static final int POOR_KBPS = 150;
+    private static final int MODERATE_KBPS = 550;
+    private static final int GOOD_KBPS = 2000;
+
+    private double averageKbps = -1;
+    private int sampleCount;
+
+    /**
+     * 添加一个下载样本
+     * @param bytes 下载的字节数
+     * @param millis 实际传输数据的耗时，单位毫秒，不能包含等待锁的时间
+     */
+    public void addSample(long bytes, long millis){
+        if(bytes < MIN_SAMPLE_BYTES || millis <= 0){
+            return;
+        }
+        double kbps = bytes * 8.0 / millis;
+        synchronized (this){
+            averageKbps = averageKbps < 0 ? kbps : averageKbps + (kbps - averageKbps) * SMOOTHING_FACTOR;
+            sampleCount++;
+        }
+    }
+
+    /**
+     * 获取平均带宽
+     * @return 平均带宽，单位kbps；还没有样本时返回-1
+     */
+    public synchronized double getAverageKbps() {
+        return averageKbps;
+    }
+
+    /**
+     * 获取样本数量
+     */
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * 获取当前的带宽等级
+     */
+    public synchronized BandwidthClass getBandwidthClass(){
+        if(averageKbps < 0){
+            return BandwidthClass.UNKNOWN;
+        }else if(averageKbps < POOR_KBPS){
+            return BandwidthClass.POOR;
+        }else if(averageKbps < MODERATE_KBPS){
+            return BandwidthClass.MODERATE;
+        }else if(averageKbps < GOOD_KBPS){
+            return BandwidthClass.GOOD;
+        }else{
+            return BandwidthClass.EXCELLENT;
+        }
+    }
+
+    /**
+     * 清空样本，例如网络切换之后
+     */
+    public synchronized void reset(){
+        averageKbps = -1;
+        sampleCount = 0;
+    }
+
+    /**
+     * 带宽等级
+     */
+    public enum BandwidthClass {
+        /**
+         * 未知，还没有样本
+         */
+        UNKNOWN,
+
+        /**
+         * 差，低于150kbps
+         */
+        POOR,
+
+        /**
+         * 一般，150~550kbps
+         */
+        MODERATE,
+
+        /**
+         * 好，550~2000kbps
+         */
+        GOOD,
+
+        /**
+         * 很好，高于2000kbps
+         */
+        EXCELLENT,
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.download;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.util.FailureCause;
+
+/**
+ * 默认的重试策略
+ * <br>超时、连接失败、域名解析失败、5xx以及408、429状态码会重试，其它错误直接失败
+ * <br>重试等待时间按指数增长并加上随机抖动，避免大量请求同时重试压垮服务器；服务器返回了Retry-After时以Retry-After为准
+ * <br>同一个Host连续失败达到一定次数后会被熔断一段时间，熔断期间的请求直接失败，熔断结束后先放一个请求试探
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+    private static final String NAME = "DefaultRetryPolicy";
+    private static final int DEFAULT_MAX_RETRY_COUNT = 1;    // 默认最大重试次数
+    private static final long DEFAULT_BASE_DELAY = 500;    // 默认第一次重试的等待时间
+    private static final long DEFAULT_MAX_DELAY = 30*1000;    // 默认最大等待时间
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;    // 默认连续失败多少次就熔断
+    private static final long DEFAULT_CIRCUIT_OPEN_DURATION = 30*1000;    // 默认熔断时长
+
+    private final Random random = new Random();
+    private final Map<String, HostCircuit> hostCircuits = new HashMap<String, HostCircuit>();
+    private int maxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+    private long baseDelay = DEFAULT_BASE_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private int circuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+    private long circuitOpenDuration = DEFAULT_CIRCUIT_OPEN_DURATION;
+
+    @Override
+    public void setMaxRetryCount(int maxRetryCount) {
+        this.maxRetryCount = maxRetryCount;
+    }
+
+    /**
+     * 设置退避时间
+     * @param baseDelay 第一次重试的等待时间，之后每次翻倍，单位毫秒，默认500
+     * @param maxDelay 最大等待时间，单位毫秒，默认30秒；Retry-After超过此时间就不再重试
+     */
+    public void setBackoff(long baseDelay, long maxDelay) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * 设置熔断参数
+     * @param failureThreshold 同一个Host连续失败多少次就熔断，默认5，小于等于0表示不熔断
+     * @param openDuration 熔断时长，单位毫秒，默认30秒
+     */
+    public void setCircuitBreaker(int failureThreshold, long openDuration) {
+        this.circuitFailureThreshold = failureThreshold;
+        this.circuitOpenDuration = openDuration;
+    }
+
+    @Override
+    public synchronized boolean allowRequest(String host) {
+        HostCircuit circuit = host != null ? hostCircuits.get(host) : null;
+        if(circuit == null || circuit.openUntil == 0){
+            return true;
+        }
+        long currentTime = System.currentTimeMillis();
+        if(currentTime < circuit.openUntil){
+            return false;
+        }
+
+        // 熔断时间已过，放一个请求过去试探，试探的请求被取消了就等它超时后再放下一个
+        if(circuit.trialInFlight && currentTime < circuit.trialDeadline){
+            return false;
+        }
+        circuit.trialInFlight = true;
+        circuit.trialDeadline = currentTime + circuitOpenDuration;
+        return true;
+    }
+
+    @Override
+    public synchronized void onSuccess(String host) {
+        if(host != null && hostCircuits.remove(host) != null){
+            SLog.i(SLog.CATEGORY_DOWNLOAD, NAME, "恢复", host);
+        }
+    }
+
+    @Override
+    public synchronized void onFailure(String host, ImageDownloader.DownloadResult failureResult) {
+        if(host == null || circuitFailureThreshold <= 0){
+            return;
+        }
+
+        // 只有服务器或网络的问题才计入熔断，服务器能正常响应4xx说明它是好的
+        if(!isServerSideFailure(failureResult)){
+            if(failureResult != null && failureResult.getResponseCode() > 0){
+                onSuccess(host);
+            }
+            return;
+        }
+
+        HostCircuit circuit = hostCircuits.get(host);
+        if(circuit == null){
+            circuit = new HostCircuit();
+            hostCircuits.put(host, circuit);
+        }
+        circuit.consecutiveFailures++;
+        if(circuit.trialInFlight || circuit.consecutiveFailures >= circuitFailureThreshold){
+            circuit.trialInFlight = false;
+            circuit.openUntil = System.currentTimeMillis() + circuitOpenDuration;
+            if(SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "熔断", "连续失败" + circuit.consecutiveFailures + "次", host);
+        }
+    }
+
+    @Override
+    public long getRetryDelay(DownloadRequest request, ImageDownloader.DownloadResult failureResult) {
+        if(request.getAttemptCount() > maxRetryCount || !isRetryable(failureResult)){
+            return -1;
+        }
+
+        long retryAfter = parseRetryAfter(failureResult.getRetryAfter());
+        if(retryAfter >= 0){
+            return retryAfter <= maxDelay ? retryAfter : -1;
+        }
+
+        // 指数退避，取一半固定加一半随机，既避免同时重试又保证有最小间隔
+        long delay = baseDelay << Math.min(request.getAttemptCount() - 1, 16);
+        if(delay <= 0 || delay > maxDelay){
+            delay = maxDelay;
+        }
+        long half = delay / 2;
+        synchronized (random){
+            return half + (long) (random.nextDouble() * (delay - half));
+        }
+    }
+
+    /**
+     * 判断是否可以重试
+     */
+    protected boolean isRetryable(ImageDownloader.DownloadResult failureResult){
+        if(failureResult == null || failureResult.getFailureCause() == null){
+            return false;
+        }
+        switch(failureResult.getFailureCause()){
+            case NETWORK_TIMEOUT :
+            case CONNECTION_FAILED :
+            case DNS_FAILED :
+            case HTTP_SERVER_ERROR :
+                return true;
+            case HTTP_CLIENT_ERROR :
+                return failureResult.getResponseCode() == 408 || failureResult.getResponseCode() == 429;
+            default :
+                return false;
+        }
+    }
+
+    private boolean isServerSideFailure(ImageDownloader.DownloadResult failureResult){
+        if(failureResult == null || failureResult.getFailureCause() == null){
+            return false;
+        }
+        switch(failureResult.getFailureCause()){
+            case NETWORK_TIMEOUT :
+            case CONNECTION_FAILED :
+            case HTTP_SERVER_ERROR :
+                return true;
+            default :
+                return failureResult.getFailureCause() == FailureCause.HTTP_CLIENT_ERROR && failureResult.getResponseCode() == 429;
+        }
+    }
+
+    /**
+     * 解析Retry-After，支持秒数和HTTP日期两种格式
+     * @param retryAfter Retry-After的值
+     * @return 需要等待的时间，单位毫秒；解析失败返回-1
+     */
+    public static long parseRetryAfter(String retryAfter){
+        if(retryAfter == null || "".equals(retryAfter.trim())){
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            long seconds = Long.parseLong(retryAfter);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            // 不是秒数就按HTTP日期解析
+        }
+        try {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            Date date = dateFormat.parse(retryAfter);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static class HostCircuit {
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean trialInFlight;
+        private long trialDeadline;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.download;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import me.xiaopan.android.spear.request.DownloadRequest;
+
+/**
+ * 下载跟踪器，记录正在下载的请求，只在开始和结束时各操作一次ConcurrentHashMap，不影响下载速度
+ */
+public class DownloadTracker {
+    private Map<DownloadRequest, Long> startTimeMap = new ConcurrentHashMap<DownloadRequest, Long>();
+
+    /**
+     * 开始下载
+     */
+    public void begin(DownloadRequest request){
+        startTimeMap.put(request, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * 下载结束，包括成功、失败和取消
+     */
+    public void end(DownloadRequest request){
+        startTimeMap.remove(request);
+    }
+
+    /**
+     * 获取正在下载的请求数量
+     */
+    public int getCount(){
+        return startTimeMap.size();
+    }
+
+    /**
+     * 获取所有正在下载的请求
+     */
+    public List<DownloadInfo> getDownloads(){
+        long currentTime = SystemClock.uptimeMillis();
+        List<DownloadInfo> downloads = new ArrayList<DownloadInfo>(startTimeMap.size());
+        for(Map.Entry<DownloadRequest, Long> entry : startTimeMap.entrySet()){
+            DownloadRequest request = entry.getKey();
+            downloads.add(new DownloadInfo(request.getUri(), request.getAttemptCount(),
+                    request.getProgressTotalLength(), request.getProgressCompletedLength(), currentTime - entry.getValue()));
+        }
+        return downloads;
+    }
+
+    /**
+     * 一个正在下载的请求
+     */
+    public static class DownloadInfo {
+        private String uri;
+        private int attemptCount;
+        private int totalLength;
+        private int completedLength;
+        private long elapsedTime;
+
+        public DownloadInfo(String uri, int attemptCount, int totalLength, int completedLength, long elapsedTime) {
+            this.uri = uri;
+            this.attemptCount = attemptCount;
+            this.totalLength = totalLength;
+            this.completedLength = completedLength;
+            this.elapsedTime = elapsedTime;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * 获取这是第几次尝试
+         */
+        public int getAttemptCount() {
+            return attemptCount;
+        }
+
+        /**
+         * 获取总长度，还没收到数据或者长度未知时为0
+         */
+        public int getTotalLength() {
+            return totalLength;
+        }
+
+        /**
+         * 获取已下载的长度，按进度回调的频率更新
+         */
+        public int getCompletedLength() {
+            return completedLength;
+        }
+
+        /**
+         * 获取本次尝试已经用了多长时间，单位毫秒
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+    }
+}
@@ -16,8 +16,6 @@
 
 package me.xiaopan.android.spear.download;
 
-import android.util.Log;
-
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
@@ -51,17 +49,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.SocketTimeoutException;
 import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.GZIPInputStream;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.util.DirectByteArrayOutputStream;
+import me.xiaopan.android.spear.util.FailureCause;
 
 /**
  * 使用HttpClient来访问网络的下载器
@@ -75,13 +73,12 @@ public class HttpClientImageDownloader implements ImageDownloader {
     private static final int DEFAULT_MAX_ROUTE_CONNECTIONS = 400;    // 默认每个路由的最大连接数
     private static final int DEFAULT_MAX_CONNECTIONS = 800;  // 默认最大连接数
     private static final int DEFAULT_SOCKET_BUFFER_SIZE = 8192;  // 默认Socket缓存大小
-    private static final int DEFAULT_MAX_RETRY_COUNT = 1;    // 默认最大重试次数
     private static final int DEFAULT_PROGRESS_CALLBACK_NUMBER = 10;    // 默认进度回调次数
     private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows NT 6.0; WOW64) AppleWebKit/534.24 (KHTML, like Gecko) Chrome/11.0.696.16 Safari/534.24";
 
     private DefaultHttpClient httpClient;
 	private Map<String, ReentrantLock> urlLocks;
-    private int maxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+    private RetryPolicy retryPolicy = new DefaultRetryPolicy();
     private int progressCallbackNumber = DEFAULT_PROGRESS_CALLBACK_NUMBER;
 
 	public HttpClientImageDownloader() {
@@ -106,7 +103,19 @@ public class HttpClientImageDownloader implements ImageDownloader {
 
     @Override
     public void setMaxRetryCount(int maxRetryCount) {
-        this.maxRetryCount = maxRetryCount;
+        retryPolicy.setMaxRetryCount(maxRetryCount);
+    }
+
+    @Override
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if(retryPolicy != null){
+            this.retryPolicy = retryPolicy;
+        }
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
     }
 
     @Override
@@ -141,36 +150,20 @@ public class HttpClientImageDownloader implements ImageDownloader {
         urlLock.lock();
 
         DownloadResult result = null;
-        int number = 0;
-        while(true){
+        File cacheFile = request.getCacheFile();
+        if (request.isCanceled()) {
             // 如果已经取消了就直接结束
-            if (request.isCanceled()) {
-                if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 拿到锁之后" + "；" + request.getName());
-                break;
-            }
-
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 拿到锁之后", request.getName());
+        }else if (cacheFile != null && cacheFile.exists()) {
             // 如果缓存文件已经存在了就直接返回缓存文件
-            File cacheFile = request.getCacheFile();
-            if (cacheFile != null && cacheFile.exists()) {
-                result = DownloadResult.createByFile(cacheFile, false);
-                break;
-            }
-
+            result = DownloadResult.createByFile(cacheFile, false);
+        }else{
+            // 只尝试一次，要不要重试、等多久由RetryPolicy决定，等待期间不占用下载线程
             try {
                 result = realDownload(request);
-                break;
             } catch (Throwable e) {
-                boolean retry = (e instanceof SocketTimeoutException || e instanceof InterruptedIOException) && number < maxRetryCount;
-                if(retry){
-                    number++;
-                    if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "；" + "下载异常 - 再次尝试" + "；" + request.getName());
-                }else{
-                    if (Spear.isDebugMode()) Log.e(Spear.TAG, NAME + "；" + "下载异常 - 不再尝试" + "；" + request.getName());
-                }
-                e.printStackTrace();
-                if(!retry){
-                    break;
-                }
+                SLog.e(SLog.CATEGORY_DOWNLOAD, NAME, "下载异常", e, request.getName());
+                result = DownloadResult.createByException(e);
             }
         }
 
@@ -184,12 +177,12 @@ public class HttpClientImageDownloader implements ImageDownloader {
         try {
             httpResponse = httpClient.execute(new HttpGet(request.getUri()));
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "创建连接失败："+e.getMessage() + "；" + request.getName());
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "创建连接失败", e, request.getName());
             throw e;
         }
         if (request.isCanceled()) {
             releaseConnection(httpResponse);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 获取Response之后" + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 获取Response之后", request.getName());
             return null;
         }
 
@@ -197,14 +190,15 @@ public class HttpClientImageDownloader implements ImageDownloader {
         StatusLine statusLine = httpResponse.getStatusLine();
         if(statusLine == null){
             releaseConnection(httpResponse);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "获取状态行失败" + "；" + request.getName());
-            return null;
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取状态行失败", request.getName());
+            return DownloadResult.createByFailure(FailureCause.DOWNLOAD_FAILED, 0, null);
         }
         int responseCode = statusLine.getStatusCode();
         if (responseCode != 200) {
+            Header retryAfterHeader = httpResponse.getFirstHeader("Retry-After");
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "状态码异常", responseCode + " " + httpResponse.getStatusLine().getReasonPhrase(), request.getName());
             releaseConnection(httpResponse);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "状态码异常："+responseCode + " " + httpResponse.getStatusLine().getReasonPhrase() + "；" + request.getName());
-            return null;
+            return DownloadResult.createByResponseCode(responseCode, retryAfterHeader != null ? retryAfterHeader.getValue() : null);
         }
 
         // 检查内容长度
@@ -215,8 +209,8 @@ public class HttpClientImageDownloader implements ImageDownloader {
         }
         if (contentLength <= 0) {
             releaseConnection(httpResponse);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "内容长度异常："+contentLength + "；" + request.getName());
-            return null;
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "内容长度异常", contentLength, request.getName());
+            return DownloadResult.createByFailure(FailureCause.CONTENT_ERROR, responseCode, null);
         }
 
         return readData(request, httpResponse, contentLength);
@@ -236,14 +230,14 @@ public class HttpClientImageDownloader implements ImageDownloader {
         try {
             inputStream = httpResponse.getEntity().getContent();
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "获取输入流时发生异常：" + e.getMessage() + "；" + request.getName());
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取输入流时发生异常，需要删除临时缓存文件，但删除失败：" + tempFile.getPath() + "；" + request.getName());
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取输入流时发生异常", e, request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取输入流时发生异常，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             throw e;
         }
         if (request.isCanceled()) {
             HttpUrlConnectionImageDownloader.close(inputStream);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 获取输入流之后" + "；" + request.getName());
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "获取输入流之后发现取消，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 获取输入流之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取输入流之后发现取消，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             return null;
         }
 
@@ -254,41 +248,41 @@ public class HttpClientImageDownloader implements ImageDownloader {
                 outputStream = new BufferedOutputStream(new FileOutputStream(tempFile, false), BUFFER_SIZE);
             } catch (FileNotFoundException e) {
                 HttpUrlConnectionImageDownloader.close(inputStream);
-                Log.w(Spear.TAG, NAME + "：" + "创建输出流时找不到文件了："+tempFile.getPath() + "；" + request.getName());
+                SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "创建输出流时找不到文件了", tempFile.getPath(), request.getName());
                 throw e;
             }
         }else{
-            outputStream = new ByteArrayOutputStream();
+            outputStream = new DirectByteArrayOutputStream();
         }
 
         // 读取数据
         int completedLength = 0;
         boolean exception = false;
         try {
-            completedLength = HttpUrlConnectionImageDownloader.readData(inputStream, outputStream, request, contentLength, progressCallbackNumber);
+            completedLength = HttpUrlConnectionImageDownloader.readData(inputStream, outputStream, tempFile, request, contentLength, progressCallbackNumber);
         } catch (IOException e) {
             exception = true;
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "读取数据时发生异常："+e.getMessage() + "；" + request.getName());
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常", e, request.getName());
             throw e;
         }finally {
             HttpUrlConnectionImageDownloader.close(outputStream);
             HttpUrlConnectionImageDownloader.close(inputStream);
-            if (exception && tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取数据时发生异常，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            if (exception && tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
         }
         if (request.isCanceled()) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 读取完数据之后" + "；" + request.getName());
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取完数据之后发现取消了，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 读取完数据之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取完数据之后发现取消了，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             return null;
         }
 
-        if (Spear.isDebugMode()) Log.i(Spear.TAG, NAME + "：" + "下载成功" + "；" + "文件长度：" + completedLength + "/" + contentLength + "；" + request.getName());
+        if (SLog.isLoggable(SLog.INFO, SLog.CATEGORY_DOWNLOAD)) SLog.i(SLog.CATEGORY_DOWNLOAD, NAME, "下载成功", "文件长度：" + completedLength + "/" + contentLength, request.getName());
 
         // 转换结果
         if(tempFile != null && tempFile.exists()){
             if(tempFile.renameTo(request.getCacheFile())){
                 return DownloadResult.createByFile(request.getCacheFile(), true);
             }else{
-                if (!tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "重命名失败，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+                if (!tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "重命名失败，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
                 return null;
             }
         }else if(outputStream instanceof ByteArrayOutputStream){
@@ -312,7 +306,7 @@ public class HttpClientImageDownloader implements ImageDownloader {
         try {
             inputStream = httpEntity.getContent();
         } catch (IOException e) {
-            e.printStackTrace();
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "释放连接时获取输入流失败", e);
         }
         if(inputStream == null){
             return;
@@ -321,7 +315,7 @@ public class HttpClientImageDownloader implements ImageDownloader {
         try {
             inputStream.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "释放连接时关闭输入流失败", e);
         }
     }
 
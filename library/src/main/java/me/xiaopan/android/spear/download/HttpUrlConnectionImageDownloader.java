@@ -17,7 +17,6 @@
 package me.xiaopan.android.spear.download;
 
 import android.os.Build;
-import android.util.Log;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -27,10 +26,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.List;
@@ -38,8 +35,13 @@ import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.decode.ProgressiveJpegDecoder;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.request.RequestMetrics;
+import me.xiaopan.android.spear.util.ByteArrayPool;
+import me.xiaopan.android.spear.util.DirectByteArrayOutputStream;
+import me.xiaopan.android.spear.util.FailureCause;
 
 /**
  * 使用HttpURLConnection来访问网络的下载器
@@ -48,12 +50,11 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
     private static final int BUFFER_SIZE = 8*1024;
     private static final int DEFAULT_READ_TIMEOUT = 10*1000;   // 默认读取超时时间
     private static final int DEFAULT_CONNECT_TIMEOUT = 10*1000;    // 默认连接超时时间
-    private static final int DEFAULT_MAX_RETRY_COUNT = 1;    // 默认最大重试次数
     private static final int DEFAULT_PROGRESS_CALLBACK_NUMBER = 10;    // 默认进度回调次数
 	private static final String NAME = "HttpUrlConnectionImageDownloader";
 
 	private Map<String, ReentrantLock> urlLocks;
-    private int maxRetryCount = DEFAULT_MAX_RETRY_COUNT;
+    private RetryPolicy retryPolicy = new DefaultRetryPolicy();
     private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
     private int readTimeout = DEFAULT_READ_TIMEOUT;
     private int progressCallbackNumber = DEFAULT_PROGRESS_CALLBACK_NUMBER;
@@ -64,7 +65,19 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
 
     @Override
     public void setMaxRetryCount(int maxRetryCount) {
-        this.maxRetryCount = maxRetryCount;
+        retryPolicy.setMaxRetryCount(maxRetryCount);
+    }
+
+    @Override
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if(retryPolicy != null){
+            this.retryPolicy = retryPolicy;
+        }
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
     }
 
     @Override
@@ -109,36 +122,20 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
         urlLock.lock();
 
         DownloadResult result = null;
-        int number = 0;
-        while(true){
+        File cacheFile = request.getCacheFile();
+        if (request.isCanceled()) {
             // 如果已经取消了就直接结束
-            if (request.isCanceled()) {
-                if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 拿到锁之后" + "；" + request.getName());
-                break;
-            }
-
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 拿到锁之后", request.getName());
+        }else if (cacheFile != null && cacheFile.exists()) {
             // 如果缓存文件已经存在了就直接返回缓存文件
-            File cacheFile = request.getCacheFile();
-            if (cacheFile != null && cacheFile.exists()) {
-                result = DownloadResult.createByFile(cacheFile, false);
-                break;
-            }
-
+            result = DownloadResult.createByFile(cacheFile, false);
+        }else{
+            // 只尝试一次，要不要重试、等多久由RetryPolicy决定，等待期间不占用下载线程
             try {
                 result = realDownload(request);
-                break;
             } catch (Throwable e) {
-                boolean retry = (e instanceof SocketTimeoutException || e instanceof InterruptedIOException) && number < maxRetryCount;
-                if(retry){
-                    number++;
-                    if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "；" + "下载异常 - 再次尝试" + "；" + request.getName());
-                }else{
-                    if (Spear.isDebugMode()) Log.e(Spear.TAG, NAME + "；" + "下载异常 - 不再尝试" + "；" + request.getName());
-                }
-                e.printStackTrace();
-                if(!retry){
-                    break;
-                }
+                SLog.e(SLog.CATEGORY_DOWNLOAD, NAME, "下载异常", e, request.getName());
+                result = DownloadResult.createByException(e);
             }
         }
 
@@ -153,18 +150,18 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
         try {
             connection = openUrlConnection(request.getUri());
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "创建连接失败："+e.getMessage() + "；" + request.getName());
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "创建连接失败", e, request.getName());
             throw e;
         }
         try {
             connection.connect();
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "打开连接失败："+e.getMessage() + "；" + request.getName());
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "打开连接失败", e, request.getName());
             throw e;
         }
         if (request.isCanceled()) {
             releaseConnection(connection, request);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 打开连接之后" + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 打开连接之后", request.getName());
             return null;
         }
 
@@ -174,29 +171,31 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
             responseCode = connection.getResponseCode();
         } catch (IOException e) {
             releaseConnection(connection, request);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "获取状态码时发生异常" + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
-            return null;
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取状态码时发生异常", e, request.getName(), getResponseHeadersString(connection));
+            throw e;
         }
         String responseMessage;
         try {
             responseMessage = connection.getResponseMessage();
         } catch (IOException e) {
             releaseConnection(connection, request);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "获取状态消息时发生异常" + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
-            return null;
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取状态消息时发生异常", e, request.getName(), getResponseHeadersString(connection));
+            throw e;
         }
         if (responseCode != 200) {
+            // 断开连接之后有些系统上就取不到响应头了，所以要先读
+            String retryAfter = connection.getHeaderField("Retry-After");
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "状态码异常", responseCode + " " + responseMessage, request.getName(), getResponseHeadersString(connection));
             releaseConnection(connection, request);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "状态码异常："+responseCode+" "+responseMessage + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
-            return null;
+            return DownloadResult.createByResponseCode(responseCode, retryAfter);
         }
 
         // 检查内容长度
         int contentLength = connection.getHeaderFieldInt("Content-Length", -1);
         if (contentLength <= 0) {
             releaseConnection(connection, request);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "内容长度异常："+contentLength + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
-            return null;
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "内容长度异常", contentLength, request.getName(), getResponseHeadersString(connection));
+            return DownloadResult.createByFailure(FailureCause.CONTENT_ERROR, responseCode, null);
         }
 
         return readData(request, connection, contentLength);
@@ -216,14 +215,14 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
         try {
             inputStream = connection.getInputStream();
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "获取输入流时发生异常：" + e.getMessage() + "；" + request.getName() + "；HttpResponseHeader=" + getResponseHeadersString(connection));
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取输入流时发生异常，需要删除临时缓存文件，但删除失败：" + tempFile.getPath() + "；" + request.getName());
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取输入流时发生异常", e, request.getName(), getResponseHeadersString(connection));
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取输入流时发生异常，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             throw e;
         }
         if (request.isCanceled()) {
             close(inputStream);
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 获取输入流之后" + "；" + request.getName());
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "获取输入流之后发现取消，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 获取输入流之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取输入流之后发现取消，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             return null;
         }
 
@@ -234,43 +233,43 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
                 outputStream = new BufferedOutputStream(new FileOutputStream(tempFile, false), BUFFER_SIZE);
             } catch (FileNotFoundException e) {
                 close(inputStream);
-                Log.w(Spear.TAG, NAME + "：" + "创建输出流时找不到文件了："+tempFile.getPath() + "；" + request.getName());
+                SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "创建输出流时找不到文件了", tempFile.getPath(), request.getName());
                 throw e;
             }
         }else{
-            outputStream = new ByteArrayOutputStream();
+            outputStream = new DirectByteArrayOutputStream();
         }
 
         // 读取数据
         int completedLength = 0;
         boolean exception = false;
         try {
-            completedLength = readData(inputStream, outputStream, request, contentLength, progressCallbackNumber);
+            completedLength = readData(inputStream, outputStream, tempFile, request, contentLength, progressCallbackNumber);
         } catch (IOException e) {
             exception = true;
-            if (Spear.isDebugMode()){
-                Log.w(Spear.TAG, NAME + "：" + "读取数据时发生异常："+e.getMessage() + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)){
+                SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常", e, request.getName(), getResponseHeadersString(connection));
             }
             throw e;
         }finally {
             close(outputStream);
             close(inputStream);
-            if (exception && tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取数据时发生异常，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            if (exception && tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
         }
         if (request.isCanceled()) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "：" + "已取消下载 - 读取完数据之后" + "；" + request.getName());
-            if (tempFile != null && tempFile.exists() && !tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "读取完数据之后发现取消了，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 读取完数据之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取完数据之后发现取消了，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
             return null;
         }
 
-        if (Spear.isDebugMode()) Log.i(Spear.TAG, NAME + "：" + "下载成功" + "；" + "文件长度：" + completedLength + "/" + contentLength + "；" + request.getName()+"；HttpResponseHeader="+getResponseHeadersString(connection));
+        if (SLog.isLoggable(SLog.INFO, SLog.CATEGORY_DOWNLOAD)) SLog.i(SLog.CATEGORY_DOWNLOAD, NAME, "下载成功", "文件长度：" + completedLength + "/" + contentLength, request.getName(), getResponseHeadersString(connection));
 
         // 转换结果
         if(tempFile != null && tempFile.exists()){
             if(tempFile.renameTo(request.getCacheFile())){
                 return DownloadResult.createByFile(request.getCacheFile(), true);
             }else{
-                if (!tempFile.delete()) Log.w(Spear.TAG, NAME + "：" + "重命名失败，需要删除临时缓存文件，但删除失败："+tempFile.getPath() + "；" + request.getName());
+                if (!tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "重命名失败，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
                 return null;
             }
         }else if(outputStream instanceof ByteArrayOutputStream){
@@ -289,14 +288,14 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
             try {
                 ((OutputStream) closeable).flush();
             } catch (IOException e) {
-                e.printStackTrace();
+                SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "flush失败", e);
             }
         }
 
         try {
             closeable.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "关闭失败", e);
         }
     }
 
@@ -309,27 +308,53 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
         try {
             inputStream = connection.getInputStream();
         } catch (IOException e) {
-            if (Spear.isDebugMode()) Log.w(Spear.TAG, NAME + "："+e.getClass().getName()+"：" + "释放连接时获取输入流失败："+e.getMessage() + "；" + request.getName());
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "释放连接时获取输入流失败", e, request.getName());
             return;
         }
         close(inputStream);
     }
 
-    public static int readData(InputStream inputStream, OutputStream outputStream, DownloadRequest downloadRequest, int contentLength, int progressCallbackAccuracy) throws IOException {
+    /**
+     * 读取数据
+     * @param tempFile outputStream写入的文件，写到内存中时为null
+     */
+    public static int readData(InputStream inputStream, OutputStream outputStream, File tempFile, DownloadRequest downloadRequest, int contentLength, int progressCallbackAccuracy) throws IOException {
         int readNumber;
         int completedLength = 0;
         int averageLength = contentLength/progressCallbackAccuracy;
         int callbackNumber = 0;
-        byte[] cacheBytes = new byte[4*1024];
-        while(!downloadRequest.isCanceled() && (readNumber = inputStream.read(cacheBytes)) != -1){
-            outputStream.write(cacheBytes, 0, readNumber);
-            completedLength += readNumber;
-            if(completedLength >= (callbackNumber+1)*averageLength || completedLength == contentLength){
-                callbackNumber++;
-                downloadRequest.updateProgress(contentLength, completedLength);
+        // 预览图直接从正在写入的文件或内存缓冲区解码，两者都没有时就不显示预览图了
+        ProgressiveJpegDecoder progressiveJpegDecoder = tempFile != null || outputStream instanceof DirectByteArrayOutputStream ? downloadRequest.createProgressiveJpegDecoder() : null;
+        ByteArrayPool byteArrayPool = ByteArrayPool.getDefault();
+        byte[] cacheBytes = byteArrayPool.getBuf(ByteArrayPool.DEFAULT_BUFFER_SIZE);
+        long startTime = System.currentTimeMillis();
+        try{
+            while(!downloadRequest.isCanceled() && (readNumber = inputStream.read(cacheBytes)) != -1){
+                if(completedLength == 0){
+                    downloadRequest.markStage(RequestMetrics.Stage.DOWNLOAD_FIRST_BYTE);
+                }
+                outputStream.write(cacheBytes, 0, readNumber);
+                if(progressiveJpegDecoder != null && progressiveJpegDecoder.write(cacheBytes, 0, readNumber)){
+                    // 先把缓冲的数据写出去，处理线程才能读到完整的扫描
+                    outputStream.flush();
+                    if(tempFile != null){
+                        progressiveJpegDecoder.decodePreview(tempFile);
+                    }else{
+                        progressiveJpegDecoder.decodePreview(((DirectByteArrayOutputStream) outputStream).getBuffer());
+                    }
+                }
+                completedLength += readNumber;
+                // 内容长度未知时（例如chunked或HTTP/2的响应）无法计算进度
+                if(contentLength > 0 && (completedLength >= (callbackNumber+1)*averageLength || completedLength == contentLength)){
+                    callbackNumber++;
+                    downloadRequest.updateProgress(contentLength, completedLength);
+                }
             }
+            outputStream.flush();
+            downloadRequest.setTransferInfo(completedLength, System.currentTimeMillis() - startTime);
+        }finally{
+            byteArrayPool.returnBuf(cacheBytes);
         }
-        outputStream.flush();
         return completedLength;
     }
 
@@ -347,7 +372,7 @@ public class HttpUrlConnectionImageDownloader implements ImageDownloader {
                 return false;
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            SLog.e(SLog.CATEGORY_DOWNLOAD, NAME, "创建文件失败", e, file.getPath());
             return false;
         }
         return true;
@@ -17,8 +17,13 @@
 package me.xiaopan.android.spear.download;
 
 import java.io.File;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 
 import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.util.FailureCause;
 
 /**
  * 下载器
@@ -30,7 +35,7 @@ public interface ImageDownloader {
 	public DownloadResult download(DownloadRequest downloadRequest);
 	
     /**
-     * 设置最大重试次数
+     * 设置最大重试次数，等同于getRetryPolicy().setMaxRetryCount()
      * @param maxRetryCount 最大重试次数，默认1
      */
     public void setMaxRetryCount(int maxRetryCount);
@@ -47,12 +52,27 @@ public interface ImageDownloader {
      */
     public void setProgressCallbackNumber(int progressCallbackNumber);
 
+    /**
+     * 设置重试策略
+     * @param retryPolicy 重试策略，默认为DefaultRetryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy);
+
+    /**
+     * 获取重试策略
+     * @return 重试策略
+     */
+    public RetryPolicy getRetryPolicy();
+
     /**
      * 下载结果
      */
     public static class DownloadResult {
         private Object result;
         private boolean fromNetwork;
+        private FailureCause failureCause;
+        private int responseCode;
+        private String retryAfter;
 
         private DownloadResult(){
 
@@ -87,5 +107,65 @@ public interface ImageDownloader {
             result.setFromNetwork(fromNetwork);
             return result;
         }
+
+        /**
+         * 创建失败结果
+         * @param failureCause 失败原因
+         * @param responseCode 状态码，没有拿到响应时为0
+         * @param retryAfter 响应头中的Retry-After
+         */
+        public static DownloadResult createByFailure(FailureCause failureCause, int responseCode, String retryAfter){
+            DownloadResult result = new DownloadResult();
+            result.failureCause = failureCause;
+            result.responseCode = responseCode;
+            result.retryAfter = retryAfter;
+            return result;
+        }
+
+        /**
+         * 根据状态码创建失败结果
+         */
+        public static DownloadResult createByResponseCode(int responseCode, String retryAfter){
+            return createByFailure(responseCode >= 500 ? FailureCause.HTTP_SERVER_ERROR : FailureCause.HTTP_CLIENT_ERROR, responseCode, retryAfter);
+        }
+
+        /**
+         * 根据异常创建失败结果
+         */
+        public static DownloadResult createByException(Throwable throwable){
+            FailureCause failureCause;
+            if(throwable instanceof UnknownHostException){
+                failureCause = FailureCause.DNS_FAILED;
+            }else if(throwable instanceof SocketTimeoutException || throwable instanceof InterruptedIOException){
+                failureCause = FailureCause.NETWORK_TIMEOUT;
+            }else if(throwable instanceof SocketException){
+                // ConnectException、NoRouteToHostException以及连接被重置都属于SocketException
+                failureCause = FailureCause.CONNECTION_FAILED;
+            }else{
+                failureCause = FailureCause.DOWNLOAD_FAILED;
+            }
+            return createByFailure(failureCause, 0, null);
+        }
+
+        /**
+         * 获取失败原因，下载成功时为null
+         */
+        public FailureCause getFailureCause() {
+            return failureCause;
+        }
+
+        /**
+         * 获取状态码，没有拿到响应时为0
+         */
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        /**
+         * 获取响应头中的Retry-After
+         */
+        public String getRetryAfter() {
+            return retryAfter;
+        }
     }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.download;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.util.DirectByteArrayOutputStream;
+import me.xiaopan.android.spear.util.FailureCause;
+
+/**
+ * 使用OkHttp来访问网络的下载器，连接池复用长连接，对支持的服务器使用HTTP/2（或SPDY）多路复用
+ * <br>OkHttp是可选依赖，使用此下载器需要自行在项目中添加“com.squareup.okhttp:okhttp:2.2.0”或更高版本
+ */
+public class OkHttpImageDownloader implements ImageDownloader {
+    private static final int BUFFER_SIZE = 8*1024;
+    private static final int DEFAULT_READ_TIMEOUT = 10*1000;   // 默认读取超时时间
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10*1000;    // 默认连接超时时间
+    private static final int DEFAULT_PROGRESS_CALLBACK_NUMBER = 10;    // 默认进度回调次数
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;    // 默认连接池中最多保留的空闲连接数
+    private static final long DEFAULT_KEEP_ALIVE_DURATION = 5*60*1000;    // 默认空闲连接保活时间
+    private static final String NAME = "OkHttpImageDownloader";
+
+    private Map<String, ReentrantLock> urlLocks;
+    private OkHttpClient okHttpClient;
+    private RetryPolicy retryPolicy = new DefaultRetryPolicy();
+    private int progressCallbackNumber = DEFAULT_PROGRESS_CALLBACK_NUMBER;
+
+    /**
+     * 创建下载器并使用独立的连接池
+     * @param maxIdleConnections 连接池中最多保留的空闲连接数
+     * @param keepAliveDuration 空闲连接保活时间，单位毫秒
+     */
+    public OkHttpImageDownloader(int maxIdleConnections, long keepAliveDuration) {
+        this(new OkHttpClient());
+        okHttpClient.setConnectionPool(new ConnectionPool(maxIdleConnections, keepAliveDuration));
+    }
+
+    public OkHttpImageDownloader() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_KEEP_ALIVE_DURATION);
+    }
+
+    /**
+     * 使用已有的OkHttpClient创建下载器，这样可以跟应用的其它网络请求共享连接池
+     * <br>会先clone()一份再修改协议和超时时间，不会影响应用在别处使用的OkHttpClient，连接池还是共享的
+     * @param okHttpClient OkHttpClient
+     */
+    public OkHttpImageDownloader(OkHttpClient okHttpClient) {
+        this.urlLocks = Collections.synchronizedMap(new WeakHashMap<String, ReentrantLock>());
+        this.okHttpClient = okHttpClient.clone();
+        this.okHttpClient.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.SPDY_3, Protocol.HTTP_1_1));
+        this.okHttpClient.setConnectTimeout(DEFAULT_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        this.okHttpClient.setReadTimeout(DEFAULT_READ_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setMaxRetryCount(int maxRetryCount) {
+        retryPolicy.setMaxRetryCount(maxRetryCount);
+    }
+
+    @Override
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if(retryPolicy != null){
+            this.retryPolicy = retryPolicy;
+        }
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        okHttpClient.setConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setProgressCallbackNumber(int progressCallbackNumber) {
+        this.progressCallbackNumber = progressCallbackNumber;
+    }
+
+    /**
+     * 获取OkHttpClient
+     * @return OkHttpClient
+     */
+    public OkHttpClient getOkHttpClient() {
+        return okHttpClient;
+    }
+
+    /**
+     * 获取一个URL锁，通过此锁可以防止重复下载
+     * @param url 下载地址
+     * @return URL锁
+     */
+    public synchronized ReentrantLock getUrlLock(String url){
+        ReentrantLock urlLock = urlLocks.get(url);
+        if(urlLock == null){
+            urlLock = new ReentrantLock();
+            urlLocks.put(url, urlLock);
+        }
+        return urlLock;
+    }
+
+    @Override
+    public DownloadResult download(DownloadRequest request) {
+        // 根据下载地址加锁，防止重复下载
+        ReentrantLock urlLock = getUrlLock(request.getUri());
+        urlLock.lock();
+
+        DownloadResult result = null;
+        File cacheFile = request.getCacheFile();
+        if (request.isCanceled()) {
+            // 如果已经取消了就直接结束
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 拿到锁之后", request.getName());
+        }else if (cacheFile != null && cacheFile.exists()) {
+            // 如果缓存文件已经存在了就直接返回缓存文件
+            result = DownloadResult.createByFile(cacheFile, false);
+        }else{
+            // 只尝试一次，要不要重试、等多久由RetryPolicy决定，等待期间不占用下载线程
+            try {
+                result = realDownload(request);
+            } catch (Throwable e) {
+                SLog.e(SLog.CATEGORY_DOWNLOAD, NAME, "下载异常", e, request.getName());
+                result = DownloadResult.createByException(e);
+            }
+        }
+
+        // 释放锁
+        urlLock.unlock();
+        return result;
+    }
+
+    private DownloadResult realDownload(DownloadRequest request) throws IOException {
+        // 发送请求
+        com.squareup.okhttp.Request okRequest = new com.squareup.okhttp.Request.Builder().url(request.getUri()).get().build();
+        Response response;
+        try {
+            response = okHttpClient.newCall(okRequest).execute();
+        } catch (IOException e) {
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "请求失败", e, request.getName());
+            throw e;
+        }
+        ResponseBody body = response.body();
+        if (request.isCanceled()) {
+            HttpUrlConnectionImageDownloader.close(body);
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 打开连接之后", request.getName());
+            return null;
+        }
+
+        // 检查状态码
+        if (response.code() != 200) {
+            HttpUrlConnectionImageDownloader.close(body);
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "状态码异常", response.code() + " " + response.message(), request.getName(), response.headers());
+            return DownloadResult.createByResponseCode(response.code(), response.header("Retry-After"));
+        }
+
+        // 检查内容长度，HTTP/2和chunked响应可能没有Content-Length，这时边读边写
+        long contentLength = body.contentLength();
+        if (contentLength == 0 || contentLength > Integer.MAX_VALUE) {
+            HttpUrlConnectionImageDownloader.close(body);
+            if (SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "内容长度异常", contentLength, request.getName(), response.headers());
+            return DownloadResult.createByFailure(FailureCause.CONTENT_ERROR, response.code(), null);
+        }
+
+        return readData(request, response, body, (int) contentLength);
+    }
+
+    private DownloadResult readData(DownloadRequest request, Response response, ResponseBody body, int contentLength) throws IOException {
+        File tempFile = null;
+        if(request.getCacheFile() != null && (contentLength < 0 || request.getSpear().getConfiguration().getDiskCache().applyForSpace(contentLength))){
+            tempFile = new File(request.getCacheFile().getPath()+".temp");
+            if(!HttpUrlConnectionImageDownloader.createFile(tempFile)){
+                tempFile = null;
+            }
+        }
+
+        // 获取输入流，响应体是流式读取的，不会一次性读到内存里
+        InputStream inputStream = body.byteStream();
+        if (request.isCanceled()) {
+            HttpUrlConnectionImageDownloader.close(inputStream);
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 获取输入流之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "获取输入流之后发现取消，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
+            return null;
+        }
+
+        // 当不需要将数据缓存到本地的时候就使用ByteArrayOutputStream来存储数据
+        OutputStream outputStream;
+        if(tempFile != null){
+            try {
+                outputStream = new BufferedOutputStream(new FileOutputStream(tempFile, false), BUFFER_SIZE);
+            } catch (FileNotFoundException e) {
+                HttpUrlConnectionImageDownloader.close(inputStream);
+                SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "创建输出流时找不到文件了", tempFile.getPath(), request.getName());
+                throw e;
+            }
+        }else{
+            outputStream = new DirectByteArrayOutputStream(contentLength > 0 ? contentLength : 32);
+        }
+
+        // 读取数据
+        int completedLength = 0;
+        boolean exception = false;
+        try {
+            completedLength = HttpUrlConnectionImageDownloader.readData(inputStream, outputStream, tempFile, request, contentLength, progressCallbackNumber);
+        } catch (IOException e) {
+            exception = true;
+            SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常", e, request.getName(), response.headers());
+            throw e;
+        }finally {
+            HttpUrlConnectionImageDownloader.close(outputStream);
+            HttpUrlConnectionImageDownloader.close(inputStream);
+            if (exception && tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取数据时发生异常，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
+        }
+        if (request.isCanceled()) {
+            SLog.d(SLog.CATEGORY_DOWNLOAD, NAME, "已取消下载 - 读取完数据之后", request.getName());
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "读取完数据之后发现取消了，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
+            return null;
+        }
+        if (contentLength < 0){
+            request.updateProgress(completedLength, completedLength);
+        }
+
+        if (SLog.isLoggable(SLog.INFO, SLog.CATEGORY_DOWNLOAD)) SLog.i(SLog.CATEGORY_DOWNLOAD, NAME, "下载成功", "文件长度：" + completedLength + "/" + contentLength, response.protocol(), request.getName(), response.headers());
+
+        // 转换结果
+        if(tempFile != null && tempFile.exists()){
+            if(tempFile.renameTo(request.getCacheFile())){
+                return DownloadResult.createByFile(request.getCacheFile(), true);
+            }else{
+                if (!tempFile.delete()) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "重命名失败，需要删除临时缓存文件，但删除失败", tempFile.getPath(), request.getName());
+                return null;
+            }
+        }else if(outputStream instanceof ByteArrayOutputStream){
+            return DownloadResult.createByByteArray(((ByteArrayOutputStream) outputStream).toByteArray(), true);
+        }else{
+            return null;
+        }
+    }
+}
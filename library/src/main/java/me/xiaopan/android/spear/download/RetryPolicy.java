@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.download;
+
+import me.xiaopan.android.spear.request.DownloadRequest;
+
+/**
+ * 重试策略，决定下载失败后要不要重试、等多久再重试，以及是否要暂时熔断某个Host
+ */
+public interface RetryPolicy {
+    /**
+     * 下载之前调用，判断此Host当前是否允许发起请求
+     * @param host Host
+     * @return false：此Host已被熔断，请求将直接失败
+     */
+    public boolean allowRequest(String host);
+
+    /**
+     * 下载成功
+     * @param host Host
+     */
+    public void onSuccess(String host);
+
+    /**
+     * 下载失败
+     * @param host Host
+     * @param failureResult 失败结果，包含失败原因、状态码以及Retry-After
+     */
+    public void onFailure(String host, ImageDownloader.DownloadResult failureResult);
+
+    /**
+     * 计算重试前需要等待的时间
+     * @param request 下载请求，通过getAttemptCount()可以知道已经尝试了几次
+     * @param failureResult 失败结果
+     * @return 等待时间，单位毫秒；小于0表示不再重试
+     */
+    public long getRetryDelay(DownloadRequest request, ImageDownloader.DownloadResult failureResult);
+
+    /**
+     * 设置最大重试次数
+     * @param maxRetryCount 最大重试次数
+     */
+    public void setMaxRetryCount(int maxRetryCount);
+}
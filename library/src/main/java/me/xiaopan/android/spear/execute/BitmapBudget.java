@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.execute;
+
+import android.graphics.Bitmap;
+
+import me.xiaopan.android.spear.request.Request;
+
+/**
+ * 图片内存预算，限制已解码但还没处理完的图片总共占用的内存，超出时解码线程会等待，以此形成背压
+ */
+public class BitmapBudget {
+    private static final long WAIT_INTERVAL = 100;
+
+    private long maxBytes;
+    private long inFlightBytes;
+    private int inFlightCount;
+
+    /**
+     * 创建图片内存预算
+     * @param maxBytes 最大字节数
+     */
+    public BitmapBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 创建图片内存预算，最大字节数默认为最大可用内存的十六分之一
+     */
+    public BitmapBudget() {
+        this(Runtime.getRuntime().maxMemory()/16);
+    }
+
+    /**
+     * 申请预算，预算不足时会一直等待，直到有图片处理完或请求被取消；当前没有占用时总是能申请成功，避免大图永远等下去
+     * @param bytes 字节数
+     * @param request 请求，等待期间被取消就放弃申请
+     * @return true：申请成功；false：请求已取消或线程被中断
+     */
+    public synchronized boolean acquire(long bytes, Request request){
+        while(inFlightCount > 0 && inFlightBytes + bytes > maxBytes){
+            if(request != null && request.isCanceled()){
+                return false;
+            }
+            try {
+                wait(WAIT_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        inFlightBytes += bytes;
+        inFlightCount++;
+        return true;
+    }
+
+    /**
+     * 尝试申请预算，预算不足时不等待，用于可有可无的图片，例如渐进式JPEG的预览图
+     * @param bytes 字节数
+     * @return true：申请成功；false：预算不足
+     */
+    public synchronized boolean tryAcquire(long bytes){
+        if(inFlightCount > 0 && inFlightBytes + bytes > maxBytes){
+            return false;
+        }
+        inFlightBytes += bytes;
+        inFlightCount++;
+        return true;
+    }
+
+    /**
+     * 释放预算
+     * @param bytes 字节数，必须跟申请时一样
+     */
+    public synchronized void release(long bytes){
+        inFlightBytes -= bytes;
+        inFlightCount--;
+        if(inFlightCount <= 0){
+            inFlightBytes = 0;
+            inFlightCount = 0;
+        }
+        notifyAll();
+    }
+
+    /**
+     * 获取当前占用的字节数
+     */
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    /**
+     * 获取当前占用预算的图片数量
+     */
+    public synchronized int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 计算图片占用的字节数
+     */
+    public static long sizeOf(Bitmap bitmap){
+        return bitmap != null ? (long) bitmap.getRowBytes() * bitmap.getHeight() : 0;
+    }
+}
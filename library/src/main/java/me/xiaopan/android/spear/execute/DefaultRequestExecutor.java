@@ -16,6 +16,10 @@
 
 package me.xiaopan.android.spear.execute;
 
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -31,11 +35,18 @@ public class DefaultRequestExecutor implements RequestExecutor {
 	private Executor taskDispatchExecutor;	//任务调度执行器
 	private Executor netTaskExecutor;	//网络任务执行器
 	private Executor localTaskExecutor;	//本地任务执行器
+    private Executor processTaskExecutor;   //图片处理任务执行器
+    private Executor placeholderExecutor;   //默认图片执行器
+    private BitmapBudget processBitmapBudget;   //等待处理的图片的内存预算
+    private Handler delayHandler;   // 用于延迟提交请求
 	
 	private DefaultRequestExecutor(Builder builder){
 		this.taskDispatchExecutor = builder.taskDispatchExecutor;
         this.netTaskExecutor = builder.netTaskExecutor;
         this.localTaskExecutor = builder.localTaskExecutor;
+        this.processTaskExecutor = builder.processTaskExecutor;
+        this.placeholderExecutor = builder.placeholderExecutor;
+        this.processBitmapBudget = builder.processBitmapBudget;
 	}
 	
 	@Override
@@ -48,6 +59,34 @@ public class DefaultRequestExecutor implements RequestExecutor {
         });
 	}
 
+    @Override
+    public void submit(final Request request, long delayMillis) {
+        if(delayMillis <= 0){
+            submit(request);
+            return;
+        }
+        if(delayHandler == null){
+            synchronized (this){
+                if(delayHandler == null){
+                    delayHandler = new Handler(Looper.getMainLooper());
+                }
+            }
+        }
+        delayHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                submit(request);
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * 获取任务调度执行器
+     */
+    public Executor getTaskDispatchExecutor() {
+        return taskDispatchExecutor;
+    }
+
     @Override
     public Executor getLocalTaskExecutor() {
         return localTaskExecutor;
@@ -58,10 +97,39 @@ public class DefaultRequestExecutor implements RequestExecutor {
         return netTaskExecutor;
     }
 
+    @Override
+    public Executor getProcessTaskExecutor() {
+        return processTaskExecutor;
+    }
+
+    @Override
+    public Executor getPlaceholderExecutor() {
+        return placeholderExecutor;
+    }
+
+    @Override
+    public BitmapBudget getProcessBitmapBudget() {
+        return processBitmapBudget;
+    }
+
+    /**
+     * 获取网络任务执行器中每个Host的统计信息
+     * @return 每个Host的统计信息，网络任务执行器不是HostFairExecutor时返回null
+     */
+    public List<HostFairExecutor.HostStats> getNetHostStatsList(){
+        if(netTaskExecutor instanceof HostFairExecutor){
+            return ((HostFairExecutor) netTaskExecutor).getHostStatsList();
+        }
+        return null;
+    }
+
     public static class Builder{
         private Executor taskDispatchExecutor;	//任务调度执行器
         private Executor netTaskExecutor;	//网络任务执行器
         private Executor localTaskExecutor;	//本地任务执行器
+        private Executor processTaskExecutor;   //图片处理任务执行器
+        private Executor placeholderExecutor;   //默认图片执行器
+        private BitmapBudget processBitmapBudget;   //等待处理的图片的内存预算
 
         public Builder taskDispatchExecutor(BlockingQueue<Runnable> workQueue){
             if(workQueue != null){
@@ -82,6 +150,16 @@ public class DefaultRequestExecutor implements RequestExecutor {
             return this;
         }
 
+        /**
+         * 使用按Host公平调度的网络任务执行器
+         * @param maxPoolSize 最大线程数，默认5
+         * @param maxConnectionsPerHost 每个Host的最大并发数，默认3
+         */
+        public Builder netTaskExecutor(int maxPoolSize, int maxConnectionsPerHost){
+            this.netTaskExecutor = new HostFairExecutor(maxPoolSize, maxConnectionsPerHost);
+            return this;
+        }
+
         public Builder localTaskExecutor(BlockingQueue<Runnable> workQueue){
             if(workQueue == null){
                 workQueue = new LinkedBlockingQueue<Runnable>(200);
@@ -90,16 +168,57 @@ public class DefaultRequestExecutor implements RequestExecutor {
             return this;
         }
 
+        /**
+         * 设置图片处理任务执行器，队列长度由内存预算限制，所以这里使用无界队列
+         * @param maxPoolSize 最大线程数，默认1
+         */
+        public Builder processTaskExecutor(int maxPoolSize){
+            if(maxPoolSize <= 0){
+                maxPoolSize = 1;
+            }
+            this.processTaskExecutor = new ThreadPoolExecutor(maxPoolSize, maxPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            return this;
+        }
+
+        /**
+         * 设置默认图片执行器，默认图片种类很少，解码一次之后就在内存缓存里了，所以一个线程加无界队列就够了，任务不会被丢弃
+         * @param placeholderExecutor 默认图片执行器
+         */
+        public Builder placeholderExecutor(Executor placeholderExecutor){
+            this.placeholderExecutor = placeholderExecutor;
+            return this;
+        }
+
+        /**
+         * 设置等待处理的图片的内存预算
+         * @param maxBytes 最大字节数，默认为最大可用内存的十六分之一
+         */
+        public Builder processBitmapBudget(long maxBytes){
+            if(maxBytes > 0){
+                this.processBitmapBudget = new BitmapBudget(maxBytes);
+            }
+            return this;
+        }
+
         public DefaultRequestExecutor build(){
             if(taskDispatchExecutor == null){
                 taskDispatchExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(200), new ThreadPoolExecutor.DiscardOldestPolicy());
             }
             if(netTaskExecutor == null){
-                netTaskExecutor = new ThreadPoolExecutor(5, 5, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(200), new ThreadPoolExecutor.DiscardOldestPolicy());
+                netTaskExecutor = new HostFairExecutor();
             }
             if(localTaskExecutor == null){
                 localTaskExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(200), new ThreadPoolExecutor.DiscardOldestPolicy());
             }
+            if(processTaskExecutor == null){
+                processTaskExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            }
+            if(placeholderExecutor == null){
+                placeholderExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            }
+            if(processBitmapBudget == null){
+                processBitmapBudget = new BitmapBudget();
+            }
             return new DefaultRequestExecutor(this);
         }
     }
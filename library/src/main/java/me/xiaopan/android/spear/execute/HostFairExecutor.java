@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.execute;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.request.DownloadRequest;
+import me.xiaopan.android.spear.request.Request;
+
+/**
+ * 按Host公平调度的执行器，每个Host有自己的等待队列和并发上限，空闲的线程会在各个Host之间轮流取任务，
+ * 这样一个很慢的Host就不会占满所有线程导致其它Host的图片迟迟加载不出来。
+ * 并发上限只在有多个Host争抢线程时才生效，只有一个Host有等待任务时它可以用满所有空闲线程。
+ * 另外还会统计每个Host读取响应体的平均耗时，耗时明显高于其它Host平均水平的Host会被降低并发上限
+ */
+public class HostFairExecutor implements Executor {
+    public static final int DEFAULT_MAX_POOL_SIZE = 5;  // 默认最大线程数
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 3;   // 默认每个Host的最大并发数，只有一个Host有等待任务时不受此限制
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 200;   // 默认最大等待任务数
+    private static final float DEFAULT_SLOW_HOST_FACTOR = 2f;  // 默认慢速Host判定倍数
+    private static final float LATENCY_SMOOTHING_FACTOR = 0.25f;   // 平均耗时和下载速度的平滑系数，越大新样本的权重越高
+    private static final int MAX_IDLE_HOST_RECORDS = 50;   // 最多保留多少个空闲Host的统计信息
+    private static final String UNKNOWN_HOST = "";
+
+    private final int maxPoolSize;
+    private final int maxConnectionsPerHost;
+    private final int maxQueueSize;
+    private final ThreadPoolExecutor workerExecutor;
+    private final Map<String, HostRecord> hostRecordMap;
+    private final List<HostRecord> hostRecordList;  // 轮询顺序
+    private float slowHostFactor = DEFAULT_SLOW_HOST_FACTOR;
+    private int nextHostIndex;
+    private int activeCount;
+    private int queuedCount;
+    private float latencySum;   // 所有有统计数据的Host的平均耗时之和，每次调度前重新计算
+    private int latencyCount;   // 有统计数据的Host的数量
+
+    /**
+     * 创建一个按Host公平调度的执行器
+     * @param maxPoolSize 最大线程数
+     * @param maxConnectionsPerHost 每个Host的最大并发数
+     * @param maxQueueSize 最大等待任务数，超出后会丢弃等待最多的Host中最早的任务
+     */
+    public HostFairExecutor(int maxPoolSize, int maxConnectionsPerHost, int maxQueueSize) {
+        this.maxPoolSize = maxPoolSize > 0 ? maxPoolSize : DEFAULT_MAX_POOL_SIZE;
+        this.maxConnectionsPerHost = maxConnectionsPerHost > 0 ? Math.min(maxConnectionsPerHost, this.maxPoolSize) : Math.min(DEFAULT_MAX_CONNECTIONS_PER_HOST, this.maxPoolSize);
+        this.maxQueueSize = maxQueueSize > 0 ? maxQueueSize : DEFAULT_MAX_QUEUE_SIZE;
+        this.workerExecutor = new ThreadPoolExecutor(this.maxPoolSize, this.maxPoolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        this.hostRecordMap = new HashMap<String, HostRecord>();
+        this.hostRecordList = new ArrayList<HostRecord>();
+    }
+
+    public HostFairExecutor(int maxPoolSize, int maxConnectionsPerHost) {
+        this(maxPoolSize, maxConnectionsPerHost, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    public HostFairExecutor() {
+        this(DEFAULT_MAX_POOL_SIZE, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * 设置慢速Host判定倍数，当一个Host的平均耗时超过其它Host平均耗时的这个倍数时就按比例降低它的并发上限
+     * @param slowHostFactor 慢速Host判定倍数，小于等于1时不启用慢速Host检测，默认为2
+     */
+    public synchronized void setSlowHostFactor(float slowHostFactor) {
+        this.slowHostFactor = slowHostFactor;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        if(runnable == null){
+            throw new NullPointerException("runnable == null");
+        }
+
+        synchronized (this){
+            String host = getHostKey(runnable);
+            HostRecord hostRecord = hostRecordMap.get(host);
+            if(hostRecord == null){
+                hostRecord = new HostRecord(host);
+                hostRecordMap.put(hostRecord.host, hostRecord);
+                hostRecordList.add(hostRecord);
+            }
+            if(queuedCount >= maxQueueSize){
+                discardOldest();
+            }
+            hostRecord.pendingTasks.add(runnable);
+            queuedCount++;
+            schedule();
+        }
+    }
+
+    /**
+     * 在还有空闲线程的前提下，从下一个Host开始轮流取出没有达到并发上限的Host的任务交给线程池执行
+     */
+    private void schedule(){
+        computeLatencySum();
+        while(activeCount < maxPoolSize && queuedCount > 0){
+            HostRecord nextHostRecord = null;
+            int hostCount = hostRecordList.size();
+            for(int w = 0; w < hostCount; w++){
+                int index = (nextHostIndex + w) % hostCount;
+                HostRecord hostRecord = hostRecordList.get(index);
+                if(!hostRecord.pendingTasks.isEmpty() && hostRecord.activeCount < computeLimit(hostRecord)){
+                    nextHostRecord = hostRecord;
+                    nextHostIndex = index + 1;
+                    break;
+                }
+            }
+
+            // 所有有任务的Host都达到了并发上限，如果只有一个Host有任务就让它超出上限，免得线程空闲着
+            if(nextHostRecord == null){
+                nextHostRecord = findOnlyPendingHost();
+                if(nextHostRecord == null){
+                    break;
+                }
+            }
+
+            final Runnable runnable = nextHostRecord.pendingTasks.poll();
+            queuedCount--;
+            activeCount++;
+            nextHostRecord.activeCount++;
+            workerExecutor.execute(new HostTask(nextHostRecord, runnable));
+        }
+    }
+
+    /**
+     * 找出唯一一个有等待任务的Host
+     * @return 有多个或没有Host有等待任务时返回null
+     */
+    private HostRecord findOnlyPendingHost(){
+        HostRecord pendingHostRecord = null;
+        for(HostRecord hostRecord : hostRecordList){
+            if(!hostRecord.pendingTasks.isEmpty()){
+                if(pendingHostRecord != null){
+                    return null;
+                }
+                pendingHostRecord = hostRecord;
+            }
+        }
+        return pendingHostRecord;
+    }
+
+    /**
+     * @param latency 这次任务读取响应体的耗时，没有从网络下载时为0，此时不计入统计
+     * @param bytes 这次任务读取响应体的字节数
+     */
+    private synchronized void onTaskFinished(HostRecord hostRecord, long latency, long bytes){
+        activeCount--;
+        hostRecord.activeCount--;
+        hostRecord.completedCount++;
+        if(latency > 0){
+            if(hostRecord.averageLatency <= 0){
+                hostRecord.averageLatency = latency;
+            }else{
+                hostRecord.averageLatency += (latency - hostRecord.averageLatency) * LATENCY_SMOOTHING_FACTOR;
+            }
+        }
+        if(latency > 0 && bytes > 0){
+            float bytesPerSecond = bytes * 1000f / latency;
+            if(hostRecord.throughput <= 0){
+                hostRecord.throughput = bytesPerSecond;
+            }else{
+                hostRecord.throughput += (bytesPerSecond - hostRecord.throughput) * LATENCY_SMOOTHING_FACTOR;
+            }
+        }
+
+        // 空闲的Host太多时就丢掉统计信息，防止无限增长
+        if(hostRecord.activeCount == 0 && hostRecord.pendingTasks.isEmpty() && hostRecordList.size() > MAX_IDLE_HOST_RECORDS){
+            int index = hostRecordList.indexOf(hostRecord);
+            hostRecordList.remove(index);
+            hostRecordMap.remove(hostRecord.host);
+            if(nextHostIndex > index){
+                nextHostIndex--;
+            }
+        }
+
+        schedule();
+    }
+
+    /**
+     * 丢弃等待任务最多的Host中最早的任务
+     */
+    private void discardOldest(){
+        HostRecord longestHostRecord = null;
+        for(HostRecord hostRecord : hostRecordList){
+            if(longestHostRecord == null || hostRecord.pendingTasks.size() > longestHostRecord.pendingTasks.size()){
+                longestHostRecord = hostRecord;
+            }
+        }
+        if(longestHostRecord != null && longestHostRecord.pendingTasks.poll() != null){
+            queuedCount--;
+        }
+    }
+
+    /**
+     * 统计所有有统计数据的Host的平均耗时之和以及Host数量，computeLimit()用它来算其它Host的平均耗时
+     */
+    private void computeLatencySum(){
+        latencySum = 0;
+        latencyCount = 0;
+        for(HostRecord hostRecord : hostRecordList){
+            if(hostRecord.averageLatency > 0){
+                latencySum += hostRecord.averageLatency;
+                latencyCount++;
+            }
+        }
+    }
+
+    /**
+     * 计算Host当前的并发上限，慢速Host会根据其耗时比其它Host平均耗时高出的比例降低并发上限，但最少保留一个
+     * <br>比较的对象不包含自己，否则只有两个Host时慢的那个永远不可能超过平均值的两倍
+     */
+    private int computeLimit(HostRecord hostRecord){
+        if(slowHostFactor <= 1 || hostRecord.averageLatency <= 0 || latencyCount < 2){
+            return maxConnectionsPerHost;
+        }
+        float othersAverageLatency = (latencySum - hostRecord.averageLatency) / (latencyCount - 1);
+        if(othersAverageLatency <= 0 || hostRecord.averageLatency <= othersAverageLatency * slowHostFactor){
+            return maxConnectionsPerHost;
+        }
+        int limit = (int) (maxConnectionsPerHost * othersAverageLatency / hostRecord.averageLatency);
+        return limit > 0 ? limit : 1;
+    }
+
+    /**
+     * 获取每个Host的统计信息
+     * @return 每个Host的统计信息
+     */
+    public synchronized List<HostStats> getHostStatsList(){
+        computeLatencySum();
+        List<HostStats> hostStatsList = new ArrayList<HostStats>(hostRecordList.size());
+        for(HostRecord hostRecord : hostRecordList){
+            int limit = computeLimit(hostRecord);
+            hostStatsList.add(new HostStats(hostRecord, limit, limit < maxConnectionsPerHost));
+        }
+        return hostStatsList;
+    }
+
+    /**
+     * 获取正在执行的任务数
+     */
+    public synchronized int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * 获取等待中的任务数
+     */
+    public synchronized int getQueuedCount() {
+        return queuedCount;
+    }
+
+    /**
+     * 从请求的URI中解析出Host，不是请求的任务统一归为一类
+     */
+    private static String getHostKey(Runnable runnable){
+        if(runnable instanceof Request){
+            String host = parseHost(((Request) runnable).getUri());
+            if(host != null){
+                return host;
+            }
+        }
+        return UNKNOWN_HOST;
+    }
+
+    /**
+     * 从URI中解析出Host（包含端口），例如“http://img.site.com:8080/a.jpg”的Host就是“img.site.com:8080”
+     * @param uri URI
+     * @return Host，解析失败返回null
+     */
+    public static String parseHost(String uri){
+        if(uri == null){
+            return null;
+        }
+        int start = uri.indexOf("://");
+        if(start < 0){
+            return null;
+        }
+        start += 3;
+        int end = start;
+        int length = uri.length();
+        while(end < length){
+            char c = uri.charAt(end);
+            if(c == '/' || c == '?' || c == '#'){
+                break;
+            }
+            end++;
+        }
+        int atIndex = uri.lastIndexOf('@', end - 1);
+        if(atIndex >= start){
+            start = atIndex + 1;
+        }
+        return end > start ? uri.substring(start, end).toLowerCase() : null;
+    }
+
+    private class HostTask implements Runnable{
+        private HostRecord hostRecord;
+        private Runnable runnable;
+
+        private HostTask(HostRecord hostRecord, Runnable runnable) {
+            this.hostRecord = hostRecord;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try{
+                runnable.run();
+            }finally {
+                // 只统计读取响应体的时间，等待URL锁、命中磁盘缓存和写入磁盘的时间都不算，否则会把Host误判为慢速
+                long latency = 0;
+                long bytes = 0;
+                if(runnable instanceof DownloadRequest){
+                    latency = ((DownloadRequest) runnable).getTransferTime();
+                    bytes = ((DownloadRequest) runnable).getTransferLength();
+                }
+                onTaskFinished(hostRecord, latency, bytes);
+            }
+        }
+    }
+
+    private static class HostRecord{
+        private String host;
+        private LinkedList<Runnable> pendingTasks = new LinkedList<Runnable>();
+        private int activeCount;
+        private int completedCount;
+        private float averageLatency;
+        private float throughput;   // 平滑后的下载速度，单位字节/秒
+
+        private HostRecord(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * Host统计信息
+     */
+    public static class HostStats{
+        private String host;
+        private int activeCount;
+        private int queuedCount;
+        private int completedCount;
+        private int limit;
+        private boolean slow;
+        private float averageLatency;
+        private float throughput;
+
+        private HostStats(HostRecord hostRecord, int limit, boolean slow) {
+            this.host = hostRecord.host;
+            this.activeCount = hostRecord.activeCount;
+            this.queuedCount = hostRecord.pendingTasks.size();
+            this.completedCount = hostRecord.completedCount;
+            this.limit = limit;
+            this.slow = slow;
+            this.averageLatency = hostRecord.averageLatency;
+            this.throughput = hostRecord.throughput;
+        }
+
+        /**
+         * 获取Host
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * 获取正在执行的任务数
+         */
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        /**
+         * 获取等待中的任务数
+         */
+        public int getQueuedCount() {
+            return queuedCount;
+        }
+
+        /**
+         * 获取已完成的任务数
+         */
+        public int getCompletedCount() {
+            return completedCount;
+        }
+
+        /**
+         * 获取当前的并发上限
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * 是否被判定为慢速Host
+         */
+        public boolean isSlow() {
+            return slow;
+        }
+
+        /**
+         * 获取读取响应体的平均耗时（平滑后的），单位毫秒，只统计从网络下载的任务
+         */
+        public float getAverageLatency() {
+            return averageLatency;
+        }
+
+        /**
+         * 获取下载速度（平滑后的），单位字节/秒，只统计从网络下载的任务
+         */
+        public float getThroughput() {
+            return throughput;
+        }
+
+        @Override
+        public String toString() {
+            return host + "[active=" + activeCount + ", queued=" + queuedCount + ", completed=" + completedCount
+                    + ", limit=" + limit + ", slow=" + slow + ", averageLatency=" + averageLatency + "ms, throughput=" + throughput + "B/s]";
+        }
+    }
+}
@@ -29,6 +29,13 @@ public interface RequestExecutor {
      */
 	public void submit(Request request);
 
+    /**
+     * 延迟提交请求，等待期间不占用任何执行线程
+     * @param request 请求
+     * @param delayMillis 延迟时间，单位毫秒
+     */
+    public void submit(Request request, long delayMillis);
+
     /**
      * 获取本地任务执行器
      */
@@ -38,4 +45,19 @@ public interface RequestExecutor {
      * 获取网络任务执行器
      */
     public Executor getNetTaskExecutor();
+
+    /**
+     * 获取图片处理任务执行器，ImageProcessor在这里执行，不会阻塞解码
+     */
+    public Executor getProcessTaskExecutor();
+
+    /**
+     * 获取默认图片执行器，默认图片在这里解码，不跟正常的加载请求抢本地任务执行器的线程和队列
+     */
+    public Executor getPlaceholderExecutor();
+
+    /**
+     * 获取等待处理的图片的内存预算
+     */
+    public BitmapBudget getProcessBitmapBudget();
 }
\ No newline at end of file
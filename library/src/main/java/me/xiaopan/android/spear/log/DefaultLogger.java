@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.log;
+
+import android.util.Log;
+
+/**
+ * 默认的日志输出器，直接输出到logcat
+ */
+public class DefaultLogger implements Logger {
+    @Override
+    public void log(int level, String tag, String message) {
+        Log.println(level, tag, message);
+    }
+
+    @Override
+    public void log(int level, String tag, String message, Throwable throwable) {
+        Log.println(level, tag, message + '\n' + Log.getStackTraceString(throwable));
+    }
+}
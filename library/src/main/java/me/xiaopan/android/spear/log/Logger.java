@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.log;
+
+/**
+ * 日志输出器，通过SLog.setLogger()设置，可以把日志转到自己的日志系统里
+ */
+public interface Logger {
+    /**
+     * 输出一条日志，只有通过了SLog的级别和分类过滤才会调用
+     * @param level 级别，跟android.util.Log的级别一样
+     * @param tag 标签
+     * @param message 已经拼好的日志内容
+     */
+    public void log(int level, String tag, String message);
+
+    /**
+     * 输出一条带异常的日志，只有通过了SLog的级别和分类过滤才会调用
+     * @param level 级别，跟android.util.Log的级别一样
+     * @param tag 标签
+     * @param message 已经拼好的日志内容
+     * @param throwable 异常，需要输出调用栈
+     */
+    public void log(int level, String tag, String message, Throwable throwable);
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.log;
+
+import android.util.Log;
+
+import me.xiaopan.android.spear.Spear;
+
+/**
+ * 日志门面，Spear内部所有的日志都经过这里，按级别和分类过滤后交给Logger输出
+ * <br>每条日志由名称、事件和最多四个字段组成，输出格式为"名称：事件；字段1；字段2"，只有通过过滤后才会拼接，所以关闭的日志不会创建任何对象
+ * <br>字段需要计算或者是基本类型（会装箱）时，先用isLoggable()判断一下再调用
+ * <br>w()和e()第一个字段是Throwable时会交给Logger输出调用栈，不要再调用printStackTrace()
+ */
+public class SLog {
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+    public static final int NONE = Integer.MAX_VALUE;   // 关闭所有日志
+
+    public static final int CATEGORY_REQUEST = 0x01;    // 创建、分发、取消请求
+    public static final int CATEGORY_DOWNLOAD = 0x02;   // 下载、重试
+    public static final int CATEGORY_DECODE = 0x04;     // 解码
+    public static final int CATEGORY_CACHE = 0x08;      // 内存缓存、磁盘缓存
+    public static final int CATEGORY_DISPLAY = 0x10;    // 显示、回调
+    public static final int CATEGORY_ALL = 0xFFFFFFFF;
+
+    private static volatile int level = WARN;
+    private static volatile int categories = CATEGORY_ALL;
+    private static volatile Logger logger = new DefaultLogger();
+
+    /**
+     * 判断指定级别和分类的日志是否会输出
+     */
+    public static boolean isLoggable(int level, int category){
+        return level >= SLog.level && (categories & category) != 0;
+    }
+
+    /**
+     * 设置最低输出级别，默认为WARN，Spear.setDebugMode(true)时为VERBOSE
+     * @param level 级别，取值为VERBOSE、DEBUG、INFO、WARN、ERROR或NONE
+     */
+    public static void setLevel(int level) {
+        SLog.level = level;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * 设置输出哪些分类的日志，默认为CATEGORY_ALL
+     * @param categories 分类，多个分类用|组合，例如CATEGORY_DOWNLOAD|CATEGORY_CACHE
+     */
+    public static void setCategories(int categories) {
+        SLog.categories = categories;
+    }
+
+    public static int getCategories() {
+        return categories;
+    }
+
+    /**
+     * 设置日志输出器，为null时恢复成默认的DefaultLogger
+     */
+    public static void setLogger(Logger logger) {
+        SLog.logger = logger != null ? logger : new DefaultLogger();
+    }
+
+    public static Logger getLogger() {
+        return logger;
+    }
+
+    public static void v(int category, String name, String event){
+        if(isLoggable(VERBOSE, category)){
+            print(VERBOSE, name, event, 0, null, null, null, null);
+        }
+    }
+
+    public static void v(int category, String name, String event, Object field1){
+        if(isLoggable(VERBOSE, category)){
+            print(VERBOSE, name, event, 1, field1, null, null, null);
+        }
+    }
+
+    public static void v(int category, String name, String event, Object field1, Object field2){
+        if(isLoggable(VERBOSE, category)){
+            print(VERBOSE, name, event, 2, field1, field2, null, null);
+        }
+    }
+
+    public static void v(int category, String name, String event, Object field1, Object field2, Object field3){
+        if(isLoggable(VERBOSE, category)){
+            print(VERBOSE, name, event, 3, field1, field2, field3, null);
+        }
+    }
+
+    public static void v(int category, String name, String event, Object field1, Object field2, Object field3, Object field4){
+        if(isLoggable(VERBOSE, category)){
+            print(VERBOSE, name, event, 4, field1, field2, field3, field4);
+        }
+    }
+
+    public static void d(int category, String name, String event){
+        if(isLoggable(DEBUG, category)){
+            print(DEBUG, name, event, 0, null, null, null, null);
+        }
+    }
+
+    public static void d(int category, String name, String event, Object field1){
+        if(isLoggable(DEBUG, category)){
+            print(DEBUG, name, event, 1, field1, null, null, null);
+        }
+    }
+
+    public static void d(int category, String name, String event, Object field1, Object field2){
+        if(isLoggable(DEBUG, category)){
+            print(DEBUG, name, event, 2, field1, field2, null, null);
+        }
+    }
+
+    public static void d(int category, String name, String event, Object field1, Object field2, Object field3){
+        if(isLoggable(DEBUG, category)){
+            print(DEBUG, name, event, 3, field1, field2, field3, null);
+        }
+    }
+
+    public static void d(int category, String name, String event, Object field1, Object field2, Object field3, Object field4){
+        if(isLoggable(DEBUG, category)){
+            print(DEBUG, name, event, 4, field1, field2, field3, field4);
+        }
+    }
+
+    public static void i(int category, String name, String event){
+        if(isLoggable(INFO, category)){
+            print(INFO, name, event, 0, null, null, null, null);
+        }
+    }
+
+    public static void i(int category, String name, String event, Object field1){
+        if(isLoggable(INFO, category)){
+            print(INFO, name, event, 1, field1, null, null, null);
+        }
+    }
+
+    public static void i(int category, String name, String event, Object field1, Object field2){
+        if(isLoggable(INFO, category)){
+            print(INFO, name, event, 2, field1, field2, null, null);
+        }
+    }
+
+    public static void i(int category, String name, String event, Object field1, Object field2, Object field3){
+        if(isLoggable(INFO, category)){
+            print(INFO, name, event, 3, field1, field2, field3, null);
+        }
+    }
+
+    public static void i(int category, String name, String event, Object field1, Object field2, Object field3, Object field4){
+        if(isLoggable(INFO, category)){
+            print(INFO, name, event, 4, field1, field2, field3, field4);
+        }
+    }
+
+    public static void w(int category, String name, String event){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, 0, null, null, null, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Object field1){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, 1, field1, null, null, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Object field1, Object field2){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, 2, field1, field2, null, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Object field1, Object field2, Object field3){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, 3, field1, field2, field3, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Object field1, Object field2, Object field3, Object field4){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, 4, field1, field2, field3, field4);
+        }
+    }
+
+    public static void w(int category, String name, String event, Throwable throwable){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, throwable, 0, null, null, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Throwable throwable, Object field1){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, throwable, 1, field1, null, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Throwable throwable, Object field1, Object field2){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, throwable, 2, field1, field2, null);
+        }
+    }
+
+    public static void w(int category, String name, String event, Throwable throwable, Object field1, Object field2, Object field3){
+        if(isLoggable(WARN, category)){
+            print(WARN, name, event, throwable, 3, field1, field2, field3);
+        }
+    }
+
+    public static void e(int category, String name, String event){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, 0, null, null, null, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Object field1){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, 1, field1, null, null, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Object field1, Object field2){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, 2, field1, field2, null, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Object field1, Object field2, Object field3){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, 3, field1, field2, field3, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Object field1, Object field2, Object field3, Object field4){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, 4, field1, field2, field3, field4);
+        }
+    }
+
+    public static void e(int category, String name, String event, Throwable throwable){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, throwable, 0, null, null, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Throwable throwable, Object field1){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, throwable, 1, field1, null, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Throwable throwable, Object field1, Object field2){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, throwable, 2, field1, field2, null);
+        }
+    }
+
+    public static void e(int category, String name, String event, Throwable throwable, Object field1, Object field2, Object field3){
+        if(isLoggable(ERROR, category)){
+            print(ERROR, name, event, throwable, 3, field1, field2, field3);
+        }
+    }
+
+    private static void print(int level, String name, String event, int fieldCount, Object field1, Object field2, Object field3, Object field4){
+        StringBuilder builder = new StringBuilder(name).append("：").append(event);
+        if(fieldCount > 0) builder.append("；").append(field1);
+        if(fieldCount > 1) builder.append("；").append(field2);
+        if(fieldCount > 2) builder.append("；").append(field3);
+        if(fieldCount > 3) builder.append("；").append(field4);
+        logger.log(level, Spear.TAG, builder.toString());
+    }
+
+    private static void print(int level, String name, String event, Throwable throwable, int fieldCount, Object field1, Object field2, Object field3){
+        StringBuilder builder = new StringBuilder(name).append("：").append(event);
+        if(fieldCount > 0) builder.append("；").append(field1);
+        if(fieldCount > 1) builder.append("；").append(field2);
+        if(fieldCount > 2) builder.append("；").append(field3);
+        if(throwable != null){
+            logger.log(level, Spear.TAG, builder.toString(), throwable);
+        }else{
+            logger.log(level, Spear.TAG, builder.toString());
+        }
+    }
+}
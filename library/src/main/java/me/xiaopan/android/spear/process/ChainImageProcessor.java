@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.process;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.widget.ImageView;
+import android.widget.ImageView.ScaleType;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import me.xiaopan.android.spear.util.ImageSize;
+
+/**
+ * 组合图片处理器，裁剪、圆角/圆形、倒影会在处理前一次性算好，然后只绘制一次到一张新图片上，不会创建中间图片
+ * <br>例如：new ChainImageProcessor().roundedCorner(18).reflection(2, 0.3f)
+ * <br>通过append()添加的自定义处理器会在此之后依次执行
+ */
+public class ChainImageProcessor implements ImageProcessor {
+    private static final String NAME = "ChainImageProcessor";
+
+    private int roundPixels;
+    private boolean circle;
+    private boolean reflection;
+    private int reflectionSpacing;
+    private float reflectionScale;
+    private boolean forceUseResizeInCenterCrop = true;
+    private List<ImageProcessor> appendProcessors;
+    private String flag;
+
+    /**
+     * 圆角
+     * @param roundPixels 圆角度数
+     */
+    public ChainImageProcessor roundedCorner(int roundPixels) {
+        this.roundPixels = roundPixels;
+        this.circle = false;
+        this.flag = null;
+        return this;
+    }
+
+    /**
+     * 圆形
+     */
+    public ChainImageProcessor circle() {
+        this.circle = true;
+        this.roundPixels = 0;
+        this.flag = null;
+        return this;
+    }
+
+    /**
+     * 倒影
+     * @param reflectionSpacing 倒影和图片之间的距离
+     * @param reflectionScale 倒影的高度所占原图高度比例
+     */
+    public ChainImageProcessor reflection(int reflectionSpacing, float reflectionScale) {
+        this.reflection = true;
+        this.reflectionSpacing = reflectionSpacing;
+        this.reflectionScale = reflectionScale;
+        this.flag = null;
+        return this;
+    }
+
+    /**
+     * 添加一个自定义处理器，会在组合绘制完成后依次执行
+     * @param imageProcessor 自定义处理器
+     */
+    public ChainImageProcessor append(ImageProcessor imageProcessor) {
+        if(imageProcessor != null){
+            if(appendProcessors == null){
+                appendProcessors = new LinkedList<ImageProcessor>();
+            }
+            appendProcessors.add(imageProcessor);
+            this.flag = null;
+        }
+        return this;
+    }
+
+    public ChainImageProcessor disableForceUseResizeInCenterCrop() {
+        this.forceUseResizeInCenterCrop = false;
+        this.flag = null;
+        return this;
+    }
+
+    @Override
+    public String getFlag() {
+        if(flag == null){
+            StringBuilder builder = new StringBuilder(NAME);
+            builder.append("(forceUseResizeInCenterCrop=").append(forceUseResizeInCenterCrop);
+            if(circle){
+                builder.append(", circle");
+            }else if(roundPixels > 0){
+                builder.append(", roundPixels=").append(roundPixels);
+            }
+            if(reflection){
+                builder.append(", reflection(scale=").append(reflectionScale).append(", spacing=").append(reflectionSpacing).append(")");
+            }
+            if(appendProcessors != null){
+                for(ImageProcessor imageProcessor : appendProcessors){
+                    builder.append(", ").append(imageProcessor.getFlag());
+                }
+            }
+            builder.append(")");
+            flag = builder.toString();
+        }
+        return flag;
+    }
+
+    @Override
+    public Bitmap process(Bitmap bitmap, ImageSize resize, ScaleType scaleType) {
+        if(bitmap == null) return null;
+        if(scaleType == null) scaleType = ScaleType.FIT_CENTER;
+        if(resize == null) resize = new ImageSize(bitmap.getWidth(), bitmap.getHeight());
+
+        Bitmap result = bitmap;
+        Plan plan = plan(bitmap.getWidth(), bitmap.getHeight(), resize, scaleType);
+        if(plan != null){
+            result = render(bitmap, plan);
+        }
+
+        if(appendProcessors != null){
+            for(ImageProcessor imageProcessor : appendProcessors){
+                Bitmap newBitmap = imageProcessor.process(result, resize, scaleType);
+                if(newBitmap != result && result != bitmap){
+                    result.recycle();
+                }
+                result = newBitmap;
+                if(result == null){
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 计算源区域和最终尺寸，不需要绘制时返回null
+     */
+    private Plan plan(int bitmapWidth, int bitmapHeight, ImageSize resize, ScaleType scaleType){
+        int newBitmapWidth = resize.getWidth();
+        int newBitmapHeight = resize.getHeight();
+
+        Rect srcRect;
+        if(scaleType == ImageView.ScaleType.CENTER){
+            if(newBitmapWidth >= bitmapWidth && newBitmapHeight >= bitmapHeight){
+                srcRect = new Rect(0, 0, bitmapWidth, bitmapHeight);
+                newBitmapWidth = bitmapWidth;
+                newBitmapHeight = bitmapHeight;
+            }else{
+                srcRect = CutImageProcessor.findCutRect(bitmapWidth, bitmapHeight, newBitmapWidth, newBitmapHeight);
+                newBitmapWidth = srcRect.width();
+                newBitmapHeight = srcRect.height();
+            }
+        }else if(scaleType == ImageView.ScaleType.CENTER_CROP){
+            if(!forceUseResizeInCenterCrop && ((float)newBitmapWidth/newBitmapHeight == (float)bitmapWidth/bitmapHeight && newBitmapWidth >= bitmapWidth)){
+                srcRect = new Rect(0, 0, bitmapWidth, bitmapHeight);
+                newBitmapWidth = bitmapWidth;
+                newBitmapHeight = bitmapHeight;
+            }else{
+                srcRect = CutImageProcessor.findMappingRect(bitmapWidth, bitmapHeight, newBitmapWidth, newBitmapHeight);
+                if(!forceUseResizeInCenterCrop && (bitmapWidth <= newBitmapWidth || bitmapHeight <= newBitmapHeight)){
+                    newBitmapWidth = srcRect.width();
+                    newBitmapHeight = srcRect.height();
+                }
+            }
+        }else if(scaleType == ImageView.ScaleType.CENTER_INSIDE || scaleType == ImageView.ScaleType.FIT_CENTER || scaleType == ImageView.ScaleType.FIT_END || scaleType == ImageView.ScaleType.FIT_START){
+            srcRect = new Rect(0, 0, bitmapWidth, bitmapHeight);
+            if(newBitmapWidth >= bitmapWidth && newBitmapHeight >= bitmapHeight){
+                newBitmapWidth = bitmapWidth;
+                newBitmapHeight = bitmapHeight;
+            }else{
+                float widthScale = (float)bitmapWidth/newBitmapWidth;
+                float heightScale = (float)bitmapHeight/newBitmapHeight;
+                float finalScale = widthScale>heightScale?widthScale:heightScale;
+                newBitmapWidth = (int)(bitmapWidth/finalScale);
+                newBitmapHeight = (int)(bitmapHeight/finalScale);
+            }
+        }else{
+            srcRect = new Rect(0, 0, bitmapWidth, bitmapHeight);
+            newBitmapWidth = bitmapWidth;
+            newBitmapHeight = bitmapHeight;
+        }
+
+        // 圆形在源区域的中间再取一个正方形
+        if(circle){
+            int diameter = newBitmapWidth<newBitmapHeight?newBitmapWidth:newBitmapHeight;
+            Rect squareRect = CutImageProcessor.findMappingRect(srcRect.width(), srcRect.height(), diameter, diameter);
+            squareRect.offset(srcRect.left, srcRect.top);
+            srcRect = squareRect;
+            newBitmapWidth = diameter;
+            newBitmapHeight = diameter;
+        }
+
+        if(newBitmapWidth <= 0 || newBitmapHeight <= 0){
+            return null;
+        }
+
+        boolean sizeChanged = newBitmapWidth != bitmapWidth || newBitmapHeight != bitmapHeight
+                || srcRect.width() != bitmapWidth || srcRect.height() != bitmapHeight;
+        if(!sizeChanged && !circle && roundPixels <= 0 && !reflection){
+            return null;
+        }
+
+        Plan plan = new Plan();
+        plan.srcRect = srcRect;
+        plan.width = newBitmapWidth;
+        plan.height = newBitmapHeight;
+        plan.reflectionHeight = reflection ? (int) (newBitmapHeight * reflectionScale) : 0;
+        return plan;
+    }
+
+    /**
+     * 一次性绘制到最终图片上，源图通过BitmapShader映射，倒影用同一个Shader翻转后再画一次，不需要中间图片
+     */
+    private Bitmap render(Bitmap bitmap, Plan plan){
+        int outputHeight = plan.height + (reflection ? reflectionSpacing + plan.reflectionHeight : 0);
+        Bitmap output = Bitmap.createBitmap(plan.width, outputHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+
+        Matrix shaderMatrix = new Matrix();
+        shaderMatrix.setRectToRect(new RectF(plan.srcRect), new RectF(0, 0, plan.width, plan.height), Matrix.ScaleToFit.FILL);
+        BitmapShader shader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        shader.setLocalMatrix(shaderMatrix);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        paint.setShader(shader);
+
+        // 绘制图片并应用形状
+        RectF contentRect = new RectF(0, 0, plan.width, plan.height);
+        drawShape(canvas, contentRect, paint);
+
+        if(reflection && plan.reflectionHeight > 0){
+            // 在下半部分翻转绘制倒影
+            int reflectionTop = plan.height + reflectionSpacing;
+            canvas.save();
+            canvas.translate(0, reflectionTop + plan.height);
+            canvas.scale(1, -1);
+            drawShape(canvas, contentRect, paint);
+            canvas.restore();
+
+            // 在下半部分绘制半透明遮罩
+            Paint maskPaint = new Paint();
+            maskPaint.setShader(new LinearGradient(0, reflectionTop, 0, outputHeight, 0x70ffffff, 0x00ffffff, Shader.TileMode.CLAMP));
+            maskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+            canvas.drawRect(0, reflectionTop, plan.width, outputHeight, maskPaint);
+        }
+        return output;
+    }
+
+    private void drawShape(Canvas canvas, RectF rect, Paint paint){
+        if(circle){
+            canvas.drawOval(rect, paint);
+        }else if(roundPixels > 0){
+            canvas.drawRoundRect(rect, roundPixels, roundPixels, paint);
+        }else{
+            canvas.drawRect(rect, paint);
+        }
+    }
+
+    private static class Plan{
+        private Rect srcRect;
+        private int width;
+        private int height;
+        private int reflectionHeight;
+    }
+}
@@ -27,7 +27,7 @@ import android.widget.ImageView.ScaleType;
 import me.xiaopan.android.spear.util.ImageSize;
 
 /**
- * 圆形位图处理器
+ * 圆形位图处理器，会创建一张新的图片；只是为了显示的话推荐使用CircleImageDisplayer
  */
 public class CircleImageProcessor implements ImageProcessor {
     private static final String NAME = "CircleImageProcessor";
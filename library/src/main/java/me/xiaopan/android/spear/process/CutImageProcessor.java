@@ -18,9 +18,13 @@ package me.xiaopan.android.spear.process;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.widget.ImageView;
 
+import me.xiaopan.android.spear.decode.ExifInfo;
 import me.xiaopan.android.spear.util.ImageSize;
 
 public class CutImageProcessor implements ImageProcessor {
@@ -33,12 +37,32 @@ public class CutImageProcessor implements ImageProcessor {
 
     @Override
     public Bitmap process(Bitmap bitmap, ImageSize resize, ImageView.ScaleType scaleType) {
+        return cut(bitmap, resize, scaleType, ExifInfo.ORIENTATION_NORMAL);
+    }
+
+    /**
+     * 按EXIF方向旋转并裁剪，旋转和裁剪在同一次绘制中完成，不用先单独旋转一遍整张图
+     * <br>子类可能重写了process(Bitmap, ImageSize, ImageView.ScaleType)，这时先旋转再交给它处理
+     * @param orientation EXIF方向，解码时没有旋转的图片传它原本的方向
+     */
+    public Bitmap process(Bitmap bitmap, ImageSize resize, ImageView.ScaleType scaleType, int orientation) {
+        if(bitmap == null) return null;
+        if(getClass() != CutImageProcessor.class){
+            return process(ExifInfo.applyOrientation(bitmap, orientation, 1), resize, scaleType);
+        }
+        return cut(bitmap, resize, scaleType, orientation);
+    }
+
+    private Bitmap cut(Bitmap bitmap, ImageSize resize, ImageView.ScaleType scaleType, int orientation) {
         if(bitmap == null) return null;
-        if(resize == null) return bitmap;
+        Matrix orientationMatrix = ExifInfo.getOrientationMatrix(orientation);
+        if(resize == null) return ExifInfo.applyOrientation(bitmap, orientation, 1);
         if(scaleType == null) scaleType = ImageView.ScaleType.FIT_CENTER;
 
-        int bitmapWidth = bitmap.getWidth();
-        int bitmapHeight = bitmap.getHeight();
+        // 按旋转后的宽高计算裁剪区域
+        boolean swapSize = orientation >= ExifInfo.ORIENTATION_TRANSPOSE;
+        int bitmapWidth = swapSize ? bitmap.getHeight() : bitmap.getWidth();
+        int bitmapHeight = swapSize ? bitmap.getWidth() : bitmap.getHeight();
         int newBitmapWidth = resize.getWidth();
         int newBitmapHeight = resize.getHeight();
 
@@ -70,12 +94,25 @@ public class CutImageProcessor implements ImageProcessor {
         }
 
         if(srcRect == null){
-            return bitmap;
-        }else{
+            return ExifInfo.applyOrientation(bitmap, orientation, 1);
+        }else if(orientationMatrix.isIdentity()){
             Bitmap newBitmap = Bitmap.createBitmap(newBitmapWidth, newBitmapHeight, Bitmap.Config.ARGB_8888);
             Canvas canvas = new Canvas(newBitmap);
             canvas.drawBitmap(bitmap, srcRect, new Rect(0, 0, newBitmap.getWidth(), newBitmap.getHeight()), null);
             return newBitmap;
+        }else{
+            // 先旋转并平移回原点，再把旋转后的裁剪区域映射到新图片上
+            RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            orientationMatrix.mapRect(bounds);
+            orientationMatrix.postTranslate(-bounds.left, -bounds.top);
+            Matrix cutMatrix = new Matrix();
+            cutMatrix.setRectToRect(new RectF(srcRect), new RectF(0, 0, newBitmapWidth, newBitmapHeight), Matrix.ScaleToFit.FILL);
+            orientationMatrix.postConcat(cutMatrix);
+
+            Bitmap newBitmap = Bitmap.createBitmap(newBitmapWidth, newBitmapHeight, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(newBitmap);
+            canvas.drawBitmap(bitmap, orientationMatrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+            return newBitmap;
         }
     }
 
@@ -29,7 +29,7 @@ import android.widget.ImageView.ScaleType;
 import me.xiaopan.android.spear.util.ImageSize;
 
 /**
- * 圆角位图处理器
+ * 圆角位图处理器，会创建一张新的图片；只是为了显示的话推荐使用RoundedCornerImageDisplayer
  */
 public class RoundedCornerImageProcessor implements ImageProcessor {
     private static final String NAME = "RoundedCornerImageProcessor";
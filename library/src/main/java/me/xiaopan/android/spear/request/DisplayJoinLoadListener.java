@@ -19,10 +19,10 @@ package me.xiaopan.android.spear.request;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.Build;
-import android.util.Log;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.util.FailureCause;
+import me.xiaopan.android.spear.util.GifDrawable;
 import me.xiaopan.android.spear.util.RecyclingBitmapDrawable;
 
 public class DisplayJoinLoadListener  implements LoadListener {
@@ -47,24 +47,46 @@ public class DisplayJoinLoadListener  implements LoadListener {
         } else {
             bitmapDrawable = new RecyclingBitmapDrawable(displayRequest.getSpear().getConfiguration().getContext().getResources(), bitmap);
         }
+        complete(bitmapDrawable, imageFrom);
+    }
+
+    /**
+     * 加载完成，结果是GIF
+     */
+    public void onCompleted(GifDrawable gifDrawable, ImageFrom imageFrom) {
+        complete(gifDrawable, imageFrom);
+    }
+
+    private void complete(BitmapDrawable bitmapDrawable, ImageFrom imageFrom){
         if(displayRequest.isEnableMemoryCache()){
             if(bitmapDrawable instanceof RecyclingBitmapDrawable){
                 ((RecyclingBitmapDrawable) bitmapDrawable).setIsCached(true);
             }
-            displayRequest.getSpear().getConfiguration().getMemoryCache().put(displayRequest.getMemoryCacheId(), bitmapDrawable);
+            // 没有裁剪和处理过的图片可以作为变体，供同一张图片更小尺寸的请求缩小使用，GIF缩小后就不会动了所以不作为变体
+            if(displayRequest.getResize() == null && displayRequest.getImageProcessor() == null && !(bitmapDrawable instanceof GifDrawable)){
+                displayRequest.getSpear().getConfiguration().getMemoryCache().putVariant(displayRequest.getMemoryCacheId(), bitmapDrawable, displayRequest.getOriginalUri(), displayRequest.getMaxsize());
+            }else{
+                displayRequest.getSpear().getConfiguration().getMemoryCache().put(displayRequest.getMemoryCacheId(), bitmapDrawable);
+            }
+            displayRequest.markStage(RequestMetrics.Stage.MEMORY_PUT);
         }
 
         // 已取消
         if (displayRequest.isCanceled()) {
-            if(Spear.isDebugMode()){
-                Log.w(Spear.TAG, NAME + "：" + "已取消显示 onCompleted()" + "；" + displayRequest.getName());
-            }
+            SLog.d(SLog.CATEGORY_DISPLAY, NAME, "已取消显示 onCompleted()", displayRequest.getName());
             displayRequest.getSpear().getConfiguration().getDisplayCallbackHandler().cancelCallback(displayRequest.getDisplayListener());
             return;
         }
 
         // 显示
-        DisplayListener.ImageFrom displayImageFrom = imageFrom !=null?(imageFrom == LoadListener.ImageFrom.NETWORK? DisplayListener.ImageFrom.NETWORK: DisplayListener.ImageFrom.DISK):null;
+        DisplayListener.ImageFrom displayImageFrom = null;
+        if(imageFrom == LoadListener.ImageFrom.NETWORK){
+            displayImageFrom = DisplayListener.ImageFrom.NETWORK;
+        }else if(imageFrom == LoadListener.ImageFrom.MEMORY){
+            displayImageFrom = DisplayListener.ImageFrom.MEMORY;
+        }else if(imageFrom != null){
+            displayImageFrom = DisplayListener.ImageFrom.DISK;
+        }
 
         displayRequest.getSpear().getConfiguration().getDisplayCallbackHandler().completeCallback(displayRequest, bitmapDrawable, displayImageFrom);
     }
@@ -76,9 +98,7 @@ public class DisplayJoinLoadListener  implements LoadListener {
 
     @Override
     public void onCanceled() {
-        if(Spear.isDebugMode()){
-            Log.w(Spear.TAG, NAME + "：" + "已取消显示 onCanceled()" + "；" + displayRequest.getName());
-        }
+        SLog.d(SLog.CATEGORY_DISPLAY, NAME, "已取消显示 onCanceled()", displayRequest.getName());
         displayRequest.getSpear().getConfiguration().getDisplayCallbackHandler().cancelCallback(displayRequest.getDisplayListener());
     }
 }
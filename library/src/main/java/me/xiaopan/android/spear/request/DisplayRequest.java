@@ -16,13 +16,17 @@
 
 package me.xiaopan.android.spear.request;
 
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 
+import me.xiaopan.android.spear.cache.MemoryCacheKey;
+import me.xiaopan.android.spear.decode.ProgressiveJpegDecoder;
 import me.xiaopan.android.spear.display.ImageDisplayer;
+import me.xiaopan.android.spear.execute.BitmapBudget;
 import me.xiaopan.android.spear.execute.RequestExecutor;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.process.ImageProcessor;
 import me.xiaopan.android.spear.util.DrawableHolder;
-import me.xiaopan.android.spear.util.FailureCause;
 import me.xiaopan.android.spear.util.ImageViewHolder;
 
 /**
@@ -30,26 +34,31 @@ import me.xiaopan.android.spear.util.ImageViewHolder;
  */
 public class DisplayRequest extends LoadRequest{
     public static final boolean DEFAULT_ENABLE_MEMORY_CACHE = true;
+    private static final String NAME = "DisplayRequest";
 
     /* 显示请求用到的属性 */
-    private String memoryCacheId;	//内存缓存ID
+    private MemoryCacheKey memoryCacheId;	//内存缓存ID
     private boolean enableMemoryCache = DEFAULT_ENABLE_MEMORY_CACHE;	//是否每次加载图片的时候先从内存中去找，并且加载完成后将图片缓存在内存中
     private ImageDisplayer imageDisplayer;	//图片显示器
     private DrawableHolder loadFailDrawableHolder;	//当加载失败时显示的图片
     private DisplayListener displayListener;	//监听器
+    private boolean progressive;    // 是否边下载边显示渐进式JPEG的预览图
 
     /* 辅助的属性 */
     private boolean resizeByImageViewLayoutSizeAndFromDisplayer;
-    private FailureCause failureCause;
     private ImageViewHolder imageViewHolder;	//ImageView持有器
     private BitmapDrawable resultBitmap;
+    private Bitmap previewBitmap;   // 还没显示的预览图
+    private long previewBytes;  // 还没显示的预览图占用的预算
+    private long displayedPreviewBytes; // 正在显示的预览图占用的预算，被替换掉或请求结束时释放
+    private BitmapBudget previewBudget;
     private DisplayListener.ImageFrom imageFrom;
 
     /**
      * 获取内存缓存ID，此ID用来在内存缓存Bitmap时作为其KEY
      * @return ID
      */
-	public String getMemoryCacheId() {
+	public MemoryCacheKey getMemoryCacheId() {
 		return memoryCacheId;
 	}
 
@@ -57,7 +66,7 @@ public class DisplayRequest extends LoadRequest{
      * 设置内存缓存ID
      * @param memoryCacheId 内存缓存ID
      */
-    public void setMemoryCacheId(String memoryCacheId) {
+    public void setMemoryCacheId(MemoryCacheKey memoryCacheId) {
         this.memoryCacheId = memoryCacheId;
     }
 
@@ -141,7 +150,7 @@ public class DisplayRequest extends LoadRequest{
         }else{
             processor = null;
         }
-        return loadFailDrawableHolder.getDrawable(getSpear().getConfiguration().getContext(), getResize(), getScaleType(), processor, resizeByImageViewLayoutSizeAndFromDisplayer);
+        return loadFailDrawableHolder.getDrawable(getSpear().getConfiguration(), getResize(), getScaleType(), processor, resizeByImageViewLayoutSizeAndFromDisplayer);
     }
 
     /**
@@ -177,19 +186,82 @@ public class DisplayRequest extends LoadRequest{
     }
 
     /**
-     * 获取失败原因
-     * @return 失败原因
+     * 获取还没显示的渐进式JPEG预览图
      */
-    public FailureCause getFailureCause() {
-        return failureCause;
+    public synchronized Bitmap getPreviewBitmap() {
+        return previewBitmap;
     }
 
     /**
-     * 设置失败原因
-     * @param failureCause 失败原因
+     * 设置渐进式JPEG的预览图，它占用的预算会一直保留到被下一张预览图或最终的图片替换掉，或者请求结束
+     * @param previewBitmap 预览图
+     * @param bitmapBudget 申请预算的图片内存预算
+     * @param bytes 申请的字节数
      */
-    public void setFailureCause(FailureCause failureCause) {
-        this.failureCause = failureCause;
+    public void setPreviewBitmap(Bitmap previewBitmap, BitmapBudget bitmapBudget, long bytes) {
+        // 预算要在锁外面释放，BitmapBudget.acquire()会在持有预算的锁时调用isCanceled()
+        long replacedBytes;
+        BitmapBudget replacedBudget;
+        synchronized (this){
+            replacedBytes = this.previewBytes;
+            replacedBudget = this.previewBudget;
+            this.previewBitmap = previewBitmap;
+            this.previewBytes = bytes;
+            this.previewBudget = bitmapBudget;
+        }
+        if(replacedBytes > 0){
+            replacedBudget.release(replacedBytes);
+        }
+        // 请求刚好在这之前结束了，主线程不会再显示这张预览图
+        if(isFinished()){
+            releasePreview();
+        }
+    }
+
+    /**
+     * 预览图已经显示到ImageView上了，之前显示的预览图已被替换掉，释放它的预算，在主线程中调用
+     * @param previewBitmap 刚显示的预览图
+     */
+    public void onPreviewDisplayed(Bitmap previewBitmap) {
+        long replacedBytes;
+        BitmapBudget bitmapBudget;
+        synchronized (this){
+            if(previewBitmap == null || previewBitmap != this.previewBitmap){
+                return;
+            }
+            replacedBytes = displayedPreviewBytes;
+            displayedPreviewBytes = previewBytes;
+            bitmapBudget = previewBudget;
+            this.previewBitmap = null;
+            this.previewBytes = 0;
+        }
+        if(replacedBytes > 0){
+            bitmapBudget.release(replacedBytes);
+        }
+    }
+
+    /**
+     * 释放预览图占用的预算，请求结束时调用，这时最终的图片已经显示出来或者不再需要预览图了
+     */
+    private void releasePreview() {
+        long bytes;
+        long displayedBytes;
+        BitmapBudget bitmapBudget;
+        synchronized (this){
+            bytes = previewBytes;
+            displayedBytes = displayedPreviewBytes;
+            bitmapBudget = previewBudget;
+            previewBitmap = null;
+            previewBytes = 0;
+            displayedPreviewBytes = 0;
+        }
+        // 每张预览图是单独申请的，要分开释放
+        if(bytes > 0){
+            bitmapBudget.release(bytes);
+        }
+        if(displayedBytes > 0){
+            bitmapBudget.release(displayedBytes);
+        }
     }
 
     /**
@@ -208,6 +280,21 @@ public class DisplayRequest extends LoadRequest{
         this.imageFrom = imageFrom;
     }
 
+    /**
+     * 是否边下载边显示渐进式JPEG的预览图
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * 设置是否边下载边显示渐进式JPEG的预览图
+     * @param progressive 是否边下载边显示渐进式JPEG的预览图
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
     /**
      * resize是否来自ImageView的LayoutSize并且来自Displayer
      */
@@ -223,6 +310,15 @@ public class DisplayRequest extends LoadRequest{
         this.resizeByImageViewLayoutSizeAndFromDisplayer = resizeByImageViewLayoutSizeAndFromDisplayer;
     }
 
+    @Override
+    public void setStatus(Status status) {
+        super.setStatus(status);
+        // 完成和失败的状态是在主线程中显示最终的图片之后才设置的，这时预览图已经被替换掉了
+        if(isFinished()){
+            releasePreview();
+        }
+    }
+
     @Override
     public boolean isCanceled() {
         boolean isCanceled = super.isCanceled();
@@ -238,9 +334,36 @@ public class DisplayRequest extends LoadRequest{
     @Override
     public void dispatch(RequestExecutor requestExecutor) {
         setLoadListener(new DisplayJoinLoadListener(this));
+
+        // 内存中有同一张图片更大的变体时直接从它缩小，省去读磁盘和解码
+        if(enableMemoryCache){
+            BitmapDrawable variant = getSpear().getConfiguration().getMemoryCache().getVariant(getOriginalUri(), getMaxsize());
+            Bitmap variantBitmap = variant != null ? variant.getBitmap() : null;
+            if(variantBitmap != null && calculateVariantScale(variantBitmap.getWidth(), variantBitmap.getHeight(), getMaxsize()) < 1){
+                setSourceVariant(variant);
+                setRunStatus(RunStatus.LOAD);
+                setImageFrom(LoadListener.ImageFrom.MEMORY);
+                if(getMetrics() != null){
+                    getMetrics().mark(RequestMetrics.Stage.DISPATCHED);
+                    getMetrics().setImageFrom(RequestMetrics.ImageFrom.MEMORY);
+                }
+                requestExecutor.getLocalTaskExecutor().execute(this);
+                SLog.d(SLog.CATEGORY_DISPLAY, NAME, "LOAD - 内存变体", getName());
+                return;
+            }
+        }
+
         super.dispatch(requestExecutor);
     }
 
+    /**
+     * 设置了图片处理器时预览图跟最终的图片差别太大，所以不显示预览图
+     */
+    @Override
+    public ProgressiveJpegDecoder createProgressiveJpegDecoder() {
+        return progressive && getImageProcessor() == null ? new ProgressiveJpegDecoder(this) : null;
+    }
+
     @Override
     public void updateProgress(int totalLength, int completedLength) {
         if(getProgressListener() != null){
@@ -16,14 +16,20 @@
 
 package me.xiaopan.android.spear.request;
 
-import android.util.Log;
-
 import java.io.File;
 
 import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.decode.ProgressiveJpegDecoder;
+import me.xiaopan.android.spear.download.DownloadTracker;
 import me.xiaopan.android.spear.download.ImageDownloader;
+import me.xiaopan.android.spear.download.RetryPolicy;
+import me.xiaopan.android.spear.execute.HostFairExecutor;
 import me.xiaopan.android.spear.execute.RequestExecutor;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.util.FailureCause;
 import me.xiaopan.android.spear.util.ImageScheme;
+import me.xiaopan.android.spear.util.ImageSize;
+import me.xiaopan.android.spear.util.UriResolver;
 
 /**
  * 下载请求
@@ -34,8 +40,9 @@ public class DownloadRequest implements Request, Runnable {
 
     /* 通用属性 */
     private Spear spear;
-    private Status status = Status.WAITING;  // 状态
+    private volatile Status status = Status.WAITING;  // 状态，会在主线程和工作线程之间传递
     private String uri;	// 图片地址
+    private String originalUri;	// 经UriResolver改写之前的图片地址
     private String name;	// 名称，用于在输出LOG的时候区分不同的请求
     private ImageScheme imageScheme;	// Uri协议格式
 
@@ -44,6 +51,13 @@ public class DownloadRequest implements Request, Runnable {
     private boolean enableDiskCache = DEFAULT_ENABLE_DISK_CACHE;	// 是否开启磁盘缓存
     private DownloadListener downloadListener;  // 下载监听器
     private ProgressListener progressListener;  // 下载进度监听器
+    private int attemptCount;   // 已尝试下载的次数
+    private FailureCause failureCause;  // 失败原因
+    private RequestMetrics metrics; // 统计数据，没有设置统计监听器时为null
+    private volatile int progressTotalLength;  // 最近一次进度回调时的总长度
+    private volatile int progressCompletedLength;  // 最近一次进度回调时已下载的长度
+    private long transferLength;    // 最近一次下载读取响应体的字节数
+    private long transferTime;  // 最近一次下载读取响应体的耗时，单位毫秒，不包含等待URL锁和建立连接的时间
 
     @Override
     public Spear getSpear() {
@@ -65,6 +79,34 @@ public class DownloadRequest implements Request, Runnable {
         this.uri = uri;
     }
 
+    /**
+     * 获取原始的图片地址，没有经过UriResolver改写时跟getUri()一样
+     * @return 原始的图片地址
+     */
+    public String getOriginalUri() {
+        return originalUri != null ? originalUri : uri;
+    }
+
+    /**
+     * 使用UriResolver改写网络图片的地址，重试时会基于原始地址重新解析
+     * @param maxsize 最大尺寸
+     * @param resize 裁剪尺寸
+     */
+    protected void resolveUri(ImageSize maxsize, ImageSize resize){
+        UriResolver uriResolver = getSpear().getConfiguration().getUriResolver();
+        if(uriResolver == null || (imageScheme != ImageScheme.HTTP && imageScheme != ImageScheme.HTTPS)){
+            return;
+        }
+        if(originalUri == null){
+            originalUri = uri;
+        }
+        String newUri = uriResolver.resolve(getSpear().getConfiguration(), originalUri, maxsize, resize);
+        if(newUri != null && !newUri.equals(uri)){
+            uri = newUri;
+            SLog.d(SLog.CATEGORY_REQUEST, NAME, "URI已改写", newUri, getName());
+        }
+    }
+
     @Override
     public ImageScheme getImageScheme() {
         return imageScheme;
@@ -88,6 +130,9 @@ public class DownloadRequest implements Request, Runnable {
     @Override
     public void setStatus(Status status) {
         this.status = status;
+        if(metrics != null && isFinished()){
+            metrics.finish(status, failureCause, attemptCount);
+        }
     }
 
     @Override
@@ -141,6 +186,14 @@ public class DownloadRequest implements Request, Runnable {
         this.progressListener = progressListener;
     }
 
+    /**
+     * 创建渐进式JPEG预览解码器，下载器每次开始读取数据时调用
+     * @return 为null表示不需要边下载边显示预览图
+     */
+    public ProgressiveJpegDecoder createProgressiveJpegDecoder() {
+        return null;
+    }
+
     /**
      * 获取下载监听器
      */
@@ -156,6 +209,93 @@ public class DownloadRequest implements Request, Runnable {
         this.downloadListener = downloadListener;
     }
 
+    /**
+     * 获取已尝试下载的次数，包括第一次
+     * @return 已尝试下载的次数
+     */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /**
+     * 获取最近一次进度回调时的总长度，还没有回调过时为0
+     */
+    public int getProgressTotalLength() {
+        return progressTotalLength;
+    }
+
+    /**
+     * 获取最近一次进度回调时已下载的长度
+     */
+    public int getProgressCompletedLength() {
+        return progressCompletedLength;
+    }
+
+    /**
+     * 获取最近一次下载读取响应体的字节数，没有从网络下载时为0
+     */
+    public long getTransferLength() {
+        return transferLength;
+    }
+
+    /**
+     * 获取最近一次下载读取响应体的耗时，单位毫秒，没有从网络下载时为0
+     */
+    public long getTransferTime() {
+        return transferTime;
+    }
+
+    /**
+     * 设置读取响应体的字节数和耗时，由下载器在读完数据后调用，带宽测量器用它来计算带宽
+     * @param transferLength 字节数
+     * @param transferTime 耗时，单位毫秒
+     */
+    public void setTransferInfo(long transferLength, long transferTime) {
+        this.transferLength = transferLength;
+        this.transferTime = transferTime;
+    }
+
+    /**
+     * 获取失败原因
+     * @return 失败原因
+     */
+    public FailureCause getFailureCause() {
+        return failureCause;
+    }
+
+    /**
+     * 设置失败原因
+     * @param failureCause 失败原因
+     */
+    public void setFailureCause(FailureCause failureCause) {
+        this.failureCause = failureCause;
+    }
+
+    /**
+     * 获取统计数据
+     * @return 统计数据，没有设置统计监听器时为null
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置统计数据
+     * @param metrics 统计数据
+     */
+    public void setMetrics(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 记录到达某个阶段的时间点，没有统计数据时什么也不做
+     */
+    public void markStage(RequestMetrics.Stage stage){
+        if(metrics != null){
+            metrics.mark(stage);
+        }
+    }
+
     @Override
     public boolean isFinished() {
         return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELED;
@@ -171,12 +311,14 @@ public class DownloadRequest implements Request, Runnable {
         if(isFinished()){
             return false;
         }
-        status = Status.CANCELED;
+        setStatus(Status.CANCELED);
         return true;
     }
 
     @Override
     public void updateProgress(int totalLength, int completedLength) {
+        this.progressTotalLength = totalLength;
+        this.progressCompletedLength = completedLength;
         if(progressListener != null){
             progressListener.onUpdateProgress(totalLength, completedLength);
         }
@@ -189,6 +331,9 @@ public class DownloadRequest implements Request, Runnable {
 
     @Override
     public void dispatch(RequestExecutor requestExecutor) {
+        markStage(RequestMetrics.Stage.DISPATCHED);
+        resolveUri(null, null);
+
         // 要先创建缓存文件
         if(isEnableDiskCache()){
             setCacheFile(getSpear().getConfiguration().getDiskCache().createCacheFile(this));
@@ -196,9 +341,7 @@ public class DownloadRequest implements Request, Runnable {
 
         // 从网络下载
         requestExecutor.getNetTaskExecutor().execute(this);
-        if(Spear.isDebugMode()){
-            Log.d(Spear.TAG, NAME + " - dispatch：" + getName());
-        }
+        SLog.d(SLog.CATEGORY_REQUEST, NAME, "dispatch", getName());
     }
 
     /**
@@ -213,7 +356,42 @@ public class DownloadRequest implements Request, Runnable {
         }
 
         setStatus(Request.Status.LOADING);
-        ImageDownloader.DownloadResult downloadResult = getSpear().getConfiguration().getImageDownloader().download(this);
+        ImageDownloader imageDownloader = getSpear().getConfiguration().getImageDownloader();
+        RetryPolicy retryPolicy = imageDownloader.getRetryPolicy();
+        String host = HostFairExecutor.parseHost(getUri());
+        ImageDownloader.DownloadResult downloadResult;
+        if(retryPolicy != null && !retryPolicy.allowRequest(host)){
+            SLog.w(SLog.CATEGORY_REQUEST, NAME, "已熔断，不再请求", host, getName());
+            downloadResult = ImageDownloader.DownloadResult.createByFailure(FailureCause.CIRCUIT_OPEN, 0, null);
+        }else{
+            attemptCount++;
+            progressTotalLength = 0;
+            progressCompletedLength = 0;
+            transferLength = 0;
+            transferTime = 0;
+            markStage(RequestMetrics.Stage.DOWNLOAD_STARTED);
+            DownloadTracker downloadTracker = getSpear().getConfiguration().getDownloadTracker();
+            downloadTracker.begin(this);
+            try{
+                downloadResult = imageDownloader.download(this);
+            }finally{
+                downloadTracker.end(this);
+            }
+            if(downloadResult != null && downloadResult.isFromNetwork() && downloadResult.getResult() != null){
+                long length = downloadResult.getResult() instanceof File ? ((File) downloadResult.getResult()).length() : ((byte[]) downloadResult.getResult()).length;
+                // 只用读取响应体的时间，等待URL锁的时间不能算进去，否则同一张图片并发请求时会把带宽估低
+                if(transferTime > 0){
+                    getSpear().getConfiguration().getBandwidthMeter().addSample(transferLength, transferTime);
+                }
+                if(metrics != null){
+                    metrics.setDownloadBytes(length);
+                }
+            }
+            if(metrics != null){
+                metrics.mark(RequestMetrics.Stage.DOWNLOAD_FINISHED);
+                metrics.setImageFrom(downloadResult != null && !downloadResult.isFromNetwork() ? RequestMetrics.ImageFrom.DISK_CACHE : RequestMetrics.ImageFrom.NETWORK);
+            }
+        }
 
         if(isCanceled()){
             if(getDownloadListener() != null){
@@ -222,11 +400,10 @@ public class DownloadRequest implements Request, Runnable {
             return;
         }
 
-        if(downloadResult != null && downloadResult.getResult() == null){
-            downloadResult = null;
-        }
-
-        if(downloadResult != null){
+        if(downloadResult != null && downloadResult.getResult() != null){
+            if(retryPolicy != null && downloadResult.isFromNetwork()){
+                retryPolicy.onSuccess(host);
+            }
             if(!(this instanceof LoadRequest)){
                 setStatus(Request.Status.COMPLETED);
             }
@@ -238,11 +415,29 @@ public class DownloadRequest implements Request, Runnable {
                 }
             }
         }else{
+            if(downloadResult == null){
+                downloadResult = ImageDownloader.DownloadResult.createByFailure(FailureCause.DOWNLOAD_FAILED, 0, null);
+            }
+            failureCause = downloadResult.getFailureCause() != null ? downloadResult.getFailureCause() : FailureCause.DOWNLOAD_FAILED;
+
+            // 交给重试策略决定是否延迟重新提交，熔断导致的失败不重试
+            if(retryPolicy != null && failureCause != FailureCause.CIRCUIT_OPEN){
+                retryPolicy.onFailure(host, downloadResult);
+                long retryDelay = retryPolicy.getRetryDelay(this, downloadResult);
+                if(retryDelay >= 0){
+                    if(SLog.isLoggable(SLog.WARN, SLog.CATEGORY_DOWNLOAD)) SLog.w(SLog.CATEGORY_DOWNLOAD, NAME, "下载失败 - " + retryDelay + "毫秒后第" + (attemptCount+1) + "次尝试", failureCause, getName());
+                    setStatus(Request.Status.WAITING);
+                    getSpear().getConfiguration().getRequestExecutor().submit(this, retryDelay);
+                    return;
+                }
+            }
+
+            if(SLog.isLoggable(SLog.ERROR, SLog.CATEGORY_DOWNLOAD)) SLog.e(SLog.CATEGORY_DOWNLOAD, NAME, "下载失败 - 共尝试" + attemptCount + "次", failureCause, getName());
             if(!(this instanceof LoadRequest)){
                 setStatus(Request.Status.FAILED);
             }
             if(getDownloadListener() != null){
-                getDownloadListener().onFailed(null);
+                getDownloadListener().onFailed(failureCause);
             }
         }
     }
@@ -53,6 +53,9 @@ public class LoadJoinDownloadListener implements DownloadListener {
 
     @Override
     public void onFailed(FailureCause failureCause) {
+        if(!(loadRequest instanceof DisplayRequest)){
+            loadRequest.setStatus(Request.Status.FAILED);
+        }
         if(loadRequest.getLoadListener() != null){
             loadRequest.getLoadListener().onFailed(failureCause);
         }
@@ -60,5 +60,10 @@ public interface LoadListener {
          * 本地
          */
         LOCAL,
+
+        /**
+         * 内存，由内存中同一张图片更大的变体缩小得到
+         */
+        MEMORY,
     }
 }
@@ -17,14 +17,21 @@
 package me.xiaopan.android.spear.request;
 
 import android.graphics.Bitmap;
-import android.util.Log;
+import android.graphics.drawable.BitmapDrawable;
 import android.widget.ImageView;
 
-import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.cache.EncodedCache;
+import me.xiaopan.android.spear.decode.ExifInfo;
+import me.xiaopan.android.spear.decode.ImageDecoder;
+import me.xiaopan.android.spear.execute.BitmapBudget;
 import me.xiaopan.android.spear.execute.RequestExecutor;
+import me.xiaopan.android.spear.log.SLog;
+import me.xiaopan.android.spear.process.CutImageProcessor;
 import me.xiaopan.android.spear.process.ImageProcessor;
+import me.xiaopan.android.spear.util.GifDrawable;
 import me.xiaopan.android.spear.util.ImageScheme;
 import me.xiaopan.android.spear.util.ImageSize;
+import me.xiaopan.android.spear.util.RecyclingBitmapDrawable;
 
 /**
  * 加载请求
@@ -43,6 +50,12 @@ public class LoadRequest extends DownloadRequest{
     private RunStatus runStatus;
     private LoadListener.ImageFrom imageFrom;
     private byte[] imageData;
+    private Bitmap decodedBitmap;  // 已解码等待处理的图片，占用着处理预算
+    private long decodedBitmapBytes;
+    private BitmapDrawable sourceVariant;  // 内存中同一张图片更大的变体，不为null时直接从它缩小，不再解码
+    private boolean acceptGif;  // 解码时遇到GIF是否交给decodeGif()按动画播放
+    private boolean gifDetected;    // 解码器在解码宽高时发现是GIF
+    private int exifOrientation = ExifInfo.ORIENTATION_NORMAL;  // 解码时还没旋转的EXIF方向，处理时跟裁剪一起旋转
 
     /**
      * 获取裁剪尺寸，ImageProcessor会根据此尺寸和scaleType来创建新的图片
@@ -148,10 +161,49 @@ public class LoadRequest extends DownloadRequest{
         this.imageData = imageData;
     }
 
+    /**
+     * 设置用来缩小的变体
+     * @param sourceVariant 内存中同一张图片更大的变体
+     */
+    public void setSourceVariant(BitmapDrawable sourceVariant) {
+        this.sourceVariant = sourceVariant;
+    }
+
+    /**
+     * 解码时遇到GIF是否要按动画播放，只有显示请求并且没有设置图片处理器时才会
+     */
+    public boolean isAcceptGif() {
+        return acceptGif;
+    }
+
+    /**
+     * 解码器在解码宽高时发现是GIF并且isAcceptGif()为true时调用，这时decode()返回null，接着会调用decodeGif()
+     */
+    public void setGifDetected(boolean gifDetected) {
+        this.gifDetected = gifDetected;
+    }
+
+    /**
+     * 解码器没有旋转图片，而是把EXIF方向留给默认的CutImageProcessor在裁剪时一起旋转
+     */
+    public void setExifOrientation(int exifOrientation) {
+        this.exifOrientation = exifOrientation;
+    }
+
+    /**
+     * 接下来是否会用默认的CutImageProcessor裁剪，是的话解码器可以把旋转留给裁剪时一起做
+     * <br>CutImageProcessor的子类可能重写了裁剪方法，不能合并，还是由解码器先旋转
+     */
+    public boolean isDefaultCutPending() {
+        ImageProcessor defaultCutImageProcessor = getSpear().getConfiguration().getDefaultCutImageProcessor();
+        return getImageProcessor() == null && getResize() != null
+                && defaultCutImageProcessor != null && defaultCutImageProcessor.getClass() == CutImageProcessor.class;
+    }
+
     @Override
     public void run() {
         if(runStatus == null){
-            new IllegalStateException("runStatus 参数为null，无法执行").printStackTrace();
+            SLog.e(SLog.CATEGORY_REQUEST, NAME, "runStatus为null，无法执行", new IllegalStateException("runStatus == null"), getName());
             return;
         }
 
@@ -162,15 +214,36 @@ public class LoadRequest extends DownloadRequest{
             case DOWNLOAD:
                 executeDownload();
                 break;
+            case PROCESS:
+                executeProcess();
+                break;
             default:
-                new IllegalStateException(runStatus.name()+" 属于未知的类型，没法搞").printStackTrace();
+                SLog.e(SLog.CATEGORY_REQUEST, NAME, "未知的runStatus", new IllegalStateException(runStatus.name()), getName());
                 break;
         }
     }
 
     @Override
     public void dispatch(RequestExecutor requestExecutor) {
+        markStage(RequestMetrics.Stage.DISPATCHED);
+        resolveUri(maxsize, resize);
+
         if(getImageScheme() == ImageScheme.HTTP || getImageScheme() == ImageScheme.HTTPS){
+            // 编码数据缓存中有的话直接解码，不用读磁盘也不用下载
+            EncodedCache encodedCache = getSpear().getConfiguration().getEncodedCache();
+            byte[] data = encodedCache != null ? encodedCache.get(getUri()) : null;
+            if(data != null){
+                setImageData(data);
+                // 解码成功后要刷新磁盘缓存文件的最后修改时间
+                setCacheFile(isEnableDiskCache()?getSpear().getConfiguration().getDiskCache().createCacheFile(this):null);
+                setRunStatus(RunStatus.LOAD);
+                setImageFrom(LoadListener.ImageFrom.LOCAL);
+                if(getMetrics() != null) getMetrics().setImageFrom(RequestMetrics.ImageFrom.ENCODED_CACHE);
+                requestExecutor.getLocalTaskExecutor().execute(this);
+                SLog.d(SLog.CATEGORY_REQUEST, NAME, "LOAD - 编码数据缓存", getName());
+                return;
+            }
+
             setCacheFile(isEnableDiskCache()?getSpear().getConfiguration().getDiskCache().createCacheFile(this):null);
 
             // 如果不需要缓存或缓存文件不存在就从网络下载
@@ -178,15 +251,16 @@ public class LoadRequest extends DownloadRequest{
                 setDownloadListener(new LoadJoinDownloadListener(requestExecutor.getLocalTaskExecutor(), this));
                 setRunStatus(RunStatus.DOWNLOAD);
                 requestExecutor.getNetTaskExecutor().execute(this);
-                if(Spear.isDebugMode()) Log.d(Spear.TAG, NAME + "：" + "LOAD - 网络" + "；" + getName());
+                SLog.d(SLog.CATEGORY_REQUEST, NAME, "LOAD - 网络", getName());
                 return;
             }
         }
 
         setRunStatus(RunStatus.LOAD);
         setImageFrom(LoadListener.ImageFrom.LOCAL);
+        if(getMetrics() != null) getMetrics().setImageFrom(getCacheFile() != null ? RequestMetrics.ImageFrom.DISK_CACHE : RequestMetrics.ImageFrom.LOCAL);
         requestExecutor.getLocalTaskExecutor().execute(this);
-        if(Spear.isDebugMode()) Log.d(Spear.TAG, NAME + "：" + "LOAD - 本地" + "；" + getName());
+        SLog.d(SLog.CATEGORY_REQUEST, NAME, "LOAD - 本地", getName());
     }
 
     /**
@@ -202,8 +276,34 @@ public class LoadRequest extends DownloadRequest{
 
         setStatus(Request.Status.LOADING);
 
-        // 解码
-        Bitmap bitmap = getSpear().getConfiguration().getImageDecoder().decode(this);
+        // 解码，有更大的变体时直接从变体缩小
+        markStage(RequestMetrics.Stage.DECODE_STARTED);
+        Bitmap bitmap = null;
+        if(sourceVariant != null){
+            bitmap = scaleSourceVariant();
+            sourceVariant = null;
+        }
+        if(bitmap == null){
+            // 只有显示请求并且没有设置图片处理器时才按GIF播放，resize交给ImageView的scaleType
+            // 是不是GIF由解码器在解码宽高时顺便判断，静态图片不用再单独读一次文件头
+            ImageDecoder imageDecoder = getSpear().getConfiguration().getImageDecoder();
+            acceptGif = this instanceof DisplayRequest && getImageProcessor() == null;
+            gifDetected = false;
+            exifOrientation = ExifInfo.ORIENTATION_NORMAL;
+            bitmap = imageDecoder.decode(this);
+            if(bitmap == null && gifDetected){
+                GifDrawable gifDrawable = imageDecoder.decodeGif(this);
+                if(gifDrawable != null){
+                    markStage(RequestMetrics.Stage.DECODE_FINISHED);
+                    completeGif(gifDrawable);
+                    return;
+                }
+                // 只有一帧或解析失败，按静态图片解码
+                acceptGif = false;
+                bitmap = imageDecoder.decode(this);
+            }
+        }
+        markStage(RequestMetrics.Stage.DECODE_FINISHED);
 
         if(isCanceled()){
             if(getLoadListener() != null){
@@ -215,21 +315,94 @@ public class LoadRequest extends DownloadRequest{
             return;
         }
 
-        //处理
-        if(bitmap != null && !bitmap.isRecycled()){
-            ImageProcessor imageProcessor = getImageProcessor();
-            if(imageProcessor == null && getResize() != null){
-                imageProcessor = getSpear().getConfiguration().getDefaultCutImageProcessor();
+        if(bitmap == null || bitmap.isRecycled()){
+            if(!(this instanceof DisplayRequest)){
+                setStatus(Request.Status.FAILED);
+            }
+            if(getLoadListener() != null){
+                getLoadListener().onFailed(null);
+            }
+            return;
+        }
+
+        // 不需要处理就直接完成
+        ImageProcessor imageProcessor = getImageProcessor();
+        if(imageProcessor == null && getResize() != null){
+            imageProcessor = getSpear().getConfiguration().getDefaultCutImageProcessor();
+        }
+        if(imageProcessor == null){
+            complete(bitmap);
+            return;
+        }
+
+        // 交给处理线程，预算不足时在这里等待，解码自然就慢下来了
+        RequestExecutor requestExecutor = getSpear().getConfiguration().getRequestExecutor();
+        BitmapBudget bitmapBudget = requestExecutor.getProcessBitmapBudget();
+        long bitmapBytes = BitmapBudget.sizeOf(bitmap);
+        if(!bitmapBudget.acquire(bitmapBytes, this)){
+            bitmap.recycle();
+            if(getLoadListener() != null){
+                getLoadListener().onCanceled();
+            }
+            return;
+        }
+        decodedBitmap = bitmap;
+        decodedBitmapBytes = bitmapBytes;
+        setRunStatus(RunStatus.PROCESS);
+        requestExecutor.getProcessTaskExecutor().execute(this);
+        SLog.d(SLog.CATEGORY_REQUEST, NAME, "PROCESS", getName());
+    }
+
+    /**
+     * 执行处理
+     */
+    public void executeProcess(){
+        Bitmap bitmap = decodedBitmap;
+        decodedBitmap = null;
+        BitmapBudget bitmapBudget = getSpear().getConfiguration().getRequestExecutor().getProcessBitmapBudget();
+
+        // 处理前已经取消的话直接回收，不再浪费时间处理
+        if(isCanceled()){
+            bitmapBudget.release(decodedBitmapBytes);
+            if(bitmap != null && !bitmap.isRecycled()){
+                bitmap.recycle();
             }
-            if(imageProcessor != null){
-                Bitmap newBitmap = imageProcessor.process(bitmap, getResize(), getScaleType());
+            if(getLoadListener() != null){
+                getLoadListener().onCanceled();
+            }
+            return;
+        }
+
+        markStage(RequestMetrics.Stage.PROCESS_STARTED);
+        try{
+            if(bitmap != null && !bitmap.isRecycled()){
+                ImageProcessor imageProcessor = getImageProcessor();
+                if(imageProcessor == null){
+                    imageProcessor = getSpear().getConfiguration().getDefaultCutImageProcessor();
+                }
+                Bitmap newBitmap;
+                if(exifOrientation != ExifInfo.ORIENTATION_NORMAL && imageProcessor instanceof CutImageProcessor){
+                    newBitmap = ((CutImageProcessor) imageProcessor).process(bitmap, getResize(), getScaleType(), exifOrientation);
+                }else{
+                    newBitmap = imageProcessor.process(bitmap, getResize(), getScaleType());
+                }
                 if(newBitmap != bitmap){
                     bitmap.recycle();
                     bitmap = newBitmap;
                 }
             }
+        }finally{
+            bitmapBudget.release(decodedBitmapBytes);
         }
+        markStage(RequestMetrics.Stage.PROCESS_FINISHED);
 
+        complete(bitmap);
+    }
+
+    /**
+     * 完成加载
+     */
+    private void complete(Bitmap bitmap){
         if(isCanceled()){
             if(getLoadListener() != null){
                 getLoadListener().onCanceled();
@@ -241,6 +414,9 @@ public class LoadRequest extends DownloadRequest{
         }
 
         if(bitmap != null && !bitmap.isRecycled()){
+            if(getMetrics() != null){
+                getMetrics().setBitmapSize(bitmap.getWidth(), bitmap.getHeight());
+            }
             if(!(this instanceof DisplayRequest)){
                 setStatus(Request.Status.COMPLETED);
             }
@@ -257,8 +433,78 @@ public class LoadRequest extends DownloadRequest{
         }
     }
 
+    /**
+     * 完成加载，结果是GIF
+     */
+    private void completeGif(GifDrawable gifDrawable){
+        if(isCanceled()){
+            // 还没放进内存缓存，不回收的话每一帧的Bitmap都要等GC
+            gifDrawable.recycle();
+            if(getLoadListener() != null){
+                getLoadListener().onCanceled();
+            }
+            return;
+        }
+
+        if(getMetrics() != null){
+            Bitmap bitmap = gifDrawable.getBitmap();
+            getMetrics().setBitmapSize(bitmap.getWidth(), bitmap.getHeight());
+        }
+        if(getLoadListener() instanceof DisplayJoinLoadListener){
+            ((DisplayJoinLoadListener) getLoadListener()).onCompleted(gifDrawable, imageFrom);
+        }
+    }
+
+    /**
+     * 从变体缩小
+     * @return 缩小后的图片，变体已被回收时返回null
+     */
+    private Bitmap scaleSourceVariant(){
+        // 缩小期间标记为显示中，防止低版本上变体被移出缓存后回收
+        boolean recycling = sourceVariant instanceof RecyclingBitmapDrawable;
+        if(recycling){
+            ((RecyclingBitmapDrawable) sourceVariant).setIsDisplayed(true);
+        }
+        try{
+            Bitmap source = sourceVariant.getBitmap();
+            if(source == null || source.isRecycled()){
+                return null;
+            }
+            float scale = calculateVariantScale(source.getWidth(), source.getHeight(), maxsize);
+            if(scale >= 1){
+                return null;
+            }
+            int width = Math.max(1, Math.round(source.getWidth() * scale));
+            int height = Math.max(1, Math.round(source.getHeight() * scale));
+            Bitmap bitmap = Bitmap.createScaledBitmap(source, width, height, true);
+            if(SLog.isLoggable(SLog.DEBUG, SLog.CATEGORY_DECODE)) SLog.d(SLog.CATEGORY_DECODE, NAME, "从变体缩小", source.getWidth() + "x" + source.getHeight() + "->" + width + "x" + height, getName());
+            return bitmap != source ? bitmap : null;
+        }finally{
+            if(recycling){
+                ((RecyclingBitmapDrawable) sourceVariant).setIsDisplayed(false);
+            }
+        }
+    }
+
+    /**
+     * 计算从变体缩小到maxsize的比例，规则跟解码时计算inSampleSize一样：任意一边不大于目标即可，并且总像素数不超过目标的两倍
+     * @return 缩放比例，大于等于1表示变体不比需要的大
+     */
+    public static float calculateVariantScale(int width, int height, ImageSize maxsize){
+        if(maxsize == null || maxsize.getWidth() <= 0 || maxsize.getHeight() <= 0 || width <= 0 || height <= 0){
+            return 1;
+        }
+        float scale = Math.max((float) maxsize.getWidth() / width, (float) maxsize.getHeight() / height);
+        double pixelsCap = 2.0 * maxsize.getWidth() * maxsize.getHeight();
+        if((double) width * height * scale * scale > pixelsCap){
+            scale = (float) Math.sqrt(pixelsCap / ((double) width * height));
+        }
+        return scale;
+    }
+
     public enum RunStatus{
         LOAD,
         DOWNLOAD,
+        PROCESS,
     }
 }
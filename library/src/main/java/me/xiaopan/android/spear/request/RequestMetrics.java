@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.request;
+
+import me.xiaopan.android.spear.util.FailureCause;
+
+/**
+ * 请求统计数据，记录请求在各个阶段的时间点以及数据大小、图片尺寸、缩放比例和来源，用来分析慢在了排队、网络、解码、处理还是显示
+ * <br>时间点取自System.nanoTime()，没有经过的阶段为0，例如从内存缓存显示时只有DISPLAYED和FINISHED
+ */
+public class RequestMetrics {
+    private String uri;
+    private RequestMetricsListener listener;
+    private long[] times = new long[Stage.values().length];
+    private boolean finished;
+
+    private ImageFrom imageFrom;
+    private long downloadBytes = -1;
+    private int originalWidth;
+    private int originalHeight;
+    private int inSampleSize;
+    private int bitmapWidth;
+    private int bitmapHeight;
+    private int attemptCount;
+    private Request.Status status;
+    private FailureCause failureCause;
+
+    /**
+     * 创建统计数据并记录QUEUED时间点
+     * @param uri 图片地址
+     * @param listener 请求结束时回调
+     */
+    public RequestMetrics(String uri, RequestMetricsListener listener) {
+        this.uri = uri;
+        this.listener = listener;
+        mark(Stage.QUEUED);
+    }
+
+    /**
+     * 记录到达某个阶段的时间点，重试时会覆盖之前的
+     */
+    public void mark(Stage stage){
+        times[stage.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * 记录解码信息
+     * @param originalWidth 原图宽
+     * @param originalHeight 原图高
+     * @param inSampleSize 缩放比例
+     */
+    public void setDecodeInfo(int originalWidth, int originalHeight, int inSampleSize){
+        this.originalWidth = originalWidth;
+        this.originalHeight = originalHeight;
+        this.inSampleSize = inSampleSize;
+    }
+
+    /**
+     * 记录最终图片的尺寸
+     */
+    public void setBitmapSize(int bitmapWidth, int bitmapHeight){
+        this.bitmapWidth = bitmapWidth;
+        this.bitmapHeight = bitmapHeight;
+    }
+
+    public void setImageFrom(ImageFrom imageFrom) {
+        this.imageFrom = imageFrom;
+    }
+
+    public void setDownloadBytes(long downloadBytes) {
+        this.downloadBytes = downloadBytes;
+    }
+
+    /**
+     * 结束统计并回调监听器，只有第一次调用有效
+     * @param status 最终状态
+     * @param failureCause 失败原因
+     * @param attemptCount 下载尝试的次数
+     */
+    public void finish(Request.Status status, FailureCause failureCause, int attemptCount){
+        synchronized (this){
+            if(finished){
+                return;
+            }
+            finished = true;
+            this.status = status;
+            this.failureCause = failureCause;
+            this.attemptCount = attemptCount;
+            mark(Stage.FINISHED);
+        }
+        if(listener != null){
+            listener.onRequestFinished(this);
+        }
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * 获取到达某个阶段的时间点，单位纳秒
+     * @return 没有经过这个阶段时返回0
+     */
+    public long getTime(Stage stage){
+        return times[stage.ordinal()];
+    }
+
+    /**
+     * 获取两个阶段之间的耗时，单位毫秒
+     * @return 任意一个阶段没有经过时返回-1
+     */
+    public float getElapsed(Stage from, Stage to){
+        long fromTime = times[from.ordinal()];
+        long toTime = times[to.ordinal()];
+        if(fromTime == 0 || toTime == 0){
+            return -1;
+        }
+        return (toTime - fromTime) / 1000000f;
+    }
+
+    /**
+     * 获取图片来源
+     */
+    public ImageFrom getImageFrom() {
+        return imageFrom;
+    }
+
+    /**
+     * 获取下载的字节数，没有下载时返回-1
+     */
+    public long getDownloadBytes() {
+        return downloadBytes;
+    }
+
+    public int getOriginalWidth() {
+        return originalWidth;
+    }
+
+    public int getOriginalHeight() {
+        return originalHeight;
+    }
+
+    /**
+     * 获取解码时使用的缩放比例，没有解码时返回0
+     */
+    public int getInSampleSize() {
+        return inSampleSize;
+    }
+
+    public int getBitmapWidth() {
+        return bitmapWidth;
+    }
+
+    public int getBitmapHeight() {
+        return bitmapHeight;
+    }
+
+    /**
+     * 获取下载尝试的次数，包括第一次
+     */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+
+    /**
+     * 获取最终状态，COMPLETED、FAILED或CANCELED
+     */
+    public Request.Status getStatus() {
+        return status;
+    }
+
+    public FailureCause getFailureCause() {
+        return failureCause;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RequestMetrics{");
+        builder.append("uri=").append(uri);
+        builder.append(", status=").append(status);
+        builder.append(", from=").append(imageFrom);
+        long queuedTime = times[Stage.QUEUED.ordinal()];
+        for(Stage stage : Stage.values()){
+            long time = times[stage.ordinal()];
+            if(stage != Stage.QUEUED && time != 0 && queuedTime != 0){
+                builder.append(", ").append(stage.name()).append("=+").append((time - queuedTime) / 1000000f).append("ms");
+            }
+        }
+        if(downloadBytes >= 0){
+            builder.append(", bytes=").append(downloadBytes);
+        }
+        if(originalWidth > 0){
+            builder.append(", original=").append(originalWidth).append("x").append(originalHeight);
+            builder.append(", inSampleSize=").append(inSampleSize);
+        }
+        if(bitmapWidth > 0){
+            builder.append(", bitmap=").append(bitmapWidth).append("x").append(bitmapHeight);
+        }
+        if(failureCause != null){
+            builder.append(", failureCause=").append(failureCause.name());
+        }
+        builder.append("}");
+        return builder.toString();
+    }
+
+    /**
+     * 阶段
+     */
+    public enum Stage{
+        /**
+         * 提交给RequestExecutor
+         */
+        QUEUED,
+
+        /**
+         * 开始分发，之前是在分发线程排队的时间
+         */
+        DISPATCHED,
+
+        /**
+         * 开始下载，之前是在网络线程排队的时间
+         */
+        DOWNLOAD_STARTED,
+
+        /**
+         * 读到了第一个字节
+         */
+        DOWNLOAD_FIRST_BYTE,
+
+        /**
+         * 下载完成
+         */
+        DOWNLOAD_FINISHED,
+
+        /**
+         * 开始解码，之前是在本地线程排队的时间
+         */
+        DECODE_STARTED,
+
+        /**
+         * 解码完成
+         */
+        DECODE_FINISHED,
+
+        /**
+         * 开始处理，之前是等待内存预算和在处理线程排队的时间
+         */
+        PROCESS_STARTED,
+
+        /**
+         * 处理完成
+         */
+        PROCESS_FINISHED,
+
+        /**
+         * 放进了内存缓存
+         */
+        MEMORY_PUT,
+
+        /**
+         * 在主线程显示完毕
+         */
+        DISPLAYED,
+
+        /**
+         * 请求结束
+         */
+        FINISHED,
+    }
+
+    /**
+     * 图片来源，比各个监听器里的ImageFrom分得更细
+     */
+    public enum ImageFrom{
+        /**
+         * 内存缓存，包括从更大的变体缩小
+         */
+        MEMORY,
+
+        /**
+         * 编码数据缓存
+         */
+        ENCODED_CACHE,
+
+        /**
+         * 磁盘缓存
+         */
+        DISK_CACHE,
+
+        /**
+         * 本地文件、assets、drawable、content等
+         */
+        LOCAL,
+
+        /**
+         * 网络
+         */
+        NETWORK,
+    }
+}
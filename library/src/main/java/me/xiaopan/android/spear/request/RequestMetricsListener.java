@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.request;
+
+/**
+ * 请求统计监听器，通过Configuration.setRequestMetricsListener()设置，没有设置时不会记录任何统计数据
+ */
+public interface RequestMetricsListener {
+    /**
+     * 请求结束了，包括成功、失败和取消，可能在任意线程回调，不要在这里做耗时的操作
+     * @param metrics 统计数据，回调之后不会再改变
+     */
+    public void onRequestFinished(RequestMetrics metrics);
+}
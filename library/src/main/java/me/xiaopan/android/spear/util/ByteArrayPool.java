@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 字节数组池，用来复用下载、读取数据时的缓冲区，减少内存分配和GC
+ */
+public class ByteArrayPool {
+    public static final int DEFAULT_BUFFER_SIZE = 8*1024;   // 默认缓冲区大小
+    private static final int DEFAULT_SIZE_LIMIT = 64*1024;  // 默认池子容量
+    private static volatile ByteArrayPool defaultPool;
+
+    private final int sizeLimit;
+    private final LinkedList<byte[]> buffersByLastUse = new LinkedList<byte[]>();
+    private final List<byte[]> buffersBySize = new ArrayList<byte[]>();
+    private int currentSize;
+
+    /**
+     * 创建一个字节数组池
+     * @param sizeLimit 池子中最多保留多少字节
+     */
+    public ByteArrayPool(int sizeLimit) {
+        this.sizeLimit = sizeLimit;
+    }
+
+    /**
+     * 获取默认的字节数组池，所有下载器共享
+     * @return 默认的字节数组池
+     */
+    public static ByteArrayPool getDefault(){
+        if(defaultPool == null){
+            synchronized (ByteArrayPool.class){
+                if(defaultPool == null){
+                    defaultPool = new ByteArrayPool(DEFAULT_SIZE_LIMIT);
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * 获取一个长度不小于len的字节数组，池子中没有合适的就新建一个
+     * @param len 最小长度
+     * @return 字节数组，内容不保证是空的
+     */
+    public synchronized byte[] getBuf(int len){
+        for(int w = 0; w < buffersBySize.size(); w++){
+            byte[] buf = buffersBySize.get(w);
+            if(buf.length >= len){
+                currentSize -= buf.length;
+                buffersBySize.remove(w);
+                buffersByLastUse.remove(buf);
+                return buf;
+            }
+        }
+        return new byte[len];
+    }
+
+    /**
+     * 归还字节数组，超出容量时会丢弃最久没用过的
+     * @param buf 字节数组
+     */
+    public synchronized void returnBuf(byte[] buf){
+        if(buf == null || buf.length > sizeLimit){
+            return;
+        }
+        buffersByLastUse.add(buf);
+        int index = 0;
+        while(index < buffersBySize.size() && buffersBySize.get(index).length < buf.length){
+            index++;
+        }
+        buffersBySize.add(index, buf);
+        currentSize += buf.length;
+        trim();
+    }
+
+    private void trim(){
+        while(currentSize > sizeLimit){
+            byte[] buf = buffersByLastUse.removeFirst();
+            buffersBySize.remove(buf);
+            currentSize -= buf.length;
+        }
+    }
+
+    /**
+     * 获取池子中当前保留的字节数
+     */
+    public synchronized int getCurrentSize() {
+        return currentSize;
+    }
+}
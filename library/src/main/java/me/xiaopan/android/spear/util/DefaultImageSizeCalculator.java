@@ -23,10 +23,17 @@ import android.widget.ImageView;
 
 import java.lang.reflect.Field;
 
+import me.xiaopan.android.spear.log.SLog;
+
 /**
  * 图片尺寸计算器
  */
 public class DefaultImageSizeCalculator implements ImageSizeCalculator{
+    private static final String NAME = "DefaultImageSizeCalculator";
+    private static volatile Field maxWidthField;   // 反射得到的字段只找一次
+    private static volatile Field maxHeightField;
+    private static volatile boolean maxWidthFieldLoaded;
+    private static volatile boolean maxHeightFieldLoaded;
     private ImageSize defaultMaxsize;
 
     @Override
@@ -74,34 +81,7 @@ public class DefaultImageSizeCalculator implements ImageSizeCalculator{
 
     @Override
     public int calculateInSampleSize(int outWidth, int outHeight, int targetWidth, int targetHeight) {
-        // 如果目标尺寸都小于等于0，那就别计算了没意义
-        if(targetWidth <= 0 && targetHeight <= 0){
-            return 1;
-        }
-
-        // 如果目标尺寸都大于等于原始尺寸，也别计算了没意义
-        if(targetWidth >= outWidth && targetHeight >= outHeight){
-            return 1;
-        }
-
-        // 首先根据缩放后只要有任何一边小于等于目标即可的规则计算一遍inSampleSize
-        int inSampleSize = 1;
-        do{
-            inSampleSize *= 2;
-        }while ((outWidth/inSampleSize) > targetWidth && (outHeight/inSampleSize) > targetHeight);
-
-        // 然后根据比较像素总数的原则过滤掉那些比较极端的一边特别小，一边特别大的图片
-        // 比如目标尺寸是400x400，图片的尺寸是6000*600，缩放后是3000*300
-        // 这样看来的确是满足了第一个条件了，但是图片的尺寸依然很大
-        // 因此这一步我们根据像素总数来过滤，规则是总像素数不得大于目标尺寸像素数的两倍
-        long totalPixels = (outWidth/inSampleSize) * (outHeight/inSampleSize);
-        final long totalReqPixelsCap = targetWidth * targetHeight * 2;
-        while (totalPixels > totalReqPixelsCap) {
-            inSampleSize *= 2;
-            totalPixels /= 2;
-        }
-
-        return inSampleSize;
+        return ImageSize.calculateInSampleSize(outWidth, outHeight, targetWidth, targetHeight);
     }
 
     public static int getWidth(ImageView imageView, boolean checkMaxWidth, boolean acceptWrapContent, boolean subtractPadding) {
@@ -151,17 +131,49 @@ public class DefaultImageSizeCalculator implements ImageSizeCalculator{
     }
 
     private static int getImageViewFieldValue(Object object, String fieldName) {
+        Field field = "mMaxWidth".equals(fieldName) ? getMaxWidthField() : getMaxHeightField();
+        if(field == null){
+            return 0;
+        }
         int value = 0;
         try {
-            Field field = ImageView.class.getDeclaredField(fieldName);
-            field.setAccessible(true);
             int fieldValue = (Integer) field.get(object);
             if (fieldValue > 0 && fieldValue < Integer.MAX_VALUE) {
                 value = fieldValue;
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            SLog.w(SLog.CATEGORY_REQUEST, NAME, "读取ImageView字段失败", e, fieldName);
         }
         return value;
     }
+
+    private static Field getMaxWidthField(){
+        if(!maxWidthFieldLoaded){
+            maxWidthField = findImageViewField("mMaxWidth");
+            maxWidthFieldLoaded = true;
+        }
+        return maxWidthField;
+    }
+
+    private static Field getMaxHeightField(){
+        if(!maxHeightFieldLoaded){
+            maxHeightField = findImageViewField("mMaxHeight");
+            maxHeightFieldLoaded = true;
+        }
+        return maxHeightField;
+    }
+
+    /**
+     * 查找ImageView的字段，找不到时返回null，之后也不会再找
+     */
+    private static Field findImageViewField(String fieldName){
+        try {
+            Field field = ImageView.class.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            SLog.w(SLog.CATEGORY_REQUEST, NAME, "查找ImageView字段失败", e, fieldName);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 可以直接访问内部数组的ByteArrayOutputStream，边下载边解码预览图时直接读取已下载的数据，不用再复制一份
+ */
+public class DirectByteArrayOutputStream extends ByteArrayOutputStream {
+
+    public DirectByteArrayOutputStream() {
+        super();
+    }
+
+    public DirectByteArrayOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * 获取内部数组，前size()个字节是已写入的数据；扩容时会换成新的数组，但已写入的数据在旧数组中不会再被修改
+     */
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+}
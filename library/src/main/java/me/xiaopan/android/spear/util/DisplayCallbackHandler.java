@@ -16,19 +16,22 @@
 
 package me.xiaopan.android.spear.util;
 
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.util.Log;
 import android.widget.ImageView;
 
-import me.xiaopan.android.spear.Spear;
 import me.xiaopan.android.spear.display.ImageDisplayer;
+import me.xiaopan.android.spear.display.ShapeImageDisplayer;
+import me.xiaopan.android.spear.execute.BitmapBudget;
+import me.xiaopan.android.spear.log.SLog;
 import me.xiaopan.android.spear.request.DisplayListener;
 import me.xiaopan.android.spear.request.DisplayRequest;
 import me.xiaopan.android.spear.request.Request;
+import me.xiaopan.android.spear.request.RequestMetrics;
 
 /**
  * 显示回调处理器
@@ -39,6 +42,7 @@ public class DisplayCallbackHandler implements Handler.Callback{
     private static final int WHAT_CALLBACK_FAILED = 103;
     private static final int WHAT_CALLBACK_CANCELED = 104;
     private static final int WHAT_CALLBACK_PROGRESS = 105;
+    private static final int WHAT_CALLBACK_PREVIEW = 106;
     private Handler handler;
 
     public DisplayCallbackHandler() {
@@ -51,9 +55,7 @@ public class DisplayCallbackHandler implements Handler.Callback{
             case WHAT_CALLBACK_COMPLETED:
                 DisplayRequest displayRequest = (DisplayRequest) msg.obj;
                 if(displayRequest.isCanceled()){
-                    if(Spear.isDebugMode()){
-                        Log.w(Spear.TAG, NAME+" - COMPLETED"+ "：" + "已取消显示" + "；" + displayRequest.getName());
-                    }
+                    SLog.d(SLog.CATEGORY_DISPLAY, NAME, "COMPLETED - 已取消显示", displayRequest.getName());
                     if(displayRequest.getDisplayListener() != null){
                         displayRequest.getDisplayListener().onCanceled();
                     }
@@ -62,9 +64,7 @@ public class DisplayCallbackHandler implements Handler.Callback{
 
                 ImageView imageView = displayRequest.getImageViewHolder().getImageView();
                 if(imageView == null){
-                    if(Spear.isDebugMode()){
-                        Log.w(Spear.TAG, NAME+" - COMPLETED" + "：" + "已取消显示（ImageView为null）" + "；" + displayRequest.getName());
-                    }
+                    SLog.d(SLog.CATEGORY_DISPLAY, NAME, "COMPLETED - 已取消显示（ImageView为null）", displayRequest.getName());
                     if(displayRequest.getDisplayListener() != null){
                         displayRequest.getDisplayListener().onCanceled();
                     }
@@ -76,6 +76,7 @@ public class DisplayCallbackHandler implements Handler.Callback{
                     imageDisplayer = displayRequest.getSpear().getConfiguration().getDefaultImageDisplayer();
                 }
                 imageDisplayer.display(imageView, displayRequest.getResultBitmap(), ImageDisplayer.BitmapType.SUCCESS, displayRequest);
+                displayRequest.markStage(RequestMetrics.Stage.DISPLAYED);
                 displayRequest.setStatus(Request.Status.COMPLETED);
 
                 if(displayRequest.getDisplayListener() != null){
@@ -89,12 +90,24 @@ public class DisplayCallbackHandler implements Handler.Callback{
                 }
                 displayRequestOnProgress.getProgressListener().onUpdateProgress(msg.arg1, msg.arg2);
                 return true;
+            case WHAT_CALLBACK_PREVIEW :
+                // 预览图也用AsyncDrawable包起来，这样ImageView跟请求的关联不会断
+                // 请求已经结束时预览图的预算已由请求自己释放了
+                DisplayRequest displayRequestOnPreview = (DisplayRequest) msg.obj;
+                if(displayRequestOnPreview.isCanceled() || displayRequestOnPreview.isFinished()){
+                    return true;
+                }
+                ImageView imageViewOnPreview = displayRequestOnPreview.getImageViewHolder().getImageView();
+                Bitmap previewBitmap = displayRequestOnPreview.getPreviewBitmap();
+                if(imageViewOnPreview != null && previewBitmap != null){
+                    imageViewOnPreview.setImageDrawable(new AsyncDrawable(imageViewOnPreview.getResources(), previewBitmap, displayRequestOnPreview));
+                    displayRequestOnPreview.onPreviewDisplayed(previewBitmap);
+                }
+                return true;
             case WHAT_CALLBACK_FAILED:
                 DisplayRequest displayRequestOnFail = (DisplayRequest) msg.obj;
                 if(displayRequestOnFail.isCanceled()){
-                    if(Spear.isDebugMode()){
-                        Log.w(Spear.TAG, NAME+" - FAILED" + "：" + "已取消显示" + "；" + displayRequestOnFail.getName());
-                    }
+                    SLog.d(SLog.CATEGORY_DISPLAY, NAME, "FAILED - 已取消显示", displayRequestOnFail.getName());
                     if(displayRequestOnFail.getDisplayListener() != null){
                         displayRequestOnFail.getDisplayListener().onCanceled();
                     }
@@ -103,9 +116,7 @@ public class DisplayCallbackHandler implements Handler.Callback{
 
                 ImageView imageViewOnFail = displayRequestOnFail.getImageViewHolder().getImageView();
                 if(imageViewOnFail == null){
-                    if(Spear.isDebugMode()){
-                        Log.w(Spear.TAG, NAME+" - FAILED" + "：" + "已取消显示（ImageView为null）" + "；" + displayRequestOnFail.getName());
-                    }
+                    SLog.d(SLog.CATEGORY_DISPLAY, NAME, "FAILED - 已取消显示（ImageView为null）", displayRequestOnFail.getName());
                     if(displayRequestOnFail.getDisplayListener() != null){
                         displayRequestOnFail.getDisplayListener().onCanceled();
                     }
@@ -131,6 +142,13 @@ public class DisplayCallbackHandler implements Handler.Callback{
         }
     }
 
+    /**
+     * 在主线程执行
+     */
+    public void post(Runnable runnable){
+        handler.post(runnable);
+    }
+
     public void startCallbackOnFire(DisplayListener displayListener){
         if(displayListener == null){
             return;
@@ -144,7 +162,11 @@ public class DisplayCallbackHandler implements Handler.Callback{
         handler.obtainMessage(WHAT_CALLBACK_COMPLETED, displayRequest).sendToTarget();
     }
 
-    public void completeCallbackOnFire(ImageView imageView, String uri, BitmapDrawable bitmapDrawable, DisplayListener displayListener, DisplayListener.ImageFrom imageFrom){
+    public void completeCallbackOnFire(ImageView imageView, String uri, BitmapDrawable bitmapDrawable, ImageDisplayer imageDisplayer, DisplayListener displayListener, DisplayListener.ImageFrom imageFrom){
+        // 从内存缓存中直接显示时不走显示器，但形状还是要加上
+        if(imageDisplayer instanceof ShapeImageDisplayer){
+            bitmapDrawable = ((ShapeImageDisplayer) imageDisplayer).applyShape(imageView.getResources(), bitmapDrawable);
+        }
         imageView.clearAnimation();
         imageView.setImageDrawable(bitmapDrawable);
         if(displayListener == null){
@@ -176,6 +198,16 @@ public class DisplayCallbackHandler implements Handler.Callback{
         handler.obtainMessage(WHAT_CALLBACK_CANCELED, displayListener).sendToTarget();
     }
 
+    /**
+     * 显示渐进式JPEG的预览图，会替换掉之前的预览图，最终的图片显示出来后就不再显示预览图了
+     * @param bitmapBudget 预览图申请预算的图片内存预算，预算由请求保管，预览图被替换掉或请求结束时释放
+     * @param bytes 申请的字节数
+     */
+    public void previewCallback(DisplayRequest request, Bitmap previewBitmap, BitmapBudget bitmapBudget, long bytes){
+        request.setPreviewBitmap(previewBitmap, bitmapBudget, bytes);
+        handler.obtainMessage(WHAT_CALLBACK_PREVIEW, request).sendToTarget();
+    }
+
     public void updateProgressCallback(DisplayRequest request, int totalLength, int completedLength){
         handler.obtainMessage(WHAT_CALLBACK_PROGRESS, totalLength, completedLength, request).sendToTarget();
     }
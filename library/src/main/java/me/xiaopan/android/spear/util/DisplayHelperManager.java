@@ -16,36 +16,91 @@
 
 package me.xiaopan.android.spear.util;
 
+import android.os.Looper;
 import android.widget.ImageView;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import me.xiaopan.android.spear.DisplayHelper;
 import me.xiaopan.android.spear.Spear;
 
 /**
  * DisplayHelper管理器
+ * <br>池子只在主线程使用，所以不需要加锁；在其它线程调用display()时每次都创建新的DisplayHelper，用完后也不会放回池子
  */
 public class DisplayHelperManager {
-    private Queue<DisplayHelper> displayHelperPool;
+    public static final int DEFAULT_MAX_POOL_SIZE = 8;
+
+    private DisplayHelper[] displayHelperPool;
+    private int poolSize;
+    private AtomicInteger hitCount = new AtomicInteger();
+    private AtomicInteger missCount = new AtomicInteger();
+    private AtomicInteger otherThreadCount = new AtomicInteger();
+
+    /**
+     * 创建DisplayHelper管理器
+     * @param maxPoolSize 池子最多保留多少个DisplayHelper
+     */
+    public DisplayHelperManager(int maxPoolSize) {
+        displayHelperPool = new DisplayHelper[maxPoolSize > 0 ? maxPoolSize : DEFAULT_MAX_POOL_SIZE];
+    }
 
     public DisplayHelperManager() {
-        displayHelperPool = new LinkedList<DisplayHelper>();
+        this(DEFAULT_MAX_POOL_SIZE);
     }
 
     public DisplayHelper getDisplayHelper(Spear spear, String uri, ImageView imageView){
-        if(displayHelperPool.isEmpty()){
+        if(!isMainThread()){
+            otherThreadCount.incrementAndGet();
+            return spear.getConfiguration().getHelperFactory().newDisplayHelper(spear, uri, imageView);
+        }
+
+        if(poolSize == 0){
+            missCount.incrementAndGet();
             return spear.getConfiguration().getHelperFactory().newDisplayHelper(spear, uri, imageView);
         }else{
-            return displayHelperPool.poll().reset(spear, uri, imageView);
+            hitCount.incrementAndGet();
+            DisplayHelper displayHelper = displayHelperPool[--poolSize];
+            displayHelperPool[poolSize] = null;
+            return displayHelper.reset(spear, uri, imageView);
         }
     }
 
     public void recoveryDisplayHelper(DisplayHelper displayHelper){
-        if(displayHelperPool.isEmpty()){
-            displayHelper.restoreDefault();
-            displayHelperPool.add(displayHelper);
+        if(displayHelper == null || !isMainThread() || poolSize >= displayHelperPool.length){
+            return;
         }
+        for(int w = 0; w < poolSize; w++){
+            if(displayHelperPool[w] == displayHelper){
+                return;
+            }
+        }
+        displayHelper.restoreDefault();
+        displayHelperPool[poolSize++] = displayHelper;
+    }
+
+    /**
+     * 获取从池子中取到DisplayHelper的次数
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * 获取在主线程中池子为空只能新建DisplayHelper的次数
+     */
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 获取在其它线程中调用而新建DisplayHelper的次数
+     */
+    public int getOtherThreadCount() {
+        return otherThreadCount.get();
+    }
+
+    private static boolean isMainThread(){
+        return Looper.myLooper() == Looper.getMainLooper();
     }
-}
\ No newline at end of file
+}
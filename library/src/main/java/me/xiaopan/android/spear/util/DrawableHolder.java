@@ -16,28 +16,35 @@
 
 package me.xiaopan.android.spear.util;
 
-import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 
+import me.xiaopan.android.spear.Configuration;
+import me.xiaopan.android.spear.cache.MemoryCacheKey;
 import me.xiaopan.android.spear.process.ImageProcessor;
 
+/**
+ * 默认图片持有器，只记录资源ID和是否处理，图片本身放在全局的内存缓存里，KEY是“placeholder://资源ID”，
+ * 所以相同资源、相同尺寸和处理器的默认图片在整个进程里只有一份，并且计入内存缓存的容量，内存不足时跟其它图片一起被淘汰
+ * <br>KEY跟显示“drawable://资源ID”时的分开，因为默认图片用的是不带引用计数的BitmapDrawable，两边互相覆盖的话会提前回收正在显示的图片
+ */
 public class DrawableHolder {
+    private static final String KEY_URI_PREFIX = "placeholder://";
+
     private int resId;	//当正在加载时显示的图片
     private boolean process;
-    private BitmapDrawable drawable;	//当加载地址为空时显示的图片
+    private String keyUri;
+
+    public int getResId() {
+        return resId;
+    }
 
     public void setResId(int resId) {
-        if(this.resId != resId && drawable != null){
-            if(!drawable.getBitmap().isRecycled()){
-                drawable.getBitmap().recycle();
-            }
-            drawable = null;
-        }
         this.resId = resId;
+        this.keyUri = resId > 0 ? KEY_URI_PREFIX + resId : null;
     }
 
     public boolean isProcess() {
@@ -45,49 +52,74 @@ public class DrawableHolder {
     }
 
     public void setProcess(boolean process) {
-        if(this.process != process && drawable != null){
-            if(!drawable.getBitmap().isRecycled()){
-                drawable.getBitmap().recycle();
-            }
-            drawable = null;
-        }
         this.process = process;
     }
 
-    public BitmapDrawable getDrawable(Context context, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor, boolean forceProcess) {
-        if(drawable == null && resId > 0){
-            boolean finished = false;
-            boolean process = forceProcess || this.process;
-            if(!process || imageProcessor == null){
-                Drawable defaultDrawable = context.getResources().getDrawable(resId);
-                if(defaultDrawable != null && defaultDrawable instanceof BitmapDrawable){
-                    drawable = (BitmapDrawable) defaultDrawable;
-                    finished = true;
-                }
+    /**
+     * 从内存缓存中获取默认图片，不会解码，可以放心在主线程调用
+     * @param lookupKey 用来查找的KEY，会被重新设置，调用方可以一直复用同一个实例
+     * @return 默认图片，还没有缓存时返回null
+     */
+    public BitmapDrawable getCachedDrawable(Configuration configuration, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor, boolean forceProcess, MemoryCacheKey lookupKey) {
+        if(keyUri == null){
+            return null;
+        }
+        BitmapDrawable drawable = configuration.getMemoryCache().get(setKey(lookupKey, resize, scaleType, imageProcessor, forceProcess));
+        if(drawable != null && (drawable.getBitmap() == null || drawable.getBitmap().isRecycled())){
+            return null;
+        }
+        return drawable;
+    }
+
+    /**
+     * 获取默认图片，内存缓存中没有就解码并放进内存缓存，最好不要在主线程调用
+     * @return 默认图片
+     */
+    public BitmapDrawable getDrawable(Configuration configuration, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor, boolean forceProcess) {
+        if(keyUri == null){
+            return null;
+        }
+        MemoryCacheKey key = setKey(new MemoryCacheKey(), resize, scaleType, imageProcessor, forceProcess);
+        BitmapDrawable drawable = configuration.getMemoryCache().get(key);
+        if(drawable != null && drawable.getBitmap() != null && !drawable.getBitmap().isRecycled()){
+            return drawable;
+        }
+
+        drawable = null;
+        boolean process = (forceProcess || this.process) && imageProcessor != null;
+        if(!process){
+            Drawable defaultDrawable = configuration.getContext().getResources().getDrawable(resId);
+            if(defaultDrawable != null && defaultDrawable instanceof BitmapDrawable){
+                drawable = (BitmapDrawable) defaultDrawable;
             }
+        }
 
-            if(!finished){
-                Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resId);
-                if(bitmap != null){
-                    if(process && imageProcessor != null){
-                        Bitmap newBitmap = imageProcessor.process(bitmap, resize, scaleType);
-                        if(newBitmap != bitmap){
-                            bitmap.recycle();
-                            bitmap = newBitmap;
-                        }
+        if(drawable == null){
+            Bitmap bitmap = BitmapFactory.decodeResource(configuration.getContext().getResources(), resId);
+            if(bitmap != null){
+                if(process){
+                    Bitmap newBitmap = imageProcessor.process(bitmap, resize, scaleType);
+                    if(newBitmap != bitmap){
+                        bitmap.recycle();
+                        bitmap = newBitmap;
                     }
-                    drawable = new BitmapDrawable(context.getResources(), bitmap);
                 }
+                drawable = new BitmapDrawable(configuration.getContext().getResources(), bitmap);
             }
         }
-        return drawable;
-    }
 
-    public void reset() {
-        this.drawable = null;
+        // 默认图片可能同时显示在很多地方，并且没有引用计数，所以只用普通的BitmapDrawable，被淘汰后交给GC回收
+        if(drawable != null && drawable.getBitmap() != null){
+            configuration.getMemoryCache().put(key, drawable);
+        }
+        return drawable;
     }
 
-    public BitmapDrawable getDrawable() {
-        return drawable;
+    private MemoryCacheKey setKey(MemoryCacheKey key, ImageSize resize, ImageView.ScaleType scaleType, ImageProcessor imageProcessor, boolean forceProcess){
+        if((forceProcess || process) && imageProcessor != null){
+            return key.set(keyUri, null, resize, scaleType != null ? scaleType.name() : null, imageProcessor.getFlag());
+        }else{
+            return key.set(keyUri, null, null, null, null);
+        }
     }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.util;
+
+/**
+ * 缓存数据访问器，用来在缓存的锁内逐个查看数据，不需要复制整个缓存
+ */
+public interface EntryVisitor<K, V> {
+    /**
+     * 访问一条数据，不要在这里操作缓存，也不要做耗时的操作
+     */
+    public void visit(K key, V value);
+}
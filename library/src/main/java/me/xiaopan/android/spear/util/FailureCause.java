@@ -39,4 +39,44 @@ public enum FailureCause {
      * 解码失败
      */
     DECODE_FAILED,
+
+    /**
+     * 下载失败，原因未知
+     */
+    DOWNLOAD_FAILED,
+
+    /**
+     * 网络超时
+     */
+    NETWORK_TIMEOUT,
+
+    /**
+     * 连接失败，例如连接被拒绝或被重置
+     */
+    CONNECTION_FAILED,
+
+    /**
+     * 域名解析失败
+     */
+    DNS_FAILED,
+
+    /**
+     * 服务器错误，状态码为5xx
+     */
+    HTTP_SERVER_ERROR,
+
+    /**
+     * 请求错误，状态码为4xx或其它非200的状态码
+     */
+    HTTP_CLIENT_ERROR,
+
+    /**
+     * 响应内容异常，例如内容长度为0
+     */
+    CONTENT_ERROR,
+
+    /**
+     * 此Host连续失败次数过多，已被暂时熔断
+     */
+    CIRCUIT_OPEN,
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.util;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import me.xiaopan.android.spear.decode.GifDecoder;
+
+/**
+ * 播放GIF的BitmapDrawable，只保留两张Bitmap轮流使用，一张用来显示，另一张在后台线程解码下一帧
+ * <br>ImageView调用setVisible(true, ...)时开始播放，不可见、从窗口上移除或被别的图片替换掉时暂停
+ * <br>所有的GifDrawable共用一个解码线程；同一个GifDrawable同时显示在多个ImageView上时，只有最后一个会刷新
+ */
+public class GifDrawable extends BitmapDrawable implements Animatable {
+    private static final int FRAME_BUFFER_COUNT = 2;
+    private static Handler decodeHandler;
+
+    private GifDecoder decoder;
+    private Bitmap[] frames;
+    private int frontIndex;
+    private int residentSize;
+    private Handler mainHandler;
+
+    private boolean running;
+    private boolean decoding;   // 下一帧是否正在解码，只在主线程读写
+    private boolean finished;   // 是否已经按GIF里设置的次数播放完了
+    private int playedCount;
+    private long nextFrameTime;
+
+    private Runnable decodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            decoder.advance();
+            decoder.writeTo(frames[(frontIndex + 1) % FRAME_BUFFER_COUNT]);
+            mainHandler.postAtTime(frameReadyRunnable, nextFrameTime);
+        }
+    };
+
+    private Runnable frameReadyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            decoding = false;
+            frontIndex = (frontIndex + 1) % FRAME_BUFFER_COUNT;
+            invalidateSelf();
+            nextFrameTime = SystemClock.uptimeMillis() + decoder.getCurrentFrameDelay();
+
+            if(decoder.getCurrentIndex() == decoder.getFrameCount() - 1){
+                playedCount++;
+                if(decoder.getPlayCount() > 0 && playedCount >= decoder.getPlayCount()){
+                    finished = true;
+                    running = false;
+                    return;
+                }
+            }
+            if(running && isVisible() && getCallback() != null){
+                decodeNextFrame();
+            }else{
+                running = false;
+            }
+        }
+    };
+
+    private GifDrawable(Resources res, GifDecoder decoder, Bitmap firstFrame) {
+        super(res, firstFrame);
+        this.decoder = decoder;
+        this.frames = new Bitmap[FRAME_BUFFER_COUNT];
+        this.frames[0] = firstFrame;
+        for(int w = 1; w < FRAME_BUFFER_COUNT; w++){
+            this.frames[w] = Bitmap.createBitmap(decoder.getOutWidth(), decoder.getOutHeight(), Bitmap.Config.ARGB_8888);
+        }
+        this.residentSize = firstFrame.getRowBytes() * firstFrame.getHeight() * FRAME_BUFFER_COUNT + decoder.getBufferSize();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.nextFrameTime = SystemClock.uptimeMillis() + decoder.getCurrentFrameDelay();
+    }
+
+    /**
+     * 估算按sampleSize播放时一直占用的内存，包括轮流使用的几帧和解码器的缓冲区
+     */
+    public static long estimateResidentSize(GifDecoder decoder, int sampleSize){
+        return decoder.estimateFrameSize(sampleSize) * FRAME_BUFFER_COUNT + decoder.estimateBufferSize(sampleSize);
+    }
+
+    /**
+     * 创建GifDrawable，会在当前线程解码第一帧
+     */
+    public static GifDrawable create(Resources res, GifDecoder decoder){
+        Bitmap firstFrame = Bitmap.createBitmap(decoder.getOutWidth(), decoder.getOutHeight(), Bitmap.Config.ARGB_8888);
+        decoder.advance();
+        decoder.writeTo(firstFrame);
+        return new GifDrawable(res, decoder, firstFrame);
+    }
+
+    private static synchronized Handler getDecodeHandler(){
+        if(decodeHandler == null){
+            HandlerThread handlerThread = new HandlerThread("SpearGifDecoder");
+            handlerThread.start();
+            decodeHandler = new Handler(handlerThread.getLooper());
+        }
+        return decodeHandler;
+    }
+
+    private void decodeNextFrame(){
+        decoding = true;
+        getDecodeHandler().post(decodeRunnable);
+    }
+
+    @Override
+    public void start() {
+        if(running || finished){
+            return;
+        }
+        running = true;
+        if(!decoding){
+            decodeNextFrame();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        if(visible){
+            if(restart){
+                finished = false;
+                playedCount = 0;
+            }
+            if(restart || changed){
+                start();
+            }
+        }else{
+            stop();
+        }
+        return changed;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Bitmap bitmap = frames[frontIndex];
+        if(bitmap != null && !bitmap.isRecycled()){
+            canvas.drawBitmap(bitmap, null, getBounds(), getPaint());
+        }
+    }
+
+    /**
+     * 获取当前显示的帧，getBitmap()返回的是轮流使用的其中一张，内容会随着播放改变
+     */
+    public Bitmap getCurrentFrame() {
+        return frames[frontIndex];
+    }
+
+    /**
+     * 获取一直占用的内存，包括两张轮流使用的Bitmap和解码器的缓冲区，内存缓存按这个计算大小
+     */
+    public int getResidentSize() {
+        return residentSize;
+    }
+
+    public int getFrameCount(){
+        return decoder.getFrameCount();
+    }
+
+    /**
+     * 回收所有帧，只能用在还没有显示过的GifDrawable上，例如放进内存缓存之前请求就被取消了
+     */
+    public void recycle(){
+        running = false;
+        finished = true;
+        for(Bitmap frame : frames){
+            if(frame != null && !frame.isRecycled()){
+                frame.recycle();
+            }
+        }
+    }
+}
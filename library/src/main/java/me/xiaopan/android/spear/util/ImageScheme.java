@@ -95,6 +95,48 @@ public enum ImageScheme {
             return getUriPrefix()+content;
         }
 
+        @Override
+        public String crop(String uri) {
+            if (!uri.startsWith(getUriPrefix())) {
+                throw new IllegalArgumentException(String.format("URI [%1$s] doesn't have expected scheme [%2$s]", uri, getUriPrefix()));
+            }
+            return uri.substring(getUriPrefix().length());
+        }
+    },
+
+    /**
+     * 已安装应用的图标，例如app://com.android.settings
+     */
+    APP("app://"){
+        @Override
+        public String createUri(String packageName){
+            if(packageName == null || "".equals(packageName.trim())){
+                return null;
+            }
+            return getUriPrefix()+packageName;
+        }
+
+        @Override
+        public String crop(String uri) {
+            if (!uri.startsWith(getUriPrefix())) {
+                throw new IllegalArgumentException(String.format("URI [%1$s] doesn't have expected scheme [%2$s]", uri, getUriPrefix()));
+            }
+            return uri.substring(getUriPrefix().length());
+        }
+    },
+
+    /**
+     * 本地视频文件，例如video:///sdcard/DCIM/a.mp4，显示的是视频里的一帧
+     */
+    VIDEO("video://"){
+        @Override
+        public String createUri(String content){
+            if(content == null || "".equals(content.trim())){
+                return null;
+            }
+            return getUriPrefix()+content;
+        }
+
         @Override
         public String crop(String uri) {
             if (!uri.startsWith(getUriPrefix())) {
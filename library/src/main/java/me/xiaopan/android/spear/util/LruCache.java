@@ -49,7 +49,9 @@ public class LruCache<K, V> {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        // Insertion order, entries are moved to the tail by get() and put()
+        // themselves so that peek() can read without reordering.
+        this.map = new LinkedHashMap<K, V>(0, 0.75f, false);
     }
 
     /**
@@ -65,8 +67,9 @@ public class LruCache<K, V> {
 
         V mapValue;
         synchronized (this) {
-            mapValue = map.get(key);
+            mapValue = map.remove(key);
             if (mapValue != null) {
+                map.put(key, mapValue);
                 hitCount++;
                 return mapValue;
             }
@@ -106,6 +109,17 @@ public class LruCache<K, V> {
         }
     }
 
+    /**
+     * Returns the value for {@code key} if it is in the cache, without moving
+     * it in the queue, counting a hit or miss, or calling {@link #create}.
+     */
+    public synchronized final V peek(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return map.get(key);
+    }
+
     /**
      * Caches {@code value} for {@code key}. The value is moved to the head of
      * the queue.
@@ -121,7 +135,8 @@ public class LruCache<K, V> {
         synchronized (this) {
             putCount++;
             size += safeSizeOf(key, value);
-            previous = map.put(key, value);
+            previous = map.remove(key);
+            map.put(key, value);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
             }
@@ -309,6 +324,24 @@ public class LruCache<K, V> {
         return evictionCount;
     }
 
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public synchronized final int entryCount() {
+        return map.size();
+    }
+
+    /**
+     * Visits every entry while holding the lock, ordered from least recently
+     * accessed to most recently accessed. Unlike {@link #snapshot()} nothing
+     * is copied, so the visitor must not touch the cache.
+     */
+    public synchronized final void visitEntries(EntryVisitor<K, V> visitor) {
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            visitor.visit(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * Returns a readData of the current contents of the cache, ordered from least
      * recently accessed to most recently accessed.
@@ -19,7 +19,8 @@ package me.xiaopan.android.spear.util;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
-import android.util.Log;
+
+import me.xiaopan.android.spear.log.SLog;
 
 /**
  * A BitmapDrawable that keeps track of whether it is being displayed or cached.
@@ -81,7 +82,7 @@ public class RecyclingBitmapDrawable extends BitmapDrawable {
         // If the drawable cache and display ref counts = 0, and this drawable
         // has been displayed, then recycle
         if (mCacheRefCount <= 0 && mDisplayRefCount <= 0 && mHasBeenDisplayed && hasValidBitmap()) {
-            Log.d(NAME, "No longer being used or cached so recycling. " + toString());
+            SLog.d(SLog.CATEGORY_CACHE, NAME, "No longer being used or cached so recycling", this);
             getBitmap().recycle();
         }
     }
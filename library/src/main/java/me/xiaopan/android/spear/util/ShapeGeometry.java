@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.util;
+
+/**
+ * 计算形状图片在Drawable坐标系中的绘制区域
+ * <br>ImageView的CENTER_CROP等缩放方式会用矩阵把Drawable放大后裁掉超出的部分，圆角和圆形要画在能看到的那部分上，否则就会被一起裁掉
+ * <br>只用到基本类型，不依赖Android，方便在电脑上测试
+ */
+public class ShapeGeometry {
+    public static final int LEFT = 0;
+    public static final int TOP = 1;
+    public static final int RIGHT = 2;
+    public static final int BOTTOM = 3;
+
+    /**
+     * 计算绘制区域
+     * @param bounds Drawable的bounds，按LEFT、TOP、RIGHT、BOTTOM排列
+     * @param scaleX ImageView图片矩阵的X轴缩放比例
+     * @param scaleY ImageView图片矩阵的Y轴缩放比例
+     * @param translateX ImageView图片矩阵的X轴偏移
+     * @param translateY ImageView图片矩阵的Y轴偏移
+     * @param viewWidth ImageView去掉padding后的宽，小于等于0表示不知道，这时直接用bounds
+     * @param viewHeight ImageView去掉padding后的高
+     * @param circle 是否是圆形，是的话取可见区域中间的正方形
+     * @param out 结果，按LEFT、TOP、RIGHT、BOTTOM排列
+     */
+    public static void computeDrawRect(float[] bounds, float scaleX, float scaleY, float translateX, float translateY, int viewWidth, int viewHeight, boolean circle, float[] out){
+        float left = bounds[LEFT];
+        float top = bounds[TOP];
+        float right = bounds[RIGHT];
+        float bottom = bounds[BOTTOM];
+
+        // 把ImageView的内容区域反算回Drawable坐标系，跟bounds的交集就是能看到的部分
+        if(viewWidth > 0 && viewHeight > 0 && scaleX > 0 && scaleY > 0){
+            left = Math.max(left, -translateX / scaleX);
+            top = Math.max(top, -translateY / scaleY);
+            right = Math.max(left, Math.min(right, (viewWidth - translateX) / scaleX));
+            bottom = Math.max(top, Math.min(bottom, (viewHeight - translateY) / scaleY));
+        }
+
+        if(circle){
+            float radius = Math.min(right - left, bottom - top) / 2;
+            float centerX = (left + right) / 2;
+            float centerY = (top + bottom) / 2;
+            left = centerX - radius;
+            top = centerY - radius;
+            right = centerX + radius;
+            bottom = centerY + radius;
+        }
+
+        out[LEFT] = left;
+        out[TOP] = top;
+        out[RIGHT] = right;
+        out[BOTTOM] = bottom;
+    }
+}
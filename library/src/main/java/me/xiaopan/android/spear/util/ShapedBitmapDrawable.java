@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.widget.ImageView;
+
+/**
+ * 在绘制时通过BitmapShader裁剪成圆角或圆形的BitmapDrawable，跟原图共用同一个Bitmap，不会额外占用内存
+ * <br>形状画在ImageView按ScaleType缩放、裁剪后能看到的区域上，所以CENTER_CROP的图片也能看到完整的圆角，圆角在屏幕上的大小也不会跟着缩放
+ */
+public class ShapedBitmapDrawable extends BitmapDrawable {
+    private BitmapDrawable sourceDrawable;
+    private float roundPixels;
+    private boolean circle;
+    private Matrix shaderMatrix;
+    private RectF drawRect;
+    private float[] boundsValues = new float[4];
+    private float[] drawRectValues = new float[4];
+    private float[] imageMatrixValues = new float[9];
+
+    /**
+     * 创建一个形状BitmapDrawable
+     * @param resources Resources
+     * @param sourceDrawable 原图，通常是内存缓存中的那个
+     * @param roundPixels 圆角度数，circle为true时无效
+     * @param circle 是否是圆形
+     */
+    public ShapedBitmapDrawable(Resources resources, BitmapDrawable sourceDrawable, float roundPixels, boolean circle) {
+        super(resources, sourceDrawable.getBitmap());
+        this.sourceDrawable = sourceDrawable;
+        this.roundPixels = roundPixels;
+        this.circle = circle;
+        this.shaderMatrix = new Matrix();
+        this.drawRect = new RectF();
+
+        Bitmap bitmap = getBitmap();
+        if(bitmap != null){
+            getPaint().setShader(new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        }
+        getPaint().setAntiAlias(true);
+    }
+
+    /**
+     * 获取原图
+     */
+    public BitmapDrawable getSourceDrawable() {
+        return sourceDrawable;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        super.onBoundsChange(bounds);
+        Bitmap bitmap = getBitmap();
+        if(bitmap == null || bitmap.getWidth() == 0 || bitmap.getHeight() == 0){
+            return;
+        }
+
+        // 图片铺满bounds，ImageView的矩阵会在画布上再做一次缩放和平移，跟普通的BitmapDrawable一样；圆形的bounds是正方形，所以按CENTER_CROP的方式铺
+        int bitmapWidth = bitmap.getWidth();
+        int bitmapHeight = bitmap.getHeight();
+        if(circle){
+            float scale = Math.max((float) bounds.width() / bitmapWidth, (float) bounds.height() / bitmapHeight);
+            shaderMatrix.setScale(scale, scale);
+            shaderMatrix.postTranslate(bounds.left + (bounds.width() - bitmapWidth * scale) / 2, bounds.top + (bounds.height() - bitmapHeight * scale) / 2);
+        }else{
+            shaderMatrix.setScale((float) bounds.width() / bitmapWidth, (float) bounds.height() / bitmapHeight);
+            shaderMatrix.postTranslate(bounds.left, bounds.top);
+        }
+        if(getPaint().getShader() != null){
+            getPaint().getShader().setLocalMatrix(shaderMatrix);
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Bitmap bitmap = getBitmap();
+        if(bitmap == null || bitmap.isRecycled()){
+            return;
+        }
+
+        // ImageView的矩阵每次布局都可能变，所以每次绘制时都重新算一下能看到的区域
+        Rect bounds = getBounds();
+        boundsValues[ShapeGeometry.LEFT] = bounds.left;
+        boundsValues[ShapeGeometry.TOP] = bounds.top;
+        boundsValues[ShapeGeometry.RIGHT] = bounds.right;
+        boundsValues[ShapeGeometry.BOTTOM] = bounds.bottom;
+        ImageView imageView = getImageView();
+        float scaleX = 1;
+        float scaleY = 1;
+        if(imageView != null && imageView.getScaleType() != ImageView.ScaleType.FIT_XY){
+            imageView.getImageMatrix().getValues(imageMatrixValues);
+            scaleX = imageMatrixValues[Matrix.MSCALE_X];
+            scaleY = imageMatrixValues[Matrix.MSCALE_Y];
+            int viewWidth = imageView.getWidth() - imageView.getPaddingLeft() - imageView.getPaddingRight();
+            int viewHeight = imageView.getHeight() - imageView.getPaddingTop() - imageView.getPaddingBottom();
+            ShapeGeometry.computeDrawRect(boundsValues, scaleX, scaleY, imageMatrixValues[Matrix.MTRANS_X], imageMatrixValues[Matrix.MTRANS_Y], viewWidth, viewHeight, circle, drawRectValues);
+        }else{
+            ShapeGeometry.computeDrawRect(boundsValues, 1, 1, 0, 0, 0, 0, circle, drawRectValues);
+        }
+        drawRect.set(drawRectValues[ShapeGeometry.LEFT], drawRectValues[ShapeGeometry.TOP], drawRectValues[ShapeGeometry.RIGHT], drawRectValues[ShapeGeometry.BOTTOM]);
+
+        if(circle){
+            canvas.drawOval(drawRect, getPaint());
+        }else{
+            // 画布被ImageView的矩阵缩放过，圆角要反过来缩放才能保持在屏幕上的大小
+            canvas.drawRoundRect(drawRect, scaleX > 0 ? roundPixels / scaleX : roundPixels, scaleY > 0 ? roundPixels / scaleY : roundPixels, getPaint());
+        }
+    }
+
+    /**
+     * 获取显示自己的ImageView，放在TransitionDrawable里时要再往上找；Drawable.getCallback()从3.0才有，之前的版本返回null，直接按bounds画形状
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private ImageView getImageView(){
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB){
+            return null;
+        }
+        Callback callback = getCallback();
+        while(callback instanceof Drawable){
+            callback = ((Drawable) callback).getCallback();
+        }
+        return callback instanceof ImageView ? (ImageView) callback : null;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return circle ? Math.min(super.getIntrinsicWidth(), super.getIntrinsicHeight()) : super.getIntrinsicWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return circle ? Math.min(super.getIntrinsicWidth(), super.getIntrinsicHeight()) : super.getIntrinsicHeight();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
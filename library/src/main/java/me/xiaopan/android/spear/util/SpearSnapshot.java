@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.util;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import me.xiaopan.android.spear.Configuration;
+import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.cache.EncodedCache;
+import me.xiaopan.android.spear.cache.LruMemoryCache;
+import me.xiaopan.android.spear.cache.MemoryCache;
+import me.xiaopan.android.spear.cache.MemoryCacheKey;
+import me.xiaopan.android.spear.cache.MemoryCacheStats;
+import me.xiaopan.android.spear.download.DownloadTracker;
+import me.xiaopan.android.spear.execute.BitmapBudget;
+import me.xiaopan.android.spear.execute.DefaultRequestExecutor;
+import me.xiaopan.android.spear.execute.HostFairExecutor;
+import me.xiaopan.android.spear.execute.RequestExecutor;
+
+/**
+ * Spear的运行状态快照，包括内存缓存、编码数据缓存、磁盘缓存、执行器队列、正在下载的请求和占用内存最多的图片
+ * <br>采集时不复制缓存，只在缓存的锁里遍历一次，磁盘缓存的统计5秒内只扫描一次，所以可以定期采集用于监控
+ */
+public class SpearSnapshot {
+    public static final int DEFAULT_LARGEST_BITMAP_COUNT = 10;
+
+    private long time;
+    private MemoryCacheStats memoryCacheStats;
+    private int diskCacheFileCount;
+    private long diskCacheSize;
+    private int encodedCacheEntryCount;
+    private long encodedCacheSize;
+    private long encodedCacheMaxSize = -1;  // -1表示没有编码数据缓存
+    private List<ExecutorStats> executorStatsList;
+    private long processBitmapInFlightBytes;
+    private long processBitmapMaxBytes;
+    private List<DownloadTracker.DownloadInfo> downloads;
+    private List<BitmapInfo> largestBitmaps;
+
+    private SpearSnapshot() {
+    }
+
+    /**
+     * 采集快照
+     * @param configuration 配置
+     * @param largestBitmapCount 最多记录多少张占用内存最多的图片，小于等于0时不记录
+     */
+    public static SpearSnapshot capture(Configuration configuration, int largestBitmapCount){
+        SpearSnapshot snapshot = new SpearSnapshot();
+        snapshot.time = System.currentTimeMillis();
+
+        MemoryCache memoryCache = configuration.getMemoryCache();
+        snapshot.memoryCacheStats = memoryCache.getStats();
+        snapshot.largestBitmaps = findLargestBitmaps(memoryCache, largestBitmapCount);
+
+        DiskCache diskCache = configuration.getDiskCache();
+        snapshot.diskCacheFileCount = diskCache.getFileCount();
+        snapshot.diskCacheSize = diskCache.getSize();
+
+        EncodedCache encodedCache = configuration.getEncodedCache();
+        if(encodedCache != null){
+            snapshot.encodedCacheEntryCount = encodedCache.getEntryCount();
+            snapshot.encodedCacheSize = encodedCache.getSize();
+            snapshot.encodedCacheMaxSize = encodedCache.getMaxSize();
+        }
+
+        RequestExecutor requestExecutor = configuration.getRequestExecutor();
+        snapshot.executorStatsList = new ArrayList<ExecutorStats>(5);
+        if(requestExecutor instanceof DefaultRequestExecutor){
+            snapshot.executorStatsList.add(ExecutorStats.of("dispatch", ((DefaultRequestExecutor) requestExecutor).getTaskDispatchExecutor()));
+        }
+        snapshot.executorStatsList.add(ExecutorStats.of("net", requestExecutor.getNetTaskExecutor()));
+        snapshot.executorStatsList.add(ExecutorStats.of("local", requestExecutor.getLocalTaskExecutor()));
+        snapshot.executorStatsList.add(ExecutorStats.of("process", requestExecutor.getProcessTaskExecutor()));
+        snapshot.executorStatsList.add(ExecutorStats.of("placeholder", requestExecutor.getPlaceholderExecutor()));
+
+        BitmapBudget bitmapBudget = requestExecutor.getProcessBitmapBudget();
+        if(bitmapBudget != null){
+            snapshot.processBitmapInFlightBytes = bitmapBudget.getInFlightBytes();
+            snapshot.processBitmapMaxBytes = bitmapBudget.getMaxBytes();
+        }
+
+        snapshot.downloads = configuration.getDownloadTracker().getDownloads();
+        return snapshot;
+    }
+
+    /**
+     * 用一个大小为count的小顶堆找出占用内存最多的图片，不需要对所有图片排序
+     */
+    private static List<BitmapInfo> findLargestBitmaps(MemoryCache memoryCache, final int count){
+        if(count <= 0){
+            return Collections.emptyList();
+        }
+        final PriorityQueue<BitmapInfo> heap = new PriorityQueue<BitmapInfo>(count, BitmapInfo.SIZE_COMPARATOR);
+        memoryCache.visitEntries(new EntryVisitor<MemoryCacheKey, BitmapDrawable>() {
+            @Override
+            public void visit(MemoryCacheKey key, BitmapDrawable value) {
+                int size = LruMemoryCache.sizeOf(value);
+                if(heap.size() >= count){
+                    if(size <= heap.peek().size){
+                        return;
+                    }
+                    heap.poll();
+                }
+                Bitmap bitmap = value.getBitmap();
+                heap.add(new BitmapInfo(key.toString(), bitmap != null ? bitmap.getWidth() : 0, bitmap != null ? bitmap.getHeight() : 0, size));
+            }
+        });
+        List<BitmapInfo> largestBitmaps = new ArrayList<BitmapInfo>(heap);
+        Collections.sort(largestBitmaps, Collections.reverseOrder(BitmapInfo.SIZE_COMPARATOR));
+        return largestBitmaps;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * 获取内存缓存的统计信息，分区的统计信息通过MemoryCacheStats.getPartitions()获取
+     */
+    public MemoryCacheStats getMemoryCacheStats() {
+        return memoryCacheStats;
+    }
+
+    public int getDiskCacheFileCount() {
+        return diskCacheFileCount;
+    }
+
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    public int getEncodedCacheEntryCount() {
+        return encodedCacheEntryCount;
+    }
+
+    public long getEncodedCacheSize() {
+        return encodedCacheSize;
+    }
+
+    /**
+     * 获取编码数据缓存的最大字节数，没有编码数据缓存时为-1
+     */
+    public long getEncodedCacheMaxSize() {
+        return encodedCacheMaxSize;
+    }
+
+    /**
+     * 获取每个执行器的活动线程数和排队任务数
+     */
+    public List<ExecutorStats> getExecutorStatsList() {
+        return executorStatsList;
+    }
+
+    /**
+     * 获取等待处理的图片占用的字节数
+     */
+    public long getProcessBitmapInFlightBytes() {
+        return processBitmapInFlightBytes;
+    }
+
+    public long getProcessBitmapMaxBytes() {
+        return processBitmapMaxBytes;
+    }
+
+    /**
+     * 获取正在下载的请求
+     */
+    public List<DownloadTracker.DownloadInfo> getDownloads() {
+        return downloads;
+    }
+
+    /**
+     * 获取占用内存最多的图片，按占用的字节数从大到小排列
+     */
+    public List<BitmapInfo> getLargestBitmaps() {
+        return largestBitmaps;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("SpearSnapshot@").append(time).append("\n");
+        appendMemoryCacheStats(builder, memoryCacheStats, "memory");
+        if(memoryCacheStats.getPartitions() != null){
+            for(MemoryCacheStats partition : memoryCacheStats.getPartitions()){
+                appendMemoryCacheStats(builder, partition, "  partition");
+            }
+        }
+        builder.append("disk：files=").append(diskCacheFileCount)
+                .append("；size=").append(diskCacheSize).append("\n");
+        builder.append("encoded：entries=").append(encodedCacheEntryCount)
+                .append("；size=").append(encodedCacheSize).append("/").append(encodedCacheMaxSize).append("\n");
+        for(ExecutorStats executorStats : executorStatsList){
+            builder.append("executor：").append(executorStats.name)
+                    .append("；active=").append(executorStats.activeCount)
+                    .append("；queued=").append(executorStats.queuedCount).append("\n");
+        }
+        builder.append("processBitmapBudget：").append(processBitmapInFlightBytes).append("/").append(processBitmapMaxBytes).append("\n");
+        builder.append("downloads：").append(downloads.size()).append("\n");
+        for(DownloadTracker.DownloadInfo download : downloads){
+            builder.append("  ").append(download.getUri())
+                    .append("；attempt=").append(download.getAttemptCount())
+                    .append("；progress=").append(download.getCompletedLength()).append("/").append(download.getTotalLength())
+                    .append("；elapsed=").append(download.getElapsedTime()).append("ms\n");
+        }
+        builder.append("largestBitmaps：").append(largestBitmaps.size()).append("\n");
+        for(BitmapInfo bitmapInfo : largestBitmaps){
+            builder.append("  ").append(bitmapInfo.key)
+                    .append("；").append(bitmapInfo.width).append("x").append(bitmapInfo.height)
+                    .append("；bytes=").append(bitmapInfo.size).append("\n");
+        }
+        return builder.toString();
+    }
+
+    private static void appendMemoryCacheStats(StringBuilder builder, MemoryCacheStats stats, String label){
+        builder.append(label).append("：").append(stats.getName())
+                .append("；entries=").append(stats.getEntryCount())
+                .append("；size=").append(stats.getSize()).append("/").append(stats.getMaxSize())
+                .append("；pinned=").append(stats.getPinnedSize())
+                .append("；hit=").append(stats.getHitCount())
+                .append("；miss=").append(stats.getMissCount())
+                .append("；put=").append(stats.getPutCount())
+                .append("；eviction=").append(stats.getEvictionCount()).append("\n");
+    }
+
+    /**
+     * 转换成JSON字符串，方便上报
+     */
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"time\":").append(time);
+        builder.append(",\"memoryCache\":");
+        appendMemoryCacheStatsJson(builder, memoryCacheStats);
+        builder.append(",\"diskCache\":{\"fileCount\":").append(diskCacheFileCount)
+                .append(",\"size\":").append(diskCacheSize).append("}");
+        builder.append(",\"encodedCache\":{\"entryCount\":").append(encodedCacheEntryCount)
+                .append(",\"size\":").append(encodedCacheSize)
+                .append(",\"maxSize\":").append(encodedCacheMaxSize).append("}");
+        builder.append(",\"executors\":[");
+        for(int w = 0; w < executorStatsList.size(); w++){
+            ExecutorStats executorStats = executorStatsList.get(w);
+            if(w > 0){
+                builder.append(",");
+            }
+            builder.append("{\"name\":");
+            appendJsonString(builder, executorStats.name);
+            builder.append(",\"active\":").append(executorStats.activeCount)
+                    .append(",\"queued\":").append(executorStats.queuedCount).append("}");
+        }
+        builder.append("]");
+        builder.append(",\"processBitmapBudget\":{\"inFlightBytes\":").append(processBitmapInFlightBytes)
+                .append(",\"maxBytes\":").append(processBitmapMaxBytes).append("}");
+        builder.append(",\"downloads\":[");
+        for(int w = 0; w < downloads.size(); w++){
+            DownloadTracker.DownloadInfo download = downloads.get(w);
+            if(w > 0){
+                builder.append(",");
+            }
+            builder.append("{\"uri\":");
+            appendJsonString(builder, download.getUri());
+            builder.append(",\"attempt\":").append(download.getAttemptCount())
+                    .append(",\"totalLength\":").append(download.getTotalLength())
+                    .append(",\"completedLength\":").append(download.getCompletedLength())
+                    .append(",\"elapsedTime\":").append(download.getElapsedTime()).append("}");
+        }
+        builder.append("]");
+        builder.append(",\"largestBitmaps\":[");
+        for(int w = 0; w < largestBitmaps.size(); w++){
+            BitmapInfo bitmapInfo = largestBitmaps.get(w);
+            if(w > 0){
+                builder.append(",");
+            }
+            builder.append("{\"key\":");
+            appendJsonString(builder, bitmapInfo.key);
+            builder.append(",\"width\":").append(bitmapInfo.width)
+                    .append(",\"height\":").append(bitmapInfo.height)
+                    .append(",\"size\":").append(bitmapInfo.size).append("}");
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    private static void appendMemoryCacheStatsJson(StringBuilder builder, MemoryCacheStats stats){
+        builder.append("{\"name\":");
+        appendJsonString(builder, stats.getName());
+        builder.append(",\"entryCount\":").append(stats.getEntryCount())
+                .append(",\"size\":").append(stats.getSize())
+                .append(",\"maxSize\":").append(stats.getMaxSize())
+                .append(",\"pinnedSize\":").append(stats.getPinnedSize())
+                .append(",\"hitCount\":").append(stats.getHitCount())
+                .append(",\"missCount\":").append(stats.getMissCount())
+                .append(",\"putCount\":").append(stats.getPutCount())
+                .append(",\"evictionCount\":").append(stats.getEvictionCount());
+        List<MemoryCacheStats> partitions = stats.getPartitions();
+        if(partitions != null){
+            builder.append(",\"partitions\":[");
+            for(int w = 0; w < partitions.size(); w++){
+                if(w > 0){
+                    builder.append(",");
+                }
+                appendMemoryCacheStatsJson(builder, partitions.get(w));
+            }
+            builder.append("]");
+        }
+        builder.append("}");
+    }
+
+    private static void appendJsonString(StringBuilder builder, String value){
+        if(value == null){
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for(int w = 0; w < value.length(); w++){
+            char c = value.charAt(w);
+            switch (c){
+                case '"' : builder.append("\\\""); break;
+                case '\\' : builder.append("\\\\"); break;
+                case '\n' : builder.append("\\n"); break;
+                case '\r' : builder.append("\\r"); break;
+                case '\t' : builder.append("\\t"); break;
+                default :
+                    if(c < 0x20){
+                        builder.append(String.format("\\u%04x", (int) c));
+                    }else{
+                        builder.append(c);
+                    }
+                    break;
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * 执行器的统计信息，不知道如何统计的执行器用-1表示
+     */
+    public static class ExecutorStats {
+        private String name;
+        private int activeCount;
+        private int queuedCount;
+
+        public ExecutorStats(String name, int activeCount, int queuedCount) {
+            this.name = name;
+            this.activeCount = activeCount;
+            this.queuedCount = queuedCount;
+        }
+
+        static ExecutorStats of(String name, Executor executor){
+            if(executor instanceof ThreadPoolExecutor){
+                ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
+                return new ExecutorStats(name, threadPoolExecutor.getActiveCount(), threadPoolExecutor.getQueue().size());
+            }else if(executor instanceof HostFairExecutor){
+                HostFairExecutor hostFairExecutor = (HostFairExecutor) executor;
+                return new ExecutorStats(name, hostFairExecutor.getActiveCount(), hostFairExecutor.getQueuedCount());
+            }else{
+                return new ExecutorStats(name, -1, -1);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        public int getQueuedCount() {
+            return queuedCount;
+        }
+    }
+
+    /**
+     * 内存缓存中的一张图片
+     */
+    public static class BitmapInfo {
+        private static final Comparator<BitmapInfo> SIZE_COMPARATOR = new Comparator<BitmapInfo>() {
+            @Override
+            public int compare(BitmapInfo lhs, BitmapInfo rhs) {
+                return lhs.size < rhs.size ? -1 : (lhs.size == rhs.size ? 0 : 1);
+            }
+        };
+
+        private String key;
+        private int width;
+        private int height;
+        private int size;
+
+        public BitmapInfo(String key, int width, int height, int size) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.size = size;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * 获取占用的字节数
+         */
+        public int getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import java.io.File;
+
+import me.xiaopan.android.spear.Configuration;
+import me.xiaopan.android.spear.cache.DiskCache;
+import me.xiaopan.android.spear.download.BandwidthMeter;
+import me.xiaopan.android.spear.execute.HostFairExecutor;
+
+/**
+ * 基于URL模板的URI解析器，适用于支持通过参数指定图片尺寸的CDN
+ * <br>模板支持以下占位符：{uri}原始URI、{sep}分隔符（原始URI已有参数时为“&amp;”，否则为“?”）、{width}宽、{height}高
+ * <br>宽度会向上取整到固定的几档，这样同一张图片只会有少数几个变体，磁盘上已有不小于目标尺寸的变体时直接使用它；网络较差时会选择小一档的变体
+ */
+public class TemplateUriResolver implements UriResolver {
+    public static final String DEFAULT_TEMPLATE = "{uri}{sep}w={width}&h={height}";
+    private static final int[] DEFAULT_WIDTH_STEPS = {100, 200, 320, 480, 640, 800, 1080, 1440, 2048};
+
+    private String template;
+    private String[] hosts;
+    private int[] widthSteps = DEFAULT_WIDTH_STEPS;
+    private float poorBandwidthScale = 0.5f;
+    private float moderateBandwidthScale = 0.75f;
+
+    /**
+     * 创建URI解析器
+     * @param template URL模板，例如“{uri}{sep}w={width}&amp;h={height}”
+     * @param hosts 只改写这些Host的URI，不传表示改写所有网络图片
+     */
+    public TemplateUriResolver(String template, String... hosts) {
+        this.template = template != null ? template : DEFAULT_TEMPLATE;
+        this.hosts = hosts;
+    }
+
+    /**
+     * 使用默认模板创建URI解析器
+     * @param hosts 只改写这些Host的URI，不传表示改写所有网络图片
+     */
+    public TemplateUriResolver(String... hosts) {
+        this(DEFAULT_TEMPLATE, hosts);
+    }
+
+    /**
+     * 设置宽度档位
+     * @param widthSteps 宽度档位，必须从小到大排列
+     */
+    public void setWidthSteps(int... widthSteps) {
+        if(widthSteps != null && widthSteps.length > 0){
+            this.widthSteps = widthSteps;
+        }
+    }
+
+    /**
+     * 设置网络较差时目标尺寸的缩放比例
+     * @param poorBandwidthScale 带宽等级为POOR时的缩放比例，默认0.5
+     * @param moderateBandwidthScale 带宽等级为MODERATE时的缩放比例，默认0.75
+     */
+    public void setBandwidthScale(float poorBandwidthScale, float moderateBandwidthScale) {
+        this.poorBandwidthScale = poorBandwidthScale;
+        this.moderateBandwidthScale = moderateBandwidthScale;
+    }
+
+    @Override
+    public String resolve(Configuration configuration, String uri, ImageSize maxsize, ImageSize resize) {
+        ImageSize targetSize = resize != null ? resize : maxsize;
+        if(targetSize == null || targetSize.getWidth() <= 0 || targetSize.getHeight() <= 0 || !matchHost(uri)){
+            return uri;
+        }
+
+        // 磁盘上已有不小于目标尺寸的变体就直接用
+        int stepIndex = findStepIndex(targetSize.getWidth());
+        DiskCache diskCache = configuration.getDiskCache();
+        if(diskCache != null){
+            for(int w = stepIndex; w < widthSteps.length; w++){
+                String variantUri = buildUri(uri, widthSteps[w], targetSize);
+                File cacheFile = diskCache.getCacheFileByUri(variantUri);
+                if(cacheFile != null && cacheFile.exists()){
+                    return variantUri;
+                }
+            }
+        }
+
+        // 根据带宽选择变体
+        float scale = 1f;
+        BandwidthMeter.BandwidthClass bandwidthClass = configuration.getBandwidthMeter().getBandwidthClass();
+        if(bandwidthClass == BandwidthMeter.BandwidthClass.POOR){
+            scale = poorBandwidthScale;
+        }else if(bandwidthClass == BandwidthMeter.BandwidthClass.MODERATE){
+            scale = moderateBandwidthScale;
+        }
+        if(scale < 1f){
+            stepIndex = findStepIndex((int) (targetSize.getWidth() * scale));
+        }
+        return buildUri(uri, widthSteps[stepIndex], targetSize);
+    }
+
+    private boolean matchHost(String uri){
+        if(hosts == null || hosts.length == 0){
+            return true;
+        }
+        String host = HostFairExecutor.parseHost(uri);
+        if(host == null){
+            return false;
+        }
+        for(String item : hosts){
+            if(host.equalsIgnoreCase(item)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int findStepIndex(int width){
+        for(int w = 0; w < widthSteps.length; w++){
+            if(widthSteps[w] >= width){
+                return w;
+            }
+        }
+        return widthSteps.length - 1;
+    }
+
+    private String buildUri(String uri, int width, ImageSize targetSize){
+        int height = Math.round((float) targetSize.getHeight() * width / targetSize.getWidth());
+        return template.replace("{uri}", uri)
+                .replace("{sep}", uri.indexOf('?') >= 0 ? "&" : "?")
+                .replace("{width}", String.valueOf(width))
+                .replace("{height}", String.valueOf(height));
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带准入过滤的缓存（W-TinyLFU），接口跟LruCache一样
+ * <br>新数据先进入只占1%容量的窗口区，从窗口区淘汰出来后要跟主区中最久没用的数据比较访问频率，频率更高才能进入主区，
+ * 所以快速滑过一长串只看一次的图片时，主区中经常用到的头像、图标不会被冲掉
+ * <br>主区分为试用区和保护区（占主区的80%），试用区的数据再次被访问时进入保护区
+ * <br>访问频率由一个4行的Count-Min Sketch估算，计数达到一定次数后全部减半，这样旧的热点会慢慢冷却
+ */
+public class TinyLfuCache<K, V> {
+    public static final int DEFAULT_SKETCH_WIDTH = 2048;
+
+    private final LinkedHashMap<K, V> windowMap;
+    private final LinkedHashMap<K, V> probationMap;
+    private final LinkedHashMap<K, V> protectedMap;
+    private final FrequencySketch sketch;
+
+    private int maxSize;
+    private int windowMaxSize;
+    private int mainMaxSize;
+    private int protectedMaxSize;
+
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+
+    private int putCount;
+    private int evictionCount;
+    private int rejectCount;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param maxSize 最大容量，没有重写sizeOf()时是最大条数
+     * @param sketchWidth 频率统计表每行的宽度，会向上取整到2的幂，应该不小于缓存可能容纳的最大条数
+     */
+    public TinyLfuCache(int maxSize, int sketchWidth) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        // 按插入顺序排列，访问时自己挪到末尾，这样peek()读取时不会改变顺序
+        this.windowMap = new LinkedHashMap<K, V>(0, 0.75f, false);
+        this.probationMap = new LinkedHashMap<K, V>(0, 0.75f, false);
+        this.protectedMap = new LinkedHashMap<K, V>(0, 0.75f, false);
+        this.sketch = new FrequencySketch(sketchWidth);
+        setMaxSize(maxSize);
+    }
+
+    public TinyLfuCache(int maxSize) {
+        this(maxSize, DEFAULT_SKETCH_WIDTH);
+    }
+
+    private void setMaxSize(int maxSize){
+        this.maxSize = maxSize;
+        this.windowMaxSize = Math.max(1, maxSize / 100);
+        this.mainMaxSize = maxSize - windowMaxSize;
+        this.protectedMaxSize = mainMaxSize * 8 / 10;
+    }
+
+    /**
+     * 获取数据，命中试用区的数据会被提升到保护区
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V value;
+        synchronized (this) {
+            sketch.increment(key);
+
+            value = moveToTail(windowMap, key);
+            if(value == null){
+                value = moveToTail(protectedMap, key);
+            }
+            if(value == null){
+                value = probationMap.remove(key);
+                if(value != null){
+                    int size = safeSizeOf(key, value);
+                    probationSize -= size;
+                    protectedMap.put(key, value);
+                    protectedSize += size;
+                    demoteProtected();
+                }
+            }
+
+            if(value != null){
+                hitCount++;
+            }else{
+                missCount++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 获取数据，但不调整顺序、不计入访问频率和命中统计
+     */
+    public synchronized final V peek(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V value = windowMap.get(key);
+        if(value == null){
+            value = probationMap.get(key);
+        }
+        if(value == null){
+            value = protectedMap.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * 放入数据，新数据先进入窗口区
+     * @return 被替换的旧数据
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous;
+        List<Evicted<K, V>> evictedList = new LinkedList<Evicted<K, V>>();
+        synchronized (this) {
+            putCount++;
+            sketch.increment(key);
+            int size = safeSizeOf(key, value);
+            if((previous = windowMap.remove(key)) != null){
+                windowMap.put(key, value);
+                windowSize += size - safeSizeOf(key, previous);
+            }else if((previous = probationMap.remove(key)) != null){
+                probationMap.put(key, value);
+                probationSize += size - safeSizeOf(key, previous);
+            }else if((previous = protectedMap.remove(key)) != null){
+                protectedMap.put(key, value);
+                protectedSize += size - safeSizeOf(key, previous);
+            }else{
+                previous = null;
+                windowMap.put(key, value);
+                windowSize += size;
+            }
+            evictWindow(evictedList);
+            evictMain(evictedList);
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evictedList);
+        return previous;
+    }
+
+    /**
+     * 删除数据
+     * @return 被删除的数据
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            previous = windowMap.remove(key);
+            if(previous != null){
+                windowSize -= safeSizeOf(key, previous);
+            }else if((previous = probationMap.remove(key)) != null){
+                probationSize -= safeSizeOf(key, previous);
+            }else if((previous = protectedMap.remove(key)) != null){
+                protectedSize -= safeSizeOf(key, previous);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * 按窗口区、试用区、保护区的顺序淘汰最久没用的数据，直到总容量不超过maxSize
+     */
+    public void trimToSize(int maxSize) {
+        List<Evicted<K, V>> evictedList = new LinkedList<Evicted<K, V>>();
+        synchronized (this) {
+            while(windowSize + probationSize + protectedSize > maxSize){
+                if(!windowMap.isEmpty()){
+                    windowSize -= evictEldest(windowMap, evictedList);
+                }else if(!probationMap.isEmpty()){
+                    probationSize -= evictEldest(probationMap, evictedList);
+                }else if(!protectedMap.isEmpty()){
+                    protectedSize -= evictEldest(protectedMap, evictedList);
+                }else{
+                    break;
+                }
+            }
+        }
+        notifyEvicted(evictedList);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * 窗口区超出容量时把最久没用的数据交给主区准入
+     */
+    private void evictWindow(List<Evicted<K, V>> evictedList){
+        while(windowSize > windowMaxSize && !windowMap.isEmpty()){
+            Map.Entry<K, V> candidate = windowMap.entrySet().iterator().next();
+            K key = candidate.getKey();
+            V value = candidate.getValue();
+            int size = safeSizeOf(key, value);
+            windowMap.remove(key);
+            windowSize -= size;
+            admit(key, value, size, evictedList);
+        }
+    }
+
+    /**
+     * 准入，候选数据的频率比主区的牺牲者高才能进入，否则直接淘汰候选数据
+     */
+    private void admit(K key, V value, int size, List<Evicted<K, V>> evictedList){
+        if(size > mainMaxSize){
+            reject(key, value, evictedList);
+            return;
+        }
+
+        int candidateFrequency = sketch.frequency(key);
+        while(probationSize + protectedSize + size > mainMaxSize){
+            LinkedHashMap<K, V> victimMap = !probationMap.isEmpty() ? probationMap : protectedMap;
+            if(victimMap.isEmpty()){
+                break;
+            }
+            K victimKey = victimMap.keySet().iterator().next();
+            if(candidateFrequency <= sketch.frequency(victimKey)){
+                reject(key, value, evictedList);
+                return;
+            }
+            int victimSize = evictEldest(victimMap, evictedList);
+            if(victimMap == probationMap){
+                probationSize -= victimSize;
+            }else{
+                protectedSize -= victimSize;
+            }
+        }
+        probationMap.put(key, value);
+        probationSize += size;
+    }
+
+    /**
+     * 主区超出容量时（例如替换了更大的数据）直接淘汰最久没用的数据
+     */
+    private void evictMain(List<Evicted<K, V>> evictedList){
+        while(probationSize + protectedSize > mainMaxSize){
+            if(!probationMap.isEmpty()){
+                probationSize -= evictEldest(probationMap, evictedList);
+            }else if(!protectedMap.isEmpty()){
+                protectedSize -= evictEldest(protectedMap, evictedList);
+            }else{
+                break;
+            }
+        }
+    }
+
+    /**
+     * 保护区超出容量时把最久没用的数据降回试用区
+     */
+    private void demoteProtected(){
+        while(protectedSize > protectedMaxSize && !protectedMap.isEmpty()){
+            Map.Entry<K, V> eldest = protectedMap.entrySet().iterator().next();
+            K key = eldest.getKey();
+            V value = eldest.getValue();
+            int size = safeSizeOf(key, value);
+            protectedMap.remove(key);
+            protectedSize -= size;
+            probationMap.put(key, value);
+            probationSize += size;
+        }
+    }
+
+    /**
+     * 把数据挪到最近使用的一端
+     * @return 不在map中时返回null
+     */
+    private static <K, V> V moveToTail(LinkedHashMap<K, V> map, K key){
+        V value = map.remove(key);
+        if(value != null){
+            map.put(key, value);
+        }
+        return value;
+    }
+
+    private int evictEldest(LinkedHashMap<K, V> map, List<Evicted<K, V>> evictedList){
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        Map.Entry<K, V> eldest = iterator.next();
+        K key = eldest.getKey();
+        V value = eldest.getValue();
+        iterator.remove();
+        evictionCount++;
+        evictedList.add(new Evicted<K, V>(key, value));
+        return safeSizeOf(key, value);
+    }
+
+    private void reject(K key, V value, List<Evicted<K, V>> evictedList){
+        rejectCount++;
+        evictionCount++;
+        evictedList.add(new Evicted<K, V>(key, value));
+    }
+
+    private void notifyEvicted(List<Evicted<K, V>> evictedList){
+        for(Evicted<K, V> evicted : evictedList){
+            entryRemoved(true, evicted.key, evicted.value, null);
+        }
+    }
+
+    /**
+     * 数据被淘汰、删除或替换时回调，调用时没有加锁
+     * @param evicted true：为了腾出空间而淘汰或者没能通过准入；false：被remove()删除或被put()替换
+     * @param newValue 替换它的新数据，为null表示是被淘汰或删除
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * 计算数据的大小，默认为1，数据在缓存中时大小不能改变
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public synchronized final int size() {
+        return windowSize + probationSize + protectedSize;
+    }
+
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized final int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized final int missCount() {
+        return missCount;
+    }
+
+    public synchronized final int putCount() {
+        return putCount;
+    }
+
+    public synchronized final int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 获取没能通过准入的次数
+     */
+    public synchronized final int rejectCount() {
+        return rejectCount;
+    }
+
+    /**
+     * 获取数据的条数
+     */
+    public synchronized final int entryCount() {
+        return windowMap.size() + probationMap.size() + protectedMap.size();
+    }
+
+    /**
+     * 在锁内依次访问所有数据，顺序跟snapshot()一样，不会复制数据，visitor里不要操作缓存
+     */
+    public synchronized final void visitEntries(EntryVisitor<K, V> visitor) {
+        visitEntries(windowMap, visitor);
+        visitEntries(probationMap, visitor);
+        visitEntries(protectedMap, visitor);
+    }
+
+    private static <K, V> void visitEntries(Map<K, V> map, EntryVisitor<K, V> visitor) {
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            visitor.visit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 获取当前所有数据，依次是窗口区、试用区、保护区，每个区内从最久没用到最近使用
+     */
+    public synchronized final Map<K, V> snapshot() {
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<K, V>(windowMap);
+        snapshot.putAll(probationMap);
+        snapshot.putAll(protectedMap);
+        return snapshot;
+    }
+
+    @Override public synchronized final String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("TinyLfuCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,rejects=%d]",
+                maxSize, hitCount, missCount, hitPercent, rejectCount);
+    }
+
+    private static class Evicted<K, V>{
+        private K key;
+        private V value;
+
+        private Evicted(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 4行的Count-Min Sketch，每个计数器最大15，累计计数达到宽度的10倍时全部减半
+     */
+    private static class FrequencySketch{
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0x2f2d7b39, 0x9e3779b9, 0x85ebca6b};
+
+        private byte[][] table;
+        private int mask;
+        private int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int width){
+            int tableWidth = 16;
+            while(tableWidth < width && tableWidth < (1 << 24)){
+                tableWidth <<= 1;
+            }
+            this.table = new byte[DEPTH][tableWidth];
+            this.mask = tableWidth - 1;
+            this.sampleSize = tableWidth * 10;
+        }
+
+        private void increment(Object key){
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for(int row = 0; row < DEPTH; row++){
+                int index = indexOf(hash, row);
+                if(table[row][index] < MAX_COUNT){
+                    table[row][index]++;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize){
+                reset();
+            }
+        }
+
+        private int frequency(Object key){
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for(int row = 0; row < DEPTH; row++){
+                frequency = Math.min(frequency, table[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void reset(){
+            for(byte[] row : table){
+                for(int w = 0; w < row.length; w++){
+                    row[w] = (byte) (row[w] >> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row){
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private static int spread(int hash){
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
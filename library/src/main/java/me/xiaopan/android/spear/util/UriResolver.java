@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Peng fei Pan <sky@xiaopan.me>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.xiaopan.android.spear.util;
+
+import me.xiaopan.android.spear.Configuration;
+
+/**
+ * URI解析器，在分发请求之前根据目标尺寸和当前带宽改写网络图片的URI，例如让服务器返回合适尺寸的图片
+ * <br>解析在任务调度线程中执行，不会阻塞主线程；内存缓存ID始终使用原始URI，不受解析结果影响
+ */
+public interface UriResolver {
+    /**
+     * 解析URI
+     * @param configuration 配置，可以从中拿到磁盘缓存和带宽测量器
+     * @param uri 原始URI，只有http和https的URI才会交给解析器
+     * @param maxsize 最大尺寸，可能为null
+     * @param resize 裁剪尺寸，可能为null
+     * @return 新的URI，不需要改写时直接返回uri
+     */
+    public String resolve(Configuration configuration, String uri, ImageSize maxsize, ImageSize resize);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Peng fei Pan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.sample.activity;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.xiaoapn.android.spear.sample.R;
+import me.xiaopan.android.inject.InjectContentView;
+import me.xiaopan.android.inject.InjectParentMember;
+import me.xiaopan.android.inject.InjectView;
+import me.xiaopan.android.spear.download.HttpClientImageDownloader;
+import me.xiaopan.android.spear.download.HttpUrlConnectionImageDownloader;
+import me.xiaopan.android.spear.download.ImageDownloader;
+import me.xiaopan.android.spear.download.OkHttpImageDownloader;
+import me.xiaopan.android.spear.sample.MyActionBarActivity;
+import me.xiaopan.android.spear.sample.loadtest.ImageServer;
+import me.xiaopan.android.spear.sample.loadtest.LoadTestRunner;
+
+/**
+ * 负载测试页面，启动本地图片服务器后依次用每一种ImageDownloader跑一轮，结果显示在页面上并输出到日志
+ * <br>通过adb启动：adb shell am start -n me.xiaoapn.android.imageloader/me.xiaopan.android.spear.sample.activity.LoadTestActivity --ei count 500 --ei rate 50 --ei corpus 200 --ez load true
+ */
+@InjectParentMember
+@InjectContentView(R.layout.activity_load_test)
+public class LoadTestActivity extends MyActionBarActivity {
+    public static final String PARAM_OPTIONAL_INT_COUNT = "count";
+    public static final String PARAM_OPTIONAL_INT_RATE = "rate";
+    public static final String PARAM_OPTIONAL_INT_CORPUS = "corpus";
+    public static final String PARAM_OPTIONAL_BOOLEAN_LOAD = "load";
+    private static final String TAG = "LoadTest";
+
+    @InjectView(R.id.text_loadTest_report) private TextView reportTextView;
+
+    private Thread testThread;
+    private ImageServer imageServer;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        final int requestCount = getIntent().getIntExtra(PARAM_OPTIONAL_INT_COUNT, 500);
+        final int requestRate = getIntent().getIntExtra(PARAM_OPTIONAL_INT_RATE, 50);
+        final int corpusSize = getIntent().getIntExtra(PARAM_OPTIONAL_INT_CORPUS, 200);
+        final boolean load = getIntent().getBooleanExtra(PARAM_OPTIONAL_BOOLEAN_LOAD, false);
+
+        testThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTest(requestCount, requestRate, corpusSize, load);
+            }
+        }, TAG);
+        testThread.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        testThread.interrupt();
+        if(imageServer != null){
+            imageServer.stop();
+        }
+        super.onDestroy();
+    }
+
+    private void runTest(int requestCount, int requestRate, int corpusSize, boolean load){
+        print("count=" + requestCount + ", rate=" + requestRate + "/s, corpus=" + corpusSize + ", " + (load ? "load()" : "download()"));
+        print("生成图片中...");
+        imageServer = new ImageServer(LoadTestRunner.createCorpus(corpusSize, 1));
+        try {
+            imageServer.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            print("启动图片服务器失败：" + e.getMessage());
+            return;
+        }
+
+        Map<String, ImageDownloader> imageDownloaders = new LinkedHashMap<String, ImageDownloader>();
+        imageDownloaders.put("HttpUrlConnection", new HttpUrlConnectionImageDownloader());
+        imageDownloaders.put("HttpClient", new HttpClientImageDownloader());
+        imageDownloaders.put("OkHttp", new OkHttpImageDownloader());
+
+        LoadTestRunner runner = new LoadTestRunner(getBaseContext(), imageServer)
+                .setRequestCount(requestCount)
+                .setRequestRate(requestRate)
+                .setLoad(load);
+        try {
+            for(Map.Entry<String, ImageDownloader> entry : imageDownloaders.entrySet()){
+                print(entry.getKey() + " 测试中...");
+                print(runner.run(entry.getKey(), entry.getValue()).toString());
+            }
+            print("完成，服务器共处理" + imageServer.getRequestCount() + "个请求");
+        } catch (InterruptedException e) {
+            print("已中断");
+        } finally {
+            runner.release();
+            imageServer.stop();
+        }
+    }
+
+    private void print(final String message){
+        Log.i(TAG, message);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                reportTextView.append(message + "\n\n");
+            }
+        });
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2013 Peng fei Pan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.sample.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只监听127.0.0.1的图片服务器，用来在没有网络的情况下给负载测试提供图片
+ * <br>地址格式为http://127.0.0.1:端口/image/序号.jpg，支持keep-alive、固定长度和chunked两种响应、首字节延迟以及错误状态码
+ */
+public class ImageServer {
+    private static final int CHUNK_SIZE = 8*1024;
+    private static final int SO_TIMEOUT = 30*1000;
+
+    private List<Entry> entries;
+    private ServerSocket serverSocket;
+    private ExecutorService executorService;
+    private volatile boolean running;
+    private AtomicInteger requestCount = new AtomicInteger();
+    private AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * 创建图片服务器
+     * @param entries 图片列表，序号就是在列表中的位置
+     */
+    public ImageServer(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * 启动，端口由系统分配
+     */
+    public synchronized void start() throws IOException {
+        if(running){
+            return;
+        }
+        serverSocket = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"));
+        executorService = Executors.newCachedThreadPool();
+        running = true;
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                while(running){
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executorService.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if(running){
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止，正在处理的连接会被关闭
+     */
+    public synchronized void stop(){
+        if(!running){
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executorService.shutdownNow();
+    }
+
+    /**
+     * 获取图片的地址
+     * @param index 序号
+     */
+    public String getUri(int index){
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/image/" + index + ".jpg";
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 获取总共处理了多少个HTTP请求，包括返回错误的
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 获取总共发送了多少字节的图片数据
+     */
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    private void serve(Socket socket){
+        try {
+            socket.setSoTimeout(SO_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+            while(running){
+                String requestLine = readLine(inputStream);
+                if(requestLine == null){
+                    break;
+                }
+                boolean keepAlive = true;
+                String headerLine;
+                while((headerLine = readLine(inputStream)) != null && headerLine.length() > 0){
+                    if(headerLine.toLowerCase().startsWith("connection:") && headerLine.toLowerCase().contains("close")){
+                        keepAlive = false;
+                    }
+                }
+                if(headerLine == null){
+                    break;
+                }
+
+                requestCount.incrementAndGet();
+                respond(requestLine, outputStream, keepAlive);
+                outputStream.flush();
+                if(!keepAlive){
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开或超时
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void respond(String requestLine, OutputStream outputStream, boolean keepAlive) throws IOException, InterruptedException {
+        Entry entry = findEntry(requestLine);
+        if(entry == null){
+            writeHead(outputStream, 404, "Not Found", 0, false, keepAlive);
+            return;
+        }
+
+        int hitCount = entry.hitCount.incrementAndGet();
+        if(entry.delay > 0){
+            Thread.sleep(entry.delay);
+        }
+        if(entry.errorCode > 0){
+            writeHead(outputStream, entry.errorCode, "Error", 0, false, keepAlive);
+            return;
+        }
+        if(hitCount <= entry.failTimes){
+            writeHead(outputStream, 503, "Service Unavailable", 0, false, keepAlive);
+            return;
+        }
+
+        byte[] data = entry.data;
+        writeHead(outputStream, 200, "OK", data.length, entry.chunked, keepAlive);
+        if(entry.chunked){
+            for(int offset = 0; offset < data.length; offset += CHUNK_SIZE){
+                int length = Math.min(CHUNK_SIZE, data.length - offset);
+                outputStream.write((Integer.toHexString(length) + "\r\n").getBytes("US-ASCII"));
+                outputStream.write(data, offset, length);
+                outputStream.write("\r\n".getBytes("US-ASCII"));
+            }
+            outputStream.write("0\r\n\r\n".getBytes("US-ASCII"));
+        }else{
+            outputStream.write(data);
+        }
+        sentBytes.addAndGet(data.length);
+    }
+
+    private Entry findEntry(String requestLine){
+        // GET /image/12.jpg HTTP/1.1
+        String[] items = requestLine.split(" ");
+        if(items.length < 2 || !items[1].startsWith("/image/") || !items[1].endsWith(".jpg")){
+            return null;
+        }
+        try {
+            int index = Integer.parseInt(items[1].substring("/image/".length(), items[1].length() - ".jpg".length()));
+            return index >= 0 && index < entries.size() ? entries.get(index) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeHead(OutputStream outputStream, int code, String message, int contentLength, boolean chunked, boolean keepAlive) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("HTTP/1.1 ").append(code).append(" ").append(message).append("\r\n");
+        builder.append("Content-Type: image/jpeg\r\n");
+        if(chunked){
+            builder.append("Transfer-Encoding: chunked\r\n");
+        }else{
+            builder.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        builder.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        builder.append("\r\n");
+        outputStream.write(builder.toString().getBytes("US-ASCII"));
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int b;
+        while((b = inputStream.read()) != -1){
+            if(b == '\n'){
+                int length = builder.length();
+                if(length > 0 && builder.charAt(length - 1) == '\r'){
+                    builder.setLength(length - 1);
+                }
+                return builder.toString();
+            }
+            builder.append((char) b);
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    /**
+     * 一张图片以及它的响应方式
+     */
+    public static class Entry {
+        private byte[] data;
+        private boolean chunked;
+        private int delay;
+        private int errorCode;
+        private int failTimes;
+        private AtomicInteger hitCount = new AtomicInteger();
+
+        /**
+         * 创建图片
+         * @param data 图片数据
+         * @param chunked 是否用chunked方式返回
+         * @param delay 返回响应头之前等待多少毫秒
+         * @param errorCode 大于0时总是返回这个状态码
+         * @param failTimes 前几次请求返回503，用来触发重试
+         */
+        public Entry(byte[] data, boolean chunked, int delay, int errorCode, int failTimes) {
+            this.data = data;
+            this.chunked = chunked;
+            this.delay = delay;
+            this.errorCode = errorCode;
+            this.failTimes = failTimes;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isChunked() {
+            return chunked;
+        }
+
+        public int getDelay() {
+            return delay;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public int getFailTimes() {
+            return failTimes;
+        }
+
+        /**
+         * 重新开始计算请求次数，这样每一轮测试中前几次请求都会失败
+         */
+        public void resetHitCount(){
+            hitCount.set(0);
+        }
+    }
+}
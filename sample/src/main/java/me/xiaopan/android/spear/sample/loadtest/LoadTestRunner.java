@@ -0,0 +1,398 @@
+/*
+ * Copyright 2013 Peng fei Pan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.xiaopan.android.spear.sample.loadtest;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import me.xiaopan.android.spear.Configuration;
+import me.xiaopan.android.spear.Spear;
+import me.xiaopan.android.spear.cache.EncodedCache;
+import me.xiaopan.android.spear.cache.LruDiskCache;
+import me.xiaopan.android.spear.download.DefaultRetryPolicy;
+import me.xiaopan.android.spear.download.ImageDownloader;
+import me.xiaopan.android.spear.request.DownloadListener;
+import me.xiaopan.android.spear.request.LoadListener;
+import me.xiaopan.android.spear.request.Request;
+import me.xiaopan.android.spear.request.RequestMetrics;
+import me.xiaopan.android.spear.request.RequestFuture;
+import me.xiaopan.android.spear.request.RequestMetricsListener;
+import me.xiaopan.android.spear.util.FailureCause;
+
+/**
+ * 负载测试执行器，按固定速率通过Spear发起download()或load()请求，请求经过DefaultRequestExecutor、ImageDownloader和磁盘缓存的完整流程
+ * <br>使用独立的Spear实例和缓存目录，不会修改全局的配置，也不会删除应用自己的缓存
+ * <br>通过RequestMetricsListener收集每个请求的耗时、重试次数和下载字节数，每一轮开始前会清空缓存，保证不同的ImageDownloader之间可以比较
+ */
+public class LoadTestRunner {
+    private static final long MAX_WAIT_TIME = 5*60*1000;
+    private static final String CACHE_DIRECTORY_NAME = "spear_load_test";
+
+    private Spear spear;
+    private File cacheDir;
+    private ImageServer imageServer;
+    private int requestCount = 500;
+    private int requestRate = 50;
+    private boolean load;
+    private int maxWidth = 480;
+    private int maxHeight = 800;
+    private long seed = 1;
+
+    public LoadTestRunner(Context context, ImageServer imageServer) {
+        this.spear = Spear.newInstance(context);
+        this.imageServer = imageServer;
+        this.cacheDir = new File(context.getCacheDir(), CACHE_DIRECTORY_NAME);
+        if(!cacheDir.isDirectory() && !cacheDir.mkdirs()){
+            throw new IllegalStateException("创建缓存目录失败：" + cacheDir.getPath());
+        }
+        spear.getConfiguration().setDiskCache(new LruDiskCache(context, cacheDir));
+    }
+
+    /**
+     * 设置每一轮发起多少个请求，默认500
+     */
+    public LoadTestRunner setRequestCount(int requestCount) {
+        this.requestCount = requestCount;
+        return this;
+    }
+
+    /**
+     * 设置每秒发起多少个请求，默认50
+     */
+    public LoadTestRunner setRequestRate(int requestRate) {
+        this.requestRate = requestRate;
+        return this;
+    }
+
+    /**
+     * 设置是否使用load()，默认为false，使用download()只下载不解码
+     */
+    public LoadTestRunner setLoad(boolean load) {
+        this.load = load;
+        return this;
+    }
+
+    /**
+     * 设置load()时的最大尺寸，默认480x800
+     */
+    public LoadTestRunner setMaxsize(int maxWidth, int maxHeight) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        return this;
+    }
+
+    /**
+     * 设置挑选图片时用的随机种子，种子相同每一轮请求的图片顺序就相同
+     */
+    public LoadTestRunner setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * 使用指定的ImageDownloader跑一轮，会阻塞到所有请求结束或超时，不能在主线程调用
+     * @param name 名称，用在报告里
+     * @param imageDownloader 图片下载器，会给它设置一个新的DefaultRetryPolicy，避免上一轮的熔断状态影响这一轮
+     */
+    public Report run(String name, ImageDownloader imageDownloader) throws InterruptedException {
+        Configuration configuration = spear.getConfiguration();
+
+        // 清空缓存，保证每一轮都从网络开始，缓存目录是自己的，可以整个删掉
+        List<ImageServer.Entry> entries = imageServer.getEntries();
+        for(ImageServer.Entry entry : entries){
+            entry.resetHitCount();
+        }
+        configuration.getMemoryCache().clear();
+        EncodedCache encodedCache = configuration.getEncodedCache();
+        if(encodedCache != null){
+            encodedCache.clear();
+        }
+        if(!LruDiskCache.deleteFile(cacheDir)){
+            throw new IllegalStateException("删除缓存目录失败：" + cacheDir.getPath());
+        }
+
+        final Report report = new Report(name, requestCount);
+        final CountDownLatch latch = new CountDownLatch(requestCount);
+        imageDownloader.setRetryPolicy(new DefaultRetryPolicy());
+        configuration.setImageDownloader(imageDownloader);
+        configuration.setRequestMetricsListener(new RequestMetricsListener() {
+            @Override
+            public void onRequestFinished(RequestMetrics metrics) {
+                report.add(metrics);
+                latch.countDown();
+            }
+        });
+
+        Set<String> requestedUris = new HashSet<String>();
+        Random random = new Random(seed);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(requestRate, 1);
+        long startTime = System.nanoTime();
+        try{
+            for(int w = 0; w < requestCount; w++){
+                long waitNanos = startTime + w * intervalNanos - System.nanoTime();
+                if(waitNanos > 0){
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+
+                String uri = imageServer.getUri(random.nextInt(entries.size()));
+                requestedUris.add(uri);
+                RequestFuture requestFuture;
+                if(load){
+                    requestFuture = spear.load(uri, new RecycleLoadListener()).maxsize(maxWidth, maxHeight).fire();
+                }else{
+                    requestFuture = spear.download(uri, new EmptyDownloadListener()).fire();
+                }
+                if(requestFuture == null){
+                    // 没有创建请求也就不会有统计数据
+                    report.reject();
+                    latch.countDown();
+                }
+            }
+            if(!latch.await(MAX_WAIT_TIME, TimeUnit.MILLISECONDS)){
+                report.timeout = true;
+            }
+            report.elapsedNanos = System.nanoTime() - startTime;
+        }finally{
+            configuration.setRequestMetricsListener(null);
+        }
+
+        for(String uri : requestedUris){
+            File cacheFile = configuration.getDiskCache().getCacheFileByUri(uri);
+            if(cacheFile != null && cacheFile.exists()){
+                report.diskCacheBytes += cacheFile.length();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * 测试结束后调用，删除缓存目录
+     */
+    public void release(){
+        spear.getConfiguration().getMemoryCache().clear();
+        LruDiskCache.deleteFile(cacheDir);
+    }
+
+    /**
+     * 生成测试用的图片，尺寸从小图标到大图都有，响应方式按比例混合：四分之一chunked，5%慢响应，3%出错，5%前一次返回503
+     * @param count 图片数量
+     * @param seed 随机种子
+     */
+    public static List<ImageServer.Entry> createCorpus(int count, long seed){
+        int[][] sizes = {{96, 96}, {240, 320}, {480, 640}, {720, 1280}, {1080, 1920}, {2048, 1536}};
+        Random random = new Random(seed);
+        List<ImageServer.Entry> entries = new ArrayList<ImageServer.Entry>(count);
+        for(int w = 0; w < count; w++){
+            int[] size = sizes[random.nextInt(sizes.length)];
+            byte[] data = createJpeg(size[0], size[1], random);
+
+            int percent = random.nextInt(100);
+            boolean chunked = random.nextInt(4) == 0;
+            int delay = percent < 5 ? 300 + random.nextInt(1700) : 0;
+            int errorCode = percent >= 5 && percent < 8 ? (random.nextBoolean() ? 404 : 500) : 0;
+            int failTimes = percent >= 8 && percent < 13 ? 1 : 0;
+            entries.add(new ImageServer.Entry(data, chunked, delay, errorCode, failTimes));
+        }
+        return entries;
+    }
+
+    private static byte[] createJpeg(int width, int height, Random random){
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        canvas.drawColor(0xff000000 | random.nextInt());
+        // 画一些随机的色块，让压缩后的大小接近真实图片
+        for(int w = 0; w < 200; w++){
+            paint.setColor(0xff000000 | random.nextInt());
+            int left = random.nextInt(width);
+            int top = random.nextInt(height);
+            canvas.drawRect(left, top, left + 1 + random.nextInt(width / 4 + 1), top + 1 + random.nextInt(height / 4 + 1), paint);
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 85, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 一轮测试的结果
+     */
+    public static class Report {
+        private String name;
+        private int requestCount;
+        private float[] latencies;
+        private int latencyCount;
+        private int completedCount;
+        private int failedCount;
+        private int canceledCount;
+        private int rejectCount;
+        private int retryCount;
+        private long downloadBytes;
+        private long diskCacheBytes;
+        private long elapsedNanos;
+        private boolean timeout;
+
+        private Report(String name, int requestCount) {
+            this.name = name;
+            this.requestCount = requestCount;
+            this.latencies = new float[requestCount];
+        }
+
+        private synchronized void add(RequestMetrics metrics){
+            float latency = metrics.getElapsed(RequestMetrics.Stage.QUEUED, RequestMetrics.Stage.FINISHED);
+            if(latency >= 0 && latencyCount < latencies.length){
+                latencies[latencyCount++] = latency;
+            }
+            if(metrics.getStatus() == Request.Status.COMPLETED){
+                completedCount++;
+            }else if(metrics.getStatus() == Request.Status.CANCELED){
+                canceledCount++;
+            }else{
+                failedCount++;
+            }
+            if(metrics.getAttemptCount() > 1){
+                retryCount += metrics.getAttemptCount() - 1;
+            }
+            if(metrics.getDownloadBytes() > 0){
+                downloadBytes += metrics.getDownloadBytes();
+            }
+        }
+
+        private synchronized void reject(){
+            rejectCount++;
+        }
+
+        /**
+         * 获取耗时的百分位数，单位毫秒
+         * @param percentile 0到100
+         */
+        public synchronized float getLatency(float percentile){
+            if(latencyCount == 0){
+                return -1;
+            }
+            float[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * latencyCount) - 1;
+            return sorted[Math.max(0, Math.min(index, latencyCount - 1))];
+        }
+
+        /**
+         * 获取吞吐量，每秒完成多少个请求
+         */
+        public synchronized float getThroughput(){
+            return elapsedNanos > 0 ? completedCount / (elapsedNanos / 1000000000f) : 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized int getCompletedCount() {
+            return completedCount;
+        }
+
+        public synchronized int getFailedCount() {
+            return failedCount + rejectCount;
+        }
+
+        public synchronized int getRetryCount() {
+            return retryCount;
+        }
+
+        public synchronized long getDiskCacheBytes() {
+            return diskCacheBytes;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format(Locale.US,
+                    "%s%s: requests=%d, completed=%d, failed=%d, canceled=%d, retries=%d, "
+                            + "p50=%.1fms, p95=%.1fms, p99=%.1fms, throughput=%.1f/s, downloaded=%dKB, diskCache=%dKB",
+                    name, timeout ? "(timeout)" : "", requestCount, completedCount, failedCount + rejectCount, canceledCount, retryCount,
+                    getLatency(50), getLatency(95), getLatency(99), getThroughput(), downloadBytes / 1024, diskCacheBytes / 1024);
+        }
+    }
+
+    private static class EmptyDownloadListener implements DownloadListener {
+        @Override
+        public void onStarted() {
+
+        }
+
+        @Override
+        public void onCompleted(File cacheFile, ImageFrom imageFrom) {
+
+        }
+
+        @Override
+        public void onCompleted(byte[] data, ImageFrom imageFrom) {
+
+        }
+
+        @Override
+        public void onFailed(FailureCause failureCause) {
+
+        }
+
+        @Override
+        public void onCanceled() {
+
+        }
+    }
+
+    /**
+     * load()的结果用不到，直接回收掉，避免测试过程中内存溢出
+     */
+    private static class RecycleLoadListener implements LoadListener {
+        @Override
+        public void onStarted() {
+
+        }
+
+        @Override
+        public void onCompleted(Bitmap bitmap, ImageFrom imageFrom) {
+            if(bitmap != null && !bitmap.isRecycled()){
+                bitmap.recycle();
+            }
+        }
+
+        @Override
+        public void onFailed(FailureCause failureCause) {
+
+        }
+
+        @Override
+        public void onCanceled() {
+
+        }
+    }
+}